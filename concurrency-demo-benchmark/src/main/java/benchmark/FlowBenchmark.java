@@ -0,0 +1,132 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.FlowConsumer;
+import internals.FlowProducer;
+import internals.RateSpec;
+import internals.WidgetStatus;
+
+/**
+ * Drives {@link FlowProducer}s and {@link FlowConsumer}s unthrottled, the
+ * Flow counterpart of {@link PipelineBenchmark#pipeline()}<br>
+ * <br>
+ * Each operation is one Widget moved end to end, with the same producer,
+ * consumer and batch grid. {@code credit} plays the part of the queue
+ * capacity, split evenly between the producers as in Main. The default
+ * grid is Main's defaults, as for PipelineBenchmark only the time per Widget
+ * is measured and the latency of single Widgets is printed from
+ * {@link WidgetStatus} at the end of each trial. Compare both with e.g.
+ * {@code java -jar target/benchmarks.jar "(Pipeline|Flow)Benchmark.pipeline" -p consumers=1,2,4 -p batchSize=1,64}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlowBenchmark {
+
+	// how often the benchmark thread checks the consumer totals
+	private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+	// total Widgets in flight, like queueCapacity, defaults match Main
+	@Param({ "300" })
+	public int credit;
+
+	@Param({ "3" })
+	public int stringProducers;
+
+	@Param({ "2" })
+	public int longProducers;
+
+	@Param({ "2" })
+	public int consumers;
+
+	@Param({ "1" })
+	public int batchSize;
+
+	private WidgetStatus widgetStatus;
+	private ScheduledExecutorService producerScheduler;
+	private ScheduledExecutorService consumerScheduler;
+	private List<FlowProducer> producers;
+
+	@Setup(Level.Trial)
+	public void start() {
+		widgetStatus = new WidgetStatus();
+		int producerCount = stringProducers + longProducers;
+		// as many threads as PipelineBenchmark
+		producerScheduler = Executors.newScheduledThreadPool(producerCount);
+		consumerScheduler = Executors.newScheduledThreadPool(consumers);
+		ConnectorSettings settings = ConnectorSettings.builder().rate(RateSpec.unthrottled()).build();
+		ConnectorSettings consumerSettings = ConnectorSettings.builder().rate(RateSpec.unthrottled())
+				.batchSize(batchSize).build();
+		List<FlowConsumer> flowConsumers = new ArrayList<>();
+		for (int i = 0; i < consumers; i++) {
+			flowConsumers.add(new FlowConsumer(i + 1, widgetStatus, consumerSettings,
+					Math.max(batchSize, credit / producerCount), consumerScheduler));
+		}
+		producers = new ArrayList<>();
+		for (int i = 0; i < producerCount; i++) {
+			Connector connector = i < stringProducers ? Connector.STRING_PRODUCER : Connector.LONG_PRODUCER;
+			FlowProducer producer = new FlowProducer(connector, i + 1, widgetStatus, settings, producerScheduler);
+			producers.add(producer);
+			producer.subscribe(flowConsumers.get(i % consumers).subscriber());
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws InterruptedException {
+		producers.forEach(FlowProducer::stop);
+		producerScheduler.shutdownNow();
+		consumerScheduler.shutdownNow();
+		consumerScheduler.awaitTermination(10, TimeUnit.SECONDS);
+		PipelineBenchmark.printLatency(widgetStatus);
+	}
+
+	/**
+	 * Wait for the consumers to finish another
+	 * {@link PipelineBenchmark#BATCH_SIZE} Widgets
+	 *
+	 * @return The consumed total, so the JIT cannot drop the loop
+	 */
+	@Benchmark
+	@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+	@OperationsPerInvocation(PipelineBenchmark.BATCH_SIZE)
+	public long pipeline() {
+		long target = consumed() + PipelineBenchmark.BATCH_SIZE;
+		long current;
+		while ((current = consumed()) < target) {
+			LockSupport.parkNanos(POLL_NANOS);
+		}
+		return current;
+	}
+
+	private long consumed() {
+		return widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName())
+				+ widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName());
+	}
+
+}
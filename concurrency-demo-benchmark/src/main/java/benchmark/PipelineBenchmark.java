@@ -0,0 +1,180 @@
+package benchmark;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.Consumer;
+import internals.LongProducer;
+import internals.QueueType;
+import internals.RateSpec;
+import internals.StringProducer;
+import internals.WaitStrategy;
+import internals.Widget;
+import internals.WidgetStatus;
+
+/**
+ * Drives {@link StringProducer}, {@link LongProducer} and {@link Consumer}
+ * through a shared BlockingQueue unthrottled.<br>
+ * <br>
+ * {@link #pipeline()} waits for the consumers to finish {@link #BATCH_SIZE}
+ * Widgets, so each operation is one Widget moved end to end. Throughput is
+ * Widgets per microsecond and AverageTime the mean time per Widget. JMH can
+ * only time whole batches, so the latency of single Widgets comes from the
+ * consumers' histograms in {@link WidgetStatus}, printed at the end of each
+ * trial.<br>
+ * {@link #putUnderLoad()} times a single put against the saturated queue.<br>
+ * <br>
+ * The default grid is the queue types at Main's defaults, sweep the other
+ * parameters from the command line, e.g.
+ * {@code java -jar target/benchmarks.jar -p consumers=1,2,4 -p queueCapacity=16,300,4096 -p waitStrategy=SPIN,PARK}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineBenchmark {
+
+	static final int BATCH_SIZE = 1_000;
+
+	// how often the benchmark thread checks the consumer totals
+	private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+	@Param({ "LINKED", "RING", "LANED" })
+	public QueueType queueType;
+
+	// defaults match Main, see the class comment for wider sweeps
+	@Param({ "PARK" })
+	public WaitStrategy waitStrategy;
+
+	@Param({ "300" })
+	public int queueCapacity;
+
+	@Param({ "3" })
+	public int stringProducers;
+
+	@Param({ "2" })
+	public int longProducers;
+
+	@Param({ "2" })
+	public int consumers;
+
+	@Param({ "1" })
+	public int batchSize;
+
+	// 0 creates a String and Widget per put, run -p stringPoolSize=0,1024 with -prof gc to compare the allocation
+	@Param({ "0" })
+	public int stringPoolSize;
+
+	private BlockingQueue<Widget<? extends Object>> queue;
+	private WidgetStatus widgetStatus;
+	private ExecutorService stringExecutor;
+	private ExecutorService longExecutor;
+	private ExecutorService consumerExecutor;
+	private Widget<String> probe;
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Setup(Level.Trial)
+	public void start() {
+		queue = queueType.create(queueCapacity, waitStrategy);
+		widgetStatus = new WidgetStatus();
+		probe = new Widget<>("probe");
+		ConnectorSettings settings = ConnectorSettings.builder().rate(RateSpec.unthrottled())
+				.stringPoolSize(stringPoolSize).build();
+		ConnectorSettings consumerSettings = ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(batchSize).build();
+
+		stringExecutor = start(new StringProducer((BlockingQueue) queue, Connector.STRING_PRODUCER, widgetStatus,
+				settings), stringProducers);
+		longExecutor = start(new LongProducer((BlockingQueue) queue, Connector.LONG_PRODUCER, widgetStatus,
+				settings), longProducers);
+		consumerExecutor = start(new Consumer(queue, Connector.GENERAL_CONSUMER, widgetStatus, consumerSettings),
+				consumers);
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws InterruptedException {
+		stringExecutor.shutdownNow();
+		longExecutor.shutdownNow();
+		consumerExecutor.shutdownNow();
+		consumerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		printLatency(widgetStatus);
+	}
+
+	/**
+	 * Wait for the consumers to finish another {@link #BATCH_SIZE} Widgets
+	 *
+	 * @return The consumed total, so the JIT cannot drop the loop
+	 */
+	@Benchmark
+	@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+	@OperationsPerInvocation(BATCH_SIZE)
+	public long pipeline() {
+		long target = consumed() + BATCH_SIZE;
+		long current;
+		while ((current = consumed()) < target) {
+			LockSupport.parkNanos(POLL_NANOS);
+		}
+		return current;
+	}
+
+	/**
+	 * Put one extra Widget while the producers keep the queue saturated
+	 *
+	 * @throws InterruptedException
+	 *             if JMH interrupts the benchmark thread
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	public void putUnderLoad() throws InterruptedException {
+		queue.put(probe);
+	}
+
+	private long consumed() {
+		return widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName())
+				+ widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName());
+	}
+
+	/**
+	 * Print the consumers' latency per type, from creation to consumption of
+	 * each Widget, over the whole trial including the warmup
+	 *
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} of the trial
+	 */
+	static void printLatency(WidgetStatus widgetStatus) {
+		for (String type : new String[] { String.class.getSimpleName(), Long.class.getSimpleName() }) {
+			System.out.println(type + " Widget latency: "
+					+ widgetStatus.getLatencySummary(ConnectionType.CONSUMER, type));
+		}
+	}
+
+	private static ExecutorService start(Runnable runnable, int threadCount) {
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			executor.execute(runnable);
+		}
+		return executor;
+	}
+
+}
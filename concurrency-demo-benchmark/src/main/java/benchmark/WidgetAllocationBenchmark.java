@@ -0,0 +1,58 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import internals.StringProducer;
+import internals.TextBuffer;
+import internals.Widget;
+import internals.WidgetPool;
+
+/**
+ * One String {@link Widget} built the way {@link StringProducer} builds it
+ * and released the way the Consumer does, without a queue in between.<br>
+ * <br>
+ * Run with {@code -prof gc}, {@code gc.alloc.rate.norm} is the garbage per
+ * Widget: a String, its bytes and the Widget for {@link #plain(Blackhole)},
+ * nothing once the pool is warm for {@link #pooled(Blackhole)}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WidgetAllocationBenchmark {
+
+	// what a producer thread's runnable key looks like
+	private static final String SUFFIX = "-1-PRODUCER-StringProducer";
+
+	private final WidgetPool pool = new WidgetPool(16, 64);
+	private long i;
+
+	@Benchmark
+	public void plain(Blackhole blackhole) {
+		Widget<String> widget = new Widget<String>("String" + i++ + SUFFIX, System.nanoTime());
+		blackhole.consume(widget);
+		widget.recycle();
+	}
+
+	@Benchmark
+	public void pooled(Blackhole blackhole) {
+		Widget<TextBuffer> widget = pool.acquire(System.nanoTime());
+		widget.get().append("String").append(i++).append(SUFFIX);
+		blackhole.consume(widget);
+		widget.recycle();
+	}
+
+}
@@ -0,0 +1,190 @@
+package internals;
+
+/**
+ * Limits and thresholds of a {@link ConsumerAutoscaler}<br>
+ * Instances are immutable, create them with {@link #builder()}.
+ */
+public final class AutoscalerSettings {
+
+	private final int minWorkers;
+	private final int maxWorkers;
+	private final long sampleMillis;
+	private final double highWatermark;
+	private final double lowWatermark;
+	private final int samplesToScale;
+	private final long cooldownMillis;
+
+	private AutoscalerSettings(Builder builder) {
+		this.minWorkers = builder.minWorkers;
+		this.maxWorkers = builder.maxWorkers;
+		this.sampleMillis = builder.sampleMillis;
+		this.highWatermark = builder.highWatermark;
+		this.lowWatermark = builder.lowWatermark;
+		this.samplesToScale = builder.samplesToScale;
+		this.cooldownMillis = builder.cooldownMillis;
+	}
+
+	/**
+	 * @return A new {@link Builder} initialized with the default values
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return Fewest workers kept running
+	 */
+	public int getMinWorkers() {
+		return minWorkers;
+	}
+
+	/**
+	 * @return Most workers ever running
+	 */
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+
+	/**
+	 * @return Milliseconds between samples
+	 */
+	public long getSampleMillis() {
+		return sampleMillis;
+	}
+
+	/**
+	 * @return Fraction of the queue capacity at or above which the queue is
+	 *         backing up
+	 */
+	public double getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * @return Fraction of the queue capacity at or below which workers are
+	 *         idle
+	 */
+	public double getLowWatermark() {
+		return lowWatermark;
+	}
+
+	/**
+	 * @return Consecutive samples past a watermark before scaling
+	 */
+	public int getSamplesToScale() {
+		return samplesToScale;
+	}
+
+	/**
+	 * @return Milliseconds after a scaling decision before the next one
+	 */
+	public long getCooldownMillis() {
+		return cooldownMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "workers=" + minWorkers + "-" + maxWorkers + ", sampleMillis=" + sampleMillis + ", watermarks="
+				+ lowWatermark + "-" + highWatermark + ", samplesToScale=" + samplesToScale + ", cooldownMillis="
+				+ cooldownMillis;
+	}
+
+	/**
+	 * Builder for {@link AutoscalerSettings}<br>
+	 */
+	public static final class Builder {
+
+		private int minWorkers = 1;
+		private int maxWorkers = 8;
+		private long sampleMillis = 500;
+		private double highWatermark = 0.5;
+		private double lowWatermark = 0.05;
+		private int samplesToScale = 3;
+		private long cooldownMillis = 2_000;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param minWorkers
+		 *            Fewest workers, at least 1
+		 * @param maxWorkers
+		 *            Most workers, at least minWorkers
+		 * @return this Builder
+		 */
+		public Builder workers(int minWorkers, int maxWorkers) {
+			if (minWorkers < 1 || maxWorkers < minWorkers) {
+				throw new IllegalArgumentException("Bad worker limits: " + minWorkers + "-" + maxWorkers);
+			}
+			this.minWorkers = minWorkers;
+			this.maxWorkers = maxWorkers;
+			return this;
+		}
+
+		/**
+		 * @param sampleMillis
+		 *            Milliseconds between samples
+		 * @return this Builder
+		 */
+		public Builder sampleMillis(long sampleMillis) {
+			if (sampleMillis < 1) {
+				throw new IllegalArgumentException("sampleMillis must be positive: " + sampleMillis);
+			}
+			this.sampleMillis = sampleMillis;
+			return this;
+		}
+
+		/**
+		 * The gap between the watermarks is the hysteresis band where the
+		 * worker count stays put<br>
+		 * 
+		 * @param lowWatermark
+		 *            Queue fill fraction at or below which to scale down
+		 * @param highWatermark
+		 *            Queue fill fraction at or above which to scale up
+		 * @return this Builder
+		 */
+		public Builder watermarks(double lowWatermark, double highWatermark) {
+			if (lowWatermark < 0 || highWatermark > 1 || lowWatermark >= highWatermark) {
+				throw new IllegalArgumentException("Bad watermarks: " + lowWatermark + "-" + highWatermark);
+			}
+			this.lowWatermark = lowWatermark;
+			this.highWatermark = highWatermark;
+			return this;
+		}
+
+		/**
+		 * @param samplesToScale
+		 *            Consecutive samples past a watermark before scaling
+		 * @return this Builder
+		 */
+		public Builder samplesToScale(int samplesToScale) {
+			if (samplesToScale < 1) {
+				throw new IllegalArgumentException("samplesToScale must be positive: " + samplesToScale);
+			}
+			this.samplesToScale = samplesToScale;
+			return this;
+		}
+
+		/**
+		 * @param cooldownMillis
+		 *            Milliseconds after a scaling decision before the next one
+		 * @return this Builder
+		 */
+		public Builder cooldownMillis(long cooldownMillis) {
+			if (cooldownMillis < 0) {
+				throw new IllegalArgumentException("cooldownMillis must not be negative: " + cooldownMillis);
+			}
+			this.cooldownMillis = cooldownMillis;
+			return this;
+		}
+
+		/**
+		 * @return The immutable {@link AutoscalerSettings}
+		 */
+		public AutoscalerSettings build() {
+			return new AutoscalerSettings(this);
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package internals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A producer thread's side of the queue, applying its
+ * {@link BackpressurePolicy}<br>
+ * One instance per producer thread, not thread safe.
+ *
+ * @param <T>
+ *            The Widget value type the producer creates
+ */
+final class Backpressure<T> {
+
+	private final BlockingQueue<Widget<T>> queue;
+	private final BackpressurePolicy policy;
+	private final long blockTimeoutNanos;
+	private final int sampleEvery;
+	private final OverflowStore<Widget<?>> overflowStore;
+	private final TraceRecorder traceRecorder;
+	private final WidgetStatus widgetStatus;
+	private final ConnectionType connectionType;
+	private final int id;
+	private final int widgetKeyId;
+	private final String widgetType;
+	// producer key ids per type for evicted Widgets that do not carry their own
+	private final Map<String, Integer> fallbackKeyIds = new HashMap<>();
+	private int overflowed;
+
+	/**
+	 * @param queue
+	 *            The queue the producer puts to
+	 * @param settings
+	 *            {@link ConnectorSettings} with the policy and its options
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where the counters go
+	 * @param widgetStatusKey
+	 *            The producer's own {@link WidgetStatusKey}
+	 */
+	Backpressure(BlockingQueue<Widget<T>> queue, ConnectorSettings settings, WidgetStatus widgetStatus,
+			WidgetStatusKey widgetStatusKey) {
+		this.queue = queue;
+		this.policy = settings.getBackpressure();
+		this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.getBlockTimeoutMillis());
+		this.sampleEvery = settings.getSampleEvery();
+		this.overflowStore = settings.getOverflowStore();
+		this.traceRecorder = settings.getTraceRecorder();
+		this.widgetStatus = widgetStatus;
+		this.connectionType = widgetStatusKey.getConnectionType();
+		this.id = widgetStatusKey.getId();
+		this.widgetKeyId = widgetStatus.register(widgetStatusKey);
+		this.widgetType = widgetStatusKey.getWidgetType();
+	}
+
+	/**
+	 * Put the Widget according to the policy, recording it first when the
+	 * settings have a {@link TraceRecorder}<br>
+	 * 
+	 * @param widget
+	 *            The Widget to put
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room
+	 */
+	void put(Widget<T> widget) throws InterruptedException {
+		if (traceRecorder != null) {
+			// before the policy, a trace holds what was produced including what gets dropped
+			traceRecorder.record(id, widget);
+		}
+		widget.setProducerKeyId(widgetKeyId);
+		policy.put(this, widget);
+	}
+
+	boolean offer(Widget<T> widget) {
+		return queue.offer(widget);
+	}
+
+	void block(Widget<T> widget) throws InterruptedException {
+		long start = System.nanoTime();
+		try {
+			queue.put(widget);
+		} finally {
+			widgetStatus.addBlockedNanos(widgetKeyId, System.nanoTime() - start);
+		}
+	}
+
+	boolean blockWithTimeout(Widget<T> widget) throws InterruptedException {
+		long start = System.nanoTime();
+		try {
+			return queue.offer(widget, blockTimeoutNanos, TimeUnit.NANOSECONDS);
+		} finally {
+			widgetStatus.addBlockedNanos(widgetKeyId, System.nanoTime() - start);
+		}
+	}
+
+	void drop(Widget<T> widget) {
+		widgetStatus.addDropped(widgetKeyId, 1);
+		widget.recycle();
+	}
+
+	void dropOldest() {
+		Widget<T> victim = queue.poll();
+		if (victim != null) {
+			// charge the drop to the producer that put the victim so its totals still add up
+			int victimKeyId = victim.getProducerKeyId();
+			widgetStatus.addDropped(victimKeyId >= 0 ? victimKeyId : fallbackKeyIdFor(victim), 1);
+			victim.recycle();
+		}
+	}
+
+	boolean sampled() {
+		return ++overflowed % sampleEvery == 0;
+	}
+
+	boolean hasSpilled() {
+		return !overflowStore.isEmpty();
+	}
+
+	boolean spill(Widget<T> widget) {
+		if (overflowStore.offer(widget)) {
+			widgetStatus.addSpilled(widgetKeyId, 1);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Key for a victim that lost its producer, one a journal wrote to disk and
+	 * read back: this producer's own key if the type matches, else the first
+	 * producer key of the type, so per type totals still add up. Only a type
+	 * no producer registered gets a new key.
+	 */
+	private int fallbackKeyIdFor(Widget<?> widget) {
+		String type = widget.getTypeName();
+		if (type.equals(widgetType)) {
+			return widgetKeyId;
+		}
+		return fallbackKeyIds.computeIfAbsent(type, this::producerKeyId);
+	}
+
+	private int producerKeyId(String type) {
+		int count = widgetStatus.getWidgetKeyCount();
+		for (int keyId = 0; keyId < count; keyId++) {
+			WidgetStatusKey key = widgetStatus.getWidgetKey(keyId);
+			if (key.getConnectionType() == connectionType && key.getWidgetType().equals(type)) {
+				return keyId;
+			}
+		}
+		return widgetStatus.register(new WidgetStatusKey(connectionType, type, id));
+	}
+
+}
@@ -0,0 +1,96 @@
+package internals;
+
+/**
+ * What a producer does when the queue is full<br>
+ * Every policy first tries a plain offer, so the clock is only read and the
+ * counters only touched when the queue actually pushes back. Dropped,
+ * spilled and blocked time are counted per producer in {@link WidgetStatus}.
+ */
+public enum BackpressurePolicy {
+	/**
+	 * Wait for room as long as it takes
+	 */
+	BLOCK {
+		@Override
+		<T> void put(Backpressure<T> backpressure, Widget<T> widget) throws InterruptedException {
+			if (!backpressure.offer(widget)) {
+				backpressure.block(widget);
+			}
+		}
+	},
+	/**
+	 * Wait up to {@link ConnectorSettings#getBlockTimeoutMillis()}, then drop
+	 * the Widget
+	 */
+	BLOCK_TIMEOUT {
+		@Override
+		<T> void put(Backpressure<T> backpressure, Widget<T> widget) throws InterruptedException {
+			if (!backpressure.offer(widget) && !backpressure.blockWithTimeout(widget)) {
+				backpressure.drop(widget);
+			}
+		}
+	},
+	/**
+	 * Drop the Widget being put
+	 */
+	DROP_NEWEST {
+		@Override
+		<T> void put(Backpressure<T> backpressure, Widget<T> widget) {
+			if (!backpressure.offer(widget)) {
+				backpressure.drop(widget);
+			}
+		}
+	},
+	/**
+	 * Drop the Widget at the head of the queue to make room
+	 */
+	DROP_OLDEST {
+		@Override
+		<T> void put(Backpressure<T> backpressure, Widget<T> widget) {
+			while (!backpressure.offer(widget)) {
+				backpressure.dropOldest();
+			}
+		}
+	},
+	/**
+	 * Keep one in {@link ConnectorSettings#getSampleEvery()} Widgets while the
+	 * queue is full, waiting for room for those, and drop the rest
+	 */
+	SAMPLE {
+		@Override
+		<T> void put(Backpressure<T> backpressure, Widget<T> widget) throws InterruptedException {
+			if (!backpressure.offer(widget)) {
+				if (backpressure.sampled()) {
+					backpressure.block(widget);
+				} else {
+					backpressure.drop(widget);
+				}
+			}
+		}
+	},
+	/**
+	 * Put the Widget in the {@link ConnectorSettings#getOverflowStore()},
+	 * waiting for room only if that is full too. While anything is spilled new
+	 * Widgets spill as well, so they cannot overtake older ones.
+	 */
+	SPILL {
+		@Override
+		<T> void put(Backpressure<T> backpressure, Widget<T> widget) throws InterruptedException {
+			if ((backpressure.hasSpilled() || !backpressure.offer(widget)) && !backpressure.spill(widget)) {
+				backpressure.block(widget);
+			}
+		}
+	};
+
+	/**
+	 * Put the Widget according to this policy<br>
+	 * 
+	 * @param backpressure
+	 *            The producer's {@link Backpressure}
+	 * @param widget
+	 *            The Widget to put
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room
+	 */
+	abstract <T> void put(Backpressure<T> backpressure, Widget<T> widget) throws InterruptedException;
+}
@@ -1,27 +1,40 @@
 package internals;
 
+import java.util.concurrent.BlockingQueue;
+
 import internals.ConnectionType;
 
 /**
  * Types of producers and consumers that are supported<br>
- * Binds the Runnable class and {@link ConnectionType} to this enum.<br>
- * {@link #STRING_PRODUCER} and {@link #LONG_PRODUCER} are
+ * Binds the Runnable class, {@link ConnectionType} and queue class to this
+ * enum.<br>
+ * {@link #STRING_PRODUCER}, {@link #LONG_PRODUCER},
+ * {@link #PRIMITIVE_LONG_PRODUCER} and {@link #REPLAY_PRODUCER} are
  * {@link ConnectionType#PRODUCER}<br>
- * {@link #GENERAL_CONSUMER} is {@link ConnectionType#CONSUMER}<br>
+ * {@link #GENERAL_CONSUMER} and {@link #PRIMITIVE_LONG_CONSUMER} are
+ * {@link ConnectionType#CONSUMER}<br>
+ * The primitive connectors share a {@link LongRingBuffer} instead of a
+ * BlockingQueue.
  * 
  * @see ConnectionType
  */
 public enum Connector {
-	STRING_PRODUCER(ConnectionType.PRODUCER, StringProducer.class), LONG_PRODUCER(ConnectionType.PRODUCER,
-			LongProducer.class), GENERAL_CONSUMER(ConnectionType.CONSUMER, Consumer.class);
+	STRING_PRODUCER(ConnectionType.PRODUCER, StringProducer.class, BlockingQueue.class),
+	LONG_PRODUCER(ConnectionType.PRODUCER, LongProducer.class, BlockingQueue.class),
+	GENERAL_CONSUMER(ConnectionType.CONSUMER, Consumer.class, BlockingQueue.class),
+	PRIMITIVE_LONG_PRODUCER(ConnectionType.PRODUCER, PrimitiveLongProducer.class, LongRingBuffer.class),
+	PRIMITIVE_LONG_CONSUMER(ConnectionType.CONSUMER, PrimitiveLongConsumer.class, LongRingBuffer.class),
+	REPLAY_PRODUCER(ConnectionType.PRODUCER, ReplayProducer.class, BlockingQueue.class);
 
 	private final ConnectionType connectionType;
 	private final Class<? extends Runnable> runnableClass;
+	private final Class<?> queueClass;
 
 	// ensure class is Runnable
-	Connector(ConnectionType connectionType, Class<? extends Runnable> runnableClass) {
+	Connector(ConnectionType connectionType, Class<? extends Runnable> runnableClass, Class<?> queueClass) {
 		this.connectionType = connectionType;
 		this.runnableClass = runnableClass;
+		this.queueClass = queueClass;
 	}
 
 	/**
@@ -38,6 +51,13 @@ public enum Connector {
 		return runnableClass;
 	}
 
+	/**
+	 * @return The queue class the Runnable constructor takes
+	 */
+	public Class<?> getQueueClass() {
+		return queueClass;
+	}
+
 	/**
 	 * @return A String representation different than name()
 	 */
@@ -0,0 +1,359 @@
+package internals;
+
+import java.util.Objects;
+
+/**
+ * Tunables shared by every Runnable instance bound to a {@link Connector}<br>
+ * Instances are immutable, create them with {@link #builder()}.
+ */
+public final class ConnectorSettings {
+
+	private static final ConnectorSettings DEFAULTS = builder().build();
+
+	// null means the Runnable's own default
+	private final RateSpec rate;
+	private final int batchSize;
+	private final long lingerMillis;
+	private final RetireSignal retireSignal;
+	private final BackpressurePolicy backpressure;
+	private final long blockTimeoutMillis;
+	private final int sampleEvery;
+	private final OverflowStore<Widget<?>> overflowStore;
+	private final HandlerRegistry handlers;
+	private final int stringPoolSize;
+	private final TraceRecorder traceRecorder;
+	private final Trace trace;
+	private final double replaySpeed;
+
+	private ConnectorSettings(Builder builder) {
+		this.rate = builder.rate;
+		this.batchSize = builder.batchSize;
+		this.lingerMillis = builder.lingerMillis;
+		this.retireSignal = builder.retireSignal;
+		this.backpressure = builder.backpressure;
+		this.blockTimeoutMillis = builder.blockTimeoutMillis;
+		this.sampleEvery = builder.sampleEvery;
+		this.overflowStore = builder.overflowStore;
+		this.handlers = builder.handlers;
+		this.stringPoolSize = builder.stringPoolSize;
+		this.traceRecorder = builder.traceRecorder;
+		this.trace = builder.trace;
+		this.replaySpeed = builder.replaySpeed;
+	}
+
+	/**
+	 * @return The settings used when none are provided
+	 */
+	public static ConnectorSettings defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * @return A new {@link Builder} initialized with the default values
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param runnableDefault
+	 *            Pacing of the Runnable when none was set
+	 * @return The {@link RateSpec} producers and consumers pace themselves with
+	 */
+	public RateSpec getRate(RateSpec runnableDefault) {
+		return rate != null ? rate : runnableDefault;
+	}
+
+	/**
+	 * @return Maximum number of Widgets a consumer takes from the queue at once
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return Milliseconds a consumer waits for a partial batch to fill, 0 to
+	 *         process whatever one drain returned
+	 */
+	public long getLingerMillis() {
+		return lingerMillis;
+	}
+
+	/**
+	 * @return {@link RetireSignal} consumers check between batches, null if
+	 *         they only stop when interrupted or idle
+	 */
+	public RetireSignal getRetireSignal() {
+		return retireSignal;
+	}
+
+	/**
+	 * @return {@link BackpressurePolicy} producers apply when the queue is
+	 *         full
+	 */
+	public BackpressurePolicy getBackpressure() {
+		return backpressure;
+	}
+
+	/**
+	 * @return Milliseconds {@link BackpressurePolicy#BLOCK_TIMEOUT} waits
+	 *         before dropping
+	 */
+	public long getBlockTimeoutMillis() {
+		return blockTimeoutMillis;
+	}
+
+	/**
+	 * @return One in how many Widgets {@link BackpressurePolicy#SAMPLE} keeps
+	 *         while the queue is full
+	 */
+	public int getSampleEvery() {
+		return sampleEvery;
+	}
+
+	/**
+	 * @return {@link OverflowStore} for {@link BackpressurePolicy#SPILL}, null
+	 *         for the other policies
+	 */
+	public OverflowStore<Widget<?>> getOverflowStore() {
+		return overflowStore;
+	}
+
+	/**
+	 * @return {@link HandlerRegistry} consumers dispatch Widgets with
+	 */
+	public HandlerRegistry getHandlers() {
+		return handlers;
+	}
+
+	/**
+	 * @return Idle Widgets each {@link StringProducer} keeps in its
+	 *         {@link WidgetPool}, 0 to create a new Widget and String each time
+	 */
+	public int getStringPoolSize() {
+		return stringPoolSize;
+	}
+
+	/**
+	 * @return {@link TraceRecorder} producers record every Widget with, null
+	 *         when not recording
+	 */
+	public TraceRecorder getTraceRecorder() {
+		return traceRecorder;
+	}
+
+	/**
+	 * @return {@link Trace} a {@link ReplayProducer} plays back, null for the
+	 *         other producers
+	 */
+	public Trace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @return Multiple of the recorded pace a {@link ReplayProducer} plays
+	 *         back at, 0 for as fast as the queue takes them
+	 */
+	public double getReplaySpeed() {
+		return replaySpeed;
+	}
+
+	@Override
+	public String toString() {
+		return "rate=" + (rate != null ? rate : "default") + ", batchSize=" + batchSize + ", lingerMillis="
+				+ lingerMillis + ", backpressure=" + backpressure + ", handlers=" + handlers + ", stringPoolSize="
+				+ stringPoolSize + (traceRecorder != null ? ", traceRecorder=" + traceRecorder : "")
+				+ (trace != null ? ", trace=" + trace + ", replaySpeed=" + replaySpeed : "");
+	}
+
+	/**
+	 * Builder for {@link ConnectorSettings}<br>
+	 */
+	public static final class Builder {
+
+		private RateSpec rate;
+		private int batchSize = 1;
+		private long lingerMillis = 0;
+		private RetireSignal retireSignal;
+		private BackpressurePolicy backpressure = BackpressurePolicy.BLOCK;
+		private long blockTimeoutMillis = 100;
+		private int sampleEvery = 10;
+		private OverflowStore<Widget<?>> overflowStore;
+		private HandlerRegistry handlers = HandlerRegistry.defaults();
+		private int stringPoolSize = 0;
+		private TraceRecorder traceRecorder;
+		private Trace trace;
+		private double replaySpeed = 1;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param rate
+		 *            {@link RateSpec} to pace with, e.g.
+		 *            {@link RateSpec#unthrottled()} for benchmarks, null for
+		 *            the default of each Runnable
+		 * @return this Builder
+		 */
+		public Builder rate(RateSpec rate) {
+			this.rate = rate;
+			return this;
+		}
+
+		/**
+		 * @param batchSize
+		 *            Maximum Widgets per consumer batch, 1 processes them one
+		 *            at a time
+		 * @return this Builder
+		 */
+		public Builder batchSize(int batchSize) {
+			if (batchSize < 1) {
+				throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+			}
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * @param lingerMillis
+		 *            Milliseconds to wait for a partial batch to fill
+		 * @return this Builder
+		 */
+		public Builder lingerMillis(long lingerMillis) {
+			if (lingerMillis < 0) {
+				throw new IllegalArgumentException("lingerMillis must not be negative: " + lingerMillis);
+			}
+			this.lingerMillis = lingerMillis;
+			return this;
+		}
+
+		/**
+		 * @param retireSignal
+		 *            {@link RetireSignal} shared by the consumers of one
+		 *            {@link ConsumerAutoscaler}
+		 * @return this Builder
+		 */
+		public Builder retireSignal(RetireSignal retireSignal) {
+			this.retireSignal = retireSignal;
+			return this;
+		}
+
+		/**
+		 * @param backpressure
+		 *            {@link BackpressurePolicy} for a full queue
+		 * @return this Builder
+		 */
+		public Builder backpressure(BackpressurePolicy backpressure) {
+			this.backpressure = Objects.requireNonNull(backpressure);
+			return this;
+		}
+
+		/**
+		 * @param blockTimeoutMillis
+		 *            Milliseconds {@link BackpressurePolicy#BLOCK_TIMEOUT}
+		 *            waits before dropping
+		 * @return this Builder
+		 */
+		public Builder blockTimeoutMillis(long blockTimeoutMillis) {
+			if (blockTimeoutMillis < 0) {
+				throw new IllegalArgumentException("blockTimeoutMillis must not be negative: " + blockTimeoutMillis);
+			}
+			this.blockTimeoutMillis = blockTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * @param sampleEvery
+		 *            One in how many Widgets {@link BackpressurePolicy#SAMPLE}
+		 *            keeps while the queue is full
+		 * @return this Builder
+		 */
+		public Builder sampleEvery(int sampleEvery) {
+			if (sampleEvery < 1) {
+				throw new IllegalArgumentException("sampleEvery must be positive: " + sampleEvery);
+			}
+			this.sampleEvery = sampleEvery;
+			return this;
+		}
+
+		/**
+		 * @param overflowStore
+		 *            {@link OverflowStore} for {@link BackpressurePolicy#SPILL}
+		 * @return this Builder
+		 */
+		public Builder overflowStore(OverflowStore<Widget<?>> overflowStore) {
+			this.overflowStore = overflowStore;
+			return this;
+		}
+
+		/**
+		 * @param handlers
+		 *            {@link HandlerRegistry} for consumers, the types it
+		 *            holds are the types they count
+		 * @return this Builder
+		 */
+		public Builder handlers(HandlerRegistry handlers) {
+			this.handlers = Objects.requireNonNull(handlers);
+			return this;
+		}
+
+		/**
+		 * @param stringPoolSize
+		 *            Idle Widgets each {@link StringProducer} pools, 0 for
+		 *            none, otherwise at least 2
+		 * @return this Builder
+		 */
+		public Builder stringPoolSize(int stringPoolSize) {
+			if (stringPoolSize != 0 && stringPoolSize < 2) {
+				throw new IllegalArgumentException("stringPoolSize must be 0 or at least 2: " + stringPoolSize);
+			}
+			this.stringPoolSize = stringPoolSize;
+			return this;
+		}
+
+		/**
+		 * @param traceRecorder
+		 *            {@link TraceRecorder} producers record to, null for none
+		 * @return this Builder
+		 */
+		public Builder traceRecorder(TraceRecorder traceRecorder) {
+			this.traceRecorder = traceRecorder;
+			return this;
+		}
+
+		/**
+		 * @param trace
+		 *            {@link Trace} for {@link ReplayProducer}s
+		 * @return this Builder
+		 */
+		public Builder trace(Trace trace) {
+			this.trace = trace;
+			return this;
+		}
+
+		/**
+		 * @param replaySpeed
+		 *            Multiple of the recorded pace, 1 for the original
+		 *            timing, 0 for as fast as possible
+		 * @return this Builder
+		 */
+		public Builder replaySpeed(double replaySpeed) {
+			if (!(replaySpeed >= 0) || Double.isInfinite(replaySpeed)) {
+				throw new IllegalArgumentException("replaySpeed must be 0 or positive: " + replaySpeed);
+			}
+			this.replaySpeed = replaySpeed;
+			return this;
+		}
+
+		/**
+		 * @return The immutable {@link ConnectorSettings}
+		 */
+		public ConnectorSettings build() {
+			if (backpressure == BackpressurePolicy.SPILL && overflowStore == null) {
+				throw new IllegalArgumentException("SPILL needs an overflowStore");
+			}
+			return new ConnectorSettings(this);
+		}
+	}
+
+}
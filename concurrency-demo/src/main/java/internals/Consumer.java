@@ -1,35 +1,68 @@
 package internals;
 
 import java.time.ZonedDateTime;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * String and Long {@link Widget} Consumer<br>
+ * {@link Widget} Consumer<br>
+ * Takes Widgets in batches of up to {@link ConnectorSettings#getBatchSize()},
+ * hands each to the {@link WidgetHandler} of its data type from
+ * {@link ConnectorSettings#getHandlers()} and records the counts once per
+ * type per batch. String and Long are registered by default. Pooled Widgets
+ * go back to their {@link WidgetPool} once the handler returned. A handler
+ * that throws fails only its Widget, counted with
+ * {@link WidgetStatus#addFailed(int, long)}; Widgets of a type without
+ * handler are logged and dropped.<br>
+ * An idle consumer keeps waiting. It stops when interrupted, when retired by
+ * its {@link RetireSignal}, or after a {@link Widget#endOfStream()} marker:
+ * it then takes what is left without waiting and, as soon as the queue is
+ * empty, puts the marker back for the next consumer and exits, so one
+ * marker stops every consumer of the queue.
  */
 public final class Consumer implements Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(Consumer.class);
 
-	private static final Random RANDOM = new Random();
+	// random think time between 250 and 1250 millis per batch unless the settings say otherwise
+	static final RateSpec DEFAULT_RATE = RateSpec.closedLoop(250, 1250);
 
 	private final BlockingQueue<Widget<? extends Object>> queue;
 	private final Connector connector;
 	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
 
 	public Consumer(BlockingQueue<Widget<? extends Object>> queue, Connector connector, WidgetStatus widgetStatus) {
+		this(queue, connector, widgetStatus, ConnectorSettings.defaults());
+	}
+
+	/**
+	 * Create {@link Widget} consumer<br>
+	 * 
+	 * @param queue
+	 *            BlockingQueue where Widgets come from
+	 * @param connector
+	 *            {@link Connector} used to create keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this consumer
+	 */
+	public Consumer(BlockingQueue<Widget<? extends Object>> queue, Connector connector, WidgetStatus widgetStatus,
+			ConnectorSettings settings) {
 		this.queue = queue;
 		this.connector = connector;
 		this.widgetStatus = widgetStatus;
+		this.settings = settings;
 	}
 
 	/**
-	 * Consumer for String and Long {@link Widget} types<br>
+	 * Consumer for the {@link Widget} types of the {@link HandlerRegistry}<br>
 	 */
 	@Override
 	public void run() {
@@ -39,37 +72,201 @@ public final class Consumer implements Runnable {
 		RunnableKey runnableKey = new RunnableKey(connector.getConnectionType(),
 				connector.getRunnableClass().getSimpleName(), id);
 		logger.info("threadName: {}, runnableKey: {}", Thread.currentThread().getName(), runnableKey);
+		int runnableId = widgetStatus.register(runnableKey);
+		// one slot per registered type, matched by the exact class of the data
+		HandlerRegistry handlers = settings.getHandlers();
+		List<TypeSlot> typeSlots = new ArrayList<>();
+		for (Class<?> type : handlers.getTypes()) {
+			WidgetStatusKey key = new WidgetStatusKey(connector.getConnectionType(), Widget.typeName(type), id);
+			typeSlots.add(new TypeSlot(type, widgetStatus, widgetStatus.register(key), handlers.getHandler(type)));
+		}
+		TypeSlot[] slots = typeSlots.toArray(new TypeSlot[0]);
+		// runs of one type are common, typed lanes only ever hand out one
+		TypeSlot lastSlot = null;
+		int batchSize = settings.getBatchSize();
+		long lingerNanos = TimeUnit.MILLISECONDS.toNanos(settings.getLingerMillis());
+		// reused for every batch, a batch size of 1 behaves like a plain poll loop
+		List<Widget<?>> batch = new ArrayList<>(batchSize);
+		RateController rateController = settings.getRate(DEFAULT_RATE).newController();
+		RetireSignal retireSignal = settings.getRetireSignal();
+		// set once the end-of-stream marker arrived, the queue only shrinks from then on
+		Widget<?> endOfStream = null;
+		boolean idle = false;
+		// a laned queue gives each registered consumer its own lanes
+		LanedQueue<?> lanedQueue = LanedQueue.registerIfLaned(queue);
 		try {
-			// separate counters for String and Long Widgets
-			AtomicInteger iString = new AtomicInteger(0);
-			AtomicInteger iLong = new AtomicInteger(0);
 			while (!Thread.currentThread().isInterrupted()) {
-				Widget<?> widget = queue.poll(2, TimeUnit.SECONDS);
-				if (widget == null) {
-					logger.info("No more Widgets to consume.  Terminating {}", runnableKey);
-					Thread.currentThread().interrupt();
-				} else if (widget.get() instanceof String) {
-					logger.debug("{} - String Consumed: {}", iString, widget.get());
-					WidgetStatusKey widgetStatusKey = new WidgetStatusKey(connector.getConnectionType(),
-							String.class.getSimpleName(), id);
-					widgetStatus.putWidgetCount(widgetStatusKey, iString.incrementAndGet());
-				} else if (widget.get() instanceof Long) {
-					logger.debug("{} - Long Consumed: {}", iLong, widget.get());
-					WidgetStatusKey widgetStatusKey = new WidgetStatusKey(connector.getConnectionType(),
-							Long.class.getSimpleName(), id);
-					widgetStatus.putWidgetCount(widgetStatusKey, iLong.incrementAndGet());
-				} else {
-					logger.error("{} - Consumed unexpected Widget of type {}", widget.get().getClass().getSimpleName());
+				if (retireSignal != null && retireSignal.tryRetire()) {
+					logger.info("Retiring {}", runnableKey);
+					if (endOfStream != null) {
+						// the remaining consumers still need it
+						queue.put(endOfStream);
+					}
+					widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+					return;
+				}
+				// an empty poll is not a batch, it does not pay the think time
+				if (!idle) {
+					rateController.acquire();
+				}
+				batch.clear();
+				long pollStart = System.nanoTime();
+				idle = !fillBatch(batch, batchSize, endOfStream == null, lingerNanos);
+				// one clock read per batch, the whole batch left the queue together
+				long dequeuedNanos = System.nanoTime();
+				widgetStatus.addBatch(runnableId, batch.size(), dequeuedNanos - pollStart);
+				if (idle) {
+					if (endOfStream != null) {
+						logger.info("End of stream and queue drained.  Terminating {}", runnableKey);
+						queue.put(endOfStream);
+						widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+						return;
+					}
+					continue;
+				}
+				for (Widget<?> widget : batch) {
+					if (widget.isEndOfStream()) {
+						endOfStream = widget;
+						continue;
+					}
+					Class<?> type = widget.get().getClass();
+					TypeSlot slot = lastSlot != null && lastSlot.type == type ? lastSlot : find(slots, type);
+					if (slot == null) {
+						logger.error("{} - Consumed unexpected Widget of type {}", runnableKey,
+								type.getSimpleName());
+						widget.recycle();
+						continue;
+					}
+					lastSlot = slot;
+					slot.count++;
+					slot.latency.record(dequeuedNanos - widget.getCreatedNanos());
+					try {
+						slot.handler.handle(widget);
+					} catch (RuntimeException e) {
+						slot.failed++;
+						// the first failure of a type with its trace, the rest only counted
+						if (!slot.reported) {
+							slot.reported = true;
+							logger.error("{} - Handler failed on a {} Widget", runnableKey, type.getSimpleName(), e);
+						} else {
+							logger.debug("{} - Handler failed on a {} Widget", runnableKey, type.getSimpleName(), e);
+						}
+					}
+					widget.recycle();
+				}
+				// one update per type per batch
+				for (TypeSlot slot : slots) {
+					if (slot.count > 0) {
+						widgetStatus.addWidgetCount(slot.widgetKeyId, slot.count);
+						slot.count = 0;
+					}
+					if (slot.failed > 0) {
+						widgetStatus.addFailed(slot.widgetKeyId, slot.failed);
+						slot.failed = 0;
+					}
 				}
-				// random sleep duration between 250 and 1250 millis
-				TimeUnit.MILLISECONDS.sleep(250 + RANDOM.nextInt(1000));
 			}
 		} catch (InterruptedException e) {
 			logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
 					runnableKey);
-			widgetStatus.putStopTime(runnableKey, ZonedDateTime.now());
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
 			Thread.currentThread().interrupt();
+		} finally {
+			if (lanedQueue != null) {
+				// a retired consumer hands its lanes to the others
+				lanedQueue.deregister();
+			}
+		}
+	}
+
+	/**
+	 * Wait up to 2 seconds for the first Widget, then drain whatever else is
+	 * ready, lingering for a partial batch to fill if configured.<br>
+	 * 
+	 * @param batch
+	 *            Empty list to fill
+	 * @param batchSize
+	 *            Maximum number of Widgets to take
+	 * @param wait
+	 *            false to only take what is ready, after the end of stream
+	 * @param lingerNanos
+	 *            How long to wait for more Widgets after the first
+	 * @return false if no Widget arrived
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private boolean fillBatch(List<Widget<?>> batch, int batchSize, boolean wait, long lingerNanos)
+			throws InterruptedException {
+		// the timeout only bounds how long a retired or interrupted consumer goes unnoticed
+		Widget<?> first = wait ? queue.poll(2, TimeUnit.SECONDS) : queue.poll();
+		if (first == null) {
+			return false;
+		}
+		batch.add(first);
+		if (!wait) {
+			// nothing more is coming, lingering would only delay the exit
+			queue.drainTo(batch, batchSize - 1);
+		} else if (batchSize > 1) {
+			queue.drainTo(batch, batchSize - 1);
+			long deadline = System.nanoTime() + lingerNanos;
+			long remaining = lingerNanos;
+			while (batch.size() < batchSize && remaining > 0) {
+				Widget<?> widget = queue.poll(remaining, TimeUnit.NANOSECONDS);
+				if (widget == null) {
+					break;
+				}
+				batch.add(widget);
+				queue.drainTo(batch, batchSize - batch.size());
+				remaining = deadline - System.nanoTime();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Identity scan instead of a map, there are only a handful of types and
+	 * no hashing on the way<br>
+	 *
+	 * @param slots
+	 *            Slots of the registered types
+	 * @param type
+	 *            The exact class of the Widget data
+	 * @return The slot of the exact type, null if it has no handler
+	 */
+	private static TypeSlot find(TypeSlot[] slots, Class<?> type) {
+		for (TypeSlot slot : slots) {
+			if (slot.type == type) {
+				return slot;
+			}
 		}
+		return null;
+	}
+
+	/**
+	 * Counter, histogram and handler of one data type, owned by one consumer
+	 * thread
+	 */
+	private static final class TypeSlot {
+
+		private final Class<?> type;
+		private final int widgetKeyId;
+		private final LatencyHistogram latency;
+		private final WidgetHandler<Object> handler;
+		// Widgets of this type in the current batch
+		private int count;
+		// of those, the ones the handler threw on
+		private int failed;
+		// whether a failure was logged with its trace yet
+		private boolean reported;
+
+		@SuppressWarnings("unchecked")
+		private TypeSlot(Class<?> type, WidgetStatus widgetStatus, int widgetKeyId, WidgetHandler<?> handler) {
+			this.type = type;
+			this.widgetKeyId = widgetKeyId;
+			this.latency = widgetStatus.latencyHistogram(widgetKeyId);
+			this.handler = (WidgetHandler<Object>) handler;
+		}
+
 	}
 
 }
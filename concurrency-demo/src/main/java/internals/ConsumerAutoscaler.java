@@ -0,0 +1,230 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds and retires workers of one consumer Runnable as the queue backs up or
+ * empties<br>
+ * Schedule {@link #run()} every {@link AutoscalerSettings#getSampleMillis()}.
+ * Each run samples the queue depth, the drain rate and the arrival rate
+ * (drained plus the change in depth), smoothing the rates over recent
+ * samples. While the queue is above the low watermark the workers are busy,
+ * so the drain rate then also gives the rate one worker can sustain.<br>
+ * <br>
+ * The worker count only changes after
+ * {@link AutoscalerSettings#getSamplesToScale()} consecutive samples beyond a
+ * watermark, and not again until the cooldown has passed. Scaling up sizes
+ * the pool for the arrival rate, scaling down retires one worker at a time
+ * through the {@link RetireSignal}, and only if the others can still keep up.
+ * Each decision is recorded as a {@link ScalingEvent} in {@link WidgetStatus}.
+ */
+public final class ConsumerAutoscaler implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConsumerAutoscaler.class);
+
+	// arrivals this much faster than the drain rate mean the consumers are falling behind
+	private static final double BEHIND_RATIO = 1.1;
+	// weight of the newest sample in the smoothed rates
+	private static final double SMOOTHING = 0.3;
+
+	private final BlockingQueue<?> queue;
+	private final Runnable consumer;
+	private final ExecutorService executor;
+	private final RetireSignal retireSignal;
+	private final LongSupplier drained;
+	private final WidgetStatus widgetStatus;
+	private final AutoscalerSettings settings;
+
+	// guarded by this
+	private final List<Future<?>> workers = new ArrayList<>();
+	private long lastNanos;
+	private long lastDrained;
+	private int lastDepth;
+	private double arrivalRate = -1;
+	private double drainRate;
+	// 0 until the workers have been seen busy
+	private double workerRate;
+	private int upStreak;
+	private int downStreak;
+	private long cooldownUntilNanos;
+
+	/**
+	 * Create the autoscaler, see {@link #start(int)}<br>
+	 * 
+	 * @param queue
+	 *            The queue the workers take from
+	 * @param consumer
+	 *            The consumer Runnable, built with a {@link ConnectorSettings}
+	 *            carrying retireSignal
+	 * @param executor
+	 *            Runs the workers, must allow
+	 *            {@link AutoscalerSettings#getMaxWorkers()} at once
+	 * @param retireSignal
+	 *            {@link RetireSignal} the consumer checks between batches
+	 * @param drained
+	 *            Total Widgets the consumers have taken from the queue so far
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where scaling decisions are recorded
+	 * @param settings
+	 *            {@link AutoscalerSettings} limits and thresholds
+	 */
+	public ConsumerAutoscaler(BlockingQueue<?> queue, Runnable consumer, ExecutorService executor,
+			RetireSignal retireSignal, LongSupplier drained, WidgetStatus widgetStatus, AutoscalerSettings settings) {
+		this.queue = Objects.requireNonNull(queue);
+		this.consumer = Objects.requireNonNull(consumer);
+		this.executor = Objects.requireNonNull(executor);
+		this.retireSignal = Objects.requireNonNull(retireSignal);
+		this.drained = Objects.requireNonNull(drained);
+		this.widgetStatus = Objects.requireNonNull(widgetStatus);
+		this.settings = Objects.requireNonNull(settings);
+	}
+
+	/**
+	 * Launch the first workers and take the baseline sample<br>
+	 * 
+	 * @param initialWorkers
+	 *            Workers to start with, clamped to the limits
+	 */
+	public synchronized void start(int initialWorkers) {
+		int count = Math.max(settings.getMinWorkers(), Math.min(settings.getMaxWorkers(), initialWorkers));
+		launch(count);
+		lastNanos = System.nanoTime();
+		lastDrained = drained.getAsLong();
+		lastDepth = queue.size();
+		logger.info("Autoscaler started with {} workers, {}", count, settings);
+	}
+
+	/**
+	 * @return Workers running now, including any about to retire
+	 */
+	public synchronized int getWorkerCount() {
+		return prune();
+	}
+
+	/**
+	 * Take one sample and scale if needed<br>
+	 */
+	@Override
+	public synchronized void run() {
+		try {
+			sample();
+		} catch (RuntimeException e) {
+			// a scheduled task that throws is never run again
+			logger.error("Autoscaler sample failed", e);
+		}
+	}
+
+	private void sample() {
+		long now = System.nanoTime();
+		double seconds = (now - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+		if (seconds <= 0) {
+			return;
+		}
+		int depth = queue.size();
+		// long, a disk backed queue may report close to Integer.MAX_VALUE
+		long capacity = (long) depth + queue.remainingCapacity();
+		long drainedNow = drained.getAsLong();
+		long drainedDelta = drainedNow - lastDrained;
+		smooth(Math.max(0, drainedDelta + depth - lastDepth) / seconds, drainedDelta / seconds);
+		lastNanos = now;
+		lastDrained = drainedNow;
+		lastDepth = depth;
+
+		// workers that already have a retirement ticket no longer count
+		int effective = prune() - retireSignal.pending();
+		if (effective < settings.getMinWorkers()) {
+			scale(now, effective, settings.getMinWorkers(), depth, "below minimum");
+			return;
+		}
+
+		double fill = capacity == 0 ? 0 : depth / (double) capacity;
+		if (fill > settings.getLowWatermark() && drainRate > 0) {
+			// Widgets were waiting all along, so every worker was busy
+			double sample = drainRate / effective;
+			workerRate = workerRate == 0 ? sample : workerRate + SMOOTHING * (sample - workerRate);
+		}
+		boolean behind = fill >= settings.getHighWatermark()
+				|| (fill > settings.getLowWatermark() && arrivalRate > drainRate * BEHIND_RATIO);
+		boolean idle = fill <= settings.getLowWatermark()
+				&& (workerRate == 0 || arrivalRate * BEHIND_RATIO < workerRate * (effective - 1));
+		upStreak = behind ? upStreak + 1 : 0;
+		downStreak = idle ? downStreak + 1 : 0;
+		logger.debug("Autoscaler sample: workers={}, depth={}, arrival/s={}, drain/s={}", effective, depth,
+				arrivalRate, drainRate);
+		if (now - cooldownUntilNanos < 0) {
+			return;
+		}
+
+		if (upStreak >= settings.getSamplesToScale() && effective < settings.getMaxWorkers()) {
+			// size for the arrivals with some headroom, at least one more
+			int wanted = workerRate > 0 ? (int) Math.ceil(arrivalRate * BEHIND_RATIO / workerRate) : effective + 1;
+			int to = Math.min(settings.getMaxWorkers(), Math.max(effective + 1, wanted));
+			scale(now, effective, to, depth,
+					fill >= settings.getHighWatermark() ? "queue above high watermark" : "arrivals outpace drain");
+		} else if (downStreak >= settings.getSamplesToScale() && effective > settings.getMinWorkers()) {
+			scale(now, effective, effective - 1, depth, "queue below low watermark");
+		}
+	}
+
+	private void smooth(double arrivalSample, double drainSample) {
+		if (arrivalRate < 0) {
+			arrivalRate = arrivalSample;
+			drainRate = drainSample;
+		} else {
+			arrivalRate += SMOOTHING * (arrivalSample - arrivalRate);
+			drainRate += SMOOTHING * (drainSample - drainRate);
+		}
+	}
+
+	private void scale(long now, int from, int to, int depth, String reason) {
+		if (to > from) {
+			// a worker that was about to retire is cheaper than a new one
+			retireSignal.cancel();
+			int live = prune();
+			if (live < to) {
+				launch(to - live);
+			} else {
+				retireSignal.request(live - to);
+			}
+		} else {
+			retireSignal.request(from - to);
+		}
+		upStreak = 0;
+		downStreak = 0;
+		cooldownUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(settings.getCooldownMillis());
+		ScalingEvent event = new ScalingEvent(ZonedDateTime.now(), from, to, depth, arrivalRate, drainRate, reason);
+		widgetStatus.addScalingEvent(event);
+		logger.info("Scaling consumers: {}", event);
+	}
+
+	private void launch(int count) {
+		for (int i = 0; i < count; i++) {
+			workers.add(executor.submit(consumer));
+		}
+	}
+
+	/**
+	 * @return Workers still running
+	 */
+	private int prune() {
+		for (Iterator<Future<?>> it = workers.iterator(); it.hasNext();) {
+			if (it.next().isDone()) {
+				it.remove();
+			}
+		}
+		return workers.size();
+	}
+
+}
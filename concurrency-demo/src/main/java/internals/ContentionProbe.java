@@ -0,0 +1,144 @@
+package internals;
+
+/**
+ * The wait counts of one thread inside a {@link ProfilingQueue} call<br>
+ * {@link RingSignal} reports each spin or park here while the thread waits
+ * on a full or empty lock-free queue. The counts are thread confined and
+ * handed to {@link WidgetStatus} once per wait, not per spin.
+ */
+final class ContentionProbe {
+
+	private static final ThreadLocal<ContentionProbe> CURRENT = new ThreadLocal<>();
+	// set once a ProfilingQueue exists, unprofiled waits skip the thread local lookup
+	private static volatile boolean enabled;
+
+	private final WidgetStatus widgetStatus;
+	private final int runnableId;
+	private boolean waiting;
+	private long spins;
+	private long parks;
+
+	private ContentionProbe(WidgetStatus widgetStatus, int runnableId) {
+		this.widgetStatus = widgetStatus;
+		this.runnableId = runnableId;
+	}
+
+	static void enable() {
+		enabled = true;
+	}
+
+	/**
+	 * The probe of the calling thread for a WidgetStatus, attributed to the
+	 * RunnableKey the thread registered, or to a key named after the thread if
+	 * it registered none<br>
+	 *
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} the counts go to
+	 * @param connectionType
+	 *            Role of a thread that registered no RunnableKey
+	 * @return The probe, created on first use
+	 */
+	static ContentionProbe of(WidgetStatus widgetStatus, ConnectionType connectionType) {
+		ContentionProbe probe = CURRENT.get();
+		if (probe == null || probe.widgetStatus != widgetStatus) {
+			probe = new ContentionProbe(widgetStatus, runnableId(widgetStatus, connectionType));
+			CURRENT.set(probe);
+		}
+		return probe;
+	}
+
+	/**
+	 * @return The probe of the calling thread if it waits inside a
+	 *         {@link ProfilingQueue} call, null otherwise
+	 */
+	static ContentionProbe waiting() {
+		if (!enabled) {
+			return null;
+		}
+		ContentionProbe probe = CURRENT.get();
+		return probe != null && probe.waiting ? probe : null;
+	}
+
+	/**
+	 * Count a put, offer or failed offer that did not wait<br>
+	 *
+	 * @param nanos
+	 *            Time in the call, including any lock contention
+	 */
+	void put(long nanos) {
+		widgetStatus.addPut(runnableId, nanos);
+	}
+
+	/**
+	 * Count a poll or drain that did not wait<br>
+	 *
+	 * @param nanos
+	 *            Time in the call, including any lock contention
+	 */
+	void take(long nanos) {
+		widgetStatus.addTake(runnableId, nanos);
+	}
+
+	void beginWait() {
+		waiting = true;
+		spins = 0;
+		parks = 0;
+	}
+
+	/**
+	 * Count one pass of a wait loop<br>
+	 *
+	 * @param parked
+	 *            true if the thread parked or blocked, false if it spun or
+	 *            yielded
+	 */
+	void waited(boolean parked) {
+		if (parked) {
+			parks++;
+		} else {
+			spins++;
+		}
+	}
+
+	/**
+	 * End a wait for room in a full queue<br>
+	 *
+	 * @param nanos
+	 *            Time waited
+	 */
+	void endPutWait(long nanos) {
+		endWait();
+		widgetStatus.addPutWait(runnableId, nanos, spins, parks);
+	}
+
+	/**
+	 * End a wait for a Widget on an empty queue<br>
+	 *
+	 * @param nanos
+	 *            Time waited
+	 */
+	void endTakeWait(long nanos) {
+		endWait();
+		widgetStatus.addTakeWait(runnableId, nanos, spins, parks);
+	}
+
+	private void endWait() {
+		waiting = false;
+		// lock based queues block in a Condition the probe does not see, that counts as one park
+		if (spins == 0 && parks == 0) {
+			parks = 1;
+		}
+	}
+
+	private static int runnableId(WidgetStatus widgetStatus, ConnectionType connectionType) {
+		int threadId = Math.toIntExact(Thread.currentThread().getId());
+		// the newest key wins when a pooled thread ran several Runnables
+		for (int id = widgetStatus.getRunnableKeyCount() - 1; id >= 0; id--) {
+			if (widgetStatus.getRunnableKey(id).getId() == threadId) {
+				return id;
+			}
+		}
+		return widgetStatus.register(new RunnableKey(connectionType, Thread.currentThread().getName(), threadId));
+	}
+
+}
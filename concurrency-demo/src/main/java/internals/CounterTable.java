@@ -0,0 +1,70 @@
+package internals;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Flat table of long counters, one padded row per dense key id<br>
+ * Rows are {@link #STRIDE} longs apart so that rows written by different
+ * threads do not share a cache line. Rows are allocated in chunks when an id
+ * is first seen, so a row never moves once a writer holds its id. A slot
+ * outside the {@link #SLOTS} of a row is rejected rather than written into
+ * the next row.
+ */
+final class CounterTable {
+
+	// counters available in each row
+	static final int SLOTS = 12;
+	// 128 bytes per row, padding also defeats adjacent line prefetch
+	static final int STRIDE = 16;
+
+	private static final int CHUNK_SHIFT = 8;
+	private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+	private static final int MAX_CHUNKS = 4096;
+
+	static {
+		if (SLOTS > STRIDE) {
+			throw new ExceptionInInitializerError("Rows of " + SLOTS + " slots do not fit a stride of " + STRIDE);
+		}
+	}
+
+	private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+	/**
+	 * Allocate the row for an id. Call once when the id is registered.<br>
+	 *
+	 * @param id
+	 *            Dense key id
+	 */
+	synchronized void ensure(int id) {
+		int chunk = id >>> CHUNK_SHIFT;
+		if (chunk >= MAX_CHUNKS) {
+			throw new IllegalStateException("Too many keys: " + id);
+		}
+		if (chunks.get(chunk) == null) {
+			chunks.set(chunk, new AtomicLongArray(CHUNK_ROWS * STRIDE));
+		}
+	}
+
+	long add(int id, int slot, long delta) {
+		return chunks.get(id >>> CHUNK_SHIFT).addAndGet(offset(id, slot), delta);
+	}
+
+	long getAndSet(int id, int slot, long value) {
+		return chunks.get(id >>> CHUNK_SHIFT).getAndSet(offset(id, slot), value);
+	}
+
+	long get(int id, int slot) {
+		AtomicLongArray chunk = chunks.get(id >>> CHUNK_SHIFT);
+		return chunk == null ? 0 : chunk.get(offset(id, slot));
+	}
+
+	private static int offset(int id, int slot) {
+		if (slot < 0 || slot >= SLOTS) {
+			throw new IndexOutOfBoundsException("Slot " + slot + " outside a row of " + SLOTS);
+		}
+		return (id & CHUNK_MASK) * STRIDE + slot;
+	}
+
+}
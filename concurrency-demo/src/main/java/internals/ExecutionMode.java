@@ -0,0 +1,46 @@
+package internals;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How the Runnables of a {@link Connector} are run<br>
+ * {@link #PLATFORM} gives each Runnable an OS thread from a fixed pool.
+ * {@link #VIRTUAL} gives each one a virtual thread, so thousands of mostly
+ * blocked producers and consumers cost little more than their stacks. It
+ * needs a Java 21 runtime and is looked up reflectively, so the Java 11
+ * build runs it on any runtime that has it.
+ */
+public enum ExecutionMode {
+	PLATFORM {
+		@Override
+		public ExecutorService newExecutor(int threadCount) {
+			return Executors.newFixedThreadPool(threadCount);
+		}
+	},
+	VIRTUAL {
+		@Override
+		public ExecutorService newExecutor(int threadCount) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(
+						"Virtual threads need Java 21, running on " + System.getProperty("java.version"), e);
+			}
+		}
+	};
+
+	/**
+	 * Create an ExecutorService able to run threadCount Runnables at
+	 * once<br>
+	 * 
+	 * @param threadCount
+	 *            Number of Runnables that will be submitted
+	 * @return The new ExecutorService
+	 * @throws IllegalStateException
+	 *             If the runtime does not support the mode
+	 */
+	public abstract ExecutorService newExecutor(int threadCount);
+}
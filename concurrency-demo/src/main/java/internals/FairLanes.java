@@ -0,0 +1,369 @@
+package internals;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lane per {@link Widget} data type, shared consumers served by a
+ * weighted fair scheduler instead of one FIFO<br>
+ * <br>
+ * Producers offer to the lane of their type and only wait on that lane's
+ * capacity, so a busy type cannot fill the room of another. Consumers take
+ * from this queue. Each take serves the highest {@link FairShare} priority
+ * class with a Widget waiting. Within the class it applies deficit
+ * round-robin with unit cost, so each lane gets its weight in Widgets per
+ * round. The time from creation to dispatch is recorded per lane with
+ * {@link WidgetStatus#dispatchWaitHistogram(String)}.<br>
+ * <br>
+ * Like LinkedBlockingQueue, producers and consumers take different locks.
+ * Consumers hold the take lock while the scheduler runs, producers only
+ * take it to wake a consumer when the queue was empty. Widgets of
+ * unregistered types are rejected with an IllegalArgumentException, remove
+ * is not supported. End-of-stream markers go to the first lane of the
+ * highest class.
+ */
+public final class FairLanes extends AbstractQueue<Widget<?>> implements BlockingQueue<Widget<?>> {
+
+	private final Map<Class<?>, Lane> lanesByType = new HashMap<>();
+	// sorted by priority class, classStarts[k] is the first lane of the k-th class
+	private final Lane[] lanes;
+	private final int[] classStarts;
+	// lane each class is serving, guarded by takeLock
+	private final int[] cursors;
+	private final FairShare fairShare;
+	private final AtomicInteger count = new AtomicInteger();
+	private final ReentrantLock takeLock = new ReentrantLock();
+	private final Condition notEmpty = takeLock.newCondition();
+
+	/**
+	 * Create a lane per type<br>
+	 *
+	 * @param types
+	 *            The Widget data types, at least one
+	 * @param fairShare
+	 *            {@link FairShare} weights and priority classes, only for
+	 *            the given types
+	 * @param queueType
+	 *            {@link QueueType} of each lane, not {@link QueueType#JOURNAL}
+	 *            since its lanes would share a directory
+	 * @param capacity
+	 *            Maximum number of Widgets per lane
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} of each lane
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where dispatch waits are recorded
+	 */
+	public FairLanes(Collection<Class<?>> types, FairShare fairShare, QueueType queueType, int capacity,
+			WaitStrategy waitStrategy, WidgetStatus widgetStatus) {
+		if (types.isEmpty()) {
+			throw new IllegalArgumentException("At least one type is needed");
+		}
+		if (queueType == QueueType.JOURNAL) {
+			throw new IllegalArgumentException("FairLanes does not support " + queueType);
+		}
+		List<String> names = new ArrayList<>();
+		List<Lane> sorted = new ArrayList<>();
+		for (Class<?> type : types) {
+			String name = Widget.typeName(type);
+			names.add(name);
+			int weight = fairShare.getWeight(name);
+			int priority = fairShare.getPriority(name);
+			Lane lane = new Lane(queueType.create(capacity, waitStrategy), weight, priority,
+					widgetStatus.dispatchWaitHistogram(name + " class=" + priority + " weight=" + weight));
+			lanesByType.put(type, lane);
+			sorted.add(lane);
+		}
+		for (String name : fairShare.getTypes()) {
+			if (!names.contains(name)) {
+				throw new IllegalArgumentException("No lane for fair share of " + name);
+			}
+		}
+		// stable, lanes of one class keep the order of the types
+		sorted.sort(Comparator.comparingInt(lane -> lane.priority));
+		this.lanes = sorted.toArray(new Lane[0]);
+		List<Integer> starts = new ArrayList<>();
+		for (int i = 0; i < lanes.length; i++) {
+			if (i == 0 || lanes[i].priority != lanes[i - 1].priority) {
+				starts.add(i);
+			}
+		}
+		starts.add(lanes.length);
+		this.classStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+		this.cursors = new int[classStarts.length - 1];
+		this.fairShare = fairShare;
+	}
+
+	/**
+	 * @return The {@link FairShare} of the lanes
+	 */
+	public FairShare getFairShare() {
+		return fairShare;
+	}
+
+	@Override
+	public boolean offer(Widget<?> e) {
+		if (!route(e).offer(e)) {
+			return false;
+		}
+		added();
+		return true;
+	}
+
+	@Override
+	public void put(Widget<?> e) throws InterruptedException {
+		route(e).put(e);
+		added();
+	}
+
+	@Override
+	public boolean offer(Widget<?> e, long timeout, TimeUnit unit) throws InterruptedException {
+		if (!route(e).offer(e, timeout, unit)) {
+			return false;
+		}
+		added();
+		return true;
+	}
+
+	@Override
+	public Widget<?> poll() {
+		if (count.get() == 0) {
+			return null;
+		}
+		takeLock.lock();
+		try {
+			return count.get() == 0 ? null : dispatch(System.nanoTime());
+		} finally {
+			unlockTake();
+		}
+	}
+
+	@Override
+	public Widget<?> take() throws InterruptedException {
+		takeLock.lockInterruptibly();
+		try {
+			while (count.get() == 0) {
+				notEmpty.await();
+			}
+			return dispatch(System.nanoTime());
+		} finally {
+			unlockTake();
+		}
+	}
+
+	@Override
+	public Widget<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		takeLock.lockInterruptibly();
+		try {
+			while (count.get() == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dispatch(System.nanoTime());
+		} finally {
+			unlockTake();
+		}
+	}
+
+	/**
+	 * @return The oldest Widget of the first lane with one in priority order,
+	 *         null if every lane is empty
+	 */
+	@Override
+	public Widget<?> peek() {
+		for (Lane lane : lanes) {
+			Widget<?> widget = lane.queue.peek();
+			if (widget != null) {
+				return widget;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Room left over all lanes, a producer may still wait on its own
+	 *         full lane
+	 */
+	@Override
+	public int remainingCapacity() {
+		long remaining = 0;
+		for (Lane lane : lanes) {
+			remaining += lane.queue.remainingCapacity();
+		}
+		return (int) Math.min(Integer.MAX_VALUE, remaining);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Take up to maxElements Widgets in scheduler order
+	 */
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		takeLock.lock();
+		try {
+			int n = Math.min(maxElements, count.get());
+			// one clock read for the whole drain
+			long now = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				c.add(dispatch(now));
+			}
+			return n;
+		} finally {
+			unlockTake();
+		}
+	}
+
+	@Override
+	public int size() {
+		return count.get();
+	}
+
+	/**
+	 * @return A weakly consistent snapshot of the Widgets, lane by lane in
+	 *         priority order
+	 */
+	@Override
+	public Iterator<Widget<?>> iterator() {
+		List<Widget<?>> snapshot = new ArrayList<>();
+		for (Lane lane : lanes) {
+			snapshot.addAll(lane.queue);
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[fairShare=" + fairShare + ", size=" + count.get() + "]";
+	}
+
+	private BlockingQueue<Widget<?>> route(Widget<?> e) {
+		if (Objects.requireNonNull(e).isEndOfStream()) {
+			return lanes[0].queue;
+		}
+		Lane lane = lanesByType.get(e.get().getClass());
+		if (lane == null) {
+			throw new IllegalArgumentException("No lane for Widgets of " + e.get().getClass().getSimpleName());
+		}
+		return lane.queue;
+	}
+
+	/**
+	 * Count a Widget a lane accepted, waking a consumer if the queue was
+	 * empty
+	 */
+	private void added() {
+		if (count.getAndIncrement() == 0) {
+			takeLock.lock();
+			try {
+				notEmpty.signal();
+			} finally {
+				takeLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Pass the wake-up on to the next waiting consumer while Widgets remain,
+	 * then release the consumer lock
+	 */
+	private void unlockTake() {
+		if (count.get() > 0) {
+			notEmpty.signal();
+		}
+		takeLock.unlock();
+	}
+
+	/**
+	 * Take the next Widget in scheduler order, the caller holds takeLock and
+	 * has seen count above 0. Lanes are filled before count is raised, so a
+	 * lane has a Widget.
+	 *
+	 * @param now
+	 *            Current System.nanoTime()
+	 * @return The Widget
+	 */
+	private Widget<?> dispatch(long now) {
+		for (int k = 0; k < cursors.length; k++) {
+			int start = classStarts[k];
+			int size = classStarts[k + 1] - start;
+			if (!hasWidgets(start, size)) {
+				continue;
+			}
+			// deficit round-robin, a lane keeps the turn while it has deficit and Widgets
+			for (;;) {
+				Lane lane = lanes[start + cursors[k]];
+				if (lane.deficit > 0) {
+					Widget<?> widget = lane.queue.poll();
+					if (widget != null) {
+						lane.deficit--;
+						count.getAndDecrement();
+						if (!widget.isEndOfStream()) {
+							lane.wait.record(now - widget.getCreatedNanos());
+						}
+						return widget;
+					}
+					// an idle lane does not bank its turn
+					lane.deficit = 0;
+				}
+				cursors[k] = (cursors[k] + 1) % size;
+				Lane next = lanes[start + cursors[k]];
+				next.deficit += next.weight;
+			}
+		}
+		throw new IllegalStateException("Counted Widgets but every lane is empty");
+	}
+
+	private boolean hasWidgets(int start, int size) {
+		for (int i = start; i < start + size; i++) {
+			if (!lanes[i].queue.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A type's queue and its scheduler state
+	 */
+	private static final class Lane {
+
+		private final BlockingQueue<Widget<?>> queue;
+		private final int weight;
+		private final int priority;
+		private final LatencyHistogram wait;
+		// Widgets the lane may still take this round, guarded by takeLock
+		private int deficit;
+
+		private Lane(BlockingQueue<Widget<?>> queue, int weight, int priority, LatencyHistogram wait) {
+			this.queue = queue;
+			this.weight = weight;
+			this.priority = priority;
+			this.wait = wait;
+		}
+
+	}
+
+}
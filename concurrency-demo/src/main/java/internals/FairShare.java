@@ -0,0 +1,146 @@
+package internals;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable weights and priority classes of the {@link FairLanes} lanes,
+ * keyed by the simple class name of the Widget data<br>
+ * Written as comma separated {@code Type=WEIGHT} or
+ * {@code Type=WEIGHT@CLASS} entries, e.g. {@code Long=2@0,String=1@1}.<br>
+ * Class 0 is served first. A lower class only gets a Widget when every lane
+ * of the classes above it is empty. Within a class each lane gets WEIGHT
+ * Widgets per deficit round-robin round. Types that are not listed have
+ * weight 1 in class 0.
+ */
+public final class FairShare {
+
+	private static final FairShare EQUAL = builder().build();
+
+	private final Map<String, Integer> weights;
+	private final Map<String, Integer> priorities;
+
+	private FairShare(Builder builder) {
+		this.weights = Collections.unmodifiableMap(new LinkedHashMap<>(builder.weights));
+		this.priorities = Collections.unmodifiableMap(new LinkedHashMap<>(builder.priorities));
+	}
+
+	/**
+	 * @return Weight 1 and class 0 for every type, plain round-robin
+	 */
+	public static FairShare equal() {
+		return EQUAL;
+	}
+
+	/**
+	 * @return A new, empty {@link Builder}
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Parse the format described on {@link FairShare}, as printed by
+	 * {@link #toString()}<br>
+	 *
+	 * @param spec
+	 *            e.g. {@code Long=2@0,String=1@1}
+	 * @return The FairShare
+	 */
+	public static FairShare parse(String spec) {
+		Builder builder = builder();
+		for (String entry : spec.split(",")) {
+			if (entry.trim().isEmpty()) {
+				continue;
+			}
+			String[] parts = entry.split("=", 2);
+			try {
+				String[] share = parts[1].split("@", 2);
+				builder.lane(parts[0].trim(), Integer.parseInt(share[0].trim()),
+						share.length > 1 ? Integer.parseInt(share[1].trim()) : 0);
+			} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+				throw new IllegalArgumentException("Bad fair share: " + entry, e);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @param widgetType
+	 *            Simple class name of the Widget data type
+	 * @return Widgets per round for the type
+	 */
+	public int getWeight(String widgetType) {
+		return weights.getOrDefault(widgetType, 1);
+	}
+
+	/**
+	 * @param widgetType
+	 *            Simple class name of the Widget data type
+	 * @return Priority class of the type, 0 is served first
+	 */
+	public int getPriority(String widgetType) {
+		return priorities.getOrDefault(widgetType, 0);
+	}
+
+	/**
+	 * @return The types listed explicitly
+	 */
+	public Iterable<String> getTypes() {
+		return weights.keySet();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+			sb.append(sb.length() == 0 ? "" : ",").append(entry.getKey()).append('=').append(entry.getValue())
+					.append('@').append(priorities.get(entry.getKey()));
+		}
+		return sb.length() == 0 ? "equal" : sb.toString();
+	}
+
+	/**
+	 * Builder for {@link FairShare}<br>
+	 */
+	public static final class Builder {
+
+		private final Map<String, Integer> weights = new LinkedHashMap<>();
+		private final Map<String, Integer> priorities = new LinkedHashMap<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param widgetType
+		 *            Simple class name of the Widget data type
+		 * @param weight
+		 *            Widgets per round, at least 1
+		 * @param priority
+		 *            Priority class, 0 is served first
+		 * @return this Builder
+		 */
+		public Builder lane(String widgetType, int weight, int priority) {
+			Objects.requireNonNull(widgetType);
+			if (weight < 1) {
+				throw new IllegalArgumentException("weight must be positive: " + widgetType + "=" + weight);
+			}
+			if (priority < 0) {
+				throw new IllegalArgumentException("priority must not be negative: " + widgetType + "@" + priority);
+			}
+			weights.put(widgetType, weight);
+			priorities.put(widgetType, priority);
+			return this;
+		}
+
+		/**
+		 * @return The immutable {@link FairShare}
+		 */
+		public FairShare build() {
+			return new FairShare(this);
+		}
+	}
+
+}
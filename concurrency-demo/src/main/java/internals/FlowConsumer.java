@@ -0,0 +1,318 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Widget} consumer fed by {@link Flow.Publisher}s<br>
+ * <br>
+ * Each {@link #subscriber()} is subscribed to one publisher and grants it
+ * {@code credit} Widgets up front. What arrives is parked in the
+ * subscriber's inbox, and the consumer takes batches of up to
+ * {@link ConnectorSettings#getBatchSize()} from the inboxes in turn on the
+ * {@link ScheduledExecutorService}, hands each Widget to the
+ * {@link WidgetHandler} of its type like {@link Consumer} and only then
+ * requests as many again from the publishers it took them from. So Widgets
+ * in flight per publisher never exceed the credit, and backpressure never
+ * blocks a thread. The think time of the {@link RateSpec} delays the next
+ * batch on the scheduler instead of parking.<br>
+ * The consumer finishes once every publisher completed and every inbox was
+ * emptied, see {@link #awaitTermination(long, TimeUnit)}.
+ */
+public final class FlowConsumer {
+
+	private static final Logger logger = LoggerFactory.getLogger(FlowConsumer.class);
+
+	private final WidgetStatus widgetStatus;
+	private final int credit;
+	private final int batchSize;
+	private final ScheduledExecutorService scheduler;
+	private final RunnableKey runnableKey;
+	private final int runnableId;
+	private final List<Inbox> inboxes = new CopyOnWriteArrayList<>();
+	private final Runnable drainTask = this::drain;
+	// set while a drain task is queued, running or waiting for the think time
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	// only touched by the drain task
+	private final Map<Class<?>, TypeSlot> slotsByType = new HashMap<>();
+	private final TypeSlot[] slots;
+	private final List<Widget<?>> batch;
+	private final RateController rateController;
+	private long nextBatchNanos;
+	private boolean paced;
+	private int nextInbox;
+
+	/**
+	 * @param id
+	 *            Id of the consumer in its keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this consumer, the rate, batch
+	 *            size and handlers are used
+	 * @param credit
+	 *            Widgets each publisher may have in flight, at least the
+	 *            batch size
+	 * @param scheduler
+	 *            Runs the batches
+	 */
+	public FlowConsumer(int id, WidgetStatus widgetStatus, ConnectorSettings settings, int credit,
+			ScheduledExecutorService scheduler) {
+		if (credit < settings.getBatchSize()) {
+			throw new IllegalArgumentException("credit " + credit + " below the batch size " + settings.getBatchSize());
+		}
+		this.widgetStatus = widgetStatus;
+		this.credit = credit;
+		this.batchSize = settings.getBatchSize();
+		this.scheduler = scheduler;
+		this.runnableKey = new RunnableKey(ConnectionType.CONSUMER, getClass().getSimpleName(), id);
+		this.runnableId = widgetStatus.register(runnableKey);
+		HandlerRegistry handlers = settings.getHandlers();
+		for (Class<?> type : handlers.getTypes()) {
+			WidgetStatusKey key = new WidgetStatusKey(ConnectionType.CONSUMER, Widget.typeName(type), id);
+			slotsByType.put(type, new TypeSlot(widgetStatus, widgetStatus.register(key), handlers.getHandler(type)));
+		}
+		this.slots = slotsByType.values().toArray(new TypeSlot[0]);
+		this.batch = new ArrayList<>(batchSize);
+		this.rateController = settings.getRate(Consumer.DEFAULT_RATE).newController();
+	}
+
+	/**
+	 * @return A new subscriber for one more publisher, subscribe it once
+	 */
+	public Flow.Subscriber<Widget<?>> subscriber() {
+		Inbox inbox = new Inbox();
+		inboxes.add(inbox);
+		return inbox;
+	}
+
+	/**
+	 * Wait until every publisher completed and what they sent was consumed<br>
+	 *
+	 * @param timeout
+	 *            Longest wait
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return true if finished, also without any subscriber
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return inboxes.isEmpty() || finished.await(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return runnableKey + "[inboxes=" + inboxes.size() + ", credit=" + credit + ", batchSize=" + batchSize + "]";
+	}
+
+	/**
+	 * Queue a drain task unless one is already pending
+	 */
+	private void signal() {
+		if (scheduled.compareAndSet(false, true)) {
+			submit(0);
+		}
+	}
+
+	private void submit(long delayNanos) {
+		try {
+			if (delayNanos > 0) {
+				scheduler.schedule(drainTask, delayNanos, TimeUnit.NANOSECONDS);
+			} else {
+				scheduler.execute(drainTask);
+			}
+		} catch (RejectedExecutionException e) {
+			logger.warn("{} stopped before its publishers completed", runnableKey);
+		}
+	}
+
+	/**
+	 * Take and handle one batch, then queue the next drain task or go idle
+	 */
+	private void drain() {
+		if (finished.getCount() == 0) {
+			return;
+		}
+		// an empty inbox is not a batch, it does not pay the think time
+		if (!paced) {
+			nextBatchNanos = rateController.next();
+			paced = true;
+		}
+		long wait = nextBatchNanos - System.nanoTime();
+		if (wait > 0) {
+			// keeps the scheduled flag
+			submit(wait);
+			return;
+		}
+		int taken = fillBatch();
+		if (taken == 0) {
+			if (allComplete()) {
+				logger.info("All publishers completed and inboxes drained.  Terminating {}", runnableKey);
+				widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+				finished.countDown();
+				return;
+			}
+			scheduled.set(false);
+			// a Widget or completion that arrived after the check
+			if (hasWork()) {
+				signal();
+			}
+			return;
+		}
+		paced = false;
+		// one clock read per batch, the whole batch left the inboxes together
+		long dequeuedNanos = System.nanoTime();
+		widgetStatus.addBatch(runnableId, taken, 0);
+		for (Widget<?> widget : batch) {
+			TypeSlot slot = slotsByType.get(widget.get().getClass());
+			if (slot == null) {
+				logger.error("{} - Consumed unexpected Widget of type {}", runnableKey,
+						widget.get().getClass().getSimpleName());
+				continue;
+			}
+			slot.count++;
+			slot.latency.record(dequeuedNanos - widget.getCreatedNanos());
+			slot.handler.handle(widget);
+			widget.recycle();
+		}
+		batch.clear();
+		// one update per type per batch
+		for (TypeSlot slot : slots) {
+			if (slot.count > 0) {
+				widgetStatus.addWidgetCount(slot.widgetKeyId, slot.count);
+				slot.count = 0;
+			}
+		}
+		// handled, so the publishers may send as many again
+		for (Inbox inbox : inboxes) {
+			if (inbox.taken > 0) {
+				inbox.subscription.request(inbox.taken);
+				inbox.taken = 0;
+			}
+		}
+		// keeps the scheduled flag, the next batch queues behind other consumers
+		submit(0);
+	}
+
+	/**
+	 * Take up to a batch from the inboxes, a few from each in turn
+	 *
+	 * @return Widgets taken
+	 */
+	private int fillBatch() {
+		int count = inboxes.size();
+		int emptyInARow = 0;
+		while (batch.size() < batchSize && emptyInARow < count) {
+			Inbox inbox = inboxes.get(nextInbox);
+			nextInbox = (nextInbox + 1) % count;
+			Widget<?> widget = inbox.widgets.poll();
+			if (widget == null) {
+				emptyInARow++;
+				continue;
+			}
+			emptyInARow = 0;
+			inbox.taken++;
+			batch.add(widget);
+		}
+		return batch.size();
+	}
+
+	private boolean allComplete() {
+		for (Inbox inbox : inboxes) {
+			if (!inbox.complete || !inbox.widgets.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean hasWork() {
+		for (Inbox inbox : inboxes) {
+			if (!inbox.widgets.isEmpty()) {
+				return true;
+			}
+		}
+		return allComplete();
+	}
+
+	/**
+	 * Subscriber of one publisher, parks what arrives for the drain task
+	 */
+	private final class Inbox implements Flow.Subscriber<Widget<?>> {
+
+		private final Queue<Widget<?>> widgets = new ConcurrentLinkedQueue<>();
+		private volatile Flow.Subscription subscription;
+		private volatile boolean complete;
+		// taken by the drain task and not yet requested again
+		private int taken;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			if (this.subscription != null) {
+				// rule 2.5
+				subscription.cancel();
+				return;
+			}
+			this.subscription = subscription;
+			subscription.request(credit);
+		}
+
+		@Override
+		public void onNext(Widget<?> widget) {
+			widgets.offer(widget);
+			signal();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			logger.error("{} - publisher failed", runnableKey, throwable);
+			complete = true;
+			signal();
+		}
+
+		@Override
+		public void onComplete() {
+			complete = true;
+			signal();
+		}
+	}
+
+	/**
+	 * Counter, histogram and handler of one data type, only used by the drain
+	 * task
+	 */
+	private static final class TypeSlot {
+
+		private final int widgetKeyId;
+		private final LatencyHistogram latency;
+		private final WidgetHandler<Object> handler;
+		// Widgets of this type in the current batch
+		private int count;
+
+		@SuppressWarnings("unchecked")
+		private TypeSlot(WidgetStatus widgetStatus, int widgetKeyId, WidgetHandler<?> handler) {
+			this.widgetKeyId = widgetKeyId;
+			this.latency = widgetStatus.latencyHistogram(widgetKeyId);
+			this.handler = (WidgetHandler<Object>) handler;
+		}
+
+	}
+
+}
@@ -0,0 +1,235 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * String or Long {@link Widget} producer as a {@link Flow.Publisher}<br>
+ * <br>
+ * Widgets are only created against demand: each {@code request(n)} of the
+ * subscriber is credit for n more, and without credit the producer does no
+ * work and holds no thread. Emitting runs as tasks on a shared
+ * {@link ScheduledExecutorService}, at most one at a time per producer, and
+ * the pacing of the {@link RateSpec} becomes a delayed task instead of a
+ * parked thread. Widgets are stamped with their intended send time, so
+ * waiting for credit counts as latency the same way a full queue does.<br>
+ * One subscriber per producer. {@link #stop()} ends the stream with
+ * {@code onComplete}, at the latest after the current rate delay.
+ */
+public final class FlowProducer implements Flow.Publisher<Widget<?>> {
+
+	private static final Logger logger = LoggerFactory.getLogger(FlowProducer.class);
+
+	// Widgets per task before the thread is handed to other producers
+	private static final int MAX_BURST = 256;
+	private static final long NONE = Long.MIN_VALUE;
+	// handed to a second subscriber before the error
+	private static final Flow.Subscription REJECTED = new Flow.Subscription() {
+
+		@Override
+		public void request(long n) {
+		}
+
+		@Override
+		public void cancel() {
+		}
+	};
+
+	private final Connector connector;
+	private final int id;
+	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
+	private final ScheduledExecutorService scheduler;
+	private final AtomicReference<Emitter> emitter = new AtomicReference<>();
+	private volatile boolean stopped;
+
+	/**
+	 * @param connector
+	 *            {@link Connector#STRING_PRODUCER} or
+	 *            {@link Connector#LONG_PRODUCER}, picks the Widget type
+	 * @param id
+	 *            Id of the producer in its keys, there is no thread of its
+	 *            own to take it from
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this producer, the rate is used
+	 * @param scheduler
+	 *            Runs the emitting tasks
+	 */
+	public FlowProducer(Connector connector, int id, WidgetStatus widgetStatus, ConnectorSettings settings,
+			ScheduledExecutorService scheduler) {
+		if (connector != Connector.STRING_PRODUCER && connector != Connector.LONG_PRODUCER) {
+			throw new IllegalArgumentException("Not a String or Long producer: " + connector);
+		}
+		this.connector = connector;
+		this.id = id;
+		this.widgetStatus = widgetStatus;
+		this.settings = settings;
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Widget<?>> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber");
+		// checked first so a rejected subscriber registers no keys
+		if (emitter.get() != null || !emitter.compareAndSet(null, new Emitter(subscriber))) {
+			subscriber.onSubscribe(REJECTED);
+			subscriber.onError(new IllegalStateException(this + " already has a subscriber"));
+			return;
+		}
+		Emitter next = emitter.get();
+		subscriber.onSubscribe(next);
+		if (stopped) {
+			next.schedule();
+		}
+	}
+
+	/**
+	 * Stop producing and complete the subscriber<br>
+	 */
+	public void stop() {
+		stopped = true;
+		Emitter current = emitter.get();
+		if (current != null) {
+			current.schedule();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + connector.name() + "-" + id + "]";
+	}
+
+	/**
+	 * The subscription of the one subscriber, emits on the scheduler
+	 */
+	private final class Emitter implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super Widget<?>> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		// set while an emitting task is queued, running or waiting for the rate
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile boolean cancelled;
+		private volatile IllegalArgumentException invalidRequest;
+		// only touched by the emitting task
+		private final RunnableKey runnableKey;
+		private final int runnableId;
+		private final int producedId;
+		private final RateController rateController;
+		private final String suffix;
+		private long next;
+		private long pending = NONE;
+		private boolean done;
+
+		private Emitter(Flow.Subscriber<? super Widget<?>> subscriber) {
+			this.subscriber = subscriber;
+			this.runnableKey = new RunnableKey(connector.getConnectionType(), FlowProducer.class.getSimpleName(), id);
+			this.runnableId = widgetStatus.register(runnableKey);
+			String type = connector == Connector.STRING_PRODUCER ? String.class.getSimpleName()
+					: Long.class.getSimpleName();
+			this.producedId = widgetStatus.register(new WidgetStatusKey(connector.getConnectionType(), type, id));
+			RateSpec defaultRate = connector == Connector.STRING_PRODUCER ? StringProducer.DEFAULT_RATE
+					: LongProducer.DEFAULT_RATE;
+			this.rateController = settings.getRate(defaultRate).newController();
+			this.suffix = "-" + runnableKey;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("request must be positive: " + n);
+			} else {
+				demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Queue an emitting task unless one is already pending
+		 */
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				submit(0);
+			}
+		}
+
+		private void submit(long delayNanos) {
+			try {
+				if (delayNanos > 0) {
+					scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+				} else {
+					scheduler.execute(this);
+				}
+			} catch (RejectedExecutionException e) {
+				// the scheduler only shuts down once every stream completed
+				logger.warn("{} stopped without completing", runnableKey);
+			}
+		}
+
+		@Override
+		public void run() {
+			for (int burst = 0; !done; burst++) {
+				if (cancelled) {
+					finish();
+				} else if (invalidRequest != null) {
+					// rule 3.9
+					finish();
+					subscriber.onError(invalidRequest);
+				} else if (stopped) {
+					finish();
+					subscriber.onComplete();
+				} else if (demand.get() == 0) {
+					break;
+				} else if (burst == MAX_BURST) {
+					// keeps the scheduled flag, the task continues behind the others
+					submit(0);
+					return;
+				} else {
+					if (pending == NONE) {
+						pending = rateController.next();
+					}
+					long wait = pending - System.nanoTime();
+					if (wait > 0) {
+						submit(wait);
+						return;
+					}
+					demand.decrementAndGet();
+					Widget<?> widget = connector == Connector.STRING_PRODUCER
+							? new Widget<String>(StringProducer.PREFIX + next++ + suffix, pending)
+							: new Widget<Long>(next++, pending);
+					pending = NONE;
+					widgetStatus.addWidgetCount(producedId, 1);
+					subscriber.onNext(widget);
+				}
+			}
+			scheduled.set(false);
+			// a request or stop that arrived after the checks above
+			if (!done && (demand.get() > 0 || stopped || cancelled || invalidRequest != null)) {
+				schedule();
+			}
+		}
+
+		private void finish() {
+			done = true;
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+			logger.info("{} finished after {} Widgets", runnableKey, next);
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Length-prefixed binary frames over a blocking {@link SocketChannel}, the
+ * transport between the processes of a distributed run<br>
+ * <br>
+ * A frame is {@code [int length][byte type][payload]}, the length counting
+ * the type and the payload. A sender fills the payload after
+ * {@link #begin(byte)}, growing it with {@link #ensure(int)}, and writes the
+ * frame with {@link #send()}. A receiver gets the type from
+ * {@link #receive()}, or {@link #poll()} when it must not wait, and reads the
+ * payload from {@link #payload()}. Both buffers are reused, so steady traffic allocates nothing. See
+ * {@link WireCodec} for what the payloads hold.<br>
+ * One thread may send while another receives.
+ */
+public final class FrameChannel implements Closeable {
+
+	// frame types
+	public static final byte BATCH = 1;
+	public static final byte CREDIT = 2;
+	public static final byte END = 3;
+	public static final byte HELLO = 4;
+	public static final byte START = 5;
+	public static final byte STOP = 6;
+	public static final byte STATUS = 7;
+	/**
+	 * Returned by {@link #receive()} once the peer closed between frames
+	 */
+	public static final byte CLOSED = -1;
+	/**
+	 * Returned by {@link #poll()} when no frame has arrived
+	 */
+	public static final byte NONE = 0;
+
+	private static final int HEADER_BYTES = Integer.BYTES + 1;
+	private static final int MAX_FRAME_BYTES = 64 << 20;
+	private static final int INITIAL_BYTES = 64 << 10;
+
+	private final SocketChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+	private ByteBuffer out = ByteBuffer.allocate(INITIAL_BYTES);
+	private ByteBuffer in = ByteBuffer.allocate(INITIAL_BYTES);
+
+	/**
+	 * @param channel
+	 *            Connected channel in blocking mode
+	 * @throws IOException
+	 *             If the socket options cannot be set
+	 */
+	public FrameChannel(SocketChannel channel) throws IOException {
+		this.channel = channel;
+		// frames are whole batches already, do not hold them back
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	/**
+	 * @param address
+	 *            Address to connect to
+	 * @return A channel connected to the address
+	 * @throws IOException
+	 *             If the connection fails
+	 */
+	public static FrameChannel connect(InetSocketAddress address) throws IOException {
+		return new FrameChannel(SocketChannel.open(address));
+	}
+
+	/**
+	 * Start a frame, discarding one begun and not sent<br>
+	 *
+	 * @param type
+	 *            Frame type
+	 * @return The buffer to put the payload in
+	 */
+	public ByteBuffer begin(byte type) {
+		out.clear();
+		out.position(Integer.BYTES);
+		out.put(type);
+		return out;
+	}
+
+	/**
+	 * Make room in the frame being built<br>
+	 *
+	 * @param bytes
+	 *            Bytes about to be put
+	 * @return The buffer to continue with, it may have been replaced
+	 */
+	public ByteBuffer ensure(int bytes) {
+		if (out.remaining() < bytes) {
+			int required = out.position() + bytes;
+			if (required > MAX_FRAME_BYTES) {
+				throw new IllegalStateException("Frame past " + MAX_FRAME_BYTES + " bytes: " + required);
+			}
+			ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_FRAME_BYTES, Math.max(required, out.capacity() * 2)));
+			out.flip();
+			grown.put(out);
+			out = grown;
+		}
+		return out;
+	}
+
+	/**
+	 * Write the frame begun with {@link #begin(byte)}<br>
+	 *
+	 * @throws IOException
+	 *             If the peer is gone
+	 */
+	public void send() throws IOException {
+		out.putInt(0, out.position() - Integer.BYTES);
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Send a frame without payload<br>
+	 *
+	 * @param type
+	 *            Frame type
+	 * @throws IOException
+	 *             If the peer is gone
+	 */
+	public void send(byte type) throws IOException {
+		begin(type);
+		send();
+	}
+
+	/**
+	 * Send a frame holding one int, e.g. a credit<br>
+	 *
+	 * @param type
+	 *            Frame type
+	 * @param value
+	 *            The payload
+	 * @throws IOException
+	 *             If the peer is gone
+	 */
+	public void send(byte type, int value) throws IOException {
+		begin(type).putInt(value);
+		send();
+	}
+
+	/**
+	 * Wait for the next frame<br>
+	 *
+	 * @return Its type, {@link #CLOSED} if the peer closed between frames
+	 * @throws IOException
+	 *             If the peer closed within a frame or the frame is too large
+	 */
+	public byte receive() throws IOException {
+		header.clear();
+		if (!readFully(header, true)) {
+			return CLOSED;
+		}
+		return readFrame();
+	}
+
+	/**
+	 * Receive the next frame if it has begun to arrive, without waiting for
+	 * one<br>
+	 *
+	 * @return Its type, {@link #NONE} if nothing arrived, {@link #CLOSED} if
+	 *         the peer closed between frames
+	 * @throws IOException
+	 *             If the peer closed within a frame or the frame is too large
+	 */
+	public byte poll() throws IOException {
+		header.clear();
+		int read;
+		channel.configureBlocking(false);
+		try {
+			read = channel.read(header);
+		} finally {
+			channel.configureBlocking(true);
+		}
+		if (read < 0) {
+			return CLOSED;
+		}
+		if (read == 0) {
+			return NONE;
+		}
+		// the peer writes whole frames, the rest follows
+		readFully(header, false);
+		return readFrame();
+	}
+
+	private byte readFrame() throws IOException {
+		int length = header.getInt(0);
+		if (length < 1 || length > MAX_FRAME_BYTES) {
+			throw new IOException("Bad frame length " + length);
+		}
+		int payloadBytes = length - 1;
+		if (in.capacity() < payloadBytes) {
+			in = ByteBuffer.allocate(Math.max(payloadBytes, in.capacity() * 2));
+		}
+		in.clear();
+		in.limit(payloadBytes);
+		readFully(in, false);
+		in.flip();
+		return header.get(Integer.BYTES);
+	}
+
+	/**
+	 * @return The payload of the frame last received, valid until the next
+	 *         {@link #receive()}
+	 */
+	public ByteBuffer payload() {
+		return in;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + channel + "]";
+	}
+
+	/**
+	 * @return false if the peer closed before the first byte, when allowed
+	 */
+	private boolean readFully(ByteBuffer buffer, boolean closeAllowed) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				if (closeAllowed && buffer.position() == 0) {
+					return false;
+				}
+				throw new EOFException("Peer closed within a frame");
+			}
+		}
+		return true;
+	}
+
+}
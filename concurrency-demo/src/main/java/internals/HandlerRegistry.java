@@ -0,0 +1,141 @@
+package internals;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link WidgetHandler} per {@link Widget} data type<br>
+ * A {@link Consumer} registers a counter and a latency histogram for every
+ * type in its registry and dispatches each Widget on the exact class of its
+ * data, so a new type only needs a registration, not a new branch in the
+ * consumer loop. Widgets of unregistered types are logged as errors. Types
+ * are counted under {@link Widget#typeName(Class)}, so the {@link TextBuffer}
+ * of pooled Widgets adds to String.<br>
+ * Instances are immutable, create them with {@link #builder()}.
+ */
+public final class HandlerRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(HandlerRegistry.class);
+
+	private static final HandlerRegistry DEFAULTS = builder().register(String.class, logging(String.class))
+			.register(TextBuffer.class, logging(TextBuffer.class)).register(Long.class, logging(Long.class)).build();
+
+	private final Map<Class<?>, WidgetHandler<?>> handlers;
+
+	private HandlerRegistry(Builder builder) {
+		this.handlers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.handlers));
+	}
+
+	/**
+	 * @return String, pooled String and Long handlers that log each Widget at
+	 *         debug level
+	 */
+	public static HandlerRegistry defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * @return A new, empty {@link Builder}
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param type
+	 *            The Widget data type
+	 * @return A handler that logs each Widget of the type at debug level
+	 */
+	public static <T> WidgetHandler<T> logging(Class<T> type) {
+		String name = Widget.typeName(type);
+		return widget -> logger.debug("{} Consumed: {}", name, widget.get());
+	}
+
+	/**
+	 * @return The registered data types in registration order
+	 */
+	public Set<Class<?>> getTypes() {
+		return handlers.keySet();
+	}
+
+	/**
+	 * @param type
+	 *            The exact Widget data class
+	 * @return The handler, null if the type is not registered
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> WidgetHandler<T> getHandler(Class<T> type) {
+		return (WidgetHandler<T>) handlers.get(type);
+	}
+
+	/**
+	 * @param types
+	 *            Data types to keep
+	 * @return A registry with only the handlers of the given types, e.g. for
+	 *         the consumers of one {@link TypedLanes} lane
+	 */
+	public HandlerRegistry only(Set<Class<?>> types) {
+		Builder builder = builder();
+		handlers.forEach((type, handler) -> {
+			if (types.contains(type)) {
+				builder.handlers.put(type, handler);
+			}
+		});
+		return builder.build();
+	}
+
+	/**
+	 * @return The counted type names in registration order, a name shared by
+	 *         several types is listed once
+	 */
+	@Override
+	public String toString() {
+		Set<String> names = new LinkedHashSet<>();
+		for (Class<?> type : handlers.keySet()) {
+			names.add(Widget.typeName(type));
+		}
+		return String.join(",", names);
+	}
+
+	/**
+	 * Builder for {@link HandlerRegistry}<br>
+	 */
+	public static final class Builder {
+
+		private final Map<Class<?>, WidgetHandler<?>> handlers = new LinkedHashMap<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param type
+		 *            The exact Widget data class, subclasses are not matched
+		 * @param handler
+		 *            The {@link WidgetHandler} for the type, replaces an
+		 *            earlier one
+		 * @return this Builder
+		 */
+		public <T> Builder register(Class<T> type, WidgetHandler<? super T> handler) {
+			handlers.put(Objects.requireNonNull(type), Objects.requireNonNull(handler));
+			return this;
+		}
+
+		/**
+		 * @return The immutable {@link HandlerRegistry}
+		 */
+		public HandlerRegistry build() {
+			if (handlers.isEmpty()) {
+				throw new IllegalArgumentException("At least one handler is needed");
+			}
+			return new HandlerRegistry(this);
+		}
+	}
+
+}
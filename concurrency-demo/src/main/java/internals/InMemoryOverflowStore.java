@@ -0,0 +1,68 @@
+package internals;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Heap {@link OverflowStore} with a size limit<br>
+ * Unlike the main queue it allocates a node per element, which is fine for
+ * occasional overflow but not as the steady state.
+ *
+ * @param <E>
+ *            The element type
+ */
+public final class InMemoryOverflowStore<E> implements OverflowStore<E> {
+
+	private final ConcurrentLinkedQueue<E> elements = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final int capacity;
+
+	/**
+	 * @param capacity
+	 *            Maximum number of elements
+	 */
+	public InMemoryOverflowStore(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		Objects.requireNonNull(e);
+		// reserve the room first so concurrent offers cannot overshoot
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			return false;
+		}
+		elements.offer(e);
+		return true;
+	}
+
+	@Override
+	public E peek() {
+		return elements.peek();
+	}
+
+	@Override
+	public E poll() {
+		E e = elements.poll();
+		if (e != null) {
+			size.decrementAndGet();
+		}
+		return e;
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[capacity=" + capacity + ", size=" + size() + "]";
+	}
+
+}
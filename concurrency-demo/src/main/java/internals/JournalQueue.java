@@ -0,0 +1,823 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persistent queue of String and Long {@link Widget}s on memory-mapped
+ * segment files, usable as the main queue or as an {@link OverflowStore}<br>
+ * <br>
+ * Records are appended to the current segment and never span two. A record
+ * is {@code [int length][byte type][long createdNanos][payload]}, where the
+ * payload is UTF-8 for Strings and 8 bytes for Longs. The length is written
+ * last, so a record torn by a crash ends the segment instead of being read.
+ * A length of -1 marks the end of a full segment, 0 the end of the data.
+ * Pooled {@link TextBuffer} Widgets are stored as Strings and recycled once
+ * written. An end-of-stream marker is only held in memory, so a restart does
+ * not replay it, and is handed out once every record was taken.<br>
+ * <br>
+ * A segment is forced to disk every {@link #getSyncEvery()} records and once
+ * it is full, so a crash loses at most the records since the last force.<br>
+ * <br>
+ * The read position lives in a small mapped index file, so on restart the
+ * queue replays every record that was not consumed. Replayed Widgets are
+ * stamped with the time they were reopened since System.nanoTime() does not
+ * carry over between runs. A fully consumed segment is deleted once its
+ * file can be: Windows refuses while the segment is still mapped, so a
+ * failed delete is retried with the next consumed segment, on close and at
+ * the next startup.<br>
+ * <br>
+ * The directory is locked while the queue is open, so a second JournalQueue
+ * on it, in this process or another, fails instead of reading the same
+ * records.<br>
+ * <br>
+ * Like LinkedBlockingQueue there is one lock for producers and one for
+ * consumers, so a put and a take never wait for each other. The bound is on
+ * disk, {@link #getMaxSegments()} live segments, not on the number of
+ * Widgets. {@link #drain(RecordHandler, int)} hands a reader the mapped
+ * bytes directly. A {@link Consumer} does not use it, its
+ * {@link WidgetHandler}s work on Widgets, so it takes them through
+ * {@link #drainTo(Collection, int)}, which decodes each record into a new
+ * Widget. The iterator is not supported.
+ */
+public final class JournalQueue extends AbstractQueue<Widget<?>>
+		implements BlockingQueue<Widget<?>>, OverflowStore<Widget<?>>, Closeable {
+
+	/**
+	 * System property with the parent directory of the journals
+	 */
+	public static final String DIRECTORY_PROPERTY = "journalDir";
+
+	// record type tags
+	public static final byte STRING = 1;
+	public static final byte LONG = 2;
+
+	private static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+	private static final int DEFAULT_MAX_SEGMENTS = 16;
+	private static final int DEFAULT_SYNC_EVERY = 1_000;
+
+	private static final int LENGTH_BYTES = 4;
+	// type and createdNanos
+	private static final int HEADER_BYTES = 1 + 8;
+	private static final int END_OF_SEGMENT = -1;
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String INDEX_FILE = "read.idx";
+	private static final String LOCK_FILE = "journal.lock";
+
+	/**
+	 * Receives records without copying them off the mapped segment<br>
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * @param type
+		 *            {@link JournalQueue#STRING} or {@link JournalQueue#LONG}
+		 * @param createdNanos
+		 *            System.nanoTime() the Widget was created
+		 * @param payload
+		 *            The payload bytes between position and limit, only valid
+		 *            during the call
+		 */
+		void onRecord(byte type, long createdNanos, ByteBuffer payload);
+	}
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final int maxSegments;
+	private final int syncEvery;
+	private final ConcurrentMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+	private final MappedByteBuffer index;
+	// holds the lock on the directory until closed
+	private final FileChannel lockChannel;
+	private final AtomicInteger count = new AtomicInteger();
+
+	private final ReentrantLock putLock = new ReentrantLock();
+	private final Condition notFull = putLock.newCondition();
+	private final ReentrantLock takeLock = new ReentrantLock();
+	private final Condition notEmpty = takeLock.newCondition();
+
+	// guarded by putLock
+	private volatile long writeSegment;
+	private MappedByteBuffer writeBuffer;
+	private ByteBuffer writeView;
+	private int writeOffset;
+	private int unsyncedWrites;
+	// record bytes and records appended so far, for the remainingCapacity() estimate
+	private volatile long appendedBytes;
+	private volatile long appendedRecords;
+
+	// guarded by takeLock
+	private volatile long readSegment;
+	private ByteBuffer readView;
+	private int readOffset;
+	private int unsyncedReads;
+	private boolean freedSegment;
+	// consumed segments whose files are not deleted yet, under the take lock
+	private final List<Long> consumedSegments = new ArrayList<>();
+	// Widget.endOfStream() marker waiting for the journal to empty
+	private volatile Widget<?> endOfStream;
+
+	// records before this position were written by an earlier run
+	private final long replayEndSegment;
+	private final int replayEndOffset;
+	private final long openNanos = System.nanoTime();
+
+	/**
+	 * Open or create a journal with the default sizes, 16 segments of 64 MB
+	 * forced every 1000 records<br>
+	 *
+	 * @param directory
+	 *            Directory of this journal, created if needed
+	 */
+	public JournalQueue(Path directory) {
+		this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS, DEFAULT_SYNC_EVERY);
+	}
+
+	/**
+	 * Open or create a journal, replaying what an earlier run left behind<br>
+	 *
+	 * @param directory
+	 *            Directory of this journal, created if needed
+	 * @param segmentBytes
+	 *            Size of each segment file, keep it the same between runs
+	 * @param maxSegments
+	 *            Most segments on disk at once, producers wait beyond that
+	 * @param syncEvery
+	 *            Records written between forcing the segment to disk
+	 * @throws UncheckedIOException
+	 *             if the files cannot be opened or mapped
+	 * @throws IllegalStateException
+	 *             if another JournalQueue has the directory open
+	 */
+	public JournalQueue(Path directory, int segmentBytes, int maxSegments, int syncEvery) {
+		if (segmentBytes < 64 || maxSegments < 2 || syncEvery < 1) {
+			throw new IllegalArgumentException(
+					"Bad journal sizes: " + segmentBytes + ", " + maxSegments + ", " + syncEvery);
+		}
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.maxSegments = maxSegments;
+		this.syncEvery = syncEvery;
+		try {
+			Files.createDirectories(directory);
+			lockChannel = lock(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot open journal " + directory, e);
+		}
+		try {
+			index = map(directory.resolve(INDEX_FILE), Long.BYTES);
+			recover();
+		} catch (IOException e) {
+			closeQuietly(lockChannel, e);
+			throw new UncheckedIOException("Cannot open journal " + directory, e);
+		} catch (RuntimeException e) {
+			closeQuietly(lockChannel, e);
+			throw e;
+		}
+		replayEndSegment = writeSegment;
+		replayEndOffset = writeOffset;
+	}
+
+	/**
+	 * @param name
+	 *            Name of the journal
+	 * @return The journal's directory under the {@link #DIRECTORY_PROPERTY},
+	 *         default {@code journal}
+	 */
+	public static Path directory(String name) {
+		return Paths.get(System.getProperty(DIRECTORY_PROPERTY, "journal"), name);
+	}
+
+	/**
+	 * @return Records written between forcing the segment to disk
+	 */
+	public int getSyncEvery() {
+		return syncEvery;
+	}
+
+	/**
+	 * @return Most segments on disk at once
+	 */
+	public int getMaxSegments() {
+		return maxSegments;
+	}
+
+	@Override
+	public boolean offer(Widget<?> widget) {
+		try {
+			return append(widget, false, false, 0L);
+		} catch (InterruptedException e) {
+			// cannot happen, offer never waits
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public void put(Widget<?> widget) throws InterruptedException {
+		append(widget, true, false, 0L);
+	}
+
+	@Override
+	public boolean offer(Widget<?> widget, long timeout, TimeUnit unit) throws InterruptedException {
+		return append(widget, true, true, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	@Override
+	public Widget<?> poll() {
+		if (count.get() == 0 && endOfStream == null) {
+			return null;
+		}
+		takeLock.lock();
+		try {
+			return count.get() == 0 ? takeEndOfStream() : read(true);
+		} finally {
+			unlockTake();
+		}
+	}
+
+	@Override
+	public Widget<?> take() throws InterruptedException {
+		takeLock.lockInterruptibly();
+		try {
+			while (count.get() == 0) {
+				if (endOfStream != null) {
+					return takeEndOfStream();
+				}
+				notEmpty.await();
+			}
+			return read(true);
+		} finally {
+			unlockTake();
+		}
+	}
+
+	@Override
+	public Widget<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		takeLock.lockInterruptibly();
+		try {
+			while (count.get() == 0) {
+				if (endOfStream != null) {
+					return takeEndOfStream();
+				}
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return read(true);
+		} finally {
+			unlockTake();
+		}
+	}
+
+	@Override
+	public Widget<?> peek() {
+		if (count.get() == 0) {
+			return null;
+		}
+		takeLock.lock();
+		try {
+			return count.get() == 0 ? null : read(false);
+		} finally {
+			unlockTake();
+		}
+	}
+
+	/**
+	 * Consume up to maxRecords records that are ready, handing each to the
+	 * handler straight from the mapped segment<br>
+	 * For readers that can work on the bytes, nothing is copied or decoded.
+	 * The end-of-stream marker is not a record, {@link #poll()} hands it out.
+	 *
+	 * @param handler
+	 *            {@link RecordHandler} called once per record under the
+	 *            consumer lock
+	 * @param maxRecords
+	 *            Most records to consume
+	 * @return Number of records consumed
+	 */
+	public int drain(RecordHandler handler, int maxRecords) {
+		Objects.requireNonNull(handler);
+		if (count.get() == 0) {
+			return 0;
+		}
+		int n = 0;
+		takeLock.lock();
+		try {
+			while (n < maxRecords && count.get() > 0) {
+				int length = seekRecord();
+				int start = readOffset + LENGTH_BYTES;
+				((Buffer) readView).limit(start + length).position(start + HEADER_BYTES);
+				try {
+					handler.onRecord(readView.get(start), createdNanos(readView.getLong(start + 1)), readView);
+				} finally {
+					((Buffer) readView).limit(readView.capacity());
+				}
+				consume(length);
+				n++;
+			}
+		} finally {
+			unlockTake();
+		}
+		return n;
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		int n = 0;
+		takeLock.lock();
+		try {
+			while (n < maxElements && count.get() > 0) {
+				c.add(read(true));
+				n++;
+			}
+		} finally {
+			unlockTake();
+		}
+		return n;
+	}
+
+	@Override
+	public int size() {
+		return count.get();
+	}
+
+	/**
+	 * Estimate how many more Widgets fit on disk: the room left in the current
+	 * segment and in the segments not yet created, over the mean size of the
+	 * records appended so far. Before the first record the smallest record,
+	 * a Long, is assumed. Read without the producer lock, like size().<br>
+	 *
+	 * @return Widgets that fit before producers have to wait, 0 when they may
+	 *         have to wait now
+	 */
+	@Override
+	public int remainingCapacity() {
+		long records = appendedRecords;
+		long meanRecordBytes = records == 0 ? LENGTH_BYTES + HEADER_BYTES + Long.BYTES
+				: (appendedBytes + records - 1) / records;
+		// each segment keeps room for its end marker
+		long usable = segmentBytes - LENGTH_BYTES;
+		long current = Math.max(0, usable - writeOffset) / meanRecordBytes;
+		long unopened = Math.max(0, maxSegments - liveSegments()) * (usable / meanRecordBytes);
+		// size() plus this still fits an int
+		return (int) Math.min(current + unopened, Integer.MAX_VALUE - (long) size());
+	}
+
+	/**
+	 * Not supported, the journal may hold far more than fits on the heap
+	 */
+	@Override
+	public Iterator<Widget<?>> iterator() {
+		throw new UnsupportedOperationException("JournalQueue cannot be iterated");
+	}
+
+	/**
+	 * Force the written records and the read position to disk<br>
+	 */
+	public void sync() {
+		putLock.lock();
+		try {
+			writeBuffer.force();
+			unsyncedWrites = 0;
+		} finally {
+			putLock.unlock();
+		}
+		takeLock.lock();
+		try {
+			index.force();
+			unsyncedReads = 0;
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	/**
+	 * Force everything to disk, unconsumed records are replayed by the next
+	 * JournalQueue opened on the directory<br>
+	 */
+	@Override
+	public void close() {
+		try {
+			sync();
+			takeLock.lock();
+			try {
+				deleteConsumedSegments();
+			} finally {
+				takeLock.unlock();
+			}
+		} finally {
+			try {
+				// releases the lock on the directory
+				lockChannel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot unlock journal " + directory, e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[directory=" + directory + ", size=" + size() + ", segments="
+				+ liveSegments() + "/" + maxSegments + "]";
+	}
+
+	/**
+	 * Append a record, waiting for a free segment if wait is set<br>
+	 *
+	 * @return false if no segment was free in time
+	 */
+	private boolean append(Widget<?> widget, boolean wait, boolean timed, long deadline)
+			throws InterruptedException {
+		if (widget.isEndOfStream()) {
+			takeLock.lock();
+			try {
+				endOfStream = widget;
+				notEmpty.signal();
+			} finally {
+				takeLock.unlock();
+			}
+			return true;
+		}
+		Object value = widget.get();
+		byte type;
+		byte[] text = null;
+		int payloadBytes;
+		if (value instanceof CharSequence) {
+			// pooled text is read back as a plain String
+			type = STRING;
+			text = value.toString().getBytes(StandardCharsets.UTF_8);
+			payloadBytes = text.length;
+		} else if (value instanceof Long) {
+			type = LONG;
+			payloadBytes = Long.BYTES;
+		} else {
+			throw new IllegalArgumentException("JournalQueue only holds String and Long Widgets: " + value);
+		}
+		int length = HEADER_BYTES + payloadBytes;
+		// the end marker must always fit after the last record
+		if (LENGTH_BYTES + length + LENGTH_BYTES > segmentBytes) {
+			throw new IllegalArgumentException("Widget of " + payloadBytes + " bytes does not fit a segment");
+		}
+
+		int previousCount;
+		if (wait) {
+			putLock.lockInterruptibly();
+		} else {
+			putLock.lock();
+		}
+		try {
+			if (writeOffset + LENGTH_BYTES + length + LENGTH_BYTES > segmentBytes) {
+				while (liveSegments() >= maxSegments) {
+					if (!wait) {
+						return false;
+					}
+					if (!timed) {
+						notFull.await();
+					} else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							return false;
+						}
+						notFull.awaitNanos(remaining);
+					}
+				}
+				roll();
+			}
+			int start = writeOffset + LENGTH_BYTES;
+			writeView.put(start, type);
+			writeView.putLong(start + 1, widget.getCreatedNanos());
+			((Buffer) writeView).position(start + HEADER_BYTES);
+			if (text != null) {
+				writeView.put(text);
+			} else {
+				writeView.putLong((Long) value);
+			}
+			// the length commits the record
+			writeView.putInt(writeOffset, length);
+			writeOffset = start + length;
+			appendedBytes += LENGTH_BYTES + length;
+			appendedRecords++;
+			if (++unsyncedWrites >= syncEvery) {
+				writeBuffer.force();
+				unsyncedWrites = 0;
+			}
+			previousCount = count.getAndIncrement();
+		} finally {
+			putLock.unlock();
+		}
+		if (previousCount == 0) {
+			takeLock.lock();
+			try {
+				notEmpty.signal();
+			} finally {
+				takeLock.unlock();
+			}
+		}
+		// the record holds a copy, a pooled Widget can be reused
+		widget.recycle();
+		return true;
+	}
+
+	private void roll() {
+		writeView.putInt(writeOffset, END_OF_SEGMENT);
+		writeBuffer.force();
+		long next = writeSegment + 1;
+		// mapped before any record in it is counted, so readers always find it
+		openWriteSegment(next, mapSegment(next));
+		unsyncedWrites = 0;
+	}
+
+	private void openWriteSegment(long segment, MappedByteBuffer buffer) {
+		writeBuffer = buffer;
+		writeView = buffer.duplicate();
+		writeOffset = 0;
+		writeSegment = segment;
+	}
+
+	/**
+	 * @return The length of the record at the read position, moving to the
+	 *         next segment if this one is finished
+	 */
+	private int seekRecord() {
+		for (;;) {
+			int length = readView.getInt(readOffset);
+			if (length != END_OF_SEGMENT) {
+				return length;
+			}
+			long finished = readSegment;
+			readView = segments.get(finished + 1).duplicate();
+			readOffset = 0;
+			readSegment = finished + 1;
+			index.putLong(0, pack(readSegment, readOffset));
+			index.force();
+			segments.remove(finished);
+			freedSegment = true;
+			consumedSegments.add(finished);
+			deleteConsumedSegments();
+		}
+	}
+
+	/**
+	 * Delete the files of consumed segments, keeping those that fail for the
+	 * next try. A file still mapped cannot be deleted on Windows until the
+	 * mapping is collected, {@link #recover()} deletes what is left.
+	 */
+	private void deleteConsumedSegments() {
+		for (Iterator<Long> it = consumedSegments.iterator(); it.hasNext();) {
+			try {
+				Files.deleteIfExists(segmentPath(it.next()));
+				it.remove();
+			} catch (IOException e) {
+				// still mapped, retried later
+			}
+		}
+	}
+
+	private Widget<?> read(boolean consume) {
+		int length = seekRecord();
+		int start = readOffset + LENGTH_BYTES;
+		byte type = readView.get(start);
+		long createdNanos = createdNanos(readView.getLong(start + 1));
+		Widget<?> widget;
+		if (type == STRING) {
+			byte[] text = new byte[length - HEADER_BYTES];
+			((Buffer) readView).position(start + HEADER_BYTES);
+			readView.get(text);
+			widget = new Widget<>(new String(text, StandardCharsets.UTF_8), createdNanos);
+		} else {
+			widget = new Widget<>(readView.getLong(start + HEADER_BYTES), createdNanos);
+		}
+		if (consume) {
+			consume(length);
+		}
+		return widget;
+	}
+
+	private void consume(int length) {
+		readOffset += LENGTH_BYTES + length;
+		index.putLong(0, pack(readSegment, readOffset));
+		if (++unsyncedReads >= syncEvery) {
+			index.force();
+			unsyncedReads = 0;
+		}
+		count.getAndDecrement();
+	}
+
+	private long createdNanos(long stored) {
+		boolean replayed = readSegment < replayEndSegment
+				|| (readSegment == replayEndSegment && readOffset < replayEndOffset);
+		return replayed ? openNanos : stored;
+	}
+
+	/**
+	 * Hand out the end-of-stream marker, the caller holds takeLock and has
+	 * seen the journal empty
+	 *
+	 * @return The marker, null if none was posted
+	 */
+	private Widget<?> takeEndOfStream() {
+		Widget<?> marker = endOfStream;
+		endOfStream = null;
+		return marker;
+	}
+
+	/**
+	 * Pass the wake-up on to the next waiting consumer while records remain,
+	 * release the consumer lock, then wake producers waiting for a segment if
+	 * one was freed
+	 */
+	private void unlockTake() {
+		if (count.get() > 0) {
+			notEmpty.signal();
+		}
+		boolean freed = freedSegment;
+		freedSegment = false;
+		takeLock.unlock();
+		if (freed) {
+			putLock.lock();
+			try {
+				notFull.signalAll();
+			} finally {
+				putLock.unlock();
+			}
+		}
+	}
+
+	private long liveSegments() {
+		return writeSegment - readSegment + 1;
+	}
+
+	/**
+	 * Find the segments and positions an earlier run left behind
+	 */
+	private void recover() throws IOException {
+		long packed = index.getLong(0);
+		long indexSegment = packed >>> 32;
+		int indexOffset = (int) packed;
+		List<Long> existing = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				existing.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(existing);
+		// consumed segments a crash kept from being deleted
+		while (!existing.isEmpty() && existing.get(0) < indexSegment) {
+			Files.deleteIfExists(segmentPath(existing.remove(0)));
+		}
+		if (existing.isEmpty() || existing.get(0) != indexSegment) {
+			// nothing left at the read position, start reading at the first segment found
+			indexSegment = existing.isEmpty() ? indexSegment : existing.get(0);
+			indexOffset = 0;
+		}
+		if (existing.isEmpty()) {
+			existing.add(indexSegment);
+		}
+		for (long segment : existing) {
+			segments.put(segment, mapSegment(segment));
+		}
+		readSegment = indexSegment;
+		readOffset = indexOffset;
+		readView = segments.get(readSegment).duplicate();
+		index.putLong(0, pack(readSegment, readOffset));
+
+		long last = existing.get(existing.size() - 1);
+		MappedByteBuffer lastBuffer = segments.get(last);
+		int end = scan(lastBuffer, last == readSegment ? readOffset : 0, null);
+		if (end < 0) {
+			// the last segment was full but its successor was never created
+			openWriteSegment(last + 1, mapSegment(last + 1));
+		} else {
+			openWriteSegment(last, lastBuffer);
+			writeOffset = end;
+			// cut off a torn record so the next append does not run into it
+			writeView.putInt(writeOffset, 0);
+		}
+
+		int[] records = new int[1];
+		for (long segment = readSegment; segment <= last; segment++) {
+			scan(segments.get(segment), segment == readSegment ? readOffset : 0, records);
+		}
+		count.set(records[0]);
+	}
+
+	/**
+	 * Walk the records of a segment from an offset<br>
+	 *
+	 * @return Offset after the last record, -1 if the segment is full
+	 */
+	private int scan(ByteBuffer segment, int from, int[] records) {
+		int offset = from;
+		for (;;) {
+			if (offset + LENGTH_BYTES > segmentBytes) {
+				return offset;
+			}
+			int length = segment.getInt(offset);
+			if (length == END_OF_SEGMENT) {
+				return -1;
+			}
+			if (length < HEADER_BYTES || offset + LENGTH_BYTES + length + LENGTH_BYTES > segmentBytes) {
+				return offset;
+			}
+			if (records != null) {
+				records[0]++;
+			}
+			offset += LENGTH_BYTES + length;
+		}
+	}
+
+	private MappedByteBuffer mapSegment(long segment) {
+		try {
+			MappedByteBuffer buffer = map(segmentPath(segment), segmentBytes);
+			segments.put(segment, buffer);
+			return buffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot map segment " + segment, e);
+		}
+	}
+
+	private Path segmentPath(long segment) {
+		return directory.resolve(String.format("%016d%s", segment, SEGMENT_SUFFIX));
+	}
+
+	private static MappedByteBuffer map(Path file, int bytes) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+		}
+	}
+
+	private static FileChannel lock(Path directory) throws IOException {
+		FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// held by a JournalQueue of this process
+			lock = null;
+		} catch (IOException | RuntimeException e) {
+			closeQuietly(channel, e);
+			throw e;
+		}
+		if (lock == null) {
+			channel.close();
+			throw new IllegalStateException("Journal " + directory + " is open in another JournalQueue");
+		}
+		return channel;
+	}
+
+	private static void closeQuietly(FileChannel channel, Exception cause) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			cause.addSuppressed(e);
+		}
+	}
+
+	private static long pack(long segment, int offset) {
+		return segment << 32 | (offset & 0xFFFFFFFFL);
+	}
+
+}
@@ -0,0 +1,70 @@
+package internals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns each key a small dense int the first time it is registered, so
+ * that per-key state can live in flat arrays indexed by that id.<br>
+ * Registration locks and is meant for Runnable start-up. Lookups by id are
+ * lock free.
+ *
+ * @param <K>
+ *            The key type, with value equality
+ */
+final class KeyRegistry<K> {
+
+	private final Map<K, Integer> ids = new HashMap<>();
+	// grown by doubling, always written before size publishes the new key
+	private volatile Object[] keys = new Object[16];
+	private volatile int size;
+
+	/**
+	 * @param key
+	 *            The key to register
+	 * @return The id of the key, the same id if it was already registered
+	 */
+	synchronized int register(K key) {
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = size;
+			if (id == keys.length) {
+				keys = Arrays.copyOf(keys, id * 2);
+			}
+			keys[id] = key;
+			ids.put(key, id);
+			size = id + 1;
+		}
+		return id;
+	}
+
+	/**
+	 * @param key
+	 *            The key to look up
+	 * @return The id of the key, -1 if it was never registered
+	 */
+	synchronized int find(K key) {
+		Integer id = ids.get(key);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id
+	 *            An id below {@link #size()}
+	 * @return The key for the id
+	 */
+	@SuppressWarnings("unchecked")
+	K key(int id) {
+		return (K) keys[id];
+	}
+
+	/**
+	 * @return Number of registered keys, ids run from 0 to size - 1. Read
+	 *         before calling {@link #key(int)}.
+	 */
+	int size() {
+		return size;
+	}
+
+}
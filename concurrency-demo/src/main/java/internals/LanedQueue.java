@@ -0,0 +1,421 @@
+package internals;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+/**
+ * BlockingQueue made of one lock-free {@link SpscLane} per producer thread,
+ * fanned in by the consumers. Producers never share a cache line with each
+ * other, unlike a single {@link RingBufferQueue} where every put and take
+ * CASes the same tail or head.<br>
+ * <br>
+ * A thread gets its lane on its first offer and keeps it, so elements from
+ * one producer stay in order. A consumer thread takes a number with
+ * {@link #register()} and gives it back with {@link #deregister()}, which
+ * renumbers the others so the numbers stay dense. Consumer k owns the lanes
+ * whose index modulo the consumer count is k, polls them round-robin, and
+ * only steals from other lanes when all of its own are empty. A thread that
+ * polls without registering, like a producer dropping the oldest element,
+ * owns no lanes and only steals. A lane is polled by one consumer at a time,
+ * a stealer skips a lane its owner is polling.<br>
+ * <br>
+ * The capacity applies per lane, so {@link #remainingCapacity()} is the room
+ * left over all lanes and a producer may wait on its own full lane while
+ * others have room. Ordering holds within a lane only, {@link #peek()} and
+ * the iterator are weakly consistent, and remove is not supported.
+ *
+ * @param <E>
+ *            The element type
+ */
+public final class LanedQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+	private final int laneCapacity;
+	private final RingSignal signal;
+	private final ThreadLocal<SpscLane<E>> producerLane = ThreadLocal.withInitial(this::addLane);
+	// only set between register() and deregister()
+	private final ThreadLocal<Cursor> consumerCursor = new ThreadLocal<>();
+	private final BooleanSupplier canPoll = () -> !isEmpty();
+
+	// copy on write, lanes are never removed
+	private volatile SpscLane<E>[] lanes;
+	// copy on write, a consumer's number is its index
+	private volatile Cursor[] consumers = new Cursor[0];
+
+	/**
+	 * Create the queue with the {@link WaitStrategy#PARK} strategy<br>
+	 *
+	 * @param laneCapacity
+	 *            Maximum number of elements in each producer's lane
+	 */
+	public LanedQueue(int laneCapacity) {
+		this(laneCapacity, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Create the queue<br>
+	 *
+	 * @param laneCapacity
+	 *            Maximum number of elements in each producer's lane, at least
+	 *            1
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} used when a lane is full or all lanes
+	 *            are empty
+	 */
+	public LanedQueue(int laneCapacity, WaitStrategy waitStrategy) {
+		if (laneCapacity < 1) {
+			throw new IllegalArgumentException("laneCapacity must be at least 1: " + laneCapacity);
+		}
+		this.laneCapacity = laneCapacity;
+		this.signal = new RingSignal(Objects.requireNonNull(waitStrategy));
+		@SuppressWarnings("unchecked")
+		SpscLane<E>[] none = (SpscLane<E>[]) new SpscLane<?>[0];
+		this.lanes = none;
+	}
+
+	/**
+	 * @return The {@link WaitStrategy} of this queue
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return signal.getWaitStrategy();
+	}
+
+	/**
+	 * @return Number of producer lanes created so far
+	 */
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * @return Number of registered consumers
+	 */
+	public int getConsumerCount() {
+		return consumers.length;
+	}
+
+	/**
+	 * Make the calling thread a consumer that owns a share of the lanes, a
+	 * no-op if it already is one. Call {@link #deregister()} from the same
+	 * thread once it stops polling.<br>
+	 */
+	public synchronized void register() {
+		if (consumerCursor.get() != null) {
+			return;
+		}
+		Cursor cursor = new Cursor(consumers.length);
+		Cursor[] grown = Arrays.copyOf(consumers, consumers.length + 1);
+		grown[cursor.id] = cursor;
+		consumers = grown;
+		consumerCursor.set(cursor);
+	}
+
+	/**
+	 * Hand the calling thread's lanes to the remaining consumers, a no-op if
+	 * it is not registered<br>
+	 */
+	public synchronized void deregister() {
+		Cursor cursor = consumerCursor.get();
+		if (cursor == null) {
+			return;
+		}
+		consumerCursor.remove();
+		Cursor[] current = consumers;
+		Cursor[] shrunk = new Cursor[current.length - 1];
+		int index = 0;
+		for (Cursor other : current) {
+			if (other != cursor) {
+				// a consumer racing this sees a stale number for one poll, claims keep it safe
+				other.id = index;
+				shrunk[index++] = other;
+			}
+		}
+		consumers = shrunk;
+	}
+
+	/**
+	 * Register the calling thread if the queue is a LanedQueue, or a
+	 * {@link ProfilingQueue} of one<br>
+	 *
+	 * @param queue
+	 *            The queue the caller is about to consume
+	 * @return The queue to {@link #deregister()} from later, null if it is not
+	 *         a LanedQueue
+	 */
+	static LanedQueue<?> registerIfLaned(BlockingQueue<?> queue) {
+		if (queue instanceof ProfilingQueue) {
+			// the profiler calls through on the consumer's own thread
+			queue = ((ProfilingQueue) queue).getQueue();
+		}
+		if (!(queue instanceof LanedQueue)) {
+			return null;
+		}
+		LanedQueue<?> laned = (LanedQueue<?>) queue;
+		laned.register();
+		return laned;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		Objects.requireNonNull(e);
+		if (producerLane.get().offer(e)) {
+			signal.signal();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public E poll() {
+		SpscLane<E> lane = claimNext();
+		if (lane == null) {
+			return null;
+		}
+		E e;
+		try {
+			e = lane.poll();
+		} finally {
+			lane.release();
+		}
+		signal.signal();
+		return e;
+	}
+
+	@Override
+	public E peek() {
+		for (SpscLane<E> lane : lanes) {
+			E e = lane.peek();
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		Objects.requireNonNull(e);
+		SpscLane<E> lane = producerLane.get();
+		int attempt = 0;
+		while (!lane.offer(e)) {
+			signal.await(lane::hasRoom, ++attempt, false, 0L);
+		}
+		signal.signal();
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		Objects.requireNonNull(e);
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		SpscLane<E> lane = producerLane.get();
+		int attempt = 0;
+		while (!lane.offer(e)) {
+			if (!signal.await(lane::hasRoom, ++attempt, true, deadline)) {
+				return false;
+			}
+		}
+		signal.signal();
+		return true;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		int attempt = 0;
+		E e;
+		while ((e = poll()) == null) {
+			signal.await(canPoll, ++attempt, false, 0L);
+		}
+		return e;
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		E e;
+		while ((e = poll()) == null) {
+			if (!signal.await(canPoll, ++attempt, true, deadline)) {
+				return null;
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * @return Room left over all lanes, a full lane for a new producer when
+	 *         there are no lanes yet
+	 */
+	@Override
+	public int remainingCapacity() {
+		long total = (long) Math.max(1, lanes.length) * laneCapacity;
+		return (int) Math.min(Integer.MAX_VALUE, total - size());
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		int n = 0;
+		SpscLane<E> lane;
+		// drain a claimed lane before moving on to the next one
+		while (n < maxElements && (lane = claimNext()) != null) {
+			try {
+				E e;
+				while (n < maxElements && (e = lane.poll()) != null) {
+					c.add(e);
+					n++;
+				}
+			} finally {
+				lane.release();
+			}
+			signal.signal();
+		}
+		return n;
+	}
+
+	@Override
+	public int size() {
+		long size = 0;
+		for (SpscLane<E> lane : lanes) {
+			size += lane.size();
+		}
+		return (int) Math.min(Integer.MAX_VALUE, size);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (SpscLane<E> lane : lanes) {
+			if (!lane.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return A weakly consistent snapshot of the elements, lane by lane
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		for (SpscLane<E> lane : lanes) {
+			lane.snapshot(snapshot);
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[laneCapacity=" + laneCapacity + ", lanes=" + lanes.length + ", size="
+				+ size() + ", waitStrategy=" + signal.getWaitStrategy() + "]";
+	}
+
+	/**
+	 * Find and claim a lane with elements, own lanes round-robin first, then
+	 * the others. The caller must release the lane.
+	 *
+	 * @return The claimed lane, null if every lane was empty or claimed
+	 */
+	private SpscLane<E> claimNext() {
+		SpscLane<E>[] current = lanes;
+		int laneCount = current.length;
+		if (laneCount == 0) {
+			return null;
+		}
+		Cursor cursor = consumerCursor.get();
+		if (cursor == null) {
+			return steal(current, ThreadLocalRandom.current().nextInt(laneCount), -1, 1);
+		}
+		int stride = Math.max(1, consumers.length);
+		int home = cursor.id % stride;
+		int owned = home < laneCount ? (laneCount - home + stride - 1) / stride : 0;
+		for (int i = 0; i < owned; i++) {
+			int slot = (cursor.next + i) % owned;
+			if (claim(current[home + slot * stride])) {
+				// start after this lane next time
+				cursor.next = slot + 1;
+				return current[home + slot * stride];
+			}
+		}
+		// steal, each consumer starting at a different lane
+		return steal(current, cursor.id, home, stride);
+	}
+
+	/**
+	 * Claim the first lane with elements that another consumer owns<br>
+	 *
+	 * @param current
+	 *            The lanes
+	 * @param start
+	 *            Lane to look at first
+	 * @param home
+	 *            Lane number modulo stride of the caller's own lanes, -1 if
+	 *            it owns none
+	 * @param stride
+	 *            Number of consumers
+	 * @return The claimed lane, null if every lane was empty or claimed
+	 */
+	private SpscLane<E> steal(SpscLane<E>[] current, int start, int home, int stride) {
+		int laneCount = current.length;
+		for (int i = 0; i < laneCount; i++) {
+			int index = (start + i) % laneCount;
+			if (index % stride != home && claim(current[index])) {
+				return current[index];
+			}
+		}
+		return null;
+	}
+
+	private static boolean claim(SpscLane<?> lane) {
+		if (lane.isEmpty() || !lane.tryClaim()) {
+			return false;
+		}
+		// another consumer may have emptied it before we claimed it
+		if (lane.isEmpty()) {
+			lane.release();
+			return false;
+		}
+		return true;
+	}
+
+	private synchronized SpscLane<E> addLane() {
+		SpscLane<E> lane = new SpscLane<>(laneCapacity, signal.isBlocking());
+		SpscLane<E>[] grown = Arrays.copyOf(lanes, lanes.length + 1);
+		grown[grown.length - 1] = lane;
+		lanes = grown;
+		return lane;
+	}
+
+	/**
+	 * Per consumer thread position
+	 */
+	private static final class Cursor {
+
+		// index in consumers, rewritten when another consumer deregisters
+		private volatile int id;
+		// offset into the owned lanes to poll first
+		private int next;
+
+		private Cursor(int id) {
+			this.id = id;
+		}
+
+	}
+
+}
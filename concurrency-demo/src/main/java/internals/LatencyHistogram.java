@@ -0,0 +1,218 @@
+package internals;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size log-linear histogram of nanosecond latencies, in the style of
+ * HdrHistogram<br>
+ * Each power of two range is split into {@link #SUB_BUCKETS} linear buckets,
+ * so any recorded value is reported within about 1.6% using under 2000 counters in
+ * total. Recording does not allocate.<br>
+ * <br>
+ * One thread records, any thread may read. Readers see a weakly consistent
+ * view, counts recorded while reading may or may not be included.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	// linear buckets per power of two
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// largest tracked value is about 68 seconds, larger values count as that
+	private static final int MAX_EXPONENT = 35;
+	private static final long HIGHEST_TRACKABLE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = index(HIGHEST_TRACKABLE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record one latency, from the single recording thread<br>
+	 * 
+	 * @param nanos
+	 *            The latency, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		int index = index(Math.min(value, HIGHEST_TRACKABLE));
+		// single writer, ordered stores are enough and avoid a locked add
+		counts.lazySet(index, counts.get(index) + 1);
+		totalCount.lazySet(totalCount.get() + 1);
+		if (value > max.get()) {
+			max.lazySet(value);
+		}
+	}
+
+	/**
+	 * Add the counts of another histogram to this one, e.g. to merge the
+	 * histograms of several consumers into a new summary<br>
+	 * 
+	 * @param other
+	 *            The histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		long added = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = other.counts.get(i);
+			if (count != 0) {
+				counts.lazySet(i, counts.get(i) + count);
+				added += count;
+			}
+		}
+		totalCount.lazySet(totalCount.get() + added);
+		if (other.max.get() > max.get()) {
+			max.lazySet(other.max.get());
+		}
+	}
+
+	/**
+	 * The latencies recorded after an earlier copy of this histogram was
+	 * taken, e.g. to leave out a warmup<br>
+	 * The max of the difference is not known exactly, it is the highest value
+	 * of its top bucket, capped at the max of this histogram.
+	 * 
+	 * @param earlier
+	 *            A copy taken before, see {@link #add(LatencyHistogram)}
+	 * @return A new histogram with the difference
+	 */
+	public LatencyHistogram since(LatencyHistogram earlier) {
+		LatencyHistogram difference = new LatencyHistogram();
+		long total = 0;
+		int top = -1;
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = Math.max(0, counts.get(i) - earlier.counts.get(i));
+			if (count != 0) {
+				difference.counts.lazySet(i, count);
+				total += count;
+				top = i;
+			}
+		}
+		difference.totalCount.lazySet(total);
+		difference.max.lazySet(top < 0 ? 0 : Math.min(highestEquivalentValue(top), getMax()));
+		return difference;
+	}
+
+	/**
+	 * Write the non-zero buckets and the max, for {@link #readFrom(ByteBuffer)}
+	 * in another process<br>
+	 * 
+	 * @param out
+	 *            Buffer with room for {@link #maxBytes()}
+	 */
+	void writeTo(ByteBuffer out) {
+		int countPosition = out.position();
+		out.putInt(0);
+		int written = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = counts.get(i);
+			if (count != 0) {
+				out.putShort((short) i).putLong(count);
+				written++;
+			}
+		}
+		out.putInt(countPosition, written);
+		out.putLong(max.get());
+	}
+
+	/**
+	 * Add the buckets written by {@link #writeTo(ByteBuffer)}, from the single
+	 * recording thread<br>
+	 * 
+	 * @param in
+	 *            Buffer positioned at the histogram
+	 */
+	void readFrom(ByteBuffer in) {
+		int buckets = in.getInt();
+		long added = 0;
+		for (int i = 0; i < buckets; i++) {
+			int index = in.getShort();
+			long count = in.getLong();
+			counts.lazySet(index, counts.get(index) + count);
+			added += count;
+		}
+		totalCount.lazySet(totalCount.get() + added);
+		long otherMax = in.getLong();
+		if (otherMax > max.get()) {
+			max.lazySet(otherMax);
+		}
+	}
+
+	/**
+	 * @return Largest size of {@link #writeTo(ByteBuffer)}
+	 */
+	static int maxBytes() {
+		return Integer.BYTES + BUCKETS * (Short.BYTES + Long.BYTES) + Long.BYTES;
+	}
+
+	/**
+	 * @return Number of recorded latencies
+	 */
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return Largest recorded latency in nanos, exact
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile
+	 *            0 to 100, e.g. 99.9
+	 * @return The latency in nanos at or below which the percentile of
+	 *         recorded values fall, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return p50, p99, p99.9 and max in microseconds, plus the count
+	 */
+	@Override
+	public String toString() {
+		return "p50=" + micros(getValueAtPercentile(50)) + "us, p99=" + micros(getValueAtPercentile(99))
+				+ "us, p99.9=" + micros(getValueAtPercentile(99.9)) + "us, max=" + micros(getMax()) + "us, count="
+				+ getTotalCount();
+	}
+
+	private static String micros(long nanos) {
+		return String.format("%.1f", nanos / (double) TimeUnit.MICROSECONDS.toNanos(1));
+	}
+
+	static int index(long value) {
+		// values below SUB_BUCKETS get a bucket each, above that the top bits pick the bucket
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long lowest = (long) ((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
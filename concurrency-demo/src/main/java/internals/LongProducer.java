@@ -2,8 +2,6 @@ package internals;
 
 import java.time.ZonedDateTime;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,12 +13,13 @@ public final class LongProducer implements Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(LongProducer.class);
 
-	// this should be passed in
-	private static final int SECOND_DELAY = 1;
+	// one Widget a second unless the settings say otherwise
+	static final RateSpec DEFAULT_RATE = RateSpec.closedLoop(1000, 1000);
 
 	private final BlockingQueue<Widget<Long>> queue;
 	private final Connector connector;
 	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
 
 	/**
 	 * Create Long {@link Widget} producer<br>
@@ -33,9 +32,27 @@ public final class LongProducer implements Runnable {
 	 *            {@link WidgetStatus} where results are recorded
 	 */
 	public LongProducer(BlockingQueue<Widget<Long>> queue, Connector connector, WidgetStatus widgetStatus) {
+		this(queue, connector, widgetStatus, ConnectorSettings.defaults());
+	}
+
+	/**
+	 * Create Long {@link Widget} producer<br>
+	 * 
+	 * @param queue
+	 *            BlockingQueue where Widgets will go
+	 * @param connector
+	 *            {@link Connector} used to create keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this producer
+	 */
+	public LongProducer(BlockingQueue<Widget<Long>> queue, Connector connector, WidgetStatus widgetStatus,
+			ConnectorSettings settings) {
 		this.queue = queue;
 		this.connector = connector;
 		this.widgetStatus = widgetStatus;
+		this.settings = settings;
 	}
 
 	/**
@@ -50,22 +67,26 @@ public final class LongProducer implements Runnable {
 				connector.getRunnableClass().getSimpleName(), id);
 		WidgetStatusKey widgetStatusKey = new WidgetStatusKey(connector.getConnectionType(), Long.class.getSimpleName(),
 				id);
+		int runnableId = widgetStatus.register(runnableKey);
+		int producedId = widgetStatus.register(widgetStatusKey);
 		logger.info("threadName: {}, runnableKey: {}", Thread.currentThread().getName(), runnableKey);
 
+		RateController rateController = settings.getRate(DEFAULT_RATE).newController();
+		Backpressure<Long> backpressure = new Backpressure<>(queue, settings, widgetStatus, widgetStatusKey);
 		try {
-			// used as counter and incorporated into the produced Widget
-			AtomicInteger i = new AtomicInteger(0);
+			// incorporated into the produced Widget
+			long i = 0;
 			while (!Thread.currentThread().isInterrupted()) {
-				Widget<Long> widget = new Widget<Long>((long) i.getAndIncrement());
-				queue.put(widget);
-				widgetStatus.putWidgetCount(widgetStatusKey, i.get());
+				long intended = rateController.acquire();
+				Widget<Long> widget = new Widget<Long>(i++, intended);
+				backpressure.put(widget);
+				widgetStatus.addWidgetCount(producedId, 1);
 				logger.debug("put Long{}", widget.get());
-				TimeUnit.SECONDS.sleep(SECOND_DELAY);
 			}
 		} catch (InterruptedException e) {
 			logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
 					runnableKey);
-			widgetStatus.putStopTime(runnableKey, ZonedDateTime.now());
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
 			Thread.currentThread().interrupt();
 		}
 	}
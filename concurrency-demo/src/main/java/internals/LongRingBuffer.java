@@ -0,0 +1,237 @@
+package internals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Bounded, lock-free, multi-producer/multi-consumer ring of primitive longs.
+ * Same {@link RingSequencer} as {@link RingBufferQueue}, but values live in
+ * a long[] so nothing is boxed or wrapped in a {@link Widget}. A second long[]
+ * holds the System.nanoTime() each value was created, what the Widget would
+ * carry, so consumers can record latency.<br>
+ * The end-of-stream marker is a flag of its slot rather than a reserved
+ * value, so every long is data. {@link #poll(long[], long[], int)} stops in
+ * front of a marker, consumers take it with {@link #takeEndOfStream()}.
+ *
+ * @see PrimitiveLongProducer
+ * @see PrimitiveLongConsumer
+ */
+public final class LongRingBuffer {
+
+	private final RingSequencer ring;
+	private final long[] buffer;
+	private final long[] createdNanos;
+	// by slot, written before the slot is published like the value
+	private final boolean[] markers;
+	private final IntPredicate isValue = index -> !isMarker(index);
+	private final IntPredicate isMarker = this::isMarker;
+
+	/**
+	 * Create the ring<br>
+	 *
+	 * @param capacity
+	 *            Maximum number of values, at least 2
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} used when the ring is full or empty
+	 */
+	public LongRingBuffer(int capacity, WaitStrategy waitStrategy) {
+		this.ring = new RingSequencer(capacity, waitStrategy);
+		this.buffer = new long[capacity];
+		this.createdNanos = new long[capacity];
+		this.markers = new boolean[capacity];
+	}
+
+	/**
+	 * Add a value if there is room<br>
+	 *
+	 * @param value
+	 *            The value to add
+	 * @param created
+	 *            System.nanoTime() the value was created
+	 * @return false if the ring is full
+	 */
+	public boolean offer(long value, long created) {
+		return offer(value, created, false);
+	}
+
+	/**
+	 * Add a value, waiting for room<br>
+	 *
+	 * @param value
+	 *            The value to add
+	 * @param created
+	 *            System.nanoTime() the value was created
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void put(long value, long created) throws InterruptedException {
+		int attempt = 0;
+		while (!offer(value, created)) {
+			ring.awaitPut(++attempt, false, 0L);
+		}
+	}
+
+	/**
+	 * Add a value, waiting up to the timeout for room<br>
+	 *
+	 * @param value
+	 *            The value to add
+	 * @param created
+	 *            System.nanoTime() the value was created
+	 * @param timeout
+	 *            How long to wait
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return false if the ring stayed full
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean offer(long value, long created, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		while (!offer(value, created)) {
+			if (!ring.awaitPut(++attempt, true, deadline)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add the end-of-stream marker, waiting for room<br>
+	 * Consumers take the values in front of it first.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void putEndOfStream() throws InterruptedException {
+		int attempt = 0;
+		while (!offer(0L, System.nanoTime(), true)) {
+			ring.awaitPut(++attempt, false, 0L);
+		}
+	}
+
+	/**
+	 * Take the end-of-stream marker if it is next<br>
+	 *
+	 * @return true if the marker was taken
+	 */
+	public boolean takeEndOfStream() {
+		long pos = ring.claimTake(isMarker);
+		if (pos < 0) {
+			return false;
+		}
+		ring.publishTake(pos);
+		return true;
+	}
+
+	/**
+	 * Take the values that are ready without waiting, up to an end-of-stream
+	 * marker<br>
+	 *
+	 * @param target
+	 *            Array the values are copied into, from index 0
+	 * @param created
+	 *            Array the creation times are copied into, from index 0
+	 * @param maxValues
+	 *            Maximum number of values to take
+	 * @return The number of values taken
+	 */
+	public int poll(long[] target, long[] created, int maxValues) {
+		int n = Math.min(maxValues, Math.min(target.length, created.length));
+		int taken = 0;
+		long pos;
+		while (taken < n && (pos = ring.claimTake(isValue)) >= 0) {
+			int index = ring.index(pos);
+			target[taken] = buffer[index];
+			created[taken++] = createdNanos[index];
+			ring.publishTake(pos);
+		}
+		return taken;
+	}
+
+	/**
+	 * Wait up to the timeout for at least one value, then take the values
+	 * that are ready, up to an end-of-stream marker<br>
+	 *
+	 * @param target
+	 *            Array the values are copied into, from index 0
+	 * @param created
+	 *            Array the creation times are copied into, from index 0
+	 * @param maxValues
+	 *            Maximum number of values to take
+	 * @param timeout
+	 *            How long to wait for the first value
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return The number of values taken, 0 if the ring stayed empty or the
+	 *         marker is next
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public int poll(long[] target, long[] created, int maxValues, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		int taken;
+		while ((taken = poll(target, created, maxValues)) == 0) {
+			// a filled slot that could not be taken holds the marker
+			if (!ring.isEmpty() || !ring.awaitTake(++attempt, true, deadline)) {
+				return 0;
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * @return Maximum number of values
+	 */
+	public int capacity() {
+		return ring.capacity();
+	}
+
+	/**
+	 * @return Approximate number of values in the ring
+	 */
+	public int size() {
+		return ring.size();
+	}
+
+	/**
+	 * @return Approximate free space
+	 */
+	public int remainingCapacity() {
+		return ring.remainingCapacity();
+	}
+
+	/**
+	 * @return true if no value is ready to take
+	 */
+	public boolean isEmpty() {
+		return ring.isEmpty();
+	}
+
+	private boolean offer(long value, long created, boolean marker) {
+		long pos = ring.claimPut();
+		if (pos < 0) {
+			return false;
+		}
+		int index = ring.index(pos);
+		buffer[index] = value;
+		createdNanos[index] = created;
+		markers[index] = marker;
+		ring.publishPut(pos);
+		return true;
+	}
+
+	private boolean isMarker(int index) {
+		return markers[index];
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[capacity=" + ring.capacity() + ", size=" + size() + ", waitStrategy="
+				+ ring.getWaitStrategy() + "]";
+	}
+
+}
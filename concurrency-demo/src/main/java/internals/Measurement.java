@@ -0,0 +1,173 @@
+package internals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput, consumer latency and CPU cost of the measurement phase of a
+ * run, the window between {@link #start(WidgetStatus)} and {@link #stop()}<br>
+ * <br>
+ * The consumer counts and latency histograms of every key are copied at the
+ * start and subtracted at the stop, so what the warmup consumed is left out
+ * without resetting anything the pipeline records into. CPU is the CPU time
+ * of the whole process over the window, producers, consumers and GC
+ * included, divided by the Widgets consumed in it. It is -1 where the JVM
+ * does not report process CPU time.
+ */
+public final class Measurement {
+
+	/**
+	 * Names of the values of {@link #toMap(long)}, in order
+	 */
+	public static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList("widgets", "seconds",
+			"widgets_per_second", "p50_us", "p99_us", "p99_9_us", "max_us", "cpu_ns_per_widget", "unaccounted"));
+
+	private final WidgetStatus widgetStatus;
+	private final long startNanos;
+	private final long startCpuNanos;
+	private final long startWidgets;
+	private final LatencyHistogram startLatency;
+	private long nanos;
+	private long cpuNanos;
+	private long widgets;
+	private LatencyHistogram latency;
+
+	private Measurement(WidgetStatus widgetStatus) {
+		this.widgetStatus = widgetStatus;
+		this.startLatency = consumerLatency(widgetStatus);
+		this.startWidgets = consumed(widgetStatus);
+		this.startCpuNanos = processCpuNanos();
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Start measuring, once the warmup is over<br>
+	 * 
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} of the run
+	 * @return The running measurement
+	 */
+	public static Measurement start(WidgetStatus widgetStatus) {
+		return new Measurement(widgetStatus);
+	}
+
+	/**
+	 * Stop measuring, before the producers stop and the queues drain<br>
+	 * 
+	 * @return This measurement
+	 */
+	public Measurement stop() {
+		nanos = System.nanoTime() - startNanos;
+		long stopCpuNanos = processCpuNanos();
+		cpuNanos = startCpuNanos < 0 || stopCpuNanos < 0 ? -1 : stopCpuNanos - startCpuNanos;
+		widgets = consumed(widgetStatus) - startWidgets;
+		latency = consumerLatency(widgetStatus).since(startLatency);
+		return this;
+	}
+
+	/**
+	 * @return Widgets consumed in the window
+	 */
+	public long getWidgets() {
+		return widgets;
+	}
+
+	/**
+	 * @return Length of the window in seconds
+	 */
+	public double getSeconds() {
+		return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return Widgets consumed per second
+	 */
+	public double getWidgetsPerSecond() {
+		return nanos == 0 ? 0 : widgets * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	/**
+	 * @return Latency of the Widgets consumed in the window, all types
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return Process CPU nanos per Widget consumed, -1 if unknown or nothing
+	 *         was consumed
+	 */
+	public double getCpuNanosPerWidget() {
+		return cpuNanos < 0 || widgets == 0 ? -1 : cpuNanos / (double) widgets;
+	}
+
+	/**
+	 * @param unaccounted
+	 *            Widgets the drain check found neither consumed nor dropped
+	 * @return The values named by {@link #COLUMNS}, as text
+	 */
+	public Map<String, String> toMap(long unaccounted) {
+		Map<String, String> values = new LinkedHashMap<>();
+		values.put("widgets", Long.toString(widgets));
+		values.put("seconds", format(getSeconds()));
+		values.put("widgets_per_second", format(getWidgetsPerSecond()));
+		values.put("p50_us", micros(latency.getValueAtPercentile(50)));
+		values.put("p99_us", micros(latency.getValueAtPercentile(99)));
+		values.put("p99_9_us", micros(latency.getValueAtPercentile(99.9)));
+		values.put("max_us", micros(latency.getMax()));
+		values.put("cpu_ns_per_widget", format(getCpuNanosPerWidget()));
+		values.put("unaccounted", Long.toString(unaccounted));
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return "widgets=" + widgets + ", per second=" + format(getWidgetsPerSecond()) + ", latency " + latency
+				+ ", CPU ns per Widget=" + format(getCpuNanosPerWidget());
+	}
+
+	private static String micros(long nanos) {
+		return format(nanos / (double) TimeUnit.MICROSECONDS.toNanos(1));
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static long consumed(WidgetStatus widgetStatus) {
+		long consumed = 0;
+		for (int id = 0; id < widgetStatus.getWidgetKeyCount(); id++) {
+			if (widgetStatus.getWidgetKey(id).getConnectionType() == ConnectionType.CONSUMER) {
+				consumed += widgetStatus.getWidgetCount(id);
+			}
+		}
+		return consumed;
+	}
+
+	private static LatencyHistogram consumerLatency(WidgetStatus widgetStatus) {
+		LatencyHistogram summary = new LatencyHistogram();
+		for (int id = 0; id < widgetStatus.getWidgetKeyCount(); id++) {
+			LatencyHistogram latency = widgetStatus.getLatencyHistogram(id);
+			if (latency != null && widgetStatus.getWidgetKey(id).getConnectionType() == ConnectionType.CONSUMER) {
+				summary.add(latency);
+			}
+		}
+		return summary;
+	}
+
+	private static long processCpuNanos() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,83 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plain text scrape endpoint for {@link PipelineMetrics}<br>
+ * <br>
+ * Serves {@code GET /metrics} with {@link PipelineMetrics#toText()} on the
+ * loopback address only, one request at a time on the server's own thread.
+ * Nothing on the pipeline threads waits for a scrape.
+ */
+public final class MetricsEndpoint implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+	/**
+	 * Path the metrics are served on
+	 */
+	public static final String PATH = "/metrics";
+
+	private final HttpServer server;
+
+	/**
+	 * Start serving<br>
+	 *
+	 * @param metrics
+	 *            Metrics to render per request
+	 * @param port
+	 *            Loopback port, 0 for any free one
+	 * @throws IOException
+	 *             If the port cannot be bound
+	 */
+	public MetricsEndpoint(PipelineMetrics metrics, int port) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(PATH, exchange -> respond(exchange, metrics));
+		server.start();
+		logger.info("Metrics at http://{}:{}{}", InetAddress.getLoopbackAddress().getHostAddress(), getPort(), PATH);
+	}
+
+	/**
+	 * @return Port the endpoint is bound to
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop serving, waiting for no request in flight<br>
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private static void respond(HttpExchange exchange, PipelineMetrics metrics) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+}
@@ -0,0 +1,524 @@
+package internals;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the producers and the consumers of a launch in child JVMs, the nodes,
+ * and merges what every node reports<br>
+ * <br>
+ * {@link #coordinate(int, int, WidgetStatus)} starts the children with the
+ * same launch options and waits for them to connect back to a loopback
+ * control port. Each producer node sends to every consumer node over its own
+ * socket, see {@link RemoteSender} and {@link RemoteReceiver}. A child runs
+ * {@link #node(ConnectionType, int, int)} with the role, index and port the
+ * coordinator passed as the {@code node}, {@code nodeIndex} and
+ * {@code coordinatorPort} options. What runs on a node's local queue is up to
+ * the launcher's {@link Connectors}.
+ */
+public final class NodeRunner {
+
+	private static final Logger logger = LoggerFactory.getLogger(NodeRunner.class);
+
+	private static final int NODE_TIMEOUT_MILLIS = 30_000;
+	// key ids of node i move up by (i + 1) * NODE_ID_STRIDE in the merged WidgetStatus
+	private static final int NODE_ID_STRIDE = 1_000_000;
+
+	/**
+	 * Starts the producers and consumers of a node on its local queue<br>
+	 */
+	public interface Connectors {
+
+		/**
+		 * @param queue
+		 *            Local queue the producers put to
+		 * @param widgetStatus
+		 *            The node's {@link WidgetStatus}
+		 * @return The executors of the running producers, stopped when the
+		 *         coordinator sends STOP
+		 */
+		List<ExecutorService> runProducers(BlockingQueue<Widget<?>> queue, WidgetStatus widgetStatus);
+
+		/**
+		 * @param queue
+		 *            Local queue the consumers take from
+		 * @param widgetStatus
+		 *            The node's {@link WidgetStatus}
+		 * @param consumerExecutors
+		 *            Receives the executors of the running consumers, shut
+		 *            down after the end-of-stream marker
+		 * @return The executor of an autoscaler, stopped before the
+		 *         end-of-stream marker, null if there is none
+		 */
+		ScheduledExecutorService runConsumers(BlockingQueue<Widget<?>> queue, WidgetStatus widgetStatus,
+				List<ExecutorService> consumerExecutors);
+	}
+
+	private final QueueType queueType;
+	private final int queueCapacity;
+	private final WaitStrategy waitStrategy;
+	private final int remoteBatchSize;
+	private final int durationSeconds;
+	private final Function<List<String>, List<String>> javaCommand;
+	private final List<String> coordinatorOptions;
+	private final Connectors connectors;
+
+	private NodeRunner(Builder builder) {
+		this.queueType = builder.queueType;
+		this.queueCapacity = builder.queueCapacity;
+		this.waitStrategy = builder.waitStrategy;
+		this.remoteBatchSize = builder.remoteBatchSize;
+		this.durationSeconds = builder.durationSeconds;
+		this.javaCommand = builder.javaCommand;
+		this.coordinatorOptions = builder.coordinatorOptions;
+		this.connectors = builder.connectors;
+	}
+
+	/**
+	 * @return A new {@link Builder}, the launcher and the connectors must be
+	 *         set
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Run producers and consumers in child JVMs, wait allotted time, stop the
+	 * producers and merge what every node reports<br>
+	 *
+	 * @param producerNodes
+	 *            Child JVMs running producers, at least 1
+	 * @param consumerNodes
+	 *            Child JVMs running consumers, at least 1
+	 * @param widgetStatus
+	 *            Receives the status of every node
+	 * @return true if every node reported and exited cleanly
+	 */
+	public boolean coordinate(int producerNodes, int consumerNodes, WidgetStatus widgetStatus) {
+		if (producerNodes < 1 || consumerNodes < 1) {
+			throw new IllegalArgumentException("producerNodes and consumerNodes must both be set");
+		}
+		List<Process> processes = new ArrayList<>();
+		FrameChannel[] nodes = new FrameChannel[producerNodes + consumerNodes];
+		boolean complete = true;
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+			for (int i = 0; i < producerNodes; i++) {
+				processes.add(startNode(ConnectionType.PRODUCER, i, port));
+			}
+			for (int i = 0; i < consumerNodes; i++) {
+				processes.add(startNode(ConnectionType.CONSUMER, i, port));
+			}
+			// producer nodes first, then consumer nodes, each by index
+			int[] consumerPorts = new int[consumerNodes];
+			for (int i = 0; i < nodes.length; i++) {
+				FrameChannel node = accept(server);
+				ByteBuffer hello = expect(node, FrameChannel.HELLO);
+				ConnectionType role = ConnectionType.values()[hello.get()];
+				int index = hello.getInt();
+				if (role == ConnectionType.PRODUCER) {
+					nodes[index] = node;
+				} else {
+					nodes[producerNodes + index] = node;
+					consumerPorts[index] = hello.getInt();
+				}
+			}
+			for (FrameChannel node : nodes) {
+				ByteBuffer start = node.begin(FrameChannel.START);
+				start.putInt(producerNodes).putInt(consumerNodes);
+				for (int consumerPort : consumerPorts) {
+					start.putInt(consumerPort);
+				}
+				node.send();
+			}
+			logger.info("Distributed: {} producer nodes, {} consumer nodes", producerNodes, consumerNodes);
+
+			waitForIt();
+
+			logger.info("Stopping the producer nodes");
+			for (int i = 0; i < producerNodes; i++) {
+				nodes[i].send(FrameChannel.STOP);
+			}
+			// consumer nodes report once every producer node ended its streams
+			for (int i = 0; i < nodes.length; i++) {
+				WireCodec.mergeStatus(expect(nodes[i], FrameChannel.STATUS), widgetStatus, (i + 1) * NODE_ID_STRIDE);
+			}
+		} catch (IOException e) {
+			complete = false;
+			logger.error("Distributed run failed", e);
+		} finally {
+			for (FrameChannel node : nodes) {
+				close(node);
+			}
+		}
+		try {
+			for (Process process : processes) {
+				if (process.waitFor(durationSeconds, TimeUnit.SECONDS)) {
+					complete &= process.exitValue() == 0;
+				} else {
+					complete = false;
+					process.destroyForcibly();
+				}
+			}
+		} catch (InterruptedException e) {
+			complete = false;
+			logger.error("Error while waiting for the nodes to exit", e);
+			Thread.currentThread().interrupt();
+		}
+		return complete;
+	}
+
+	/**
+	 * Entry point of a child JVM, runs the node until the coordinator stops
+	 * it<br>
+	 * The pooled threads of the producers and consumers may still be alive
+	 * afterwards, so the caller should exit the JVM.
+	 *
+	 * @param role
+	 *            {@link ConnectionType#PRODUCER} or {@link ConnectionType#CONSUMER}
+	 * @param index
+	 *            Index of the node within its role
+	 * @param coordinatorPort
+	 *            Loopback control port of the coordinator
+	 * @return true if the node finished cleanly
+	 */
+	public boolean node(ConnectionType role, int index, int coordinatorPort) {
+		try (FrameChannel coordinator = FrameChannel
+				.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinatorPort));
+				ServerSocketChannel data = role == ConnectionType.CONSUMER ? ServerSocketChannel.open() : null) {
+			int dataPort = 0;
+			if (data != null) {
+				// bound before the hello, producer nodes may connect as soon as they start
+				data.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+				dataPort = ((InetSocketAddress) data.getLocalAddress()).getPort();
+			}
+			coordinator.begin(FrameChannel.HELLO).put((byte) role.ordinal()).putInt(index).putInt(dataPort);
+			coordinator.send();
+			ByteBuffer start = expect(coordinator, FrameChannel.START);
+			int producerNodes = start.getInt();
+			int[] consumerPorts = new int[start.getInt()];
+			for (int i = 0; i < consumerPorts.length; i++) {
+				consumerPorts[i] = start.getInt();
+			}
+			logger.info("{} node {} started", role, index);
+			return data == null ? producerNode(coordinator, consumerPorts)
+					: consumerNode(coordinator, data, producerNodes);
+		} catch (IOException e) {
+			logger.error(role + " node " + index + " failed", e);
+		} catch (InterruptedException e) {
+			logger.error(role + " node " + index + " interrupted", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Start a child JVM as a node of a distributed run<br>
+	 *
+	 * @param role
+	 *            {@link ConnectionType#PRODUCER} or {@link ConnectionType#CONSUMER}
+	 * @param index
+	 *            Index of the node within its role
+	 * @param coordinatorPort
+	 *            Loopback port to report to
+	 * @return The started process, logging to this one's output
+	 * @throws IOException
+	 *             If the JVM cannot be started
+	 */
+	private Process startNode(ConnectionType role, int index, int coordinatorPort) throws IOException {
+		List<String> options = new ArrayList<>();
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (argument.startsWith("-X") || argument.startsWith("-D") && !coordinatorOptions
+					.contains(argument.substring(2, Math.max(2, argument.indexOf('='))))) {
+				options.add(argument);
+			}
+		}
+		options.add("-Dnode=" + role);
+		options.add("-DnodeIndex=" + index);
+		options.add("-DcoordinatorPort=" + coordinatorPort);
+		return new ProcessBuilder(javaCommand.apply(options)).inheritIO().start();
+	}
+
+	/**
+	 * Run the producers into a local queue drained by one {@link RemoteSender}
+	 * per consumer node, until the coordinator sends STOP<br>
+	 *
+	 * @param coordinator
+	 *            Control channel of the coordinator
+	 * @param consumerPorts
+	 *            Data ports of the consumer nodes
+	 * @return true if every sender ended its stream
+	 * @throws IOException
+	 *             If a connection fails
+	 * @throws InterruptedException
+	 *             if interrupted while stopping
+	 */
+	private boolean producerNode(FrameChannel coordinator, int[] consumerPorts)
+			throws IOException, InterruptedException {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		BlockingQueue<Widget<?>> queue = queueType.create(queueCapacity, waitStrategy);
+		List<FrameChannel> channels = new ArrayList<>();
+		ExecutorService senderExecutor = Executors.newFixedThreadPool(consumerPorts.length);
+		try {
+			for (int consumerPort : consumerPorts) {
+				FrameChannel channel = FrameChannel
+						.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), consumerPort));
+				channels.add(channel);
+				senderExecutor.execute(new RemoteSender(queue, channel, remoteBatchSize));
+			}
+			List<ExecutorService> producerExecutors = connectors.runProducers(queue, widgetStatus);
+
+			expect(coordinator, FrameChannel.STOP);
+
+			logger.info("Terminating producers");
+			producerExecutors.forEach(ExecutorService::shutdownNow);
+			for (ExecutorService producerExecutor : producerExecutors) {
+				producerExecutor.awaitTermination(durationSeconds, TimeUnit.SECONDS);
+			}
+			queue.put(Widget.endOfStream());
+			senderExecutor.shutdown();
+			boolean complete = senderExecutor.awaitTermination(durationSeconds * 2, TimeUnit.SECONDS);
+			WireCodec.encodeStatus(coordinator, widgetStatus);
+			return complete;
+		} finally {
+			senderExecutor.shutdownNow();
+			channels.forEach(NodeRunner::close);
+		}
+	}
+
+	/**
+	 * Run the consumers on a local queue fed by one {@link RemoteReceiver} per
+	 * producer node, until every producer node ended its stream<br>
+	 *
+	 * @param coordinator
+	 *            Control channel of the coordinator
+	 * @param data
+	 *            Bound data port the producer nodes connect to
+	 * @param producerNodes
+	 *            Number of producer nodes
+	 * @return true if every stream ended and the consumers drained the queue
+	 * @throws IOException
+	 *             If a connection fails
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private boolean consumerNode(FrameChannel coordinator, ServerSocketChannel data, int producerNodes)
+			throws IOException, InterruptedException {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		BlockingQueue<Widget<?>> queue = queueType.create(queueCapacity, waitStrategy);
+		List<ExecutorService> consumerExecutors = new ArrayList<>();
+		ScheduledExecutorService autoscalerExecutor = connectors.runConsumers(queue, widgetStatus,
+				consumerExecutors);
+		// the credit of all streams together fits the queue
+		int credit = Math.max(1, queueCapacity / producerNodes);
+		List<FrameChannel> channels = new ArrayList<>();
+		List<RemoteReceiver> receivers = new ArrayList<>();
+		ExecutorService receiverExecutor = Executors.newFixedThreadPool(producerNodes);
+		try {
+			for (int i = 0; i < producerNodes; i++) {
+				FrameChannel channel = accept(data);
+				channels.add(channel);
+				RemoteReceiver receiver = new RemoteReceiver(queue, channel, credit);
+				receivers.add(receiver);
+				receiverExecutor.execute(receiver);
+			}
+			receiverExecutor.shutdown();
+			// the coordinator decides how long the run takes
+			while (!receiverExecutor.awaitTermination(durationSeconds, TimeUnit.SECONDS)) {
+				logger.debug("Awaiting the end of {} streams", producerNodes);
+			}
+			if (autoscalerExecutor != null) {
+				autoscalerExecutor.shutdownNow();
+			}
+			queue.put(Widget.endOfStream());
+			consumerExecutors.forEach(ExecutorService::shutdown);
+			boolean complete = true;
+			for (ExecutorService consumerExecutor : consumerExecutors) {
+				complete &= consumerExecutor.awaitTermination(durationSeconds * 2, TimeUnit.SECONDS);
+			}
+			for (RemoteReceiver receiver : receivers) {
+				complete &= receiver.isEnded();
+			}
+			WireCodec.encodeStatus(coordinator, widgetStatus);
+			return complete;
+		} finally {
+			receiverExecutor.shutdownNow();
+			channels.forEach(NodeRunner::close);
+		}
+	}
+
+	private void waitForIt() {
+		logger.info("Starting {} second delay", durationSeconds);
+		try {
+			TimeUnit.SECONDS.sleep(durationSeconds);
+		} catch (InterruptedException e) {
+			logger.error("InterruptedException during wait: ", e);
+			Thread.currentThread().interrupt();
+		}
+		logger.info("Completed {} second delay", durationSeconds);
+	}
+
+	/**
+	 * Accept one connection, giving up after {@link #NODE_TIMEOUT_MILLIS}<br>
+	 *
+	 * @param server
+	 *            Bound server channel
+	 * @return The connection as a {@link FrameChannel}
+	 * @throws IOException
+	 *             If nothing connected in time
+	 */
+	private static FrameChannel accept(ServerSocketChannel server) throws IOException {
+		server.socket().setSoTimeout(NODE_TIMEOUT_MILLIS);
+		SocketChannel channel = server.socket().accept().getChannel();
+		channel.configureBlocking(true);
+		return new FrameChannel(channel);
+	}
+
+	/**
+	 * Receive the next frame and check its type<br>
+	 *
+	 * @param channel
+	 *            Channel to receive on
+	 * @param type
+	 *            The expected frame type
+	 * @return The payload of the frame
+	 * @throws IOException
+	 *             If another frame arrived or the peer is gone
+	 */
+	private static ByteBuffer expect(FrameChannel channel, byte type) throws IOException {
+		byte received = channel.receive();
+		if (received != type) {
+			throw new IOException("Expected frame type " + type + " from " + channel + ", got " + received);
+		}
+		return channel.payload();
+	}
+
+	private static void close(FrameChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Error closing " + channel, e);
+			}
+		}
+	}
+
+	/**
+	 * Builds a {@link NodeRunner}<br>
+	 */
+	public static final class Builder {
+
+		private QueueType queueType = QueueType.LINKED;
+		private int queueCapacity = 300;
+		private WaitStrategy waitStrategy = WaitStrategy.PARK;
+		private int remoteBatchSize = 256;
+		private int durationSeconds = 50;
+		private Function<List<String>, List<String>> javaCommand;
+		private List<String> coordinatorOptions = Collections.emptyList();
+		private Connectors connectors;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param queueType
+		 *            {@link QueueType} of each node's local queue, not
+		 *            {@link QueueType#JOURNAL} which every node would open
+		 * @param queueCapacity
+		 *            Capacity of each local queue, shared out as credit
+		 *            between the streams of a consumer node
+		 * @param waitStrategy
+		 *            {@link WaitStrategy} of the local queues
+		 * @return This builder
+		 */
+		public Builder queue(QueueType queueType, int queueCapacity, WaitStrategy waitStrategy) {
+			if (queueType == QueueType.JOURNAL) {
+				throw new IllegalArgumentException("Nodes cannot share a JOURNAL queue");
+			}
+			if (queueCapacity < 1) {
+				throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+			}
+			this.queueType = Objects.requireNonNull(queueType, "queueType");
+			this.queueCapacity = queueCapacity;
+			this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy");
+			return this;
+		}
+
+		/**
+		 * @param remoteBatchSize
+		 *            Most Widgets a {@link RemoteSender} puts in a frame
+		 * @return This builder
+		 */
+		public Builder remoteBatchSize(int remoteBatchSize) {
+			if (remoteBatchSize < 1) {
+				throw new IllegalArgumentException("remoteBatchSize must be positive: " + remoteBatchSize);
+			}
+			this.remoteBatchSize = remoteBatchSize;
+			return this;
+		}
+
+		/**
+		 * @param durationSeconds
+		 *            Length of the run, also bounds each wait for a node to
+		 *            stop
+		 * @return This builder
+		 */
+		public Builder durationSeconds(int durationSeconds) {
+			this.durationSeconds = durationSeconds;
+			return this;
+		}
+
+		/**
+		 * @param javaCommand
+		 *            Turns the JVM and launch options of a child into the
+		 *            command that runs the launcher in a new JVM
+		 * @param coordinatorOptions
+		 *            Launch options that are not passed on to the children
+		 * @return This builder
+		 */
+		public Builder launcher(Function<List<String>, List<String>> javaCommand, List<String> coordinatorOptions) {
+			this.javaCommand = Objects.requireNonNull(javaCommand, "javaCommand");
+			this.coordinatorOptions = new ArrayList<>(coordinatorOptions);
+			return this;
+		}
+
+		/**
+		 * @param connectors
+		 *            Starts the producers and consumers of each node
+		 * @return This builder
+		 */
+		public Builder connectors(Connectors connectors) {
+			this.connectors = Objects.requireNonNull(connectors, "connectors");
+			return this;
+		}
+
+		/**
+		 * @return The {@link NodeRunner}
+		 */
+		public NodeRunner build() {
+			if (javaCommand == null || connectors == null) {
+				throw new IllegalStateException("launcher and connectors must be set");
+			}
+			return new NodeRunner(this);
+		}
+	}
+
+}
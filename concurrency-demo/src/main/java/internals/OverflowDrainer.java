@@ -0,0 +1,73 @@
+package internals;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves spilled elements from an {@link OverflowStore} back into the queue as
+ * room frees up, oldest first<br>
+ * Run exactly one per store. After {@link #finish()} it keeps going until the
+ * store is empty, so nothing spilled is left behind at shutdown.
+ *
+ * @param <E>
+ *            The element type
+ */
+public final class OverflowDrainer<E> implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(OverflowDrainer.class);
+
+	// how long to wait for room, and how long to idle on an empty store
+	private static final long OFFER_MILLIS = 100;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final OverflowStore<E> store;
+	private final BlockingQueue<E> queue;
+	private volatile boolean finishing;
+
+	/**
+	 * @param store
+	 *            {@link OverflowStore} to drain
+	 * @param queue
+	 *            Queue the elements go back to
+	 */
+	public OverflowDrainer(OverflowStore<E> store, BlockingQueue<E> queue) {
+		this.store = store;
+		this.queue = queue;
+	}
+
+	/**
+	 * Stop once the store is empty, call after the producers have stopped<br>
+	 */
+	public void finish() {
+		finishing = true;
+	}
+
+	@Override
+	public void run() {
+		long moved = 0;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				E e = store.peek();
+				if (e == null) {
+					if (finishing) {
+						break;
+					}
+					LockSupport.parkNanos(IDLE_NANOS);
+				} else if (queue.offer(e, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+					// only the drainer removes, so the head is still e
+					store.poll();
+					moved++;
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.info("OverflowDrainer interrupted with {} elements left", store.size());
+			Thread.currentThread().interrupt();
+		}
+		logger.info("OverflowDrainer moved {} elements back to the queue", moved);
+	}
+
+}
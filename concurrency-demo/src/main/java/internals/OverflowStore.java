@@ -0,0 +1,45 @@
+package internals;
+
+/**
+ * Where producers with the {@link BackpressurePolicy#SPILL} policy put
+ * elements the queue has no room for<br>
+ * Any number of threads may offer, a single {@link OverflowDrainer} peeks and
+ * polls, so an element is only removed once the queue has accepted it.
+ *
+ * @param <E>
+ *            The element type
+ */
+public interface OverflowStore<E> {
+
+	/**
+	 * Add an element at the tail<br>
+	 * 
+	 * @param e
+	 *            The element
+	 * @return false if the store is full
+	 */
+	boolean offer(E e);
+
+	/**
+	 * @return The head element without removing it, null if empty
+	 */
+	E peek();
+
+	/**
+	 * @return The head element after removing it, null if empty
+	 */
+	E poll();
+
+	/**
+	 * @return Number of elements stored
+	 */
+	int size();
+
+	/**
+	 * @return true if nothing is stored
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+}
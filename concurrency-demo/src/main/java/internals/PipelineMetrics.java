@@ -0,0 +1,488 @@
+package internals;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Live view of a running pipeline as JMX MBeans and as plain text<br>
+ * <br>
+ * {@link #run()} takes a sample: it reads the {@link WidgetStatus} counters
+ * and latency histograms by id, which takes no lock and never stalls a
+ * producer or consumer, and computes per key rates against the previous
+ * sample. Schedule it at a fixed rate. MBeans are registered under
+ * {@link #DOMAIN} as keys appear:
+ * <ul>
+ * <li>{@code type=Widgets,key=...} per WidgetStatusKey, counts, rate, time
+ * blocked in put and latency percentiles</li>
+ * <li>{@code type=Consumer,key=...} per consumer RunnableKey, time in poll
+ * and batch sizes</li>
+ * <li>{@code type=Queue,name=...} per queue added with
+ * {@link #addQueue(String, IntSupplier, IntSupplier)}, depth and remaining
+ * capacity, read live</li>
+ * </ul>
+ * Every reader sees the same latest sample, {@link #toText()} renders it in
+ * the Prometheus text format for {@link MetricsEndpoint}. Latency
+ * percentiles cover the whole run so far.
+ */
+public final class PipelineMetrics implements Runnable, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+	/**
+	 * JMX domain of the MBeans
+	 */
+	public static final String DOMAIN = "concurrency-demo";
+
+	private final WidgetStatus widgetStatus;
+	private final MBeanServer server;
+	private final List<ObjectName> registered = new ArrayList<>();
+	private final Map<String, QueueView> queues = Collections.synchronizedMap(new LinkedHashMap<>());
+	// sampler state, only touched by the sampling thread
+	private long[] previousCounts = new long[0];
+	private long previousNanos = System.nanoTime();
+	private int registeredWidgetKeys;
+	private int registeredRunnableKeys;
+	// published by the sampler, read by any thread
+	private volatile Sample sample = new Sample(Collections.emptyMap(), Collections.emptyMap());
+
+	/**
+	 * Register with the platform MBeanServer<br>
+	 *
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} to sample
+	 */
+	public PipelineMetrics(WidgetStatus widgetStatus) {
+		this(widgetStatus, ManagementFactory.getPlatformMBeanServer());
+	}
+
+	/**
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} to sample
+	 * @param server
+	 *            MBeanServer to register with, null for the text view only
+	 */
+	public PipelineMetrics(WidgetStatus widgetStatus, MBeanServer server) {
+		this.widgetStatus = widgetStatus;
+		this.server = server;
+	}
+
+	/**
+	 * Expose the depth of a queue<br>
+	 *
+	 * @param name
+	 *            Name of the queue in the MBean and text, e.g. shared
+	 * @param depth
+	 *            Current number of elements
+	 * @param remainingCapacity
+	 *            Current room left
+	 */
+	public void addQueue(String name, IntSupplier depth, IntSupplier remainingCapacity) {
+		QueueView view = new QueueView(depth, remainingCapacity);
+		queues.put(name, view);
+		register("type=Queue,name=" + ObjectName.quote(name), view);
+	}
+
+	/**
+	 * Take a sample, registering MBeans for keys that appeared since the last
+	 * one. Call from one thread at a time.<br>
+	 */
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - previousNanos) / 1e9;
+		int widgetKeyCount = widgetStatus.getWidgetKeyCount();
+		if (previousCounts.length < widgetKeyCount) {
+			long[] grown = new long[widgetKeyCount];
+			System.arraycopy(previousCounts, 0, grown, 0, previousCounts.length);
+			previousCounts = grown;
+		}
+		Map<String, KeySample> keys = new TreeMap<>();
+		for (int id = 0; id < widgetKeyCount; id++) {
+			long widgets = widgetStatus.getWidgetCount(id);
+			double perSecond = (widgets - previousCounts[id]) / seconds;
+			previousCounts[id] = widgets;
+			WidgetStatusKey key = widgetStatus.getWidgetKey(id);
+			keys.put(key.toString(), new KeySample(key, widgets, perSecond, widgetStatus.getDropped(id),
+					widgetStatus.getSpilled(id), widgetStatus.getBlockedNanos(id), widgetStatus.getLatencyHistogram(id)));
+		}
+		Map<String, ConsumerSample> consumers = new TreeMap<>();
+		int runnableKeyCount = widgetStatus.getRunnableKeyCount();
+		for (int id = 0; id < runnableKeyCount; id++) {
+			RunnableKey key = widgetStatus.getRunnableKey(id);
+			if (key.getConnectionType() == ConnectionType.CONSUMER) {
+				consumers.put(key.toString(), new ConsumerSample(widgetStatus.getPollNanos(id),
+						widgetStatus.getBatches(id), widgetStatus.getBatchWidgets(id), widgetStatus.isStopped(id)));
+			}
+		}
+		previousNanos = now;
+		sample = new Sample(keys, consumers);
+		// new keys only get an MBean once they have a sample to show
+		for (; registeredWidgetKeys < widgetKeyCount; registeredWidgetKeys++) {
+			String name = widgetStatus.getWidgetKey(registeredWidgetKeys).toString();
+			register("type=Widgets,key=" + ObjectName.quote(name), new WidgetKeyView(name));
+		}
+		for (; registeredRunnableKeys < runnableKeyCount; registeredRunnableKeys++) {
+			RunnableKey key = widgetStatus.getRunnableKey(registeredRunnableKeys);
+			if (key.getConnectionType() == ConnectionType.CONSUMER) {
+				register("type=Consumer,key=" + ObjectName.quote(key.toString()), new ConsumerView(key.toString()));
+			}
+		}
+	}
+
+	/**
+	 * Render the latest sample and the current queue depths in the Prometheus
+	 * text exposition format<br>
+	 *
+	 * @return One metric per line, times in seconds
+	 */
+	public String toText() {
+		Sample current = sample;
+		StringBuilder sb = new StringBuilder();
+		header(sb, "widgets_total", "counter", "Widgets produced or consumed per key");
+		current.keys.forEach((name, key) -> line(sb, "widgets_total", key.labels, key.widgets));
+		header(sb, "widgets_per_second", "gauge", "Widgets per second over the last sample");
+		current.keys.forEach((name, key) -> line(sb, "widgets_per_second", key.labels, key.perSecond));
+		header(sb, "widgets_dropped_total", "counter", "Widgets producers dropped on a full queue");
+		current.keys.forEach((name, key) -> line(sb, "widgets_dropped_total", key.labels, key.dropped));
+		header(sb, "widgets_spilled_total", "counter", "Widgets producers spilled to the overflow store");
+		current.keys.forEach((name, key) -> line(sb, "widgets_spilled_total", key.labels, key.spilled));
+		header(sb, "put_blocked_seconds_total", "counter", "Time producers waited for room in the queue");
+		current.keys.forEach((name, key) -> line(sb, "put_blocked_seconds_total", key.labels, key.blockedNanos / 1e9));
+		header(sb, "latency_seconds", "summary", "Created to consumed latency, whole run");
+		current.keys.forEach((name, key) -> {
+			if (key.latencyCount > 0) {
+				line(sb, "latency_seconds", key.labels + ",quantile=\"0.5\"", key.p50Nanos / 1e9);
+				line(sb, "latency_seconds", key.labels + ",quantile=\"0.99\"", key.p99Nanos / 1e9);
+				line(sb, "latency_seconds", key.labels + ",quantile=\"0.999\"", key.p999Nanos / 1e9);
+				line(sb, "latency_seconds", key.labels + ",quantile=\"1\"", key.maxNanos / 1e9);
+				line(sb, "latency_seconds_count", key.labels, key.latencyCount);
+			}
+		});
+		header(sb, "poll_seconds_total", "counter", "Time consumers spent in poll");
+		current.consumers.forEach((name, consumer) -> line(sb, "poll_seconds_total", label("consumer", name),
+				consumer.pollNanos / 1e9));
+		header(sb, "consumer_batches_total", "counter", "Non-empty batches consumers took");
+		current.consumers.forEach((name, consumer) -> line(sb, "consumer_batches_total", label("consumer", name),
+				consumer.batches));
+		header(sb, "consumer_batch_size_mean", "gauge", "Mean Widgets per batch");
+		current.consumers.forEach((name, consumer) -> line(sb, "consumer_batch_size_mean", label("consumer", name),
+				consumer.meanBatchSize()));
+		Map<String, QueueView> queueViews;
+		synchronized (queues) {
+			queueViews = new LinkedHashMap<>(queues);
+		}
+		header(sb, "queue_depth", "gauge", "Widgets in the queue");
+		queueViews.forEach((name, queue) -> line(sb, "queue_depth", label("queue", name), queue.getDepth()));
+		header(sb, "queue_remaining_capacity", "gauge", "Room left in the queue");
+		queueViews.forEach((name, queue) -> line(sb, "queue_remaining_capacity", label("queue", name),
+				queue.getRemainingCapacity()));
+		return sb.toString();
+	}
+
+	/**
+	 * Unregister every MBean<br>
+	 */
+	@Override
+	public void close() {
+		synchronized (registered) {
+			for (ObjectName name : registered) {
+				try {
+					server.unregisterMBean(name);
+				} catch (JMException e) {
+					logger.warn("Could not unregister {}", name, e);
+				}
+			}
+			registered.clear();
+		}
+	}
+
+	private void register(String properties, Object mbean) {
+		if (server == null) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			synchronized (registered) {
+				server.registerMBean(mbean, name);
+				registered.add(name);
+			}
+		} catch (InstanceAlreadyExistsException e) {
+			// a second pipeline in the same JVM, e.g. tests, keeps the first one's MBeans
+			logger.debug("MBean already registered: {}", properties);
+		} catch (JMException e) {
+			logger.warn("Could not register MBean {}", properties, e);
+		}
+	}
+
+	private static void header(StringBuilder sb, String metric, String type, String help) {
+		sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+	}
+
+	private static void line(StringBuilder sb, String metric, String labels, long value) {
+		sb.append(metric).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static void line(StringBuilder sb, String metric, String labels, double value) {
+		sb.append(metric).append('{').append(labels).append("} ").append(String.format(Locale.ROOT, "%.6g", value))
+				.append('\n');
+	}
+
+	private static String label(String name, String value) {
+		return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Counters of one WidgetStatusKey, per key rates and latency percentiles
+	 */
+	public interface WidgetKeyMXBean {
+
+		long getWidgets();
+
+		double getWidgetsPerSecond();
+
+		long getDropped();
+
+		long getSpilled();
+
+		long getPutBlockedMillis();
+
+		long getLatencyCount();
+
+		long getLatencyP50Micros();
+
+		long getLatencyP99Micros();
+
+		long getLatencyP999Micros();
+
+		long getLatencyMaxMicros();
+	}
+
+	/**
+	 * Poll time and batch sizes of one consumer
+	 */
+	public interface ConsumerMXBean {
+
+		long getPollMillis();
+
+		long getBatches();
+
+		double getMeanBatchSize();
+
+		boolean isStopped();
+	}
+
+	/**
+	 * Depth of one queue, read when asked
+	 */
+	public interface QueueMXBean {
+
+		int getDepth();
+
+		int getRemainingCapacity();
+	}
+
+	private final class WidgetKeyView implements WidgetKeyMXBean {
+
+		private final String name;
+
+		private WidgetKeyView(String name) {
+			this.name = name;
+		}
+
+		private KeySample key() {
+			return sample.keys.getOrDefault(name, KeySample.EMPTY);
+		}
+
+		@Override
+		public long getWidgets() {
+			return key().widgets;
+		}
+
+		@Override
+		public double getWidgetsPerSecond() {
+			return key().perSecond;
+		}
+
+		@Override
+		public long getDropped() {
+			return key().dropped;
+		}
+
+		@Override
+		public long getSpilled() {
+			return key().spilled;
+		}
+
+		@Override
+		public long getPutBlockedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(key().blockedNanos);
+		}
+
+		@Override
+		public long getLatencyCount() {
+			return key().latencyCount;
+		}
+
+		@Override
+		public long getLatencyP50Micros() {
+			return TimeUnit.NANOSECONDS.toMicros(key().p50Nanos);
+		}
+
+		@Override
+		public long getLatencyP99Micros() {
+			return TimeUnit.NANOSECONDS.toMicros(key().p99Nanos);
+		}
+
+		@Override
+		public long getLatencyP999Micros() {
+			return TimeUnit.NANOSECONDS.toMicros(key().p999Nanos);
+		}
+
+		@Override
+		public long getLatencyMaxMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(key().maxNanos);
+		}
+	}
+
+	private final class ConsumerView implements ConsumerMXBean {
+
+		private final String name;
+
+		private ConsumerView(String name) {
+			this.name = name;
+		}
+
+		private ConsumerSample consumer() {
+			return sample.consumers.getOrDefault(name, ConsumerSample.EMPTY);
+		}
+
+		@Override
+		public long getPollMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(consumer().pollNanos);
+		}
+
+		@Override
+		public long getBatches() {
+			return consumer().batches;
+		}
+
+		@Override
+		public double getMeanBatchSize() {
+			return consumer().meanBatchSize();
+		}
+
+		@Override
+		public boolean isStopped() {
+			return consumer().stopped;
+		}
+	}
+
+	private static final class QueueView implements QueueMXBean {
+
+		private final IntSupplier depth;
+		private final IntSupplier remainingCapacity;
+
+		private QueueView(IntSupplier depth, IntSupplier remainingCapacity) {
+			this.depth = depth;
+			this.remainingCapacity = remainingCapacity;
+		}
+
+		@Override
+		public int getDepth() {
+			return depth.getAsInt();
+		}
+
+		@Override
+		public int getRemainingCapacity() {
+			return remainingCapacity.getAsInt();
+		}
+	}
+
+	/**
+	 * Everything read in one sample, immutable once published
+	 */
+	private static final class Sample {
+
+		private final Map<String, KeySample> keys;
+		private final Map<String, ConsumerSample> consumers;
+
+		private Sample(Map<String, KeySample> keys, Map<String, ConsumerSample> consumers) {
+			this.keys = keys;
+			this.consumers = consumers;
+		}
+	}
+
+	private static final class KeySample {
+
+		private static final KeySample EMPTY = new KeySample(null, 0, 0, 0, 0, 0, null);
+
+		private final String labels;
+		private final long widgets;
+		private final double perSecond;
+		private final long dropped;
+		private final long spilled;
+		private final long blockedNanos;
+		private final long latencyCount;
+		private final long p50Nanos;
+		private final long p99Nanos;
+		private final long p999Nanos;
+		private final long maxNanos;
+
+		private KeySample(WidgetStatusKey key, long widgets, double perSecond, long dropped, long spilled,
+				long blockedNanos, LatencyHistogram latency) {
+			this.labels = key == null ? ""
+					: label("key", key.toString()) + "," + label("connection", key.getConnectionType().name()) + ","
+							+ label("type", key.getWidgetType());
+			this.widgets = widgets;
+			this.perSecond = perSecond;
+			this.dropped = dropped;
+			this.spilled = spilled;
+			this.blockedNanos = blockedNanos;
+			this.latencyCount = latency == null ? 0 : latency.getTotalCount();
+			this.p50Nanos = latencyCount == 0 ? 0 : latency.getValueAtPercentile(50);
+			this.p99Nanos = latencyCount == 0 ? 0 : latency.getValueAtPercentile(99);
+			this.p999Nanos = latencyCount == 0 ? 0 : latency.getValueAtPercentile(99.9);
+			this.maxNanos = latencyCount == 0 ? 0 : latency.getMax();
+		}
+	}
+
+	private static final class ConsumerSample {
+
+		private static final ConsumerSample EMPTY = new ConsumerSample(0, 0, 0, false);
+
+		private final long pollNanos;
+		private final long batches;
+		private final long batchWidgets;
+		private final boolean stopped;
+
+		private ConsumerSample(long pollNanos, long batches, long batchWidgets, boolean stopped) {
+			this.pollNanos = pollNanos;
+			this.batches = batches;
+			this.batchWidgets = batchWidgets;
+			this.stopped = stopped;
+		}
+
+		private double meanBatchSize() {
+			return batches == 0 ? 0 : (double) batchWidgets / batches;
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long consumer for the primitive lane<br>
+ * Drains a {@link LongRingBuffer} into a reused long[] of
+ * {@link ConnectorSettings#getBatchSize()} values, so nothing is boxed and
+ * no type check is needed. The creation times come along in a second long[]
+ * and go into the Long latency histogram, one clock read per batch like
+ * {@link Consumer}. Like Consumer, it waits while idle and, once it took the
+ * marker of {@link LongRingBuffer#putEndOfStream()}, stops as soon as the
+ * lane is empty, putting the marker back for the next consumer.
+ */
+public final class PrimitiveLongConsumer implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PrimitiveLongConsumer.class);
+
+	// random think time between 250 and 1250 millis per batch unless the settings say otherwise
+	private static final RateSpec DEFAULT_RATE = RateSpec.closedLoop(250, 1250);
+
+	private final LongRingBuffer lane;
+	private final Connector connector;
+	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
+
+	/**
+	 * Create primitive long consumer<br>
+	 * 
+	 * @param lane
+	 *            {@link LongRingBuffer} where values come from
+	 * @param connector
+	 *            {@link Connector} used to create keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this consumer
+	 */
+	public PrimitiveLongConsumer(LongRingBuffer lane, Connector connector, WidgetStatus widgetStatus,
+			ConnectorSettings settings) {
+		this.lane = lane;
+		this.connector = connector;
+		this.widgetStatus = widgetStatus;
+		this.settings = settings;
+	}
+
+	/**
+	 * Consumer of primitive long values<br>
+	 */
+	@Override
+	public void run() {
+		logger.info("Started consumer on thread {}, connector name {}, connector info {}",
+				Thread.currentThread().getName(), connector.name(), connector.toString());
+		int id = Math.toIntExact(Thread.currentThread().getId());
+		RunnableKey runnableKey = new RunnableKey(connector.getConnectionType(),
+				connector.getRunnableClass().getSimpleName(), id);
+		WidgetStatusKey widgetStatusKey = new WidgetStatusKey(connector.getConnectionType(), Long.class.getSimpleName(),
+				id);
+		int runnableId = widgetStatus.register(runnableKey);
+		int consumedId = widgetStatus.register(widgetStatusKey);
+		LatencyHistogram latency = widgetStatus.latencyHistogram(consumedId);
+		logger.info("threadName: {}, runnableKey: {}", Thread.currentThread().getName(), runnableKey);
+		long[] batch = new long[settings.getBatchSize()];
+		long[] created = new long[batch.length];
+		RateController rateController = settings.getRate(DEFAULT_RATE).newController();
+		// the lane only shrinks once the marker arrived
+		boolean endOfStream = false;
+		boolean idle = false;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				if (!idle) {
+					rateController.acquire();
+				}
+				long pollStart = System.nanoTime();
+				int n = endOfStream ? lane.poll(batch, created, batch.length)
+						: lane.poll(batch, created, batch.length, 2, TimeUnit.SECONDS);
+				// one clock read per batch, the whole batch left the lane together
+				long dequeuedNanos = System.nanoTime();
+				widgetStatus.addBatch(runnableId, n, dequeuedNanos - pollStart);
+				idle = n == 0;
+				if (idle) {
+					if (endOfStream) {
+						logger.info("End of stream and lane drained.  Terminating {}", runnableKey);
+						lane.putEndOfStream();
+						widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+						return;
+					}
+					// polls stop in front of the marker
+					endOfStream = lane.takeEndOfStream();
+					continue;
+				}
+				for (int i = 0; i < n; i++) {
+					latency.record(dequeuedNanos - created[i]);
+				}
+				// guarded so the arguments are not boxed when debug is off
+				if (logger.isDebugEnabled()) {
+					for (int i = 0; i < n; i++) {
+						logger.debug("{} - Long Consumed: {}", i, batch[i]);
+					}
+				}
+				widgetStatus.addWidgetCount(consumedId, n);
+			}
+		} catch (InterruptedException e) {
+			logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
+					runnableKey);
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
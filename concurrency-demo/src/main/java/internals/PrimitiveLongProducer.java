@@ -0,0 +1,81 @@
+package internals;
+
+import java.time.ZonedDateTime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long producer for the primitive lane<br>
+ * Puts raw long values into a {@link LongRingBuffer}, so no Long is boxed and
+ * no {@link Widget} is allocated per value. Each value is stamped with its
+ * intended time like a Widget.
+ */
+public final class PrimitiveLongProducer implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PrimitiveLongProducer.class);
+
+	// one Widget a second unless the settings say otherwise
+	private static final RateSpec DEFAULT_RATE = RateSpec.closedLoop(1000, 1000);
+
+	private final LongRingBuffer lane;
+	private final Connector connector;
+	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
+
+	/**
+	 * Create primitive long producer<br>
+	 * 
+	 * @param lane
+	 *            {@link LongRingBuffer} where values will go
+	 * @param connector
+	 *            {@link Connector} used to create keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this producer
+	 */
+	public PrimitiveLongProducer(LongRingBuffer lane, Connector connector, WidgetStatus widgetStatus,
+			ConnectorSettings settings) {
+		this.lane = lane;
+		this.connector = connector;
+		this.widgetStatus = widgetStatus;
+		this.settings = settings;
+	}
+
+	/**
+	 * Producer of primitive long values<br>
+	 */
+	@Override
+	public void run() {
+		logger.info("Started producer on thread {}, connector name {}, connector info {}",
+				Thread.currentThread().getName(), connector.name(), connector.toString());
+		int id = Math.toIntExact(Thread.currentThread().getId());
+		RunnableKey runnableKey = new RunnableKey(connector.getConnectionType(),
+				connector.getRunnableClass().getSimpleName(), id);
+		// counted with the boxed Long Widgets so the summaries line up
+		WidgetStatusKey widgetStatusKey = new WidgetStatusKey(connector.getConnectionType(), Long.class.getSimpleName(),
+				id);
+		int runnableId = widgetStatus.register(runnableKey);
+		int producedId = widgetStatus.register(widgetStatusKey);
+		logger.info("threadName: {}, runnableKey: {}", Thread.currentThread().getName(), runnableKey);
+
+		RateController rateController = settings.getRate(DEFAULT_RATE).newController();
+		try {
+			// the produced value
+			long i = 0;
+			while (!Thread.currentThread().isInterrupted()) {
+				// stamped with the intended time so queueing behind a full lane counts as latency
+				long intended = rateController.acquire();
+				lane.put(i++, intended);
+				widgetStatus.addWidgetCount(producedId, 1);
+			}
+		} catch (InterruptedException e) {
+			logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
+					runnableKey);
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
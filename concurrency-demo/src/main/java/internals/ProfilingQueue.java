@@ -0,0 +1,281 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorates a queue to tell lock contention apart from waiting on a full or
+ * empty queue, per {@link RunnableKey}<br>
+ * <br>
+ * A blocking put first tries a plain offer and a blocking take a plain poll.
+ * The time of those calls is the cost of getting at the queue, which is
+ * where lock or CAS contention shows up. Only when the queue was full or
+ * empty does the call go on to the blocking method, and that time counts as
+ * a wait along with the spins and parks of the wait. Offers, polls and
+ * drains that return at once only count as calls. The counts go to the
+ * {@link WidgetStatus} row of the RunnableKey the calling thread registered,
+ * threads that registered none get a key named after the thread.<br>
+ * <br>
+ * Spins and parks come from {@link RingSignal} for the lock-free queues.
+ * Lock based queues block in a Condition the decorator does not see, so
+ * each of their waits counts as one park. {@link #sample()} records the
+ * depth into the {@link QueueOccupancy} of the queue, call it at a fixed
+ * rate from one thread.<br>
+ * <br>
+ * Each call pays two System.nanoTime() reads and a thread local lookup on
+ * top of the queue, waits pay nothing extra per spin but a thread local
+ * lookup. Closing closes the decorated queue if it holds files, and the
+ * consumers of a decorated {@link LanedQueue} still register with it.
+ */
+public final class ProfilingQueue extends AbstractQueue<Widget<?>> implements BlockingQueue<Widget<?>>, Closeable {
+
+	// mean put or take above this is more than an uncontended queue costs
+	private static final long CONTENDED_NANOS = 1_000;
+	// a queue full or empty at least this share of the time limits the pipeline
+	private static final double BOTTLENECK_SHARE = 0.5;
+
+	private final BlockingQueue<Widget<?>> queue;
+	private final String name;
+	private final WidgetStatus widgetStatus;
+	private final QueueOccupancy occupancy;
+
+	/**
+	 * @param queue
+	 *            The queue to profile
+	 * @param name
+	 *            Name of the queue in the report
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} the counts go to
+	 */
+	public ProfilingQueue(BlockingQueue<Widget<?>> queue, String name, WidgetStatus widgetStatus) {
+		this.queue = Objects.requireNonNull(queue);
+		this.name = name;
+		this.widgetStatus = widgetStatus;
+		this.occupancy = widgetStatus.queueOccupancy(name);
+		ContentionProbe.enable();
+	}
+
+	/**
+	 * @return Name of the queue in the report
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The decorated queue
+	 */
+	public BlockingQueue<Widget<?>> getQueue() {
+		return queue;
+	}
+
+	/**
+	 * @return The sampled {@link QueueOccupancy}
+	 */
+	public QueueOccupancy getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Record the current depth, from the single sampling thread<br>
+	 */
+	public void sample() {
+		occupancy.record(queue.size(), queue.remainingCapacity());
+	}
+
+	/**
+	 * Read the occupancy and the contention of all RunnableKeys into a hint of
+	 * what limits the pipeline<br>
+	 *
+	 * @return Which side to change, as text
+	 */
+	public String diagnose() {
+		long puts = 0;
+		long putNanos = 0;
+		long takes = 0;
+		long takeNanos = 0;
+		int count = widgetStatus.getRunnableKeyCount();
+		for (int id = 0; id < count; id++) {
+			puts += widgetStatus.getPuts(id);
+			putNanos += widgetStatus.getPutNanos(id);
+			takes += widgetStatus.getTakes(id);
+			takeNanos += widgetStatus.getTakeNanos(id);
+		}
+		long meanNanos = puts + takes == 0 ? 0 : (putNanos + takeNanos) / (puts + takes);
+		if (occupancy.getFullShare() >= BOTTLENECK_SHARE) {
+			return "full " + percent(occupancy.getFullShare())
+					+ " of the time, consumers cannot keep up: add consumers or throttle producers";
+		}
+		if (occupancy.getEmptyShare() >= BOTTLENECK_SHARE) {
+			return "empty " + percent(occupancy.getEmptyShare())
+					+ " of the time, consumers wait for Widgets: producers limit the pipeline";
+		}
+		if (meanNanos > CONTENDED_NANOS) {
+			return "mean put or take " + meanNanos + "ns, threads contend on the queue: try another queueType";
+		}
+		return "neither full, empty nor contended, mean put or take " + meanNanos + "ns";
+	}
+
+	@Override
+	public boolean offer(Widget<?> e) {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.PRODUCER);
+		long start = System.nanoTime();
+		boolean offered = queue.offer(e);
+		probe.put(System.nanoTime() - start);
+		return offered;
+	}
+
+	@Override
+	public void put(Widget<?> e) throws InterruptedException {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.PRODUCER);
+		long start = System.nanoTime();
+		if (queue.offer(e)) {
+			probe.put(System.nanoTime() - start);
+			return;
+		}
+		long waitStart = System.nanoTime();
+		probe.beginWait();
+		try {
+			queue.put(e);
+		} finally {
+			probe.endPutWait(System.nanoTime() - waitStart);
+		}
+	}
+
+	@Override
+	public boolean offer(Widget<?> e, long timeout, TimeUnit unit) throws InterruptedException {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.PRODUCER);
+		long start = System.nanoTime();
+		if (queue.offer(e)) {
+			probe.put(System.nanoTime() - start);
+			return true;
+		}
+		long waitStart = System.nanoTime();
+		probe.beginWait();
+		try {
+			return queue.offer(e, timeout, unit);
+		} finally {
+			probe.endPutWait(System.nanoTime() - waitStart);
+		}
+	}
+
+	@Override
+	public Widget<?> poll() {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.CONSUMER);
+		long start = System.nanoTime();
+		Widget<?> widget = queue.poll();
+		probe.take(System.nanoTime() - start);
+		return widget;
+	}
+
+	@Override
+	public Widget<?> take() throws InterruptedException {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.CONSUMER);
+		long start = System.nanoTime();
+		Widget<?> widget = queue.poll();
+		if (widget != null) {
+			probe.take(System.nanoTime() - start);
+			return widget;
+		}
+		long waitStart = System.nanoTime();
+		probe.beginWait();
+		try {
+			return queue.take();
+		} finally {
+			probe.endTakeWait(System.nanoTime() - waitStart);
+		}
+	}
+
+	@Override
+	public Widget<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.CONSUMER);
+		long start = System.nanoTime();
+		Widget<?> widget = queue.poll();
+		if (widget != null) {
+			probe.take(System.nanoTime() - start);
+			return widget;
+		}
+		long waitStart = System.nanoTime();
+		probe.beginWait();
+		try {
+			return queue.poll(timeout, unit);
+		} finally {
+			probe.endTakeWait(System.nanoTime() - waitStart);
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c, int maxElements) {
+		ContentionProbe probe = ContentionProbe.of(widgetStatus, ConnectionType.CONSUMER);
+		long start = System.nanoTime();
+		int drained = queue.drainTo(c, maxElements);
+		probe.take(System.nanoTime() - start);
+		return drained;
+	}
+
+	@Override
+	public Widget<?> peek() {
+		return queue.peek();
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return queue.remainingCapacity();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return queue.contains(o);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return queue.remove(o);
+	}
+
+	@Override
+	public Iterator<Widget<?>> iterator() {
+		return queue.iterator();
+	}
+
+	/**
+	 * Close the decorated queue if it is Closeable<br>
+	 */
+	@Override
+	public void close() throws IOException {
+		if (queue instanceof Closeable) {
+			((Closeable) queue).close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[name=" + name + ", queue=" + queue + "]";
+	}
+
+	private static String percent(double share) {
+		return String.format("%.1f%%", share * 100);
+	}
+
+}
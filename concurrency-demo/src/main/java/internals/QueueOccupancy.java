@@ -0,0 +1,91 @@
+package internals;
+
+/**
+ * Depth of a queue sampled at a fixed rate, so each sample stands for the
+ * same slice of time<br>
+ * One thread samples, any thread may read. The counts are read without
+ * locking and are weakly consistent with each other.
+ *
+ * @see ProfilingQueue#sample()
+ */
+public final class QueueOccupancy {
+
+	private volatile long samples;
+	private volatile long empty;
+	private volatile long full;
+	private volatile long depthSum;
+	private volatile long maxDepth;
+
+	/**
+	 * Record one sample, from the single sampling thread<br>
+	 *
+	 * @param depth
+	 *            Widgets in the queue
+	 * @param remainingCapacity
+	 *            Room left, 0 when full
+	 */
+	public void record(int depth, int remainingCapacity) {
+		// single writer, the volatile stores only publish
+		samples = samples + 1;
+		if (depth == 0) {
+			empty = empty + 1;
+		}
+		if (remainingCapacity == 0) {
+			full = full + 1;
+		}
+		depthSum = depthSum + depth;
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+	}
+
+	/**
+	 * @return Number of samples
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return Share of the time the queue was empty, 0 to 1
+	 */
+	public double getEmptyShare() {
+		long count = samples;
+		return count == 0 ? 0 : empty / (double) count;
+	}
+
+	/**
+	 * @return Share of the time the queue was full, 0 to 1
+	 */
+	public double getFullShare() {
+		long count = samples;
+		return count == 0 ? 0 : full / (double) count;
+	}
+
+	/**
+	 * @return Mean depth over the samples
+	 */
+	public double getMeanDepth() {
+		long count = samples;
+		return count == 0 ? 0 : depthSum / (double) count;
+	}
+
+	/**
+	 * @return Largest sampled depth
+	 */
+	public long getMaxDepth() {
+		return maxDepth;
+	}
+
+	@Override
+	public String toString() {
+		return "samples=" + getSamples() + ", empty=" + percent(getEmptyShare()) + ", full="
+				+ percent(getFullShare()) + ", meanDepth=" + String.format("%.1f", getMeanDepth()) + ", maxDepth="
+				+ getMaxDepth();
+	}
+
+	private static String percent(double share) {
+		return String.format("%.1f%%", share * 100);
+	}
+
+}
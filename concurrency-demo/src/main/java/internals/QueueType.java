@@ -0,0 +1,53 @@
+package internals;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * BlockingQueue implementations that producers and consumers can share<br>
+ * {@link #LINKED} is the JDK LinkedBlockingQueue, {@link #RING} is the
+ * lock-free {@link RingBufferQueue}, {@link #LANED} is the
+ * {@link LanedQueue} with a lane per producer thread, {@link #JOURNAL} is the
+ * persistent {@link JournalQueue} under {@code journal/queue}
+ */
+public enum QueueType {
+	LINKED {
+		@Override
+		public <E> BlockingQueue<E> create(int capacity, WaitStrategy waitStrategy) {
+			return new LinkedBlockingQueue<>(capacity);
+		}
+	},
+	RING {
+		@Override
+		public <E> BlockingQueue<E> create(int capacity, WaitStrategy waitStrategy) {
+			return new RingBufferQueue<>(capacity, waitStrategy);
+		}
+	},
+	LANED {
+		@Override
+		public <E> BlockingQueue<E> create(int capacity, WaitStrategy waitStrategy) {
+			return new LanedQueue<>(capacity, waitStrategy);
+		}
+	},
+	JOURNAL {
+		@SuppressWarnings("unchecked")
+		@Override
+		public <E> BlockingQueue<E> create(int capacity, WaitStrategy waitStrategy) {
+			// holds String and Long Widgets only, bounded by disk rather than capacity
+			return (BlockingQueue<E>) new JournalQueue(JournalQueue.directory("queue"));
+		}
+	};
+
+	/**
+	 * Create a queue of this type<br>
+	 * 
+	 * @param capacity
+	 *            Maximum number of elements, per producer for {@link #LANED},
+	 *            ignored by {@link #JOURNAL}
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} for queues that spin or park, ignored
+	 *            by {@link #LINKED}
+	 * @return The new, empty queue
+	 */
+	public abstract <E> BlockingQueue<E> create(int capacity, WaitStrategy waitStrategy);
+}
@@ -0,0 +1,44 @@
+package internals;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a producer or consumer, one instance per thread<br>
+ * Open-loop controllers keep a schedule of intended send times that does not
+ * depend on how long each put took, so a stalled queue shows up as latency
+ * measured from the intended time instead of silently lowering the offered
+ * load (coordinated omission).
+ * 
+ * @see RateSpec
+ */
+public interface RateController {
+
+	/**
+	 * Advance the schedule without waiting<br>
+	 * 
+	 * @return The System.nanoTime() at which the next Widget is meant to be
+	 *         sent, possibly in the past if the caller is behind
+	 */
+	long next();
+
+	/**
+	 * Wait until the next intended send time<br>
+	 * 
+	 * @return The intended send time, use it rather than the wake-up time when
+	 *         measuring latency
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	default long acquire() throws InterruptedException {
+		long intended = next();
+		long remaining;
+		while ((remaining = intended - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		return intended;
+	}
+
+}
@@ -0,0 +1,238 @@
+package internals;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable description of how fast a producer or consumer runs<br>
+ * <ul>
+ * <li>{@code unthrottled} - as fast as the queue allows</li>
+ * <li>{@code constant:R} - open loop, R per second at fixed intervals</li>
+ * <li>{@code poisson:R} - open loop, R per second on average with
+ * exponentially distributed gaps</li>
+ * <li>{@code closed:MIN-MAX} or {@code closed:T} - closed loop, waits a
+ * think time of MIN to MAX (or T) milliseconds after the previous one
+ * finished</li>
+ * </ul>
+ * {@link #newController()} creates the per-thread {@link RateController}.
+ */
+public final class RateSpec {
+
+	/**
+	 * Kinds of pacing, see {@link RateSpec}
+	 */
+	public enum Mode {
+		UNTHROTTLED, CONSTANT, POISSON, CLOSED_LOOP
+	}
+
+	private static final RateSpec UNTHROTTLED = new RateSpec(Mode.UNTHROTTLED, 0, 0, 0);
+
+	private final Mode mode;
+	private final double perSecond;
+	private final long minThinkMillis;
+	private final long maxThinkMillis;
+
+	private RateSpec(Mode mode, double perSecond, long minThinkMillis, long maxThinkMillis) {
+		this.mode = mode;
+		this.perSecond = perSecond;
+		this.minThinkMillis = minThinkMillis;
+		this.maxThinkMillis = maxThinkMillis;
+	}
+
+	/**
+	 * @return No pacing at all
+	 */
+	public static RateSpec unthrottled() {
+		return UNTHROTTLED;
+	}
+
+	/**
+	 * @param perSecond
+	 *            Target rate per thread
+	 * @return Open loop pacing at fixed intervals
+	 */
+	public static RateSpec constant(double perSecond) {
+		return new RateSpec(Mode.CONSTANT, positive(perSecond), 0, 0);
+	}
+
+	/**
+	 * @param perSecond
+	 *            Target average rate per thread
+	 * @return Open loop pacing with Poisson arrivals
+	 */
+	public static RateSpec poisson(double perSecond) {
+		return new RateSpec(Mode.POISSON, positive(perSecond), 0, 0);
+	}
+
+	/**
+	 * @param minThinkMillis
+	 *            Shortest wait after the previous Widget
+	 * @param maxThinkMillis
+	 *            Longest wait after the previous Widget
+	 * @return Closed loop pacing with a uniformly distributed think time
+	 */
+	public static RateSpec closedLoop(long minThinkMillis, long maxThinkMillis) {
+		if (minThinkMillis < 0 || maxThinkMillis < minThinkMillis) {
+			throw new IllegalArgumentException("Bad think time: " + minThinkMillis + "-" + maxThinkMillis);
+		}
+		return new RateSpec(Mode.CLOSED_LOOP, 0, minThinkMillis, maxThinkMillis);
+	}
+
+	/**
+	 * Parse the format described on {@link RateSpec}, as printed by
+	 * {@link #toString()}<br>
+	 * 
+	 * @param spec
+	 *            e.g. {@code poisson:500}
+	 * @return The RateSpec
+	 */
+	public static RateSpec parse(String spec) {
+		String[] parts = spec.trim().split(":", 2);
+		String kind = parts[0].toLowerCase();
+		try {
+			switch (kind) {
+			case "unthrottled":
+				return unthrottled();
+			case "constant":
+				return constant(Double.parseDouble(parts[1]));
+			case "poisson":
+				return poisson(Double.parseDouble(parts[1]));
+			case "closed":
+				String[] range = parts[1].split("-", 2);
+				long min = Long.parseLong(range[0].trim());
+				return closedLoop(min, range.length > 1 ? Long.parseLong(range[1].trim()) : min);
+			default:
+				throw new IllegalArgumentException("Unknown rate: " + spec);
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Bad rate: " + spec, e);
+		}
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return Target rate per thread for the open loop modes, 0 otherwise
+	 */
+	public double getPerSecond() {
+		return perSecond;
+	}
+
+	/**
+	 * @return A new controller, one per thread since controllers keep state
+	 */
+	public RateController newController() {
+		switch (mode) {
+		case CONSTANT:
+			return new Constant(perSecond);
+		case POISSON:
+			return new Poisson(perSecond);
+		case CLOSED_LOOP:
+			return new ClosedLoop(minThinkMillis, maxThinkMillis);
+		default:
+			return System::nanoTime;
+		}
+	}
+
+	@Override
+	public String toString() {
+		switch (mode) {
+		case CONSTANT:
+			return "constant:" + perSecond;
+		case POISSON:
+			return "poisson:" + perSecond;
+		case CLOSED_LOOP:
+			return "closed:" + minThinkMillis + "-" + maxThinkMillis;
+		default:
+			return "unthrottled";
+		}
+	}
+
+	private static double positive(double perSecond) {
+		if (!(perSecond > 0)) {
+			throw new IllegalArgumentException("Rate must be positive: " + perSecond);
+		}
+		return perSecond;
+	}
+
+	/**
+	 * Fixed intervals from the first call
+	 */
+	private static final class Constant implements RateController {
+
+		private final double intervalNanos;
+		private long start;
+		private long count;
+
+		Constant(double perSecond) {
+			this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+		}
+
+		@Override
+		public long next() {
+			if (count == 0) {
+				start = System.nanoTime();
+			}
+			// computed from the start so rounding never drifts
+			return start + (long) (intervalNanos * count++);
+		}
+	}
+
+	/**
+	 * Exponentially distributed gaps from the first call
+	 */
+	private static final class Poisson implements RateController {
+
+		private final double meanNanos;
+		private final Random random = new Random();
+		private long intended;
+		private boolean started;
+
+		Poisson(double perSecond) {
+			this.meanNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+		}
+
+		@Override
+		public long next() {
+			if (!started) {
+				started = true;
+				intended = System.nanoTime();
+			}
+			intended += (long) (-Math.log(1.0 - random.nextDouble()) * meanNanos);
+			return intended;
+		}
+	}
+
+	/**
+	 * Think time after the previous call, none before the first
+	 */
+	private static final class ClosedLoop implements RateController {
+
+		private final long minThinkNanos;
+		private final long spreadNanos;
+		private final Random random = new Random();
+		private boolean started;
+
+		ClosedLoop(long minThinkMillis, long maxThinkMillis) {
+			this.minThinkNanos = TimeUnit.MILLISECONDS.toNanos(minThinkMillis);
+			this.spreadNanos = TimeUnit.MILLISECONDS.toNanos(maxThinkMillis - minThinkMillis);
+		}
+
+		@Override
+		public long next() {
+			long now = System.nanoTime();
+			if (!started) {
+				started = true;
+				return now;
+			}
+			long think = minThinkNanos;
+			if (spreadNanos > 0) {
+				think += (long) (random.nextDouble() * spreadNanos);
+			}
+			return now + think;
+		}
+	}
+
+}
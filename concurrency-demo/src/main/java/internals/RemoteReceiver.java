@@ -0,0 +1,92 @@
+package internals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the {@link FrameChannel#BATCH} frames of one {@link RemoteSender}
+ * and puts their {@link Widget}s on a local queue for the consumers<br>
+ * <br>
+ * Grants the sender {@code credit} Widgets when it starts and returns the
+ * credit of each batch once the batch is on the queue. With the credits of
+ * all receivers of a queue within its capacity, a put rarely waits, and if
+ * it does the sender stops too. Returns on the {@link FrameChannel#END}
+ * frame, which the caller answers with one end-of-stream marker for the
+ * local consumers once every receiver returned.
+ */
+public final class RemoteReceiver implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(RemoteReceiver.class);
+
+	private final BlockingQueue<Widget<?>> queue;
+	private final FrameChannel channel;
+	private final int credit;
+	private volatile boolean ended;
+	private long received;
+
+	/**
+	 * @param queue
+	 *            The local queue to put on
+	 * @param channel
+	 *            Connected to the {@link RemoteSender}
+	 * @param credit
+	 *            Widgets the sender may have in flight
+	 */
+	public RemoteReceiver(BlockingQueue<Widget<?>> queue, FrameChannel channel, int credit) {
+		if (credit < 1) {
+			throw new IllegalArgumentException("credit must be positive: " + credit);
+		}
+		this.queue = queue;
+		this.channel = channel;
+		this.credit = credit;
+	}
+
+	@Override
+	public void run() {
+		List<Widget<?>> batch = new ArrayList<>();
+		try {
+			channel.send(FrameChannel.CREDIT, credit);
+			while (true) {
+				byte type = channel.receive();
+				if (type == FrameChannel.END) {
+					ended = true;
+					logger.info("End of stream, {} closed after {} Widgets", this, received);
+					return;
+				}
+				if (type != FrameChannel.BATCH) {
+					throw new IOException("Expected a batch frame, got " + type);
+				}
+				WireCodec.decodeBatch(channel.payload(), batch);
+				for (Widget<?> widget : batch) {
+					queue.put(widget);
+				}
+				received += batch.size();
+				channel.send(FrameChannel.CREDIT, batch.size());
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			logger.info("{} interrupted after {} Widgets", this, received);
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.error(this + " lost its sender after " + received + " Widgets", e);
+		}
+	}
+
+	/**
+	 * @return true once the sender ended the stream, false if it was lost
+	 */
+	public boolean isEnded() {
+		return ended;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + channel + ", credit=" + credit + "]";
+	}
+
+}
@@ -0,0 +1,153 @@
+package internals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Takes {@link Widget}s from a local queue and sends them in
+ * {@link FrameChannel#BATCH} frames to a {@link RemoteReceiver} in another
+ * process<br>
+ * <br>
+ * Flow control is by credit: the receiver grants a number of Widgets up
+ * front and one {@link FrameChannel#CREDIT} frame per batch it passed on, and
+ * the sender never has more in flight. Credit that arrived is read without
+ * waiting before each batch, so the window refills while it is in use.
+ * Without credit the sender waits for the next credit frame, so a slow
+ * consumer process backs up into the local queue and
+ * from there into the producers' {@link BackpressurePolicy}. A batch is what
+ * the queue holds when the first Widget arrives, up to the batch size and the
+ * credit, so batches grow with the load without a linger.<br>
+ * Several senders on one queue, one per receiving process, share the Widgets
+ * like competing consumers. After the end-of-stream marker a sender takes
+ * what is left without waiting, a {@link LanedQueue} may still hold Widgets
+ * in other lanes, and once the queue is empty puts the marker back for the
+ * others and answers it with an {@link FrameChannel#END} frame.
+ */
+public final class RemoteSender implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(RemoteSender.class);
+
+	private final BlockingQueue<Widget<?>> queue;
+	private final FrameChannel channel;
+	private final int batchSize;
+	private long sent;
+	private long batches;
+
+	/**
+	 * @param queue
+	 *            The local queue to take from
+	 * @param channel
+	 *            Connected to the {@link RemoteReceiver}
+	 * @param batchSize
+	 *            Maximum Widgets per frame
+	 */
+	public RemoteSender(BlockingQueue<Widget<?>> queue, FrameChannel channel, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.queue = queue;
+		this.channel = channel;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void run() {
+		List<Widget<?>> batch = new ArrayList<>(batchSize);
+		long credit = 0;
+		// set once the end-of-stream marker arrived, the queue only shrinks from then on
+		Widget<?> endOfStream = null;
+		LanedQueue<?> lanedQueue = LanedQueue.registerIfLaned(queue);
+		try {
+			while (true) {
+				credit += pendingCredit();
+				while (credit == 0) {
+					credit += credit(channel.receive());
+				}
+				if (endOfStream == null) {
+					batch.add(queue.take());
+				} else {
+					Widget<?> widget = queue.poll();
+					if (widget == null) {
+						// the other senders still need it
+						queue.put(endOfStream);
+						channel.send(FrameChannel.END);
+						logger.info("End of stream, {} closed after {} Widgets in {} batches", this, sent, batches);
+						return;
+					}
+					batch.add(widget);
+				}
+				queue.drainTo(batch, (int) Math.min(batchSize, credit) - 1);
+				Widget<?> marker = removeEndOfStream(batch);
+				if (marker != null) {
+					endOfStream = marker;
+				}
+				if (!batch.isEmpty()) {
+					WireCodec.encodeBatch(channel, batch);
+					credit -= batch.size();
+					sent += batch.size();
+					batches++;
+					batch.clear();
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.info("{} interrupted after {} Widgets", this, sent);
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.error(this + " lost its receiver after " + sent + " Widgets", e);
+		} finally {
+			if (lanedQueue != null) {
+				lanedQueue.deregister();
+			}
+		}
+	}
+
+	/**
+	 * @return Widgets sent so far
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + channel + ", batchSize=" + batchSize + "]";
+	}
+
+	/**
+	 * @return The credit of the frames that already arrived
+	 */
+	private int pendingCredit() throws IOException {
+		int granted = 0;
+		byte type;
+		while ((type = channel.poll()) != FrameChannel.NONE) {
+			granted += credit(type);
+		}
+		return granted;
+	}
+
+	private int credit(byte type) throws IOException {
+		if (type != FrameChannel.CREDIT) {
+			throw new IOException("Expected a credit frame, got " + type);
+		}
+		return channel.payload().getInt();
+	}
+
+	/**
+	 * The producers stopped before the marker was put, so only Widgets of
+	 * other lanes may still follow it
+	 */
+	private static Widget<?> removeEndOfStream(List<Widget<?>> batch) {
+		for (int i = batch.size() - 1; i >= 0; i--) {
+			if (batch.get(i).isEndOfStream()) {
+				return batch.remove(i);
+			}
+		}
+		return null;
+	}
+
+}
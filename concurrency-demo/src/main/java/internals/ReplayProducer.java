@@ -0,0 +1,140 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plays back the {@link Trace} of {@link ConnectorSettings#getTrace()}, so
+ * runs compare queues and consumers on the same Widget stream<br>
+ * <br>
+ * The instance is shared by the threads of its executor and each thread
+ * claims one recorded producer and puts its String and Long Widgets in
+ * recorded order. Start one thread per {@link Trace#getProducers()}, extra
+ * threads return at once. At {@link ConnectorSettings#getReplaySpeed()} 1
+ * every Widget is put at its recorded time since the first thread started,
+ * 2 twice as fast, and so on. The schedule is open loop like
+ * {@link RateController}, Widgets are stamped with their intended time so a
+ * stalled queue shows up as latency. Speed 0 puts them back to back, stamped
+ * when created. A thread stops at the end of its producer's records, which
+ * lets the run end with the trace.
+ */
+public final class ReplayProducer implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplayProducer.class);
+
+	private final BlockingQueue<Widget<? extends Object>> queue;
+	private final Connector connector;
+	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
+	private final Trace trace;
+	// index into the recorded producers of the next thread to start
+	private final AtomicInteger claimed = new AtomicInteger();
+	// System.nanoTime() of the first thread, 0 until then
+	private final AtomicLong startNanos = new AtomicLong();
+
+	/**
+	 * Create a replaying producer<br>
+	 *
+	 * @param queue
+	 *            BlockingQueue where Widgets will go
+	 * @param connector
+	 *            {@link Connector} used to create keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} with the {@link Trace} and speed
+	 */
+	public ReplayProducer(BlockingQueue<Widget<? extends Object>> queue, Connector connector,
+			WidgetStatus widgetStatus, ConnectorSettings settings) {
+		if (settings.getTrace() == null) {
+			throw new IllegalArgumentException("ReplayProducer needs a trace");
+		}
+		this.queue = queue;
+		this.connector = connector;
+		this.widgetStatus = widgetStatus;
+		this.settings = settings;
+		this.trace = settings.getTrace();
+	}
+
+	/**
+	 * Replay the next unclaimed producer of the trace<br>
+	 */
+	@Override
+	public void run() {
+		List<Integer> producers = trace.getProducers();
+		int index = claimed.getAndIncrement();
+		if (index >= producers.size()) {
+			logger.warn("No recorded producer left for thread {}", Thread.currentThread().getName());
+			return;
+		}
+		int recordedId = producers.get(index);
+		logger.info("Started producer on thread {}, connector name {}, connector info {}, recorded producer {}",
+				Thread.currentThread().getName(), connector.name(), connector.toString(), recordedId);
+		int id = Math.toIntExact(Thread.currentThread().getId());
+		RunnableKey runnableKey = new RunnableKey(connector.getConnectionType(),
+				connector.getRunnableClass().getSimpleName(), id);
+		WidgetStatusKey stringKey = new WidgetStatusKey(connector.getConnectionType(), String.class.getSimpleName(),
+				id);
+		WidgetStatusKey longKey = new WidgetStatusKey(connector.getConnectionType(), Long.class.getSimpleName(), id);
+		int runnableId = widgetStatus.register(runnableKey);
+		int stringId = widgetStatus.register(stringKey);
+		int longId = widgetStatus.register(longKey);
+		logger.info("threadName: {}, runnableKey: {}", Thread.currentThread().getName(), runnableKey);
+
+		Backpressure<String> strings = new Backpressure<>(typedQueue(), settings, widgetStatus, stringKey);
+		Backpressure<Long> longs = new Backpressure<>(typedQueue(), settings, widgetStatus, longKey);
+		Trace.Cursor cursor = trace.cursor(recordedId);
+		RateController schedule = schedule(cursor);
+		long replayed = 0;
+		try {
+			while (cursor.next()) {
+				long intended = schedule.acquire();
+				if (cursor.getType() == JournalQueue.LONG) {
+					longs.put(new Widget<Long>(cursor.getLong(), intended));
+					widgetStatus.addWidgetCount(longId, 1);
+				} else {
+					strings.put(new Widget<String>(cursor.getString(), intended));
+					widgetStatus.addWidgetCount(stringId, 1);
+				}
+				replayed++;
+			}
+			logger.info("Replayed {} Widgets of recorded producer {} on thread {}", replayed, recordedId,
+					Thread.currentThread().getName());
+		} catch (InterruptedException e) {
+			logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
+					runnableKey);
+			Thread.currentThread().interrupt();
+		}
+		widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+	}
+
+	/**
+	 * @return The recorded times scaled by the speed from the shared start,
+	 *         or now for speed 0
+	 */
+	private RateController schedule(Trace.Cursor cursor) {
+		double speed = settings.getReplaySpeed();
+		if (speed == 0) {
+			return System::nanoTime;
+		}
+		startNanos.compareAndSet(0, System.nanoTime());
+		long start = startNanos.get();
+		return () -> start + (long) (cursor.getNanos() / speed);
+	}
+
+	/**
+	 * @return The queue typed for one Widget data type, the queues hold
+	 *         Widgets of any data type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <T> BlockingQueue<Widget<T>> typedQueue() {
+		return (BlockingQueue) queue;
+	}
+
+}
@@ -0,0 +1,54 @@
+package internals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asks some of the workers sharing one Runnable to finish<br>
+ * {@link #request(int)} adds retirement tickets, each worker checks
+ * {@link #tryRetire()} between batches and exits if it got a ticket. Workers
+ * are never interrupted, so a retiring worker always finishes its batch.
+ */
+public final class RetireSignal {
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * @param workers
+	 *            Number of additional workers that should retire
+	 */
+	public void request(int workers) {
+		pending.addAndGet(workers);
+	}
+
+	/**
+	 * @return Number of requests no worker has claimed yet
+	 */
+	public int pending() {
+		return Math.max(0, pending.get());
+	}
+
+	/**
+	 * Withdraw the requests no worker has claimed yet<br>
+	 * 
+	 * @return Number of requests withdrawn
+	 */
+	public int cancel() {
+		return pending.getAndSet(0);
+	}
+
+	/**
+	 * @return true if the calling worker should retire now
+	 */
+	public boolean tryRetire() {
+		for (;;) {
+			int current = pending.get();
+			if (current <= 0) {
+				return false;
+			}
+			if (pending.compareAndSet(current, current - 1)) {
+				return true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package internals;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, lock-free, multi-producer/multi-consumer queue on a pre-allocated
+ * array. Drop-in replacement for a bounded LinkedBlockingQueue without the
+ * put/take locks and without a node per element.<br>
+ * <br>
+ * Each slot carries a sequence number that tells producers and consumers
+ * whose turn it is, so the only contended writes are the CAS on the padded
+ * head and tail counters. Threads that find the queue full or empty wait
+ * according to the {@link WaitStrategy}. The sequencing lives in
+ * {@link RingSequencer}, this class only stores and loads the slots.<br>
+ * <br>
+ * The iterator is a weakly consistent snapshot and does not support remove,
+ * so neither do {@link #remove(Object)} and the bulk removal methods.
+ *
+ * @param <E>
+ *            The element type
+ */
+public final class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+	private final RingSequencer ring;
+	private final Object[] buffer;
+
+	/**
+	 * Create the queue with the {@link WaitStrategy#PARK} strategy<br>
+	 *
+	 * @param capacity
+	 *            Maximum number of elements, at least 2
+	 */
+	public RingBufferQueue(int capacity) {
+		this(capacity, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Create the queue<br>
+	 *
+	 * @param capacity
+	 *            Maximum number of elements, at least 2
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} used when the queue is full or empty
+	 */
+	public RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+		this.ring = new RingSequencer(capacity, waitStrategy);
+		this.buffer = new Object[capacity];
+	}
+
+	/**
+	 * @return The {@link WaitStrategy} of this queue
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return ring.getWaitStrategy();
+	}
+
+	@Override
+	public boolean offer(E e) {
+		Objects.requireNonNull(e);
+		long pos = ring.claimPut();
+		if (pos < 0) {
+			return false;
+		}
+		buffer[ring.index(pos)] = e;
+		ring.publishPut(pos);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		long pos = ring.claimTake();
+		if (pos < 0) {
+			return null;
+		}
+		int index = ring.index(pos);
+		@SuppressWarnings("unchecked")
+		E e = (E) buffer[index];
+		buffer[index] = null;
+		ring.publishTake(pos);
+		return e;
+	}
+
+	@Override
+	public E peek() {
+		for (;;) {
+			long pos = ring.head();
+			if (!ring.isFilled(pos)) {
+				return null;
+			}
+			@SuppressWarnings("unchecked")
+			E e = (E) buffer[ring.index(pos)];
+			// only trust the read if no consumer took the slot meanwhile
+			if (e != null && ring.head() == pos) {
+				return e;
+			}
+		}
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		int attempt = 0;
+		while (!offer(e)) {
+			ring.awaitPut(++attempt, false, 0L);
+		}
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		while (!offer(e)) {
+			if (!ring.awaitPut(++attempt, true, deadline)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		int attempt = 0;
+		E e;
+		while ((e = poll()) == null) {
+			ring.awaitTake(++attempt, false, 0L);
+		}
+		return e;
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		E e;
+		while ((e = poll()) == null) {
+			if (!ring.awaitTake(++attempt, true, deadline)) {
+				return null;
+			}
+		}
+		return e;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return ring.remainingCapacity();
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		int n = 0;
+		E e;
+		while (n < maxElements && (e = poll()) != null) {
+			c.add(e);
+			n++;
+		}
+		return n;
+	}
+
+	@Override
+	public int size() {
+		return ring.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return ring.isEmpty();
+	}
+
+	/**
+	 * @return A weakly consistent snapshot of the elements in the queue
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		long end = ring.tail();
+		for (long pos = ring.head(); pos < end; pos++) {
+			@SuppressWarnings("unchecked")
+			E e = (E) buffer[ring.index(pos)];
+			if (e != null && ring.isFilled(pos)) {
+				snapshot.add(e);
+			}
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[capacity=" + ring.capacity() + ", size=" + size() + ", waitStrategy="
+				+ ring.getWaitStrategy() + "]";
+	}
+
+}
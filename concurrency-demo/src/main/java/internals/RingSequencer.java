@@ -0,0 +1,243 @@
+package internals;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+
+/**
+ * Slot sequencing of the bounded lock-free MPMC rings, shared by
+ * {@link RingBufferQueue} and {@link LongRingBuffer} which only differ in the
+ * array their slots live in<br>
+ * <br>
+ * Each slot carries a sequence number that tells producers and consumers
+ * whose turn it is, so the only contended writes are the CAS on the padded
+ * head and tail counters. A producer claims a position, stores into the slot
+ * at {@link #index(long)} and publishes it; a consumer claims, loads and
+ * frees it the same way. Threads that find the ring full or empty wait
+ * according to the {@link WaitStrategy}.
+ */
+final class RingSequencer {
+
+	private final int capacity;
+	// -1 unless capacity is a power of two
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final Sequence head = new Sequence(0);
+	private final Sequence tail = new Sequence(0);
+	private final RingSignal signal;
+	private final BooleanSupplier canOffer = this::canOffer;
+	private final BooleanSupplier canPoll = this::canPoll;
+
+	/**
+	 * @param capacity
+	 *            Number of slots, at least 2
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} used when the ring is full or empty
+	 */
+	RingSequencer(int capacity, WaitStrategy waitStrategy) {
+		// with a single slot "filled" and "freed for the next lap" are the same sequence
+		if (capacity < 2) {
+			throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+		}
+		this.capacity = capacity;
+		this.mask = Integer.bitCount(capacity) == 1 ? capacity - 1 : -1;
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.signal = new RingSignal(Objects.requireNonNull(waitStrategy));
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	WaitStrategy getWaitStrategy() {
+		return signal.getWaitStrategy();
+	}
+
+	/**
+	 * Claim the next slot to fill, the caller stores into it and then calls
+	 * {@link #publishPut(long)}<br>
+	 *
+	 * @return The claimed position, -1 if the ring is full
+	 */
+	long claimPut() {
+		long pos = tail.get();
+		for (;;) {
+			long difference = sequences.get(index(pos)) - pos;
+			if (difference == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					return pos;
+				}
+				pos = tail.get();
+			} else if (difference < 0) {
+				// slot still holds the element from the previous lap
+				return -1;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Hand a filled slot to the consumers<br>
+	 *
+	 * @param pos
+	 *            Position from {@link #claimPut()}
+	 */
+	void publishPut(long pos) {
+		publish(index(pos), pos + 1);
+	}
+
+	/**
+	 * Claim the next slot to empty, the caller loads from it and then calls
+	 * {@link #publishTake(long)}<br>
+	 *
+	 * @return The claimed position, -1 if the ring is empty
+	 */
+	long claimTake() {
+		return claimTake(null);
+	}
+
+	/**
+	 * Claim the next slot to empty if its content is accepted, the caller
+	 * loads from it and then calls {@link #publishTake(long)}<br>
+	 * The check sees what the producer stored, it runs after the slot was
+	 * published and before the claim.
+	 *
+	 * @param accept
+	 *            Tested with the {@link #index(long)} of the filled slot, null
+	 *            to accept any
+	 * @return The claimed position, -1 if the ring is empty or the next slot
+	 *         is not accepted
+	 */
+	long claimTake(IntPredicate accept) {
+		long pos = head.get();
+		for (;;) {
+			long difference = sequences.get(index(pos)) - (pos + 1);
+			if (difference == 0) {
+				if (accept != null && !accept.test(index(pos))) {
+					return -1;
+				}
+				if (head.compareAndSet(pos, pos + 1)) {
+					return pos;
+				}
+				pos = head.get();
+			} else if (difference < 0) {
+				return -1;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Free an emptied slot for the producers of the next lap<br>
+	 *
+	 * @param pos
+	 *            Position from {@link #claimTake()}
+	 */
+	void publishTake(long pos) {
+		publish(index(pos), pos + capacity);
+	}
+
+	/**
+	 * Wait once for room, see {@link RingSignal#await}<br>
+	 *
+	 * @param attempt
+	 *            Number of waits so far in this operation
+	 * @param timed
+	 *            false to wait without a deadline
+	 * @param deadline
+	 *            System.nanoTime() value to give up at
+	 * @return false if the deadline has passed
+	 * @throws InterruptedException
+	 *             if the thread is interrupted
+	 */
+	boolean awaitPut(int attempt, boolean timed, long deadline) throws InterruptedException {
+		return signal.await(canOffer, attempt, timed, deadline);
+	}
+
+	/**
+	 * Wait once for an element, see {@link RingSignal#await}<br>
+	 *
+	 * @param attempt
+	 *            Number of waits so far in this operation
+	 * @param timed
+	 *            false to wait without a deadline
+	 * @param deadline
+	 *            System.nanoTime() value to give up at
+	 * @return false if the deadline has passed
+	 * @throws InterruptedException
+	 *             if the thread is interrupted
+	 */
+	boolean awaitTake(int attempt, boolean timed, long deadline) throws InterruptedException {
+		return signal.await(canPoll, attempt, timed, deadline);
+	}
+
+	/**
+	 * @return Position of the next slot to empty
+	 */
+	long head() {
+		return head.get();
+	}
+
+	/**
+	 * @return Position of the next slot to fill
+	 */
+	long tail() {
+		return tail.get();
+	}
+
+	/**
+	 * @param pos
+	 *            A position between {@link #head()} and {@link #tail()}
+	 * @return true if the slot of the position is filled for this lap
+	 */
+	boolean isFilled(long pos) {
+		return sequences.get(index(pos)) == pos + 1;
+	}
+
+	int size() {
+		for (;;) {
+			long before = head.get();
+			long currentTail = tail.get();
+			if (head.get() == before) {
+				return (int) Math.max(0, Math.min(capacity, currentTail - before));
+			}
+		}
+	}
+
+	int remainingCapacity() {
+		return capacity - size();
+	}
+
+	boolean isEmpty() {
+		return !canPoll();
+	}
+
+	int index(long pos) {
+		return mask >= 0 ? (int) (pos & mask) : (int) (pos % capacity);
+	}
+
+	private boolean canOffer() {
+		long pos = tail.get();
+		return sequences.get(index(pos)) == pos;
+	}
+
+	private boolean canPoll() {
+		return isFilled(head.get());
+	}
+
+	private void publish(int index, long sequence) {
+		if (signal.isBlocking()) {
+			sequences.set(index, sequence);
+		} else {
+			sequences.lazySet(index, sequence);
+		}
+		signal.signal();
+	}
+
+}
@@ -0,0 +1,128 @@
+package internals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Applies a {@link WaitStrategy} for the lock-free queues. One instance per
+ * queue, shared by both the full and the empty side.<br>
+ */
+final class RingSignal {
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50_000L;
+
+	private final WaitStrategy waitStrategy;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	RingSignal(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * @return true if publishers must use a volatile store so that
+	 *         {@link #signal()} cannot miss a waiter
+	 */
+	boolean isBlocking() {
+		return waitStrategy == WaitStrategy.BLOCKING;
+	}
+
+	/**
+	 * Wait once before the caller retries its operation, counted by the
+	 * {@link ContentionProbe} of a profiled caller<br>
+	 * 
+	 * @param ready
+	 *            Checked under the lock before a {@link WaitStrategy#BLOCKING}
+	 *            wait
+	 * @param attempt
+	 *            Number of waits so far in this operation
+	 * @param timed
+	 *            false to wait without a deadline
+	 * @param deadline
+	 *            System.nanoTime() value to give up at
+	 * @return false if the deadline has passed
+	 * @throws InterruptedException
+	 *             if the thread is interrupted
+	 */
+	boolean await(BooleanSupplier ready, int attempt, boolean timed, long deadline) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+		if (remaining <= 0) {
+			return false;
+		}
+		boolean parked = false;
+		switch (waitStrategy) {
+		case SPIN:
+			break;
+		case YIELD:
+			if (attempt > SPIN_TRIES) {
+				Thread.yield();
+			}
+			break;
+		case PARK:
+			if (attempt > SPIN_TRIES + YIELD_TRIES) {
+				LockSupport.parkNanos(Math.min(remaining, PARK_NANOS));
+				parked = true;
+			} else if (attempt > SPIN_TRIES) {
+				Thread.yield();
+			}
+			break;
+		case BLOCKING:
+			if (attempt > SPIN_TRIES) {
+				block(ready, remaining);
+				parked = true;
+			}
+			break;
+		}
+		ContentionProbe probe = ContentionProbe.waiting();
+		if (probe != null) {
+			probe.waited(parked);
+		}
+		return true;
+	}
+
+	/**
+	 * Wake blocked threads after the queue changed. Free unless a thread is
+	 * blocked.<br>
+	 */
+	void signal() {
+		if (waitStrategy == WaitStrategy.BLOCKING && waiters.get() > 0) {
+			lock.lock();
+			try {
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void block(BooleanSupplier ready, long nanos) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			waiters.incrementAndGet();
+			try {
+				// re-check after registering, a publisher may have just missed us
+				if (!ready.getAsBoolean()) {
+					changed.awaitNanos(nanos);
+				}
+			} finally {
+				waiters.decrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
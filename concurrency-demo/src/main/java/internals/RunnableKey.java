@@ -1,7 +1,5 @@
 package internals;
 
-import java.util.Objects;
-
 /**
  * Key associated with each Runnable instance. Used in {@link WidgetStatus}<br>
  */
@@ -61,7 +59,8 @@ public final class RunnableKey {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(connectionType, runnableName, id);
+		// no varargs array, unlike Objects.hash
+		return (31 * connectionType.hashCode() + runnableName.hashCode()) * 31 + id;
 	}
 
 }
@@ -0,0 +1,66 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * One decision of the {@link ConsumerAutoscaler}, kept by
+ * {@link WidgetStatus}<br>
+ */
+public final class ScalingEvent {
+
+	private final ZonedDateTime time;
+	private final int fromWorkers;
+	private final int toWorkers;
+	private final int depth;
+	private final double arrivalPerSecond;
+	private final double drainPerSecond;
+	private final String reason;
+
+	public ScalingEvent(ZonedDateTime time, int fromWorkers, int toWorkers, int depth, double arrivalPerSecond,
+			double drainPerSecond, String reason) {
+		this.time = time;
+		this.fromWorkers = fromWorkers;
+		this.toWorkers = toWorkers;
+		this.depth = depth;
+		this.arrivalPerSecond = arrivalPerSecond;
+		this.drainPerSecond = drainPerSecond;
+		this.reason = reason;
+	}
+
+	public ZonedDateTime getTime() {
+		return time;
+	}
+
+	public int getFromWorkers() {
+		return fromWorkers;
+	}
+
+	public int getToWorkers() {
+		return toWorkers;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public double getArrivalPerSecond() {
+		return arrivalPerSecond;
+	}
+
+	public double getDrainPerSecond() {
+		return drainPerSecond;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	@Override
+	public String toString() {
+		return time.format(DateTimeFormatter.ISO_DATE_TIME) + "\t" + fromWorkers + " -> " + toWorkers + "\tdepth="
+				+ depth + ", arrival/s=" + Math.round(arrivalPerSecond) + ", drain/s=" + Math.round(drainPerSecond)
+				+ "\t" + reason;
+	}
+
+}
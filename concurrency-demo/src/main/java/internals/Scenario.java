@@ -0,0 +1,141 @@
+package internals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A scenario file: launch options shared by every run plus a grid of options
+ * to sweep<br>
+ * <br>
+ * A properties file where each plain key is a launch option of
+ * {@code main.Main} and each {@code sweep.<option>} key lists the values of
+ * one axis, comma separated:
+ *
+ * <pre>
+ * warmupSeconds=5
+ * durationSeconds=20
+ * sweep.consumers=1,2,4
+ * sweep.queueType=LINKED,RING
+ * </pre>
+ *
+ * {@link #points()} is the cartesian product of the axes, the last axis in
+ * name order varying fastest. Keys under {@code runner.} configure the
+ * runner and are not launch options.
+ */
+public final class Scenario {
+
+	public static final String SWEEP = "sweep.";
+	public static final String RUNNER = "runner.";
+
+	private final Map<String, String> options = new TreeMap<>();
+	private final Map<String, List<String>> axes = new TreeMap<>();
+	private final Map<String, String> runnerSettings = new TreeMap<>();
+
+	/**
+	 * @param properties
+	 *            The scenario
+	 */
+	public Scenario(Properties properties) {
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key).trim();
+			if (key.startsWith(SWEEP)) {
+				List<String> values = new ArrayList<>();
+				for (String axisValue : value.split(",")) {
+					if (!axisValue.trim().isEmpty()) {
+						values.add(axisValue.trim());
+					}
+				}
+				if (values.isEmpty()) {
+					throw new IllegalArgumentException("No values to sweep for " + key);
+				}
+				axes.put(key.substring(SWEEP.length()), Collections.unmodifiableList(values));
+			} else if (key.startsWith(RUNNER)) {
+				runnerSettings.put(key.substring(RUNNER.length()), value);
+			} else {
+				options.put(key, value);
+			}
+		}
+		for (String axis : axes.keySet()) {
+			if (options.containsKey(axis)) {
+				throw new IllegalArgumentException(axis + " is both fixed and swept");
+			}
+		}
+	}
+
+	/**
+	 * @param file
+	 *            Properties file, UTF-8
+	 * @return The scenario
+	 * @throws IOException
+	 *             If the file cannot be read
+	 */
+	public static Scenario load(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		return new Scenario(properties);
+	}
+
+	/**
+	 * @return Launch options of every point, by name
+	 */
+	public Map<String, String> getOptions() {
+		return Collections.unmodifiableMap(options);
+	}
+
+	/**
+	 * @return Names of the swept options, in name order
+	 */
+	public List<String> getAxes() {
+		return new ArrayList<>(axes.keySet());
+	}
+
+	/**
+	 * @param name
+	 *            Setting name without {@link #RUNNER}
+	 * @param defaultValue
+	 *            Value if unset
+	 * @return The runner setting
+	 */
+	public String getRunnerSetting(String name, String defaultValue) {
+		return runnerSettings.getOrDefault(name, defaultValue);
+	}
+
+	/**
+	 * @return One map of the swept options per point, in the order of
+	 *         {@link #getAxes()}, a single empty map without axes
+	 */
+	public List<Map<String, String>> points() {
+		List<Map<String, String>> points = new ArrayList<>();
+		points.add(new LinkedHashMap<>());
+		for (Map.Entry<String, List<String>> axis : axes.entrySet()) {
+			List<Map<String, String>> expanded = new ArrayList<>(points.size() * axis.getValue().size());
+			for (Map<String, String> point : points) {
+				for (String value : axis.getValue()) {
+					Map<String, String> next = new LinkedHashMap<>(point);
+					next.put(axis.getKey(), value);
+					expanded.add(next);
+				}
+			}
+			points = expanded;
+		}
+		return points;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[options=" + options + ", axes=" + axes + "]";
+	}
+
+}
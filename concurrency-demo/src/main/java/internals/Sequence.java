@@ -0,0 +1,59 @@
+package internals;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Cache line padding ahead of the value
+ */
+abstract class SequenceLeftPadding {
+	protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+/**
+ * Holds the value between the two paddings
+ */
+abstract class SequenceValue extends SequenceLeftPadding {
+	protected volatile long value;
+}
+
+/**
+ * Counter padded to its own cache line so that the producer and consumer
+ * indexes of a ring do not false share.<br>
+ */
+final class Sequence extends SequenceValue {
+
+	private static final AtomicLongFieldUpdater<SequenceValue> VALUE = AtomicLongFieldUpdater
+			.newUpdater(SequenceValue.class, "value");
+
+	protected long p9, p10, p11, p12, p13, p14, p15;
+
+	Sequence(long initialValue) {
+		this.value = initialValue;
+	}
+
+	long get() {
+		return value;
+	}
+
+	void set(long newValue) {
+		value = newValue;
+	}
+
+	void lazySet(long newValue) {
+		VALUE.lazySet(this, newValue);
+	}
+
+	boolean compareAndSet(long expect, long update) {
+		return VALUE.compareAndSet(this, expect, update);
+	}
+
+	long getAndAdd(long delta) {
+		return VALUE.getAndAdd(this, delta);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(value);
+	}
+
+}
@@ -0,0 +1,328 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends what changed in {@link WidgetStatus} each interval to rotating CSV
+ * files, for throughput over time in long runs<br>
+ * <br>
+ * {@link #run()} reads the counters by id, which takes no lock and never
+ * stalls a producer or consumer, and writes one row per WidgetStatusKey that
+ * moved since the previous run:
+ *
+ * <pre>
+ * epoch_millis,interval_nanos,key,connection,type,widgets,dropped,spilled,blocked_nanos
+ * </pre>
+ *
+ * All counts are deltas over the interval. Rows are encoded straight into
+ * one reused buffer and written through a {@link FileChannel}, so a snapshot
+ * allocates nothing once every key was seen. A file is closed and the next
+ * one started before a row would take it past {@link #getMaxFileBytes()},
+ * and the oldest is deleted beyond {@link #getMaxFiles()}. Files are named
+ * {@code snapshots-<sequence>.csv} and each starts with the header, a new
+ * writer on the same directory continues the sequence.<br>
+ * Schedule it at a fixed rate on one thread. A write error is logged once and
+ * stops the writer, the run carries on without snapshots.
+ */
+public final class SnapshotWriter implements Runnable, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(SnapshotWriter.class);
+
+	/**
+	 * First line of every file
+	 */
+	public static final String HEADER = "epoch_millis,interval_nanos,key,connection,type,"
+			+ "widgets,dropped,spilled,blocked_nanos\n";
+
+	private static final String PREFIX = "snapshots-";
+	private static final String SUFFIX = ".csv";
+	private static final int BUFFER_BYTES = 64 << 10;
+	// digits of Long.MIN_VALUE plus the sign
+	private static final int MAX_LONG_BYTES = 20;
+	private static final byte[] HEADER_BYTES = HEADER.getBytes(StandardCharsets.US_ASCII);
+	// counters kept per key id
+	private static final int WIDGETS = 0;
+	private static final int DROPPED = 1;
+	private static final int SPILLED = 2;
+	private static final int BLOCKED_NANOS = 3;
+	private static final int COUNTERS = 4;
+
+	private final WidgetStatus widgetStatus;
+	private final Path directory;
+	private final long maxFileBytes;
+	private final int maxFiles;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	private final Deque<Path> files = new ArrayDeque<>();
+	// per key id, the encoded key,connection,type, and the counts of the previous run
+	private byte[][] keyColumns = new byte[0][];
+	private long[] previous = new long[0];
+	private long sequence;
+	private FileChannel channel;
+	private long fileBytes;
+	private long previousNanos = System.nanoTime();
+	private boolean failed;
+
+	/**
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} to snapshot
+	 * @param directory
+	 *            Directory of the files, created if missing
+	 * @param maxFileBytes
+	 *            Size a file is rotated at, at least 4 KB
+	 * @param maxFiles
+	 *            Files kept, at least 2
+	 * @throws IOException
+	 *             If the directory cannot be created or listed
+	 */
+	public SnapshotWriter(WidgetStatus widgetStatus, Path directory, long maxFileBytes, int maxFiles)
+			throws IOException {
+		if (maxFileBytes < 4096 || maxFiles < 2) {
+			throw new IllegalArgumentException("Bad snapshot sizes: " + maxFileBytes + ", " + maxFiles);
+		}
+		this.widgetStatus = widgetStatus;
+		this.directory = directory;
+		this.maxFileBytes = maxFileBytes;
+		this.maxFiles = maxFiles;
+		Files.createDirectories(directory);
+		for (Path file : existing(directory)) {
+			files.addLast(file);
+			sequence = Math.max(sequence, sequence(file) + 1);
+		}
+	}
+
+	/**
+	 * @return Size a file is rotated at
+	 */
+	public long getMaxFileBytes() {
+		return maxFileBytes;
+	}
+
+	/**
+	 * @return Files kept
+	 */
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/**
+	 * @return The files on disk, oldest first
+	 */
+	public synchronized List<Path> getFiles() {
+		return new ArrayList<>(files);
+	}
+
+	/**
+	 * Write the deltas since the previous snapshot<br>
+	 */
+	@Override
+	public synchronized void run() {
+		if (failed) {
+			return;
+		}
+		try {
+			snapshot();
+		} catch (IOException e) {
+			failed = true;
+			logger.error("Snapshots to " + directory + " stopped", e);
+			closeChannel();
+		}
+	}
+
+	/**
+	 * Write a last snapshot and close the current file<br>
+	 */
+	@Override
+	public synchronized void close() {
+		run();
+		closeChannel();
+		// nothing more is written
+		failed = true;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[directory=" + directory + ", maxFileBytes=" + maxFileBytes
+				+ ", maxFiles=" + maxFiles + "]";
+	}
+
+	private void snapshot() throws IOException {
+		long epochMillis = System.currentTimeMillis();
+		long now = System.nanoTime();
+		long intervalNanos = now - previousNanos;
+		previousNanos = now;
+		int count = widgetStatus.getWidgetKeyCount();
+		grow(count);
+		for (int id = 0; id < count; id++) {
+			long widgets = delta(id, WIDGETS, widgetStatus.getWidgetCount(id));
+			long dropped = delta(id, DROPPED, widgetStatus.getDropped(id));
+			long spilled = delta(id, SPILLED, widgetStatus.getSpilled(id));
+			long blockedNanos = delta(id, BLOCKED_NANOS, widgetStatus.getBlockedNanos(id));
+			if ((widgets | dropped | spilled | blockedNanos) == 0) {
+				continue;
+			}
+			byte[] key = keyColumns[id];
+			if (buffer.remaining() < key.length + 6 * (MAX_LONG_BYTES + 1)) {
+				flush();
+			}
+			int rowStart = buffer.position();
+			putLong(epochMillis);
+			buffer.put((byte) ',');
+			putLong(intervalNanos);
+			buffer.put((byte) ',');
+			buffer.put(key);
+			putLong(widgets);
+			buffer.put((byte) ',');
+			putLong(dropped);
+			buffer.put((byte) ',');
+			putLong(spilled);
+			buffer.put((byte) ',');
+			putLong(blockedNanos);
+			buffer.put((byte) '\n');
+			if (channel == null || fileBytes + buffer.position() > maxFileBytes) {
+				rotate(rowStart);
+			}
+		}
+		if (channel != null) {
+			flush();
+		}
+	}
+
+	/**
+	 * Store the new total of a counter and return how much it moved
+	 */
+	private long delta(int id, int counter, long total) {
+		int index = id * COUNTERS + counter;
+		long delta = total - previous[index];
+		previous[index] = total;
+		return delta;
+	}
+
+	/**
+	 * Make room for keys registered since the previous snapshot
+	 */
+	private void grow(int count) {
+		if (keyColumns.length >= count) {
+			return;
+		}
+		byte[][] grownColumns = new byte[count][];
+		System.arraycopy(keyColumns, 0, grownColumns, 0, keyColumns.length);
+		for (int id = keyColumns.length; id < count; id++) {
+			WidgetStatusKey key = widgetStatus.getWidgetKey(id);
+			grownColumns[id] = (key + "," + key.getConnectionType() + "," + key.getWidgetType() + ",")
+					.getBytes(StandardCharsets.UTF_8);
+		}
+		keyColumns = grownColumns;
+		long[] grownPrevious = new long[count * COUNTERS];
+		System.arraycopy(previous, 0, grownPrevious, 0, previous.length);
+		previous = grownPrevious;
+	}
+
+	/**
+	 * Write the buffered rows, all of them fit the current file
+	 */
+	private void flush() throws IOException {
+		// cast for Java 8, where flip() returns Buffer
+		((Buffer) buffer).flip();
+		while (buffer.hasRemaining()) {
+			fileBytes += channel.write(buffer);
+		}
+		((Buffer) buffer).clear();
+	}
+
+	/**
+	 * Finish the current file with the rows before the one just encoded and
+	 * start the next file, which that row begins
+	 */
+	private void rotate(int rowStart) throws IOException {
+		int rowEnd = buffer.position();
+		if (channel != null) {
+			((Buffer) buffer).limit(rowStart);
+			((Buffer) buffer).position(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			closeChannel();
+		}
+		// move the row to the front
+		((Buffer) buffer).limit(rowEnd);
+		((Buffer) buffer).position(rowStart);
+		buffer.compact();
+		Path file = directory.resolve(PREFIX + String.format("%08d", sequence++) + SUFFIX);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		files.addLast(file);
+		fileBytes = channel.write(ByteBuffer.wrap(HEADER_BYTES));
+		while (files.size() > maxFiles) {
+			Files.deleteIfExists(files.removeFirst());
+		}
+	}
+
+	private void closeChannel() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Error closing snapshot file", e);
+		}
+		channel = null;
+	}
+
+	/**
+	 * Append the decimal digits of a long without going through a String
+	 */
+	private void putLong(long value) {
+		if (value < 0) {
+			buffer.put((byte) '-');
+		} else {
+			// the digits are written on the negative side, where Long.MIN_VALUE fits
+			value = -value;
+		}
+		int start = buffer.position();
+		do {
+			buffer.put((byte) ('0' - value % 10));
+			value /= 10;
+		} while (value != 0);
+		// written lowest digit first
+		for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			byte b = buffer.get(i);
+			buffer.put(i, buffer.get(j));
+			buffer.put(j, b);
+		}
+	}
+
+	private static List<Path> existing(Path directory) throws IOException {
+		List<Path> existing = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			stream.forEach(existing::add);
+		}
+		existing.sort((a, b) -> Long.compare(sequence(a), sequence(b)));
+		return existing;
+	}
+
+	private static long sequence(Path file) {
+		String name = file.getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package internals;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded single-producer/single-consumer ring used as one lane of a
+ * {@link LanedQueue}.<br>
+ * <br>
+ * The producer only writes the tail and the consumer only writes the head,
+ * so neither side needs a CAS. Each side keeps a plain copy of the other
+ * side's counter and only re-reads the volatile one when the copy says the
+ * ring is full or empty.<br>
+ * Several consumers may visit a lane, so the consumer side is guarded by
+ * {@link #tryClaim()}. Only the claim holder may call {@link #poll()}.
+ *
+ * @param <E>
+ *            The element type
+ */
+final class SpscLane<E> {
+
+	private final int capacity;
+	// -1 unless capacity is a power of two
+	private final int mask;
+	private final Object[] buffer;
+	private final Sequence head = new Sequence(0);
+	private final Sequence tail = new Sequence(0);
+	private final boolean volatilePublish;
+	private final AtomicBoolean claimed = new AtomicBoolean();
+
+	// producer side copy of head
+	private long cachedHead;
+	// consumer side copy of tail
+	private long cachedTail;
+
+	/**
+	 * @param capacity
+	 *            Maximum number of elements, at least 1
+	 * @param volatilePublish
+	 *            true if a {@link WaitStrategy#BLOCKING} waiter must see every
+	 *            publish before it is signalled
+	 */
+	SpscLane(int capacity, boolean volatilePublish) {
+		this.capacity = capacity;
+		this.mask = Integer.bitCount(capacity) == 1 ? capacity - 1 : -1;
+		this.buffer = new Object[capacity];
+		this.volatilePublish = volatilePublish;
+	}
+
+	/**
+	 * Producer side, owning thread only
+	 *
+	 * @param e
+	 *            The element to add
+	 * @return false if the lane is full
+	 */
+	boolean offer(E e) {
+		long pos = tail.get();
+		if (pos - cachedHead >= capacity) {
+			cachedHead = head.get();
+			if (pos - cachedHead >= capacity) {
+				return false;
+			}
+		}
+		buffer[index(pos)] = e;
+		publish(tail, pos + 1);
+		return true;
+	}
+
+	/**
+	 * Consumer side, claim holder only
+	 *
+	 * @return The oldest element, null if the lane is empty
+	 */
+	E poll() {
+		long pos = head.get();
+		if (pos >= cachedTail) {
+			cachedTail = tail.get();
+			if (pos >= cachedTail) {
+				return null;
+			}
+		}
+		int index = index(pos);
+		@SuppressWarnings("unchecked")
+		E e = (E) buffer[index];
+		buffer[index] = null;
+		publish(head, pos + 1);
+		return e;
+	}
+
+	/**
+	 * @return The oldest element without taking it, null if the lane is empty
+	 *         or a consumer took it meanwhile
+	 */
+	E peek() {
+		long pos = head.get();
+		if (pos >= tail.get()) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		E e = (E) buffer[index(pos)];
+		return head.get() == pos ? e : null;
+	}
+
+	/**
+	 * @return true if this thread now owns the consumer side
+	 */
+	boolean tryClaim() {
+		return !claimed.get() && claimed.compareAndSet(false, true);
+	}
+
+	void release() {
+		claimed.set(false);
+	}
+
+	/**
+	 * @return true if the lane has room for the producer
+	 */
+	boolean hasRoom() {
+		return tail.get() - head.get() < capacity;
+	}
+
+	boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	int size() {
+		for (;;) {
+			long before = head.get();
+			long currentTail = tail.get();
+			if (head.get() == before) {
+				return (int) Math.max(0, Math.min(capacity, currentTail - before));
+			}
+		}
+	}
+
+	/**
+	 * Copy the elements currently in the lane, oldest first
+	 *
+	 * @param target
+	 *            List the elements are added to
+	 */
+	void snapshot(List<? super E> target) {
+		long end = tail.get();
+		for (long pos = head.get(); pos < end; pos++) {
+			@SuppressWarnings("unchecked")
+			E e = (E) buffer[index(pos)];
+			if (e != null) {
+				target.add(e);
+			}
+		}
+	}
+
+	private void publish(Sequence sequence, long value) {
+		if (volatilePublish) {
+			sequence.set(value);
+		} else {
+			sequence.lazySet(value);
+		}
+	}
+
+	private int index(long pos) {
+		return mask >= 0 ? (int) (pos & mask) : (int) (pos % capacity);
+	}
+
+}
@@ -0,0 +1,632 @@
+package internals;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chain of {@link WidgetStage}s between the queue and {@link WidgetStatus},
+ * in place of {@link Consumer}s<br>
+ * <br>
+ * Each stage has its own workers, batch size and pacing. The first stage
+ * drains batches from the queue. Every later stage takes whole batches from
+ * a bounded buffer of {@link Builder#bufferBatches(int)} batches that the
+ * stage before it fills, so handing off costs one put per batch and a slow
+ * stage backs up into the stages before it and from there into the queue.
+ * The last stage counts each Widget under its type and records its latency,
+ * from creation until the last stage is done with it, like a Consumer.<br>
+ * Per stage the workers track time busy in the stage, idle waiting for input
+ * and blocked handing off, and how long batches waited in front of the stage.
+ * {@link #getStats()} sums them per stage and {@link #getBottleneck()} names
+ * the stage busy the largest share of its time, the one to give more
+ * workers.<br>
+ * The end-of-stream marker on the queue stops the first stage once the queue
+ * is empty: the worker that took it drains what is left without waiting and
+ * then puts it back for the next worker, like a {@link Consumer}. The last
+ * worker of each stage to stop passes an end batch to the next stage, so a
+ * stage only stops once everything before it was handed on.
+ */
+public final class StagePipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(StagePipeline.class);
+
+	// per worker counters, written by the worker only
+	private static final int WIDGETS = 0;
+	private static final int BATCHES = 1;
+	private static final int BUSY_NANOS = 2;
+	private static final int IDLE_NANOS = 3;
+	private static final int BLOCKED_NANOS = 4;
+	private static final int COUNTERS = 5;
+	// passed on once a stage stopped, never processed
+	private static final Batch END = new Batch(Collections.emptyList(), 0);
+
+	private final BlockingQueue<Widget<?>> queue;
+	private final WidgetStatus widgetStatus;
+	private final List<Stage> stages = new ArrayList<>();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private final List<ExecutorService> executors = new ArrayList<>();
+
+	private StagePipeline(Builder builder, BlockingQueue<Widget<?>> queue, WidgetStatus widgetStatus) {
+		this.queue = queue;
+		this.widgetStatus = widgetStatus;
+		for (int i = 0; i < builder.stages.size(); i++) {
+			StageSpec spec = builder.stages.get(i);
+			// the first stage reads the queue
+			BlockingQueue<Batch> input = i == 0 ? null : new ArrayBlockingQueue<>(spec.bufferBatches);
+			stages.add(new Stage(spec, input, i == builder.stages.size() - 1));
+		}
+	}
+
+	/**
+	 * @return A new {@link Builder} without stages
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Start the workers of every stage<br>
+	 *
+	 * @param executionMode
+	 *            Creates a pool per stage
+	 */
+	public void start(ExecutionMode executionMode) {
+		for (int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			Stage next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+			ExecutorService executor = executionMode.newExecutor(stage.spec.workers);
+			executors.add(executor);
+			for (Worker worker : stage.workers) {
+				worker.next = next;
+				executor.execute(worker);
+			}
+		}
+		logger.info("Started {}", this);
+	}
+
+	/**
+	 * Wait until the end of stream went through every stage<br>
+	 *
+	 * @param timeout
+	 *            Longest wait
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return true if every stage stopped
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		boolean done = finished.await(timeout, unit);
+		executors.forEach(ExecutorService::shutdown);
+		return done;
+	}
+
+	/**
+	 * Interrupt every worker, e.g. after a timeout<br>
+	 */
+	public void shutdownNow() {
+		executors.forEach(ExecutorService::shutdownNow);
+	}
+
+	/**
+	 * @return Per stage totals so far, in pipeline order
+	 */
+	public List<StageStats> getStats() {
+		List<StageStats> stats = new ArrayList<>();
+		for (Stage stage : stages) {
+			stats.add(stage.stats());
+		}
+		return stats;
+	}
+
+	/**
+	 * @return The stage with the highest utilization, the one to give more
+	 *         workers
+	 */
+	public StageStats getBottleneck() {
+		StageStats bottleneck = null;
+		for (StageStats stats : getStats()) {
+			if (bottleneck == null || stats.getUtilization() > bottleneck.getUtilization()) {
+				bottleneck = stats;
+			}
+		}
+		return bottleneck;
+	}
+
+	/**
+	 * @param stage
+	 *            Index of a stage after the first
+	 * @return The buffer in front of the stage, for its depth in batches
+	 */
+	public BlockingQueue<?> getBuffer(int stage) {
+		if (stage < 1 || stage >= stages.size()) {
+			throw new IllegalArgumentException("No buffer in front of stage " + stage);
+		}
+		return stages.get(stage).input;
+	}
+
+	/**
+	 * @return Names of the stages in pipeline order
+	 */
+	public List<String> getStageNames() {
+		List<String> names = new ArrayList<>();
+		for (Stage stage : stages) {
+			names.add(stage.spec.name);
+		}
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + stages;
+	}
+
+	/**
+	 * Settings of one stage
+	 */
+	private static final class StageSpec {
+
+		private final String name;
+		private final WidgetStage function;
+		private int workers = 1;
+		private int batchSize = 1;
+		private int bufferBatches = 16;
+		private RateSpec rate = RateSpec.unthrottled();
+
+		private StageSpec(String name, WidgetStage function) {
+			this.name = name;
+			this.function = function;
+		}
+
+		@Override
+		public String toString() {
+			return name + "[workers=" + workers + ", batchSize=" + batchSize + ", bufferBatches=" + bufferBatches
+					+ ", rate=" + rate + "]";
+		}
+	}
+
+	/**
+	 * Widgets handed from one stage to the next, and when
+	 */
+	private static final class Batch {
+
+		private final List<Widget<?>> widgets;
+		private final long handedOffNanos;
+
+		private Batch(List<Widget<?>> widgets, long handedOffNanos) {
+			this.widgets = widgets;
+			this.handedOffNanos = handedOffNanos;
+		}
+	}
+
+	/**
+	 * A stage at run time, its input and its workers
+	 */
+	private final class Stage {
+
+		private final StageSpec spec;
+		private final BlockingQueue<Batch> input;
+		private final boolean last;
+		private final List<Worker> workers = new ArrayList<>();
+		private final AtomicInteger running;
+
+		private Stage(StageSpec spec, BlockingQueue<Batch> input, boolean last) {
+			this.spec = spec;
+			this.input = input;
+			this.last = last;
+			for (int i = 0; i < spec.workers; i++) {
+				workers.add(new Worker(this));
+			}
+			this.running = new AtomicInteger(spec.workers);
+		}
+
+		private StageStats stats() {
+			long[] totals = new long[COUNTERS];
+			LatencyHistogram queueTime = new LatencyHistogram();
+			for (Worker worker : workers) {
+				for (int i = 0; i < COUNTERS; i++) {
+					totals[i] += worker.counters.get(i);
+				}
+				queueTime.add(worker.queueTime);
+			}
+			return new StageStats(spec.name, spec.workers, totals, queueTime, input == null ? -1 : input.size());
+		}
+
+		@Override
+		public String toString() {
+			return spec.toString();
+		}
+	}
+
+	/**
+	 * One thread of a stage
+	 */
+	private final class Worker implements Runnable {
+
+		private final Stage stage;
+		private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+		// single writer, read by getStats()
+		private final LatencyHistogram queueTime = new LatencyHistogram();
+		private Stage next;
+		// set once this worker took the end-of-stream marker, the queue only shrinks from then on
+		private Widget<?> endOfStream;
+
+		private Worker(Stage stage) {
+			this.stage = stage;
+		}
+
+		@Override
+		public void run() {
+			int id = Math.toIntExact(Thread.currentThread().getId());
+			RunnableKey runnableKey = new RunnableKey(ConnectionType.CONSUMER, "Stage-" + stage.spec.name, id);
+			int runnableId = widgetStatus.register(runnableKey);
+			Map<Class<?>, Slot> slots = stage.last ? new HashMap<>() : null;
+			RateController rateController = stage.spec.rate.newController();
+			List<Widget<?>> batch = new ArrayList<>(stage.spec.batchSize);
+			boolean ended = false;
+			// only the first stage takes from the queue
+			LanedQueue<?> lanedQueue = stage.input == null ? LanedQueue.registerIfLaned(queue) : null;
+			try {
+				while (!ended) {
+					long idleStart = System.nanoTime();
+					ended = stage.input == null ? takeFromQueue(batch) : takeBatches(batch);
+					long busyStart = System.nanoTime();
+					add(IDLE_NANOS, busyStart - idleStart);
+					widgetStatus.addBatch(runnableId, batch.size(), busyStart - idleStart);
+					if (batch.isEmpty()) {
+						continue;
+					}
+					// the work of the stage, paced like a consumer's think time
+					rateController.acquire();
+					List<Widget<?>> output = new ArrayList<>(batch.size());
+					for (Widget<?> widget : batch) {
+						output.add(stage.spec.function.apply(widget));
+					}
+					batch.clear();
+					long busyEnd = System.nanoTime();
+					add(BUSY_NANOS, busyEnd - busyStart);
+					add(WIDGETS, output.size());
+					add(BATCHES, 1);
+					if (next != null) {
+						next.input.put(new Batch(output, busyEnd));
+						add(BLOCKED_NANOS, System.nanoTime() - busyEnd);
+					} else {
+						record(output, slots, id, busyEnd);
+					}
+				}
+				widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+				if (stage.running.decrementAndGet() == 0) {
+					logger.info("Stage {} drained", stage.spec.name);
+					if (next != null) {
+						next.input.put(END);
+					} else {
+						finished.countDown();
+					}
+				}
+			} catch (InterruptedException e) {
+				logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
+						runnableKey);
+			} finally {
+				if (lanedQueue != null) {
+					lanedQueue.deregister();
+				}
+			}
+		}
+
+		/**
+		 * Drain up to a batch from the queue, without waiting once the
+		 * end-of-stream marker arrived
+		 *
+		 * @return true once the marker arrived and the queue is empty
+		 */
+		private boolean takeFromQueue(List<Widget<?>> batch) throws InterruptedException {
+			if (endOfStream == null) {
+				batch.add(queue.take());
+			} else {
+				// a laned queue may still hold Widgets in other lanes than the marker's
+				Widget<?> widget = queue.poll();
+				if (widget == null) {
+					// the other workers still need it
+					queue.put(endOfStream);
+					return true;
+				}
+				batch.add(widget);
+			}
+			queue.drainTo(batch, stage.spec.batchSize - 1);
+			long dequeuedNanos = System.nanoTime();
+			for (int i = batch.size() - 1; i >= 0; i--) {
+				if (batch.get(i).isEndOfStream()) {
+					endOfStream = batch.remove(i);
+				}
+			}
+			recordQueueTime(batch, dequeuedNanos);
+			return false;
+		}
+
+		private void recordQueueTime(List<Widget<?>> batch, long dequeuedNanos) {
+			for (Widget<?> widget : batch) {
+				queueTime.record(dequeuedNanos - widget.getCreatedNanos());
+			}
+		}
+
+		/**
+		 * Take one hand-off batch, and more while they are ready and the
+		 * batch size is not reached
+		 *
+		 * @return true once the end batch arrived
+		 */
+		private boolean takeBatches(List<Widget<?>> batch) throws InterruptedException {
+			Batch handedOff = stage.input.take();
+			do {
+				if (handedOff == END) {
+					// the other workers still need it
+					stage.input.put(END);
+					return true;
+				}
+				long waited = System.nanoTime() - handedOff.handedOffNanos;
+				for (int i = 0; i < handedOff.widgets.size(); i++) {
+					queueTime.record(waited);
+				}
+				batch.addAll(handedOff.widgets);
+			} while (batch.size() < stage.spec.batchSize && (handedOff = stage.input.poll()) != null);
+			return false;
+		}
+
+		/**
+		 * Count and time what the last stage finished, one update per type
+		 */
+		private void record(List<Widget<?>> output, Map<Class<?>, Slot> slots, int id, long doneNanos) {
+			for (Widget<?> widget : output) {
+				Slot slot = slots.get(widget.get().getClass());
+				if (slot == null) {
+					WidgetStatusKey key = new WidgetStatusKey(ConnectionType.CONSUMER,
+							Widget.typeName(widget.get().getClass()), id);
+					slot = new Slot(widgetStatus, widgetStatus.register(key));
+					slots.put(widget.get().getClass(), slot);
+				}
+				slot.count++;
+				slot.latency.record(doneNanos - widget.getCreatedNanos());
+				widget.recycle();
+			}
+			for (Slot slot : slots.values()) {
+				if (slot.count > 0) {
+					widgetStatus.addWidgetCount(slot.widgetKeyId, slot.count);
+					slot.count = 0;
+				}
+			}
+		}
+
+		private void add(int counter, long delta) {
+			// single writer, an ordered store is enough
+			counters.lazySet(counter, counters.get(counter) + delta);
+		}
+	}
+
+	/**
+	 * Counter and histogram of one data type at the last stage
+	 */
+	private static final class Slot {
+
+		private final int widgetKeyId;
+		private final LatencyHistogram latency;
+		private long count;
+
+		private Slot(WidgetStatus widgetStatus, int widgetKeyId) {
+			this.widgetKeyId = widgetKeyId;
+			this.latency = widgetStatus.latencyHistogram(widgetKeyId);
+		}
+	}
+
+	/**
+	 * Totals of one stage at the time {@link StagePipeline#getStats()} was
+	 * called<br>
+	 */
+	public static final class StageStats {
+
+		private final String name;
+		private final int workers;
+		private final long[] totals;
+		private final LatencyHistogram queueTime;
+		private final int bufferDepth;
+
+		private StageStats(String name, int workers, long[] totals, LatencyHistogram queueTime, int bufferDepth) {
+			this.name = name;
+			this.workers = workers;
+			this.totals = totals;
+			this.queueTime = queueTime;
+			this.bufferDepth = bufferDepth;
+		}
+
+		/**
+		 * @return Name of the stage
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return Worker count
+		 */
+		public int getWorkers() {
+			return workers;
+		}
+
+		/**
+		 * @return Widgets the stage finished
+		 */
+		public long getWidgets() {
+			return totals[WIDGETS];
+		}
+
+		/**
+		 * @return Batches the stage finished
+		 */
+		public long getBatches() {
+			return totals[BATCHES];
+		}
+
+		/**
+		 * @return Share of the workers' time spent in the stage, 0 to 1
+		 */
+		public double getUtilization() {
+			return share(totals[BUSY_NANOS]);
+		}
+
+		/**
+		 * @return Share of the workers' time spent waiting for room in the
+		 *         next stage's buffer, 0 to 1
+		 */
+		public double getBlocked() {
+			return share(totals[BLOCKED_NANOS]);
+		}
+
+		/**
+		 * @return Time Widgets waited in front of the stage, for the first
+		 *         stage since creation
+		 */
+		public LatencyHistogram getQueueTime() {
+			return queueTime;
+		}
+
+		/**
+		 * @return Batches in the buffer in front of the stage, -1 for the
+		 *         first stage
+		 */
+		public int getBufferDepth() {
+			return bufferDepth;
+		}
+
+		@Override
+		public String toString() {
+			return name + "[workers=" + workers + ", widgets=" + getWidgets() + ", batches=" + getBatches()
+					+ ", utilization=" + percent(getUtilization()) + ", blocked=" + percent(getBlocked())
+					+ ", queue time " + queueTime + "]";
+		}
+
+		private double share(long nanos) {
+			long total = totals[BUSY_NANOS] + totals[IDLE_NANOS] + totals[BLOCKED_NANOS];
+			return total == 0 ? 0 : nanos / (double) total;
+		}
+
+		private static String percent(double share) {
+			return String.format("%.1f%%", share * 100);
+		}
+	}
+
+	/**
+	 * Adds stages in pipeline order, the settings methods apply to the stage
+	 * added last<br>
+	 */
+	public static final class Builder {
+
+		private final List<StageSpec> stages = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param name
+		 *            Name of the stage in logs and keys, unique
+		 * @param function
+		 *            The work of the stage
+		 * @return This builder
+		 */
+		public Builder stage(String name, WidgetStage function) {
+			Objects.requireNonNull(function, "function");
+			for (StageSpec stage : stages) {
+				if (stage.name.equals(name)) {
+					throw new IllegalArgumentException("Stage " + name + " added twice");
+				}
+			}
+			stages.add(new StageSpec(name, function));
+			return this;
+		}
+
+		/**
+		 * @param workers
+		 *            Threads of the stage, at least 1
+		 * @return This builder
+		 */
+		public Builder workers(int workers) {
+			if (workers < 1) {
+				throw new IllegalArgumentException("workers must be positive: " + workers);
+			}
+			current().workers = workers;
+			return this;
+		}
+
+		/**
+		 * @param batchSize
+		 *            Most Widgets a worker takes at once, at least 1. Later
+		 *            stages take whole hand-off batches, so theirs may run over
+		 * @return This builder
+		 */
+		public Builder batchSize(int batchSize) {
+			if (batchSize < 1) {
+				throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+			}
+			current().batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * @param bufferBatches
+		 *            Capacity of the buffer in front of the stage in batches,
+		 *            at least 1, unused for the first stage
+		 * @return This builder
+		 */
+		public Builder bufferBatches(int bufferBatches) {
+			if (bufferBatches < 1) {
+				throw new IllegalArgumentException("bufferBatches must be positive: " + bufferBatches);
+			}
+			current().bufferBatches = bufferBatches;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *            Pacing per batch, simulates the cost of the stage
+		 * @return This builder
+		 */
+		public Builder rate(RateSpec rate) {
+			current().rate = Objects.requireNonNull(rate, "rate");
+			return this;
+		}
+
+		/**
+		 * @param queue
+		 *            The queue the first stage drains
+		 * @param widgetStatus
+		 *            {@link WidgetStatus} where results are recorded
+		 * @return The pipeline, not started
+		 */
+		public StagePipeline build(BlockingQueue<Widget<?>> queue, WidgetStatus widgetStatus) {
+			if (stages.isEmpty()) {
+				throw new IllegalStateException("No stages");
+			}
+			return new StagePipeline(this, queue, widgetStatus);
+		}
+
+		private StageSpec current() {
+			if (stages.isEmpty()) {
+				throw new IllegalStateException("Add a stage first");
+			}
+			return stages.get(stages.size() - 1);
+		}
+	}
+
+}
@@ -2,25 +2,30 @@ package internals;
 
 import java.time.ZonedDateTime;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * String {@link Widget} Producer<br>
+ * With {@link ConnectorSettings#getStringPoolSize()} set the text goes into
+ * the {@link TextBuffer} of a Widget from the producer's own
+ * {@link WidgetPool}, so a steady run creates no garbage per Widget.
  */
 public final class StringProducer implements Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(StringProducer.class);
 
-	// this should be passed in
-	private static final int SECOND_DELAY = 1;
+	// one Widget a second unless the settings say otherwise
+	static final RateSpec DEFAULT_RATE = RateSpec.closedLoop(1000, 1000);
+	static final String PREFIX = "String";
+	// fits the prefix, any long and the runnable key without growing
+	private static final int BUFFER_CHARS = 64;
 
 	private final BlockingQueue<Widget<String>> queue;
 	private final Connector connector;
 	private final WidgetStatus widgetStatus;
+	private final ConnectorSettings settings;
 
 	/**
 	 * Create String {@link Widget} producer<br>
@@ -33,9 +38,27 @@ public final class StringProducer implements Runnable {
 	 *            {@link WidgetStatus} where results are recorded
 	 */
 	public StringProducer(BlockingQueue<Widget<String>> queue, Connector connector, WidgetStatus widgetStatus) {
+		this(queue, connector, widgetStatus, ConnectorSettings.defaults());
+	}
+
+	/**
+	 * Create String {@link Widget} producer<br>
+	 * 
+	 * @param queue
+	 *            BlockingQueue where Widgets will go
+	 * @param connector
+	 *            {@link Connector} used to create keys
+	 * @param widgetStatus
+	 *            {@link WidgetStatus} where results are recorded
+	 * @param settings
+	 *            {@link ConnectorSettings} for this producer
+	 */
+	public StringProducer(BlockingQueue<Widget<String>> queue, Connector connector, WidgetStatus widgetStatus,
+			ConnectorSettings settings) {
 		this.queue = queue;
 		this.connector = connector;
 		this.widgetStatus = widgetStatus;
+		this.settings = settings;
 	}
 
 	/**
@@ -50,24 +73,58 @@ public final class StringProducer implements Runnable {
 				connector.getRunnableClass().getSimpleName(), id);
 		WidgetStatusKey widgetStatusKey = new WidgetStatusKey(connector.getConnectionType(),
 				String.class.getSimpleName(), id);
+		int runnableId = widgetStatus.register(runnableKey);
+		int producedId = widgetStatus.register(widgetStatusKey);
 		logger.info("threadName: {}, runnableKey: {}", Thread.currentThread().getName(), runnableKey);
 
+		RateController rateController = settings.getRate(DEFAULT_RATE).newController();
+		int poolSize = settings.getStringPoolSize();
+		WidgetPool pool = poolSize > 0 ? new WidgetPool(poolSize, BUFFER_CHARS) : null;
+		Backpressure<String> backpressure = pool == null
+				? new Backpressure<>(queue, settings, widgetStatus, widgetStatusKey) : null;
+		Backpressure<TextBuffer> pooledBackpressure = pool != null
+				? new Backpressure<>(pooledQueue(), settings, widgetStatus, widgetStatusKey) : null;
+		// the same for every Widget of this thread
+		String suffix = "-" + runnableKey;
 		try {
-			// used as counter and incorporated into the produced Widget
-			AtomicInteger i = new AtomicInteger(0);
+			// incorporated into the produced Widget
+			long i = 0;
 			while (!Thread.currentThread().isInterrupted()) {
-				Widget<String> widget = new Widget<String>("String" + i.getAndIncrement() + "-" + runnableKey);
-				queue.put(widget);
-				widgetStatus.putWidgetCount(widgetStatusKey, i.get());
-				logger.info("put {}", widget.get());
-				TimeUnit.SECONDS.sleep(SECOND_DELAY);
+				// stamped with the intended time so queueing behind a full queue counts as latency
+				long intended = rateController.acquire();
+				if (pool == null) {
+					Widget<String> widget = new Widget<String>(PREFIX + i++ + suffix, intended);
+					backpressure.put(widget);
+					widgetStatus.addWidgetCount(producedId, 1);
+					logger.info("put {}", widget.get());
+				} else {
+					Widget<TextBuffer> widget = pool.acquire(intended);
+					widget.get().append(PREFIX).append(i++).append(suffix);
+					pooledBackpressure.put(widget);
+					widgetStatus.addWidgetCount(producedId, 1);
+					// only this thread refills the buffer, the text holds until the next acquire.
+					// Debug level keeps the pooled path allocation free, toString() only runs when enabled
+					logger.debug("put {}", widget.get());
+				}
 			}
 		} catch (InterruptedException e) {
 			logger.info("InterruptedException for thread {}, runnable {}", Thread.currentThread().getName(),
 					runnableKey);
-			widgetStatus.putStopTime(runnableKey, ZonedDateTime.now());
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
 			Thread.currentThread().interrupt();
 		}
+		if (pool != null) {
+			logger.info("{} pool: {}", runnableKey, pool);
+		}
+	}
+
+	/**
+	 * @return The queue typed for pooled Widgets, the queues hold Widgets of
+	 *         any data type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private BlockingQueue<Widget<TextBuffer>> pooledQueue() {
+		return (BlockingQueue) queue;
 	}
 
 }
@@ -0,0 +1,160 @@
+package internals;
+
+import java.util.Arrays;
+
+/**
+ * Mutable, pre-sized text the pooled String {@link Widget}s carry instead of
+ * a new String per Widget<br>
+ * Appending never allocates while the text fits the capacity it was created
+ * with, past that the buffer grows once and keeps the larger size.
+ * {@link #toString()} and {@link #subSequence(int, int)} copy, so keep them
+ * off the hot path. Counted as String in {@link WidgetStatus}, see
+ * {@link Widget#typeName(Class)}.<br>
+ * Not thread safe, a buffer is written by one producer before it is queued
+ * and only read after that.
+ */
+public final class TextBuffer implements CharSequence {
+
+	// digits of Long.MIN_VALUE plus the sign
+	private static final int MAX_LONG_CHARS = 20;
+
+	private char[] chars;
+	private int length;
+
+	/**
+	 * @param capacity
+	 *            Characters the buffer holds without growing
+	 */
+	public TextBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.chars = new char[capacity];
+	}
+
+	/**
+	 * @param text
+	 *            Text to append
+	 * @return this TextBuffer
+	 */
+	public TextBuffer append(String text) {
+		int end = length + text.length();
+		ensure(end);
+		text.getChars(0, text.length(), chars, length);
+		length = end;
+		return this;
+	}
+
+	/**
+	 * @param text
+	 *            Text to append
+	 * @return this TextBuffer
+	 */
+	public TextBuffer append(CharSequence text) {
+		if (text instanceof String) {
+			return append((String) text);
+		}
+		int end = length + text.length();
+		ensure(end);
+		for (int i = 0; length < end; i++) {
+			chars[length++] = text.charAt(i);
+		}
+		return this;
+	}
+
+	/**
+	 * Append the decimal digits of a long without going through a String<br>
+	 *
+	 * @param value
+	 *            Number to append
+	 * @return this TextBuffer
+	 */
+	public TextBuffer append(long value) {
+		ensure(length + MAX_LONG_CHARS);
+		if (value < 0) {
+			chars[length++] = '-';
+		} else {
+			// the digits are written on the negative side, where Long.MIN_VALUE fits
+			value = -value;
+		}
+		int start = length;
+		do {
+			chars[length++] = (char) ('0' - value % 10);
+			value /= 10;
+		} while (value != 0);
+		// written lowest digit first
+		for (int i = start, j = length - 1; i < j; i++, j--) {
+			char c = chars[i];
+			chars[i] = chars[j];
+			chars[j] = c;
+		}
+		return this;
+	}
+
+	/**
+	 * Empty the buffer, keeping its capacity<br>
+	 *
+	 * @return this TextBuffer
+	 */
+	public TextBuffer clear() {
+		length = 0;
+		return this;
+	}
+
+	/**
+	 * @return Characters the buffer holds without growing
+	 */
+	public int capacity() {
+		return chars.length;
+	}
+
+	/**
+	 * @param text
+	 *            Text to compare with
+	 * @return true if both hold the same characters, without copying either
+	 */
+	public boolean contentEquals(CharSequence text) {
+		if (text.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (chars[i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+		}
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+		}
+		return new String(chars, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+
+	private void ensure(int required) {
+		if (required > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(required, chars.length * 2));
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A trace written by {@link TraceRecorder}, memory-mapped read only<br>
+ * <br>
+ * Opening scans the records once for the producer ids, the count and the
+ * duration. Each {@link Cursor} reads a duplicate of the mapping, so any
+ * number of replaying threads walk the file at once without locks or copies.
+ * A record cut short by a run that did not close its recorder ends the
+ * trace. Traces are limited to 2 GB, one mapping.
+ */
+public final class Trace implements Closeable {
+
+	private final Path file;
+	private final FileChannel channel;
+	private final MappedByteBuffer mapped;
+	private final List<Integer> producers;
+	private final long records;
+	private final long durationNanos;
+	// end of the last complete record
+	private final int end;
+
+	private Trace(Path file, FileChannel channel, MappedByteBuffer mapped) {
+		this.file = file;
+		this.channel = channel;
+		this.mapped = mapped;
+		if (mapped.remaining() < 2 * Integer.BYTES || mapped.getInt(0) != TraceRecorder.MAGIC) {
+			throw new IllegalArgumentException("Not a trace: " + file);
+		}
+		if (mapped.getInt(Integer.BYTES) != TraceRecorder.VERSION) {
+			throw new IllegalArgumentException(
+					"Unsupported trace version " + mapped.getInt(Integer.BYTES) + ": " + file);
+		}
+		TreeSet<Integer> ids = new TreeSet<>();
+		long count = 0;
+		long lastNanos = 0;
+		int position = 2 * Integer.BYTES;
+		int next;
+		while ((next = skip(mapped, position)) > 0) {
+			lastNanos = Math.max(lastNanos, mapped.getLong(position));
+			ids.add(mapped.getInt(position + Long.BYTES));
+			count++;
+			position = next;
+		}
+		this.producers = Collections.unmodifiableList(new ArrayList<>(ids));
+		this.records = count;
+		this.durationNanos = lastNanos;
+		this.end = position;
+	}
+
+	/**
+	 * @param file
+	 *            Trace file written by {@link TraceRecorder}
+	 * @return The opened Trace, close it once replay ended
+	 * @throws IOException
+	 *             If the file cannot be mapped
+	 */
+	public static Trace open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Trace over 2 GB: " + file);
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new Trace(file, channel, mapped);
+		} catch (RuntimeException | IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The recorded producer ids, ascending
+	 */
+	public List<Integer> getProducers() {
+		return producers;
+	}
+
+	/**
+	 * @return Number of recorded Widgets
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return Time of the last record since recording started
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @param producerId
+	 *            One of {@link #getProducers()}
+	 * @return A new {@link Cursor} over the records of that producer, for one
+	 *         thread
+	 */
+	public Cursor cursor(int producerId) {
+		ByteBuffer view = mapped.duplicate();
+		// cast for Java 8, where limit(int) returns Buffer
+		((Buffer) view).limit(end);
+		return new Cursor(view, producerId);
+	}
+
+	/**
+	 * Unmapping is left to the garbage collector, the file is only closed<br>
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[file=" + file + ", producers=" + producers.size() + ", records="
+				+ records + ", durationNanos=" + durationNanos + "]";
+	}
+
+	/**
+	 * @return Position after the record, 0 if no complete record starts there
+	 */
+	private static int skip(ByteBuffer buffer, int position) {
+		int limit = buffer.limit();
+		if (limit - position < TraceRecorder.RECORD_HEADER_BYTES) {
+			return 0;
+		}
+		int payload = position + TraceRecorder.RECORD_HEADER_BYTES;
+		byte type = buffer.get(payload - 1);
+		long next;
+		if (type == JournalQueue.LONG) {
+			next = (long) payload + Long.BYTES;
+		} else if (type == JournalQueue.STRING && limit - payload >= Integer.BYTES && buffer.getInt(payload) >= 0) {
+			next = (long) payload + Integer.BYTES + buffer.getInt(payload);
+		} else {
+			return 0;
+		}
+		return next <= limit ? (int) next : 0;
+	}
+
+	/**
+	 * Walks the records of one producer in recorded order<br>
+	 * Not thread safe, one per replaying thread.
+	 */
+	public static final class Cursor {
+
+		private final ByteBuffer buffer;
+		private final int producerId;
+		private int position = 2 * Integer.BYTES;
+		private long nanos;
+		private byte type;
+		private int valuePosition;
+
+		private Cursor(ByteBuffer buffer, int producerId) {
+			this.buffer = buffer;
+			this.producerId = producerId;
+		}
+
+		/**
+		 * Move to the next record of the producer<br>
+		 *
+		 * @return false at the end of the trace
+		 */
+		public boolean next() {
+			int next;
+			while ((next = skip(buffer, position)) > 0) {
+				int record = position;
+				position = next;
+				if (buffer.getInt(record + Long.BYTES) == producerId) {
+					nanos = buffer.getLong(record);
+					valuePosition = record + TraceRecorder.RECORD_HEADER_BYTES;
+					type = buffer.get(valuePosition - 1);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return Time of the current record since recording started
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return {@link JournalQueue#STRING} or {@link JournalQueue#LONG}
+		 */
+		public byte getType() {
+			return type;
+		}
+
+		/**
+		 * @return The value of a {@link JournalQueue#LONG} record
+		 */
+		public long getLong() {
+			return buffer.getLong(valuePosition);
+		}
+
+		/**
+		 * @return The value of a {@link JournalQueue#STRING} record, decoded
+		 *         on each call
+		 */
+		public String getString() {
+			int length = buffer.getInt(valuePosition);
+			byte[] text = new byte[length];
+			ByteBuffer view = buffer.duplicate();
+			((Buffer) view).position(valuePosition + Integer.BYTES);
+			view.get(text);
+			return new String(text, StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the Widgets producers hand to their queue into a binary trace file,
+ * for {@link ReplayProducer} to play back the same stream<br>
+ * <br>
+ * The file starts with {@code [int MAGIC][int VERSION]}, then one record per
+ * Widget:
+ *
+ * <pre>
+ * [long relativeNanos][int producerId][byte type][long value] for Longs
+ * [long relativeNanos][int producerId][byte type][int length][UTF-8] for Strings
+ * </pre>
+ *
+ * relativeNanos is the Widget's createdNanos, its intended time, less the
+ * time the recorder was created. Type tags are those of {@link JournalQueue}.
+ * Records are encoded into one reused direct buffer and written when it
+ * fills, so recording allocates nothing for Longs and pooled
+ * {@link TextBuffer}s are encoded before they can be recycled. Producers
+ * share one recorder through {@link ConnectorSettings#getTraceRecorder()}
+ * and {@link #record(int, Widget)} is synchronized, recording is meant for a
+ * capture run, not a measured one. A write error is logged once and stops
+ * the recorder, the run carries on without a trace.
+ */
+public final class TraceRecorder implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TraceRecorder.class);
+
+	static final int MAGIC = 0x57545243;
+	static final int VERSION = 1;
+	// relativeNanos, producerId and type
+	static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES + 1;
+
+	private static final int BUFFER_BYTES = 64 << 10;
+
+	private final Path file;
+	private final long startNanos = System.nanoTime();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	private FileChannel channel;
+	private long records;
+	private boolean failed;
+
+	/**
+	 * @param file
+	 *            The trace file, replaced if it exists
+	 * @throws IOException
+	 *             If the file cannot be created
+	 */
+	public TraceRecorder(Path file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		buffer.putInt(MAGIC).putInt(VERSION);
+	}
+
+	/**
+	 * Record one Widget before it is put<br>
+	 *
+	 * @param producerId
+	 *            Id of the producer's WidgetStatusKey, replay runs one
+	 *            producer per id
+	 * @param widget
+	 *            String, pooled String or Long Widget
+	 */
+	public synchronized void record(int producerId, Widget<?> widget) {
+		if (failed) {
+			return;
+		}
+		Object value = widget.get();
+		long relativeNanos = Math.max(0, widget.getCreatedNanos() - startNanos);
+		try {
+			if (value instanceof Long) {
+				ensure(RECORD_HEADER_BYTES + Long.BYTES);
+				buffer.putLong(relativeNanos).putInt(producerId).put(JournalQueue.LONG).putLong((Long) value);
+			} else if (value instanceof CharSequence) {
+				byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+				ensure(RECORD_HEADER_BYTES + Integer.BYTES + text.length);
+				buffer.putLong(relativeNanos).putInt(producerId).put(JournalQueue.STRING).putInt(text.length);
+				if (text.length <= buffer.remaining()) {
+					buffer.put(text);
+				} else {
+					// longer than the buffer, goes straight to the file
+					flush();
+					ByteBuffer wrapped = ByteBuffer.wrap(text);
+					while (wrapped.hasRemaining()) {
+						channel.write(wrapped);
+					}
+				}
+			} else {
+				throw new IllegalArgumentException("Cannot record Widgets of type " + widget.getTypeName());
+			}
+			records++;
+		} catch (IOException e) {
+			failed = true;
+			logger.error("Trace to " + file + " stopped after " + records + " records", e);
+			closeChannel();
+		}
+	}
+
+	/**
+	 * @return Widgets recorded so far
+	 */
+	public synchronized long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return The trace file
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Write the buffered records and close the file<br>
+	 */
+	@Override
+	public synchronized void close() {
+		if (!failed) {
+			try {
+				flush();
+			} catch (IOException e) {
+				logger.error("Trace to " + file + " incomplete", e);
+			}
+		}
+		closeChannel();
+		// nothing more is written
+		failed = true;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[file=" + file + ", records=" + getRecords() + "]";
+	}
+
+	/**
+	 * Flush if fewer than the bytes are left, a String longer than the buffer
+	 * only gets its header buffered
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < Math.min(bytes, BUFFER_BYTES)) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		// cast for Java 8, where flip() returns Buffer
+		((Buffer) buffer).flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		((Buffer) buffer).clear();
+	}
+
+	private void closeChannel() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Error closing trace file", e);
+		}
+		channel = null;
+	}
+
+}
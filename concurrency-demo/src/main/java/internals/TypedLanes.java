@@ -0,0 +1,237 @@
+package internals;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One queue per {@link Widget} data type behind a single BlockingQueue<br>
+ * Producers, {@link Backpressure} and the {@link OverflowDrainer} offer to
+ * this queue as before and each Widget is routed on the exact class of its
+ * data, so a flood of one type only fills its own lane. Consumers should
+ * take from {@link #lane(Class)} so each type gets its own consumers and
+ * batch sizes.<br>
+ * <br>
+ * Taking from this queue directly visits the lanes in turn. The blocking
+ * takes wait on each lane for at most {@link #POLL_SLICE_NANOS} before
+ * moving on, so they are only meant for the odd Widget, e.g.
+ * {@link BackpressurePolicy#DROP_OLDEST}. Widgets of unregistered types are
+ * rejected with an IllegalArgumentException, so are end-of-stream markers,
+ * post one to each lane instead. Remove is not supported.
+ */
+public final class TypedLanes extends AbstractQueue<Widget<?>> implements BlockingQueue<Widget<?>> {
+
+	static final long POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Map<Class<?>, BlockingQueue<Widget<?>>> lanesByType;
+	private final BlockingQueue<Widget<?>>[] lanes;
+	// lane the next direct take starts at
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Create a lane per type<br>
+	 *
+	 * @param types
+	 *            The Widget data types, at least one
+	 * @param queueType
+	 *            {@link QueueType} of each lane, not {@link QueueType#JOURNAL}
+	 *            since its lanes would share a directory
+	 * @param capacity
+	 *            Maximum number of Widgets per lane
+	 * @param waitStrategy
+	 *            {@link WaitStrategy} of each lane
+	 */
+	public TypedLanes(Collection<Class<?>> types, QueueType queueType, int capacity, WaitStrategy waitStrategy) {
+		if (types.isEmpty()) {
+			throw new IllegalArgumentException("At least one type is needed");
+		}
+		if (queueType == QueueType.JOURNAL) {
+			throw new IllegalArgumentException("TypedLanes does not support " + queueType);
+		}
+		Map<Class<?>, BlockingQueue<Widget<?>>> map = new LinkedHashMap<>();
+		for (Class<?> type : types) {
+			map.put(Objects.requireNonNull(type), queueType.create(capacity, waitStrategy));
+		}
+		this.lanesByType = Collections.unmodifiableMap(map);
+		@SuppressWarnings("unchecked")
+		BlockingQueue<Widget<?>>[] array = (BlockingQueue<Widget<?>>[]) map.values().toArray(new BlockingQueue<?>[0]);
+		this.lanes = array;
+	}
+
+	/**
+	 * @param type
+	 *            The exact Widget data class
+	 * @return The lane of the type
+	 * @throws IllegalArgumentException
+	 *             if the type has no lane
+	 */
+	public BlockingQueue<Widget<?>> lane(Class<?> type) {
+		BlockingQueue<Widget<?>> lane = lanesByType.get(type);
+		if (lane == null) {
+			throw new IllegalArgumentException("No lane for Widgets of " + type.getSimpleName());
+		}
+		return lane;
+	}
+
+	/**
+	 * @return The data types in lane order
+	 */
+	public Set<Class<?>> getTypes() {
+		return lanesByType.keySet();
+	}
+
+	@Override
+	public boolean offer(Widget<?> e) {
+		return route(e).offer(e);
+	}
+
+	@Override
+	public void put(Widget<?> e) throws InterruptedException {
+		route(e).put(e);
+	}
+
+	@Override
+	public boolean offer(Widget<?> e, long timeout, TimeUnit unit) throws InterruptedException {
+		return route(e).offer(e, timeout, unit);
+	}
+
+	@Override
+	public Widget<?> poll() {
+		int start = next.getAndIncrement();
+		for (int i = 0; i < lanes.length; i++) {
+			Widget<?> widget = lanes[Math.floorMod(start + i, lanes.length)].poll();
+			if (widget != null) {
+				return widget;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Widget<?> take() throws InterruptedException {
+		Widget<?> widget;
+		do {
+			widget = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} while (widget == null);
+		return widget;
+	}
+
+	@Override
+	public Widget<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (int i = next.getAndIncrement();; i++) {
+			Widget<?> widget = poll();
+			if (widget != null) {
+				return widget;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return null;
+			}
+			widget = lanes[Math.floorMod(i, lanes.length)].poll(Math.min(remaining, POLL_SLICE_NANOS),
+					TimeUnit.NANOSECONDS);
+			if (widget != null) {
+				return widget;
+			}
+		}
+	}
+
+	@Override
+	public Widget<?> peek() {
+		for (BlockingQueue<Widget<?>> lane : lanes) {
+			Widget<?> widget = lane.peek();
+			if (widget != null) {
+				return widget;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Room left over all lanes, a producer may still wait on its own
+	 *         full lane
+	 */
+	@Override
+	public int remainingCapacity() {
+		long remaining = 0;
+		for (BlockingQueue<Widget<?>> lane : lanes) {
+			remaining += lane.remainingCapacity();
+		}
+		return (int) Math.min(Integer.MAX_VALUE, remaining);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Widget<?>> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		int n = 0;
+		for (int i = 0; i < lanes.length && n < maxElements; i++) {
+			n += lanes[i].drainTo(c, maxElements - n);
+		}
+		return n;
+	}
+
+	@Override
+	public int size() {
+		long size = 0;
+		for (BlockingQueue<Widget<?>> lane : lanes) {
+			size += lane.size();
+		}
+		return (int) Math.min(Integer.MAX_VALUE, size);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (BlockingQueue<Widget<?>> lane : lanes) {
+			if (!lane.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return A weakly consistent snapshot of the Widgets, lane by lane
+	 */
+	@Override
+	public Iterator<Widget<?>> iterator() {
+		List<Widget<?>> snapshot = new ArrayList<>();
+		for (BlockingQueue<Widget<?>> lane : lanes) {
+			snapshot.addAll(lane);
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<Class<?>, BlockingQueue<Widget<?>>> entry : lanesByType.entrySet()) {
+			sb.append(sb.length() == 0 ? "" : ", ").append(Widget.typeName(entry.getKey())).append('=')
+					.append(entry.getValue().getClass().getSimpleName()).append("(size=")
+					.append(entry.getValue().size()).append(')');
+		}
+		return getClass().getSimpleName() + "[" + sb + "]";
+	}
+
+	private BlockingQueue<Widget<?>> route(Widget<?> e) {
+		return lane(Objects.requireNonNull(e).get().getClass());
+	}
+
+}
@@ -0,0 +1,13 @@
+package internals;
+
+/**
+ * How a thread waits on a lock-free queue that is full or empty<br>
+ * {@link #SPIN} burns a core for the lowest hand-off latency,
+ * {@link #YIELD} and {@link #PARK} back off progressively and
+ * {@link #BLOCKING} sleeps on a Condition until it is signalled.
+ * 
+ * @see RingBufferQueue
+ */
+public enum WaitStrategy {
+	SPIN, YIELD, PARK, BLOCKING
+}
@@ -5,21 +5,79 @@ package internals;
  *
  * @param <T>
  *            The type of object which is expected to be immutable and/or
- *            threadsafe.
+ *            threadsafe. Widgets of a {@link WidgetPool} carry a
+ *            {@link TextBuffer} that is refilled once the Widget is
+ *            recycled.
  */
 // Both Long and String are immutable
 public final class Widget<T> {
 
 	private final T t;
+	// System.nanoTime() the Widget was meant to be sent, rewritten when a pooled Widget is reused
+	private long createdNanos;
+	// null unless the Widget came from a pool
+	private final WidgetPool pool;
+	// widget key id of the producer that put it, -1 until put or after it crossed a process boundary
+	private int producerKeyId = -1;
 
 	/**
-	 * Instantiate the Widget
+	 * Instantiate the Widget, stamped with the current time
 	 * 
 	 * @param t
 	 *            The object to be encapsulated
 	 */
 	public Widget(T t) {
+		this(t, System.nanoTime());
+	}
+
+	/**
+	 * Instantiate the Widget
+	 * 
+	 * @param t
+	 *            The object to be encapsulated
+	 * @param createdNanos
+	 *            System.nanoTime() the Widget was created, or was scheduled to
+	 *            be by a {@link RateController}
+	 */
+	public Widget(T t, long createdNanos) {
+		this(t, createdNanos, null);
+	}
+
+	Widget(T t, long createdNanos, WidgetPool pool) {
 		this.t = t;
+		this.createdNanos = createdNanos;
+		this.pool = pool;
+	}
+
+	/**
+	 * Create an end-of-stream marker. Posted after the producers finished, a
+	 * {@link Consumer} taking it drains what is left, puts the marker back
+	 * for the next consumer and exits once the queue is empty.<br>
+	 * 
+	 * @return A new marker, stamped with the current time
+	 */
+	public static Widget<?> endOfStream() {
+		return new Widget<>(EndOfStream.MARKER);
+	}
+
+	/**
+	 * @return true for a marker from {@link #endOfStream()}
+	 */
+	public boolean isEndOfStream() {
+		return t == EndOfStream.MARKER;
+	}
+
+	/**
+	 * Simple class name a data type is counted under in {@link WidgetStatus},
+	 * {@link TextBuffer} counts as String since it only replaces the String
+	 * in pooled Widgets<br>
+	 * 
+	 * @param type
+	 *            The Widget data type
+	 * @return The name of the type in the results
+	 */
+	public static String typeName(Class<?> type) {
+		return type == TextBuffer.class ? String.class.getSimpleName() : type.getSimpleName();
 	}
 
 	/**
@@ -31,4 +89,62 @@ public final class Widget<T> {
 		return t;
 	}
 
+	/**
+	 * Return the creation stamp, only comparable with System.nanoTime() in the
+	 * same JVM
+	 * 
+	 * @return System.nanoTime() the Widget was created
+	 */
+	public long getCreatedNanos() {
+		return createdNanos;
+	}
+
+	/**
+	 * @return The name the Widget is counted under, see
+	 *         {@link #typeName(Class)}
+	 */
+	public String getTypeName() {
+		return typeName(t.getClass());
+	}
+
+	/**
+	 * Hand a pooled Widget back to its {@link WidgetPool}, a no-op for other
+	 * Widgets. Neither the Widget nor its data may be used afterwards.
+	 */
+	@SuppressWarnings("unchecked")
+	public void recycle() {
+		if (pool != null) {
+			pool.release((Widget<TextBuffer>) this);
+		}
+	}
+
+	void restamp(long createdNanos) {
+		this.createdNanos = createdNanos;
+	}
+
+	/**
+	 * @return Widget key id of the producer that put the Widget, -1 if not
+	 *         known
+	 */
+	int getProducerKeyId() {
+		return producerKeyId;
+	}
+
+	/**
+	 * Remember the producer's widget key id, before the Widget is put so
+	 * that a Widget dropped from the queue later is charged to its own
+	 * producer<br>
+	 * 
+	 * @param producerKeyId
+	 *            Widget key id from {@link WidgetStatus#register(WidgetStatusKey)}
+	 */
+	void setProducerKeyId(int producerKeyId) {
+		this.producerKeyId = producerKeyId;
+	}
+
+	// data of the end-of-stream markers, no producer can create one
+	private enum EndOfStream {
+		MARKER
+	}
+
 }
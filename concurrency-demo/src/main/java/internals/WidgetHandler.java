@@ -0,0 +1,24 @@
+package internals;
+
+/**
+ * Work a {@link Consumer} does with each {@link Widget} of one data type<br>
+ * Registered per type in a {@link HandlerRegistry}. The consumer counts the
+ * Widget and records its latency, the handler only does the work.
+ *
+ * @param <T>
+ *            The Widget data type
+ */
+@FunctionalInterface
+public interface WidgetHandler<T> {
+
+	/**
+	 * Handle one Widget, called on the consumer thread<br>
+	 * Pooled Widgets are recycled when this returns, copy what has to outlive
+	 * the call.
+	 *
+	 * @param widget
+	 *            The Widget taken from the queue
+	 */
+	void handle(Widget<? extends T> widget);
+
+}
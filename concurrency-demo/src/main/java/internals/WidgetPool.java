@@ -0,0 +1,84 @@
+package internals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of String {@link Widget}s holding a {@link TextBuffer}, so a
+ * producer can fill the same objects again instead of creating garbage per
+ * Widget<br>
+ * <br>
+ * A producer takes a cleared Widget with {@link #acquire(long)}, and the
+ * {@link Consumer} hands it back with {@link Widget#recycle()} once its
+ * handler returned. Widgets that never come back, e.g. ones spilled to memory
+ * or still queued at shutdown, are left to the garbage collector and the
+ * pool creates new ones when it runs empty. A Widget released to a full pool
+ * is dropped as well, so the pool never holds more than its capacity.<br>
+ * One pool per producer thread, many consumers may release to it.
+ */
+public final class WidgetPool {
+
+	private final RingBufferQueue<Widget<TextBuffer>> idle;
+	private final int capacity;
+	private final int bufferChars;
+	private final AtomicLong created = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            Maximum number of idle Widgets kept, at least 2
+	 * @param bufferChars
+	 *            Pre-sized capacity of each {@link TextBuffer}
+	 */
+	public WidgetPool(int capacity, int bufferChars) {
+		this.idle = new RingBufferQueue<>(capacity);
+		this.capacity = capacity;
+		this.bufferChars = bufferChars;
+	}
+
+	/**
+	 * Take an idle Widget, or create one if none is idle<br>
+	 * Only the owning producer thread may call this.
+	 *
+	 * @param createdNanos
+	 *            System.nanoTime() the Widget is meant to be sent
+	 * @return A Widget with an empty {@link TextBuffer}
+	 */
+	public Widget<TextBuffer> acquire(long createdNanos) {
+		Widget<TextBuffer> widget = idle.poll();
+		if (widget == null) {
+			created.incrementAndGet();
+			return new Widget<>(new TextBuffer(bufferChars), createdNanos, this);
+		}
+		widget.get().clear();
+		widget.restamp(createdNanos);
+		return widget;
+	}
+
+	/**
+	 * @return Widgets the pool had to create, at most one per acquire
+	 */
+	public long getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * @return Idle Widgets in the pool
+	 */
+	public int size() {
+		return idle.size();
+	}
+
+	/**
+	 * Return a Widget of this pool, called by {@link Widget#recycle()}
+	 */
+	void release(Widget<TextBuffer> widget) {
+		// a full pool lets the Widget go
+		idle.offer(widget);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[capacity=" + capacity + ", bufferChars=" + bufferChars + ", created="
+				+ created.get() + "]";
+	}
+
+}
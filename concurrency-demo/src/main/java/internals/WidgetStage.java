@@ -0,0 +1,54 @@
+package internals;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One processing step of a {@link StagePipeline}, e.g. decode, transform or
+ * sink<br>
+ * Called on the stage's worker threads, so it must be safe to run on several
+ * Widgets at once.
+ */
+@FunctionalInterface
+public interface WidgetStage {
+
+	/**
+	 * Process one Widget<br>
+	 * 
+	 * @param widget
+	 *            The Widget from the previous stage or the queue
+	 * @return The Widget to hand to the next stage, the same one or a new one
+	 *         that keeps {@link Widget#getCreatedNanos()}
+	 */
+	Widget<?> apply(Widget<?> widget);
+
+	/**
+	 * @return A stage that passes every Widget on unchanged
+	 */
+	static WidgetStage identity() {
+		return widget -> widget;
+	}
+
+	/**
+	 * A sink that hands each Widget to the {@link WidgetHandler} of its type,
+	 * as a {@link Consumer} does<br>
+	 * 
+	 * @param handlers
+	 *            The handlers by data type, other types are logged as errors
+	 * @return The stage
+	 */
+	@SuppressWarnings("unchecked")
+	static WidgetStage dispatch(HandlerRegistry handlers) {
+		Logger logger = LoggerFactory.getLogger(WidgetStage.class);
+		return widget -> {
+			WidgetHandler<Object> handler = (WidgetHandler<Object>) handlers.getHandler(widget.get().getClass());
+			if (handler == null) {
+				logger.error("Stage got unexpected Widget of type {}", widget.get().getClass().getSimpleName());
+			} else {
+				handler.handle(widget);
+			}
+			return widget;
+		};
+	}
+
+}
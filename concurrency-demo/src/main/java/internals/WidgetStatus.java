@@ -1,82 +1,369 @@
 package internals;
 
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Track status of each produced and consumed {@link Widget}
+ * Track status of each produced and consumed {@link Widget}<br>
+ * Producers and consumers register their {@link WidgetStatusKey} and
+ * {@link RunnableKey} once at start and get back a dense int id. Counts and
+ * stop times live in flat padded arrays indexed by that id, so the hot path
+ * does no hashing and no allocation. Totals and snapshots read the arrays
+ * without locking and never stall writers.<br>
+ * Consumers also record how long each Widget waited into a
+ * {@link LatencyHistogram} per WidgetStatusKey, {@link FairLanes} records
+ * the wait until dispatch per lane. Consumers add their time in poll and
+ * batch sizes to their RunnableKey row. A {@link ProfilingQueue} adds the
+ * time each RunnableKey spent in put and take, waiting on a full or empty
+ * queue, and the spins and parks of those waits, and samples the
+ * {@link QueueOccupancy} of its queue.<br>
+ * The id based getters read one row without locking, for live
+ * {@link PipelineMetrics}.
  */
 public final class WidgetStatus {
 
 	private static final Logger logger = LoggerFactory.getLogger(WidgetStatus.class);
 
-	private final ConcurrentMap<WidgetStatusKey, Integer> widgetCount = new ConcurrentHashMap<>();
-	private final ConcurrentMap<RunnableKey, ZonedDateTime> stopTimes = new ConcurrentHashMap<>();
+	// slots in a widget key row
+	private static final int WIDGETS = 0;
+	private static final int DROPPED = 1;
+	private static final int SPILLED = 2;
+	private static final int BLOCKED_NANOS = 3;
+	private static final int FAILED = 4;
+	// slots in a runnable key row, 0 means not stopped
+	private static final int STOP_EPOCH_NANOS = 0;
+	private static final int POLL_NANOS = 1;
+	private static final int BATCHES = 2;
+	private static final int BATCH_WIDGETS = 3;
+	// slots in a contention row, by runnable key id
+	private static final int PUTS = 0;
+	private static final int PUT_NANOS = 1;
+	private static final int PUT_WAITS = 2;
+	private static final int PUT_WAIT_NANOS = 3;
+	private static final int TAKES = 4;
+	private static final int TAKE_NANOS = 5;
+	private static final int TAKE_WAITS = 6;
+	private static final int TAKE_WAIT_NANOS = 7;
+	private static final int SPINS = 8;
+	private static final int PARKS = 9;
+
+	private final KeyRegistry<WidgetStatusKey> widgetKeys = new KeyRegistry<>();
+	private final KeyRegistry<RunnableKey> runnableKeys = new KeyRegistry<>();
+	private final CounterTable widgetCounters = new CounterTable();
+	private final CounterTable runnableCounters = new CounterTable();
+	private final CounterTable contentionCounters = new CounterTable();
+	// by widget key id, only touched at registration and when reporting
+	private final ConcurrentMap<Integer, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<ScalingEvent> scalingEvents = new ConcurrentLinkedQueue<>();
+	// by lane name, only touched when a lane is created and when reporting
+	private final ConcurrentMap<String, LatencyHistogram> dispatchWaits = new ConcurrentHashMap<>();
+	// by queue name, only touched when a ProfilingQueue is created and when reporting
+	private final ConcurrentMap<String, QueueOccupancy> occupancies = new ConcurrentHashMap<>();
 
 	/**
-	 * Create or update the Widget count for the WidgetStatusKey<br>
-	 * 
+	 * Register the WidgetStatusKey, call once when the Runnable starts<br>
+	 *
 	 * @param widgetStatusKey
 	 *            {@link WidgetStatusKey}
-	 * @param i
-	 *            The new Widget total
-	 * @return The previous Widget total
+	 * @return The id to pass to {@link #addWidgetCount(int, long)}
+	 */
+	public int register(WidgetStatusKey widgetStatusKey) {
+		int id = widgetKeys.register(widgetStatusKey);
+		widgetCounters.ensure(id);
+		logger.debug("WidgetStatus Widget key: {}, {}", widgetStatusKey, id);
+		return id;
+	}
+
+	/**
+	 * Register the RunnableKey, call once when the Runnable starts<br>
+	 *
+	 * @param runnableKey
+	 *            {@link RunnableKey}
+	 * @return The id to pass to {@link #putStopTime(int, ZonedDateTime)}
+	 */
+	public int register(RunnableKey runnableKey) {
+		int id = runnableKeys.register(runnableKey);
+		runnableCounters.ensure(id);
+		contentionCounters.ensure(id);
+		logger.debug("WidgetStatus Runnable key: {}, {}", runnableKey, id);
+		return id;
+	}
+
+	/**
+	 * Add to the Widget count of a registered WidgetStatusKey<br>
+	 *
+	 * @param widgetKeyId
+	 *            Id from {@link #register(WidgetStatusKey)}
+	 * @param delta
+	 *            Number of Widgets to add
+	 */
+	public void addWidgetCount(int widgetKeyId, long delta) {
+		widgetCounters.add(widgetKeyId, WIDGETS, delta);
+	}
+
+	/**
+	 * Count Widgets a producer dropped because the queue was full<br>
+	 *
+	 * @param widgetKeyId
+	 *            Id from {@link #register(WidgetStatusKey)}
+	 * @param delta
+	 *            Number of Widgets dropped
+	 */
+	public void addDropped(int widgetKeyId, long delta) {
+		widgetCounters.add(widgetKeyId, DROPPED, delta);
+	}
+
+	/**
+	 * Count Widgets a producer spilled to an {@link OverflowStore}<br>
+	 *
+	 * @param widgetKeyId
+	 *            Id from {@link #register(WidgetStatusKey)}
+	 * @param delta
+	 *            Number of Widgets spilled
+	 */
+	public void addSpilled(int widgetKeyId, long delta) {
+		widgetCounters.add(widgetKeyId, SPILLED, delta);
+	}
+
+	/**
+	 * Add time a producer spent waiting for room in the queue<br>
+	 *
+	 * @param widgetKeyId
+	 *            Id from {@link #register(WidgetStatusKey)}
+	 * @param nanos
+	 *            Time blocked
+	 */
+	public void addBlockedNanos(int widgetKeyId, long nanos) {
+		widgetCounters.add(widgetKeyId, BLOCKED_NANOS, nanos);
+	}
+
+	/**
+	 * Record one pass of a consumer over the queue<br>
+	 *
+	 * @param runnableId
+	 *            Id from {@link #register(RunnableKey)}
+	 * @param widgets
+	 *            Widgets taken, 0 if the poll came back empty
+	 * @param pollNanos
+	 *            Time spent waiting for and taking the Widgets
+	 */
+	public void addBatch(int runnableId, int widgets, long pollNanos) {
+		runnableCounters.add(runnableId, POLL_NANOS, pollNanos);
+		if (widgets > 0) {
+			runnableCounters.add(runnableId, BATCHES, 1);
+			runnableCounters.add(runnableId, BATCH_WIDGETS, widgets);
+		}
+	}
+
+	/**
+	 * Count a put that found room right away, or an offer<br>
+	 *
+	 * @param runnableId
+	 *            Id from {@link #register(RunnableKey)}
+	 * @param nanos
+	 *            Time in the call, including lock contention
+	 */
+	public void addPut(int runnableId, long nanos) {
+		contentionCounters.add(runnableId, PUTS, 1);
+		contentionCounters.add(runnableId, PUT_NANOS, nanos);
+	}
+
+	/**
+	 * Count a put that had to wait for room in a full queue<br>
+	 *
+	 * @param runnableId
+	 *            Id from {@link #register(RunnableKey)}
+	 * @param nanos
+	 *            Time waited
+	 * @param spins
+	 *            Times the wait spun or yielded
+	 * @param parks
+	 *            Times the wait parked or blocked
+	 */
+	public void addPutWait(int runnableId, long nanos, long spins, long parks) {
+		contentionCounters.add(runnableId, PUT_WAITS, 1);
+		contentionCounters.add(runnableId, PUT_WAIT_NANOS, nanos);
+		addWaits(runnableId, spins, parks);
+	}
+
+	/**
+	 * Count a poll or drain that did not wait<br>
+	 *
+	 * @param runnableId
+	 *            Id from {@link #register(RunnableKey)}
+	 * @param nanos
+	 *            Time in the call, including lock contention
+	 */
+	public void addTake(int runnableId, long nanos) {
+		contentionCounters.add(runnableId, TAKES, 1);
+		contentionCounters.add(runnableId, TAKE_NANOS, nanos);
+	}
+
+	/**
+	 * Count a take or timed poll that had to wait on an empty queue<br>
+	 *
+	 * @param runnableId
+	 *            Id from {@link #register(RunnableKey)}
+	 * @param nanos
+	 *            Time waited
+	 * @param spins
+	 *            Times the wait spun or yielded
+	 * @param parks
+	 *            Times the wait parked or blocked
+	 */
+	public void addTakeWait(int runnableId, long nanos, long spins, long parks) {
+		contentionCounters.add(runnableId, TAKE_WAITS, 1);
+		contentionCounters.add(runnableId, TAKE_WAIT_NANOS, nanos);
+		addWaits(runnableId, spins, parks);
+	}
+
+	private void addWaits(int runnableId, long spins, long parks) {
+		if (spins != 0) {
+			contentionCounters.add(runnableId, SPINS, spins);
+		}
+		contentionCounters.add(runnableId, PARKS, parks);
+	}
+
+	/**
+	 * Add to the Widget count for the WidgetStatusKey, registering it if
+	 * needed. Prefer {@link #addWidgetCount(int, long)} on hot paths.<br>
+	 *
+	 * @param widgetStatusKey
+	 *            {@link WidgetStatusKey}
+	 * @param delta
+	 *            Number of Widgets to add
+	 */
+	public void addWidgetCount(WidgetStatusKey widgetStatusKey, long delta) {
+		addWidgetCount(register(widgetStatusKey), delta);
+	}
+
+	/**
+	 * Get the latency histogram of a registered WidgetStatusKey, creating it
+	 * on first use. Call once when the Runnable starts and record into the
+	 * result from that thread only.<br>
+	 *
+	 * @param widgetKeyId
+	 *            Id from {@link #register(WidgetStatusKey)}
+	 * @return The {@link LatencyHistogram} for the key
+	 */
+	public LatencyHistogram latencyHistogram(int widgetKeyId) {
+		return latencies.computeIfAbsent(widgetKeyId, id -> new LatencyHistogram());
+	}
+
+	/**
+	 * Get the dispatch wait histogram of a scheduler lane, creating it on
+	 * first use. Record into the result from one thread at a time.<br>
+	 *
+	 * @param lane
+	 *            Name of the lane, e.g. its type, class and weight
+	 * @return The {@link LatencyHistogram} for the lane
+	 */
+	public LatencyHistogram dispatchWaitHistogram(String lane) {
+		return dispatchWaits.computeIfAbsent(lane, name -> new LatencyHistogram());
+	}
+
+	/**
+	 * Get the occupancy of a profiled queue, creating it on first use. Record
+	 * into the result from one thread at a time.<br>
+	 *
+	 * @param queue
+	 *            Name of the queue
+	 * @return The {@link QueueOccupancy} for the queue
+	 */
+	public QueueOccupancy queueOccupancy(String queue) {
+		return occupancies.computeIfAbsent(queue, name -> new QueueOccupancy());
+	}
+
+	/**
+	 * Create or update the stop time of a registered RunnableKey<br>
+	 *
+	 * @param runnableId
+	 *            Id from {@link #register(RunnableKey)}
+	 * @param date
+	 *            The new stop time
+	 * @return The previous stop time, in the system zone
 	 */
-	public Integer putWidgetCount(WidgetStatusKey widgetStatusKey, Integer i) {
-		Integer j = widgetCount.put(widgetStatusKey, i);
-		logger.debug("WidgetStatus Widget Count: {}, {}", widgetStatusKey, j);
-		return j;
+	public ZonedDateTime putStopTime(int runnableId, ZonedDateTime date) {
+		Instant instant = date.toInstant();
+		long previous = runnableCounters.getAndSet(runnableId, STOP_EPOCH_NANOS,
+				instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+		logger.debug("WidgetStatus Stop Time: {}, {}", runnableKeys.key(runnableId), previous);
+		return toDate(previous);
 	}
 
 	/**
-	 * Create or update the stop time for the RunnableKey<br>
-	 * 
+	 * Create or update the stop time for the RunnableKey, registering it if
+	 * needed<br>
+	 *
 	 * @param runnableKey
 	 *            {@link RunnableKey}
 	 * @param date
 	 *            The new stop time
-	 * @return The previous stop time
+	 * @return The previous stop time, in the system zone
 	 */
 	public ZonedDateTime putStopTime(RunnableKey runnableKey, ZonedDateTime date) {
-		ZonedDateTime previousDate = stopTimes.put(runnableKey, date);
-		logger.debug("WidgetStatus Stop Time: {}, {}", runnableKey, previousDate);
-		return previousDate;
+		return putStopTime(register(runnableKey), date);
+	}
+
+	/**
+	 * Record a decision of a {@link ConsumerAutoscaler}<br>
+	 *
+	 * @param event
+	 *            {@link ScalingEvent}
+	 */
+	public void addScalingEvent(ScalingEvent event) {
+		scalingEvents.add(event);
+	}
+
+	/**
+	 * @return The scaling decisions so far, oldest first
+	 */
+	public List<ScalingEvent> getScalingEvents() {
+		return new ArrayList<>(scalingEvents);
 	}
 
 	/**
 	 * Get the current Widget count for the WidgetStatusKey<br>
-	 * 
+	 *
 	 * @param widgetStatusKey
 	 *            {@link WidgetStatusKey}
-	 * @return The current Widget total
+	 * @return The current Widget total, 0 if nothing was counted
 	 */
-	public Integer getWidgetCount(String widgetStatusKey) {
-		return widgetCount.get(widgetStatusKey);
+	public long getWidgetCount(WidgetStatusKey widgetStatusKey) {
+		int id = widgetKeys.find(widgetStatusKey);
+		return id < 0 ? 0 : widgetCounters.get(id, WIDGETS);
 	}
 
 	/**
 	 * Get the current stop time for the RunnableKey<br>
-	 * 
+	 *
 	 * @param runnableKey
 	 *            {@link RunnableKey}
-	 * @return The current stop time
+	 * @return The current stop time in the system zone, null if not stopped
 	 */
 	public ZonedDateTime getStopTime(RunnableKey runnableKey) {
-		return stopTimes.get(runnableKey);
+		int id = runnableKeys.find(runnableKey);
+		return id < 0 ? null : toDate(runnableCounters.get(id, STOP_EPOCH_NANOS));
 	}
 
 	/**
 	 * Get the current total Widgets produced or consumed<br>
-	 * 
+	 * Lock free, Widgets counted while summing may or may not be included.
+	 *
 	 * @param connectionType
 	 *            {@link ConnectionType} which identifies Producer or Consumer
 	 * @param widgetType
@@ -84,37 +371,464 @@ public final class WidgetStatus {
 	 *            {@link Widget} data type
 	 * @return The current Widget total for all producers or consumers
 	 */
-	// synchronized because of the iteration, potential performance impacts
-	public synchronized Integer getWidgetCountSummary(ConnectionType connectionType, String widgetType) {
-		return widgetCount.entrySet().stream().filter(entry -> entry.getKey().getWidgetType().equals(widgetType))
-				.filter(entry -> entry.getKey().getConnectionType().equals(connectionType))
-				.map(entry -> entry.getValue()).reduce(0, Integer::sum);
+	public long getWidgetCountSummary(ConnectionType connectionType, String widgetType) {
+		return summary(connectionType, widgetType, WIDGETS);
+	}
+
+	/**
+	 * Get the current total Widgets of a type producers dropped<br>
+	 *
+	 * @param widgetType
+	 *            String which identifies simple class name of the
+	 *            {@link Widget} data type
+	 * @return The current total
+	 */
+	public long getDroppedSummary(String widgetType) {
+		return summary(ConnectionType.PRODUCER, widgetType, DROPPED);
+	}
+
+	/**
+	 * Get the current total Widgets of a type producers spilled<br>
+	 *
+	 * @param widgetType
+	 *            String which identifies simple class name of the
+	 *            {@link Widget} data type
+	 * @return The current total
+	 */
+	public long getSpilledSummary(String widgetType) {
+		return summary(ConnectionType.PRODUCER, widgetType, SPILLED);
+	}
+
+	/**
+	 * Get the current total Widgets of a type whose handler threw<br>
+	 * They count as consumed as well, the consumer took them off the queue.
+	 *
+	 * @param widgetType
+	 *            String which identifies simple class name of the
+	 *            {@link Widget} data type
+	 * @return The current total
+	 */
+	public long getFailedSummary(String widgetType) {
+		return summary(ConnectionType.CONSUMER, widgetType, FAILED);
+	}
+
+	/**
+	 * Get the current total time producers of a type were blocked<br>
+	 *
+	 * @param widgetType
+	 *            String which identifies simple class name of the
+	 *            {@link Widget} data type
+	 * @return The current total in nanos
+	 */
+	public long getBlockedNanosSummary(String widgetType) {
+		return summary(ConnectionType.PRODUCER, widgetType, BLOCKED_NANOS);
+	}
+
+	/**
+	 * @return Number of registered WidgetStatusKeys, ids run from 0 to
+	 *         count - 1
+	 */
+	public int getWidgetKeyCount() {
+		return widgetKeys.size();
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return The key of the id
+	 */
+	public WidgetStatusKey getWidgetKey(int widgetKeyId) {
+		return widgetKeys.key(widgetKeyId);
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return Widgets produced or consumed under the key
+	 */
+	public long getWidgetCount(int widgetKeyId) {
+		return widgetCounters.get(widgetKeyId, WIDGETS);
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return Widgets dropped under the key
+	 */
+	public long getDropped(int widgetKeyId) {
+		return widgetCounters.get(widgetKeyId, DROPPED);
+	}
+
+	/**
+	 * Count Widgets whose {@link WidgetHandler} threw<br>
+	 *
+	 * @param widgetKeyId
+	 *            Id from {@link #register(WidgetStatusKey)}
+	 * @param delta
+	 *            Number of Widgets that failed
+	 */
+	public void addFailed(int widgetKeyId, long delta) {
+		widgetCounters.add(widgetKeyId, FAILED, delta);
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return Widgets spilled under the key
+	 */
+	public long getSpilled(int widgetKeyId) {
+		return widgetCounters.get(widgetKeyId, SPILLED);
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return Widgets whose handler threw under the key
+	 */
+	public long getFailed(int widgetKeyId) {
+		return widgetCounters.get(widgetKeyId, FAILED);
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return Time producers of the key waited for room in the queue
+	 */
+	public long getBlockedNanos(int widgetKeyId) {
+		return widgetCounters.get(widgetKeyId, BLOCKED_NANOS);
+	}
+
+	/**
+	 * @param widgetKeyId
+	 *            An id below {@link #getWidgetKeyCount()}
+	 * @return The latency histogram of the key, null if it has none
+	 */
+	public LatencyHistogram getLatencyHistogram(int widgetKeyId) {
+		return latencies.get(widgetKeyId);
+	}
+
+	/**
+	 * @return Number of registered RunnableKeys, ids run from 0 to count - 1
+	 */
+	public int getRunnableKeyCount() {
+		return runnableKeys.size();
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return The key of the id
+	 */
+	public RunnableKey getRunnableKey(int runnableId) {
+		return runnableKeys.key(runnableId);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Time the consumer spent in poll
+	 */
+	public long getPollNanos(int runnableId) {
+		return runnableCounters.get(runnableId, POLL_NANOS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Non-empty batches the consumer took
+	 */
+	public long getBatches(int runnableId) {
+		return runnableCounters.get(runnableId, BATCHES);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Widgets in all batches of the consumer
+	 */
+	public long getBatchWidgets(int runnableId) {
+		return runnableCounters.get(runnableId, BATCH_WIDGETS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Puts and offers that did not wait, see
+	 *         {@link #addPut(int, long)}
+	 */
+	public long getPuts(int runnableId) {
+		return contentionCounters.get(runnableId, PUTS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Time in puts and offers that did not wait
+	 */
+	public long getPutNanos(int runnableId) {
+		return contentionCounters.get(runnableId, PUT_NANOS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Puts that waited on a full queue
+	 */
+	public long getPutWaits(int runnableId) {
+		return contentionCounters.get(runnableId, PUT_WAITS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Time waited on a full queue
+	 */
+	public long getPutWaitNanos(int runnableId) {
+		return contentionCounters.get(runnableId, PUT_WAIT_NANOS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Polls and drains that did not wait, see
+	 *         {@link #addTake(int, long)}
+	 */
+	public long getTakes(int runnableId) {
+		return contentionCounters.get(runnableId, TAKES);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Time in polls and drains that did not wait
+	 */
+	public long getTakeNanos(int runnableId) {
+		return contentionCounters.get(runnableId, TAKE_NANOS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Takes that waited on an empty queue
+	 */
+	public long getTakeWaits(int runnableId) {
+		return contentionCounters.get(runnableId, TAKE_WAITS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Time waited on an empty queue
+	 */
+	public long getTakeWaitNanos(int runnableId) {
+		return contentionCounters.get(runnableId, TAKE_WAIT_NANOS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Times the waits spun or yielded
+	 */
+	public long getSpins(int runnableId) {
+		return contentionCounters.get(runnableId, SPINS);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return Times the waits parked or blocked
+	 */
+	public long getParks(int runnableId) {
+		return contentionCounters.get(runnableId, PARKS);
+	}
+
+	/**
+	 * Queue contention of all producers or consumers<br>
+	 *
+	 * @param connectionType
+	 *            {@link ConnectionType} which identifies Producer or Consumer
+	 * @return Mean put and take times, waits and their time, spins and parks,
+	 *         as text
+	 */
+	public String getContentionSummary(ConnectionType connectionType) {
+		long[] totals = new long[PARKS + 1];
+		int size = runnableKeys.size();
+		for (int id = 0; id < size; id++) {
+			if (runnableKeys.key(id).getConnectionType() == connectionType) {
+				for (int slot = 0; slot < totals.length; slot++) {
+					totals[slot] += contentionCounters.get(id, slot);
+				}
+			}
+		}
+		return contention(totals);
+	}
+
+	/**
+	 * @param runnableId
+	 *            An id below {@link #getRunnableKeyCount()}
+	 * @return true once the Runnable recorded a stop time
+	 */
+	public boolean isStopped(int runnableId) {
+		return runnableCounters.get(runnableId, STOP_EPOCH_NANOS) != 0;
+	}
+
+	/**
+	 * Widgets of a type produced but neither consumed nor dropped, 0 once a
+	 * run drained completely<br>
+	 * Negative when consumers also took Widgets an earlier run left in a
+	 * journal.
+	 *
+	 * @param widgetType
+	 *            String which identifies simple class name of the
+	 *            {@link Widget} data type
+	 * @return Produced minus consumed minus dropped
+	 */
+	public long getUnaccounted(String widgetType) {
+		return getWidgetCountSummary(ConnectionType.PRODUCER, widgetType)
+				- getWidgetCountSummary(ConnectionType.CONSUMER, widgetType) - getDroppedSummary(widgetType);
+	}
+
+	private long summary(ConnectionType connectionType, String widgetType, int slot) {
+		long sum = 0;
+		int size = widgetKeys.size();
+		for (int id = 0; id < size; id++) {
+			WidgetStatusKey key = widgetKeys.key(id);
+			if (key.getConnectionType() == connectionType && key.getWidgetType().equals(widgetType)) {
+				sum += widgetCounters.get(id, slot);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the latencies of all producers or consumers of a Widget type merged
+	 * into one histogram<br>
+	 *
+	 * @param connectionType
+	 *            {@link ConnectionType} which identifies Producer or Consumer
+	 * @param widgetType
+	 *            String which identifies simple class name of the
+	 *            {@link Widget} data type
+	 * @return A new {@link LatencyHistogram}, empty if nothing was recorded
+	 */
+	public LatencyHistogram getLatencySummary(ConnectionType connectionType, String widgetType) {
+		LatencyHistogram summary = new LatencyHistogram();
+		for (Map.Entry<Integer, LatencyHistogram> entry : latencies.entrySet()) {
+			WidgetStatusKey key = widgetKeys.key(entry.getKey());
+			if (key.getConnectionType() == connectionType && key.getWidgetType().equals(widgetType)) {
+				summary.add(entry.getValue());
+			}
+		}
+		return summary;
 	}
 
 	@Override
 	public String toString() {
-		Map<WidgetStatusKey, Integer> mapCount;
-		Map<RunnableKey, ZonedDateTime> mapStop;
-		// synchronized because of the iteration, potential performance impacts
-		synchronized (this) {
-			mapCount = new HashMap<>(widgetCount).entrySet().stream()
-					.sorted((e1, e2) -> e1.getKey().toString().compareTo(e2.getKey().toString())).collect(Collectors
-							.toMap(e -> e.getKey(), e -> e.getValue(), (oldVal, newVal) -> oldVal, LinkedHashMap::new));
-
-			mapStop = new HashMap<>(stopTimes).entrySet().stream()
-					.sorted((e1, e2) -> e1.getValue().compareTo(e2.getValue())).collect(Collectors
-							.toMap(e -> e.getKey(), e -> e.getValue(), (oldVal, newVal) -> oldVal, LinkedHashMap::new));
+		// weakly consistent snapshots, writers are never blocked
+		Map<String, Long> mapCount = new TreeMap<>();
+		Map<String, String> mapBackpressure = new TreeMap<>();
+		int widgetKeyCount = widgetKeys.size();
+		for (int id = 0; id < widgetKeyCount; id++) {
+			String key = widgetKeys.key(id).toString();
+			mapCount.put(key, widgetCounters.get(id, WIDGETS));
+			long dropped = widgetCounters.get(id, DROPPED);
+			long spilled = widgetCounters.get(id, SPILLED);
+			long blockedNanos = widgetCounters.get(id, BLOCKED_NANOS);
+			if (dropped != 0 || spilled != 0 || blockedNanos != 0) {
+				mapBackpressure.put(key, "dropped=" + dropped + ", spilled=" + spilled + ", blockedMillis="
+						+ TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+			}
+		}
+		Map<String, LatencyHistogram> mapLatency = new TreeMap<>();
+		for (Map.Entry<Integer, LatencyHistogram> entry : latencies.entrySet()) {
+			if (entry.getValue().getTotalCount() > 0) {
+				mapLatency.put(widgetKeys.key(entry.getKey()).toString(), entry.getValue());
+			}
+		}
+		List<Map.Entry<RunnableKey, ZonedDateTime>> mapStop = new ArrayList<>();
+		int runnableKeyCount = runnableKeys.size();
+		for (int id = 0; id < runnableKeyCount; id++) {
+			ZonedDateTime stopTime = toDate(runnableCounters.get(id, STOP_EPOCH_NANOS));
+			if (stopTime != null) {
+				mapStop.add(new AbstractMap.SimpleImmutableEntry<>(runnableKeys.key(id), stopTime));
+			}
 		}
+		mapStop.sort(Map.Entry.comparingByValue());
 
 		StringBuilder sb = new StringBuilder("\nWidgets Processed:\n");
-		for (WidgetStatusKey key : mapCount.keySet()) {
-			sb.append(key).append("\t").append(mapCount.get(key)).append("\n");
+		for (Map.Entry<String, Long> entry : mapCount.entrySet()) {
+			sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+		}
+		if (!mapBackpressure.isEmpty()) {
+			sb.append("\nBackpressure:\n");
+			for (Map.Entry<String, String> entry : mapBackpressure.entrySet()) {
+				sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+			}
+		}
+		sb.append("\nLatency (created to consumed):\n");
+		for (Map.Entry<String, LatencyHistogram> entry : mapLatency.entrySet()) {
+			sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+		}
+		if (!dispatchWaits.isEmpty()) {
+			sb.append("\nDispatch Wait (created to dispatched):\n");
+			for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(dispatchWaits).entrySet()) {
+				sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+			}
+		}
+		if (!scalingEvents.isEmpty()) {
+			sb.append("\nScaling Events:\n");
+			for (ScalingEvent event : scalingEvents) {
+				sb.append(event).append("\n");
+			}
+		}
+		Map<String, String> mapContention = new TreeMap<>();
+		for (int id = 0; id < runnableKeyCount; id++) {
+			long[] counts = new long[PARKS + 1];
+			for (int slot = 0; slot < counts.length; slot++) {
+				counts[slot] = contentionCounters.get(id, slot);
+			}
+			if (counts[PUTS] + counts[PUT_WAITS] + counts[TAKES] + counts[TAKE_WAITS] != 0) {
+				mapContention.put(runnableKeys.key(id).toString(), contention(counts));
+			}
+		}
+		if (!mapContention.isEmpty()) {
+			sb.append("\nQueue Contention:\n");
+			for (Map.Entry<String, String> entry : mapContention.entrySet()) {
+				sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+			}
+		}
+		if (!occupancies.isEmpty()) {
+			sb.append("\nQueue Occupancy:\n");
+			for (Map.Entry<String, QueueOccupancy> entry : new TreeMap<>(occupancies).entrySet()) {
+				sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+			}
 		}
 		sb.append("\nStop Times:\n");
-		for (RunnableKey key : mapStop.keySet()) {
-			sb.append(key).append("\t").append(mapStop.get(key).format(DateTimeFormatter.ISO_DATE_TIME)).append("\n");
+		for (Map.Entry<RunnableKey, ZonedDateTime> entry : mapStop) {
+			sb.append(entry.getKey()).append("\t").append(entry.getValue().format(DateTimeFormatter.ISO_DATE_TIME))
+					.append("\n");
 		}
 		return sb.toString();
 	}
 
+	/**
+	 * Render one row of contention counters, means are per call
+	 */
+	private static String contention(long[] counts) {
+		return "puts=" + counts[PUTS] + ", meanPutNanos=" + mean(counts[PUT_NANOS], counts[PUTS]) + ", fullWaits="
+				+ counts[PUT_WAITS] + ", fullWaitMillis=" + TimeUnit.NANOSECONDS.toMillis(counts[PUT_WAIT_NANOS])
+				+ ", takes=" + counts[TAKES] + ", meanTakeNanos=" + mean(counts[TAKE_NANOS], counts[TAKES])
+				+ ", emptyWaits=" + counts[TAKE_WAITS] + ", emptyWaitMillis="
+				+ TimeUnit.NANOSECONDS.toMillis(counts[TAKE_WAIT_NANOS]) + ", spins=" + counts[SPINS] + ", parks="
+				+ counts[PARKS];
+	}
+
+	private static long mean(long nanos, long calls) {
+		return calls == 0 ? 0 : nanos / calls;
+	}
+
+	private static ZonedDateTime toDate(long epochNanos) {
+		return epochNanos == 0 ? null : Instant.ofEpochSecond(0, epochNanos).atZone(ZoneId.systemDefault());
+	}
+
 }
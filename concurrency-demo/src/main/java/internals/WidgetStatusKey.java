@@ -1,7 +1,5 @@
 package internals;
 
-import java.util.Objects;
-
 /**
  * Key for segmenting data types. Used in {@link WidgetStatus}. Necessary
  * because consumers process multiple data types.<br>
@@ -62,7 +60,8 @@ public final class WidgetStatusKey {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(connectionType, widgetType, id);
+		// no varargs array, unlike Objects.hash
+		return (31 * connectionType.hashCode() + widgetType.hashCode()) * 31 + id;
 	}
 
 }
@@ -0,0 +1,188 @@
+package internals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Payloads of the {@link FrameChannel} frames of a distributed run<br>
+ * <br>
+ * <ul>
+ * <li>{@link FrameChannel#BATCH}: {@code [int count]}, then per Widget
+ * {@code [byte type][long createdNanos]} and {@code [long value]} for Longs
+ * or {@code [int length][UTF-8]} for Strings, pooled {@link TextBuffer}s
+ * included</li>
+ * <li>{@link FrameChannel#CREDIT}: {@code [int widgets]} the receiver has
+ * room for</li>
+ * <li>{@link FrameChannel#STATUS}: the counters, latency histograms and stop
+ * times of a node's {@link WidgetStatus}, see
+ * {@link #encodeStatus(FrameChannel, WidgetStatus)}</li>
+ * </ul>
+ * createdNanos crosses processes unchanged. System.nanoTime() is the same
+ * monotonic clock for every process of one host on Linux, so latencies stay
+ * meaningful on loopback but not across hosts.
+ */
+public final class WireCodec {
+
+	// Widget type tags, as in JournalQueue
+	public static final byte STRING = JournalQueue.STRING;
+	public static final byte LONG = JournalQueue.LONG;
+
+	private static final int WIDGET_HEADER_BYTES = 1 + Long.BYTES;
+	// connection type, name length, id and four counters or the stop time
+	private static final int KEY_BYTES = 1 + Short.BYTES + Integer.BYTES + 5 * Long.BYTES + 1;
+
+	private WireCodec() {
+	}
+
+	/**
+	 * Encode a batch and send it, recycling pooled Widgets once written<br>
+	 *
+	 * @param channel
+	 *            Channel to send on
+	 * @param batch
+	 *            Widgets to send, without end-of-stream markers
+	 * @throws IOException
+	 *             If the peer is gone
+	 */
+	public static void encodeBatch(FrameChannel channel, List<Widget<?>> batch) throws IOException {
+		ByteBuffer out = channel.begin(FrameChannel.BATCH);
+		out.putInt(batch.size());
+		for (Widget<?> widget : batch) {
+			Object value = widget.get();
+			if (value instanceof Long) {
+				out = channel.ensure(WIDGET_HEADER_BYTES + Long.BYTES);
+				out.put(LONG).putLong(widget.getCreatedNanos()).putLong((Long) value);
+			} else if (value instanceof CharSequence) {
+				byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+				out = channel.ensure(WIDGET_HEADER_BYTES + Integer.BYTES + text.length);
+				out.put(STRING).putLong(widget.getCreatedNanos()).putInt(text.length).put(text);
+			} else {
+				throw new IllegalArgumentException("Cannot send Widgets of type " + widget.getTypeName());
+			}
+			widget.recycle();
+		}
+		channel.send();
+	}
+
+	/**
+	 * @param in
+	 *            Payload of a {@link FrameChannel#BATCH} frame
+	 * @param batch
+	 *            List the decoded Widgets are added to
+	 */
+	public static void decodeBatch(ByteBuffer in, List<Widget<?>> batch) {
+		int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			byte type = in.get();
+			long createdNanos = in.getLong();
+			if (type == LONG) {
+				batch.add(new Widget<>(in.getLong(), createdNanos));
+			} else if (type == STRING) {
+				byte[] text = new byte[in.getInt()];
+				in.get(text);
+				batch.add(new Widget<>(new String(text, StandardCharsets.UTF_8), createdNanos));
+			} else {
+				throw new IllegalArgumentException("Unknown Widget type " + type);
+			}
+		}
+	}
+
+	/**
+	 * Encode every WidgetStatusKey and RunnableKey of a node and send them<br>
+	 * Reads by id without locks, call once the node's Runnables stopped.
+	 *
+	 * @param channel
+	 *            Channel to send on
+	 * @param widgetStatus
+	 *            The node's {@link WidgetStatus}
+	 * @throws IOException
+	 *             If the peer is gone
+	 */
+	public static void encodeStatus(FrameChannel channel, WidgetStatus widgetStatus) throws IOException {
+		ByteBuffer out = channel.begin(FrameChannel.STATUS);
+		int widgetKeyCount = widgetStatus.getWidgetKeyCount();
+		out.putInt(widgetKeyCount);
+		for (int id = 0; id < widgetKeyCount; id++) {
+			WidgetStatusKey key = widgetStatus.getWidgetKey(id);
+			byte[] type = key.getWidgetType().getBytes(StandardCharsets.UTF_8);
+			LatencyHistogram latency = widgetStatus.getLatencyHistogram(id);
+			out = channel.ensure(KEY_BYTES + type.length + LatencyHistogram.maxBytes());
+			putKey(out, key.getConnectionType(), type, key.getId());
+			out.putLong(widgetStatus.getWidgetCount(id)).putLong(widgetStatus.getDropped(id))
+					.putLong(widgetStatus.getSpilled(id)).putLong(widgetStatus.getBlockedNanos(id))
+					.putLong(widgetStatus.getFailed(id));
+			out.put((byte) (latency == null ? 0 : 1));
+			if (latency != null) {
+				latency.writeTo(out);
+			}
+		}
+		int runnableKeyCount = widgetStatus.getRunnableKeyCount();
+		out = channel.ensure(Integer.BYTES);
+		out.putInt(runnableKeyCount);
+		for (int id = 0; id < runnableKeyCount; id++) {
+			RunnableKey key = widgetStatus.getRunnableKey(id);
+			byte[] name = key.getRunnableName().getBytes(StandardCharsets.UTF_8);
+			ZonedDateTime stopTime = widgetStatus.isStopped(id) ? widgetStatus.getStopTime(key) : null;
+			out = channel.ensure(KEY_BYTES + name.length);
+			putKey(out, key.getConnectionType(), name, key.getId());
+			Instant instant = stopTime == null ? null : stopTime.toInstant();
+			out.putLong(instant == null ? 0 : instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+		}
+		channel.send();
+	}
+
+	/**
+	 * Add a node's status to the merged one<br>
+	 * Keys keep their type and connection, their ids are shifted by the
+	 * offset so equal thread ids of different processes stay apart.
+	 *
+	 * @param in
+	 *            Payload of a {@link FrameChannel#STATUS} frame
+	 * @param into
+	 *            {@link WidgetStatus} to add to, from one thread at a time
+	 * @param idOffset
+	 *            Added to every key id
+	 */
+	public static void mergeStatus(ByteBuffer in, WidgetStatus into, int idOffset) {
+		int widgetKeyCount = in.getInt();
+		for (int i = 0; i < widgetKeyCount; i++) {
+			ConnectionType connectionType = ConnectionType.values()[in.get()];
+			String type = getText(in);
+			int id = into.register(new WidgetStatusKey(connectionType, type, in.getInt() + idOffset));
+			into.addWidgetCount(id, in.getLong());
+			into.addDropped(id, in.getLong());
+			into.addSpilled(id, in.getLong());
+			into.addBlockedNanos(id, in.getLong());
+			into.addFailed(id, in.getLong());
+			if (in.get() != 0) {
+				into.latencyHistogram(id).readFrom(in);
+			}
+		}
+		int runnableKeyCount = in.getInt();
+		for (int i = 0; i < runnableKeyCount; i++) {
+			ConnectionType connectionType = ConnectionType.values()[in.get()];
+			String name = getText(in);
+			int id = into.register(new RunnableKey(connectionType, name, in.getInt() + idOffset));
+			long stopEpochNanos = in.getLong();
+			if (stopEpochNanos != 0) {
+				into.putStopTime(id, Instant.ofEpochSecond(0, stopEpochNanos).atZone(ZoneId.systemDefault()));
+			}
+		}
+	}
+
+	private static void putKey(ByteBuffer out, ConnectionType connectionType, byte[] text, int id) {
+		out.put((byte) connectionType.ordinal()).putShort((short) text.length).put(text).putInt(id);
+	}
+
+	private static String getText(ByteBuffer in) {
+		byte[] text = new byte[in.getShort()];
+		in.get(text);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+
+}
@@ -1,20 +1,65 @@
 package main;
 
+import java.io.Closeable;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import internals.AutoscalerSettings;
+import internals.BackpressurePolicy;
 import internals.ConnectionType;
 import internals.Connector;
+import internals.ConnectorSettings;
+import internals.ConsumerAutoscaler;
+import internals.ExecutionMode;
+import internals.FairLanes;
+import internals.FairShare;
+import internals.FlowConsumer;
+import internals.FlowProducer;
+import internals.HandlerRegistry;
+import internals.InMemoryOverflowStore;
+import internals.JournalQueue;
+import internals.LongRingBuffer;
+import internals.Measurement;
+import internals.MetricsEndpoint;
+import internals.NodeRunner;
+import internals.OverflowDrainer;
+import internals.OverflowStore;
+import internals.PipelineMetrics;
+import internals.ProfilingQueue;
+import internals.QueueType;
+import internals.RateSpec;
+import internals.RetireSignal;
+import internals.SnapshotWriter;
+import internals.StagePipeline;
+import internals.TextBuffer;
+import internals.Trace;
+import internals.TraceRecorder;
+import internals.TypedLanes;
+import internals.WaitStrategy;
 import internals.Widget;
+import internals.WidgetStage;
 import internals.WidgetStatus;
 
 /**
@@ -24,13 +69,85 @@ public class Main {
 
 	private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
-	// these should be moved to a properties file
-	private static final int QUEUE_CAPACITY = 300;
-	private static final int STRING_PRODUCER_COUNT = 3;
-	private static final int LONG_PRODUCER_COUNT = 2;
-	private static final int CONSUMER_COUNT = 2;
-	private static final int DURATION_SECONDS = 50;
+	// sizes and timing, swept from a scenario file by ScenarioRunner
+	private static final int QUEUE_CAPACITY = Integer.getInteger("queueCapacity", 300);
+	// counts can be overridden, e.g. -DstringProducers=5000 with virtual threads
+	private static final int STRING_PRODUCER_COUNT = Integer.getInteger("stringProducers", 3);
+	private static final int LONG_PRODUCER_COUNT = Integer.getInteger("longProducers", 2);
+	private static final int CONSUMER_COUNT = Integer.getInteger("consumers", 2);
+	private static final int PRIMITIVE_LONG_CONSUMER_COUNT = 1;
+	private static final int DURATION_SECONDS = Integer.getInteger("durationSeconds", 50);
+	// left out of the measurement, producers and consumers run as in the measured phase
+	private static final int WARMUP_SECONDS = Integer.getInteger("warmupSeconds", 0);
 	private static final String OUTPUT_FILE = "results.txt";
+	// -DmeasurementFile=measurement.properties also writes the measured phase there, for ScenarioRunner
+	private static final String MEASUREMENT_FILE = System.getProperty("measurementFile");
+
+	// launch options, e.g. -DqueueType=RING -DwaitStrategy=BLOCKING
+	private static final QueueType QUEUE_TYPE = QueueType
+			.valueOf(System.getProperty("queueType", QueueType.LINKED.name()));
+	private static final WaitStrategy WAIT_STRATEGY = WaitStrategy
+			.valueOf(System.getProperty("waitStrategy", WaitStrategy.PARK.name()));
+	private static final int CONSUMER_BATCH_SIZE = Integer.getInteger("consumerBatchSize", 1);
+	private static final long CONSUMER_LINGER_MILLIS = Long.getLong("consumerLingerMillis", 0L);
+	private static final ExecutionMode EXECUTION_MODE = ExecutionMode
+			.valueOf(System.getProperty("executionMode", ExecutionMode.PLATFORM.name()));
+	// per thread pacing, e.g. -DproducerRate=poisson:500 -DconsumerRate=unthrottled, unset keeps the defaults
+	private static final RateSpec PRODUCER_RATE = rate("producerRate");
+	private static final RateSpec CONSUMER_RATE = rate("consumerRate");
+	// -Dautoscale=true lets queue depth drive the consumer count between the limits
+	private static final boolean AUTOSCALE = Boolean.getBoolean("autoscale");
+	private static final int MIN_CONSUMERS = Integer.getInteger("minConsumers", 1);
+	private static final int MAX_CONSUMERS = Integer.getInteger("maxConsumers", 8);
+	// full queue handling, -Dbackpressure=DROP_NEWEST or per connector -Dbackpressure.STRING_PRODUCER=SPILL
+	private static final BackpressurePolicy STRING_BACKPRESSURE = backpressure(Connector.STRING_PRODUCER);
+	private static final BackpressurePolicy LONG_BACKPRESSURE = backpressure(Connector.LONG_PRODUCER);
+	private static final BackpressurePolicy REPLAY_BACKPRESSURE = backpressure(Connector.REPLAY_PRODUCER);
+	private static final long BLOCK_TIMEOUT_MILLIS = Long.getLong("blockTimeoutMillis", 100L);
+	private static final int SAMPLE_EVERY = Integer.getInteger("sampleEvery", 10);
+	private static final int OVERFLOW_CAPACITY = Integer.getInteger("overflowCapacity", 100_000);
+	// MEMORY or JOURNAL, the journal survives restarts and is bounded by disk instead
+	private static final String OVERFLOW_STORE = System.getProperty("overflowStore", "MEMORY");
+	// Long values bypass the shared queue on their own unboxed lane
+	private static final boolean PRIMITIVE_LONGS = Boolean.getBoolean("primitiveLongs");
+	// a queue per Widget type with its own consumers, tuned with e.g. -Dconsumers.Long=1 -DconsumerBatchSize.String=32
+	private static final boolean TYPED_LANES = Boolean.getBoolean("typedLanes");
+	// weighted fair scheduling across per type lanes for shared consumers, e.g. -DfairShare=Long=2@0,String=1@1
+	private static final String FAIR_SHARE = System.getProperty("fairShare");
+	// consumers as a chain of stages, NAME:WORKERS[:BATCH[:BUFFER]] e.g. -Dstages=decode:1:16,transform:2:16,sink:1:32
+	private static final String STAGES = System.getProperty("stages");
+	// -DstringPoolSize=1024 refills pooled String Widgets instead of creating new ones, 0 turns pooling off
+	private static final int STRING_POOL_SIZE = Integer.getInteger("stringPoolSize", 0);
+	// live metrics are always on JMX, -DmetricsPort=9404 also serves them as text on loopback, 0 for none
+	private static final int METRICS_PORT = Integer.getInteger("metricsPort", 0);
+	private static final long METRICS_SAMPLE_MILLIS = Long.getLong("metricsSampleMillis", 1000L);
+	// -DsnapshotMillis=1000 appends per key deltas to rotating CSV files in snapshotDir, 0 for none
+	private static final long SNAPSHOT_MILLIS = Long.getLong("snapshotMillis", 0L);
+	private static final String SNAPSHOT_DIR = System.getProperty("snapshotDir", "snapshots");
+	private static final long SNAPSHOT_FILE_BYTES = Long.getLong("snapshotFileBytes", 16L << 20);
+	private static final int SNAPSHOT_FILES = Integer.getInteger("snapshotFiles", 8);
+	// -DrecordTrace=run.trace records every produced Widget for a later replayTrace run
+	private static final String RECORD_TRACE = System.getProperty("recordTrace");
+	// -DreplayTrace=run.trace plays a recorded trace back instead of the String and Long producers
+	private static final String REPLAY_TRACE = System.getProperty("replayTrace");
+	// multiple of the recorded pace, e.g. -DreplaySpeed=2, max puts the Widgets back to back
+	private static final String REPLAY_SPEED = System.getProperty("replaySpeed", "1");
+	// -DprofileQueue=true splits put and take time per Runnable into contention and waits on a full or empty queue
+	private static final boolean PROFILE_QUEUE = Boolean.getBoolean("profileQueue");
+	private static final long PROFILE_SAMPLE_MILLIS = Long.getLong("profileSampleMillis", 10L);
+	// -Dflow=true connects producers and consumers as Flow publishers and subscribers instead of queues
+	private static final boolean FLOW = Boolean.getBoolean("flow");
+	// -DproducerNodes=2 -DconsumerNodes=2 runs producers and consumers in child JVMs connected by loopback sockets
+	private static final int PRODUCER_NODES = Integer.getInteger("producerNodes", 0);
+	private static final int CONSUMER_NODES = Integer.getInteger("consumerNodes", 0);
+	private static final int REMOTE_BATCH_SIZE = Integer.getInteger("remoteBatchSize", 256);
+	// set by the coordinator on its child JVMs
+	private static final String NODE = System.getProperty("node");
+	private static final int NODE_INDEX = Integer.getInteger("nodeIndex", 0);
+	private static final int COORDINATOR_PORT = Integer.getInteger("coordinatorPort", 0);
+	// launch options that only apply to the coordinator
+	private static final List<String> COORDINATOR_OPTIONS = Arrays.asList("producerNodes", "consumerNodes",
+			"metricsPort", "snapshotMillis");
 
 	/**
 	 * Initiate producers and consumers, wait allotted time, consume results and
@@ -40,40 +157,376 @@ public class Main {
 	 *            Not used
 	 */
 	public static void main(String args[]) {
-		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+		if (NODE != null) {
+			boolean complete = nodeRunner().node(ConnectionType.valueOf(NODE), NODE_INDEX, COORDINATOR_PORT);
+			// pooled threads of the producers and consumers would keep the JVM alive
+			System.exit(complete ? 0 : 1);
+		}
+		if (TYPED_LANES && FAIR_SHARE != null) {
+			throw new IllegalArgumentException("typedLanes and fairShare cannot be combined");
+		}
+		if (FLOW && (TYPED_LANES || FAIR_SHARE != null || PRIMITIVE_LONGS || AUTOSCALE)) {
+			throw new IllegalArgumentException(
+					"flow cannot be combined with typedLanes, fairShare, primitiveLongs or autoscale");
+		}
+		if (STAGES != null && (FLOW || TYPED_LANES || FAIR_SHARE != null || AUTOSCALE || PRODUCER_NODES > 0)) {
+			throw new IllegalArgumentException(
+					"stages cannot be combined with flow, typedLanes, fairShare, autoscale or producerNodes");
+		}
+		if (PROFILE_QUEUE && (FLOW || PRODUCER_NODES > 0)) {
+			throw new IllegalArgumentException("profileQueue cannot be combined with flow or producerNodes");
+		}
+		if ((RECORD_TRACE != null || REPLAY_TRACE != null) && (FLOW || PRIMITIVE_LONGS || PRODUCER_NODES > 0)) {
+			throw new IllegalArgumentException(
+					"recordTrace and replayTrace cannot be combined with flow, primitiveLongs or producerNodes");
+		}
+		if (REPLAY_TRACE != null) {
+			if (WARMUP_SECONDS > 0 || STRING_POOL_SIZE > 0) {
+				throw new IllegalArgumentException("replayTrace cannot be combined with warmupSeconds or stringPoolSize");
+			}
+			if (RECORD_TRACE != null && Paths.get(RECORD_TRACE).toAbsolutePath()
+					.equals(Paths.get(REPLAY_TRACE).toAbsolutePath())) {
+				throw new IllegalArgumentException("recordTrace would overwrite replayTrace: " + REPLAY_TRACE);
+			}
+		}
+		if (PRODUCER_NODES > 0 || CONSUMER_NODES > 0) {
+			if (PRODUCER_NODES < 1 || CONSUMER_NODES < 1) {
+				throw new IllegalArgumentException("producerNodes and consumerNodes must both be set");
+			}
+			if (FLOW || TYPED_LANES || FAIR_SHARE != null || PRIMITIVE_LONGS
+					|| STRING_BACKPRESSURE == BackpressurePolicy.SPILL
+					|| LONG_BACKPRESSURE == BackpressurePolicy.SPILL) {
+				throw new IllegalArgumentException(
+						"producerNodes cannot be combined with flow, typedLanes, fairShare, primitiveLongs or SPILL");
+			}
+			// every node would open the same journal directory
+			if (QUEUE_TYPE == QueueType.JOURNAL) {
+				throw new IllegalArgumentException("producerNodes cannot be combined with queueType JOURNAL");
+			}
+			if (MEASUREMENT_FILE != null || WARMUP_SECONDS > 0) {
+				throw new IllegalArgumentException("producerNodes cannot be combined with warmupSeconds or measurementFile");
+			}
+			WidgetStatus widgetStatus = new WidgetStatus();
+			boolean complete = nodeRunner().coordinate(PRODUCER_NODES, CONSUMER_NODES, widgetStatus);
+			report(widgetStatus, 0, complete, null);
+			return;
+		}
 		WidgetStatus widgetStatus = new WidgetStatus();
+		PipelineMetrics metrics = new PipelineMetrics(widgetStatus);
+		ScheduledExecutorService metricsExecutor = Executors.newSingleThreadScheduledExecutor();
+		metricsExecutor.scheduleAtFixedRate(metrics, METRICS_SAMPLE_MILLIS, METRICS_SAMPLE_MILLIS,
+				TimeUnit.MILLISECONDS);
+		MetricsEndpoint metricsEndpoint = metricsEndpoint(metrics);
+		SnapshotWriter snapshotWriter = snapshotWriter(widgetStatus);
+		if (snapshotWriter != null) {
+			metricsExecutor.scheduleAtFixedRate(snapshotWriter, SNAPSHOT_MILLIS, SNAPSHOT_MILLIS,
+					TimeUnit.MILLISECONDS);
+		}
 
-		ExecutorService stringExecutor = getExecutor(Connector.STRING_PRODUCER, STRING_PRODUCER_COUNT, queue,
-				widgetStatus);
-		ExecutorService longExecutor = getExecutor(Connector.LONG_PRODUCER, LONG_PRODUCER_COUNT, queue, widgetStatus);
-		ExecutorService consumerExecutor = getExecutor(Connector.GENERAL_CONSUMER, CONSUMER_COUNT, queue, widgetStatus);
+		if (FLOW) {
+			flow(widgetStatus);
+		} else {
+			queues(widgetStatus, metrics);
+		}
 
-		waitForIt(DURATION_SECONDS);
+		metricsExecutor.shutdownNow();
+		// the last snapshot covers the drain
+		close(snapshotWriter);
+		close(metricsEndpoint);
+		metrics.close();
+	}
 
+	/**
+	 * Run producers and consumers connected by queues, wait allotted time and
+	 * drain the queues<br>
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to bind
+	 * @param metrics
+	 *            The {@link PipelineMetrics} the queues are added to
+	 */
+	private static void queues(WidgetStatus widgetStatus, PipelineMetrics metrics) {
+		TypedLanes typedLanes = TYPED_LANES ? new TypedLanes(laneTypes(), QUEUE_TYPE, QUEUE_CAPACITY, WAIT_STRATEGY)
+				: null;
+		BlockingQueue<Widget<? extends Object>> queue;
+		if (typedLanes != null) {
+			queue = typedLanes;
+		} else if (FAIR_SHARE != null) {
+			queue = new FairLanes(laneTypes(), FairShare.parse(FAIR_SHARE), QUEUE_TYPE, QUEUE_CAPACITY, WAIT_STRATEGY,
+					widgetStatus);
+			logger.info("Fair lanes: {}", queue);
+		} else {
+			queue = QUEUE_TYPE.create(QUEUE_CAPACITY, WAIT_STRATEGY);
+		}
+		logger.info("Queue: {}, execution mode: {}", queue.getClass().getSimpleName(), EXECUTION_MODE);
+		List<ProfilingQueue> profiled = new ArrayList<>();
+		queue = profile(queue, "queue", widgetStatus, profiled);
+
+		Trace trace = trace();
+		TraceRecorder traceRecorder = traceRecorder();
+		OverflowStore<Widget<?>> overflowStore = null;
+		if (trace != null ? REPLAY_BACKPRESSURE == BackpressurePolicy.SPILL
+				: STRING_BACKPRESSURE == BackpressurePolicy.SPILL || LONG_BACKPRESSURE == BackpressurePolicy.SPILL) {
+			overflowStore = "JOURNAL".equals(OVERFLOW_STORE) ? new JournalQueue(JournalQueue.directory("overflow"))
+					: new InMemoryOverflowStore<>(OVERFLOW_CAPACITY);
+			logger.info("Overflow store: {}", overflowStore);
+		}
+		// journals replay what an earlier run left, consumers take it on top of this run's Widgets
+		long backlog = queue.size() + (overflowStore != null ? overflowStore.size() : 0);
+		List<ExecutorService> producerExecutors = new ArrayList<>();
+		if (trace != null) {
+			// a thread per recorded producer, each puts String and Long Widgets
+			producerExecutors.add(getExecutor(Connector.REPLAY_PRODUCER, trace.getProducers().size(), queue,
+					widgetStatus, producerSettingsBuilder(REPLAY_BACKPRESSURE, overflowStore)
+							.traceRecorder(traceRecorder).trace(trace).replaySpeed(replaySpeed()).build()));
+		} else {
+			producerExecutors.add(getExecutor(Connector.STRING_PRODUCER, STRING_PRODUCER_COUNT, queue, widgetStatus,
+					producerSettingsBuilder(STRING_BACKPRESSURE, overflowStore).traceRecorder(traceRecorder).build()));
+		}
+		ExecutorService drainerExecutor = null;
+		OverflowDrainer<Widget<?>> drainer = null;
+		if (overflowStore != null) {
+			drainer = new OverflowDrainer<>(overflowStore, queue);
+			drainerExecutor = Executors.newSingleThreadExecutor();
+			drainerExecutor.execute(drainer);
+		}
+		List<ExecutorService> consumerExecutors = new ArrayList<>();
+		ScheduledExecutorService autoscalerExecutor = AUTOSCALE ? Executors.newSingleThreadScheduledExecutor() : null;
+		StagePipeline stagePipeline = null;
+		if (typedLanes != null) {
+			logger.info("Typed lanes: {}", typedLanes);
+			for (Class<?> type : typedLanes.getTypes()) {
+				String name = Widget.typeName(type);
+				startConsumers(profile(typedLanes.lane(type), "lane-" + name, widgetStatus, profiled),
+						HandlerRegistry.defaults().only(Collections.singleton(type)),
+						Integer.getInteger("consumers." + name, CONSUMER_COUNT),
+						Integer.getInteger("consumerBatchSize." + name, CONSUMER_BATCH_SIZE),
+						() -> widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, name), widgetStatus,
+						consumerExecutors, autoscalerExecutor);
+			}
+		} else if (STAGES != null) {
+			stagePipeline = stagePipeline(queue, widgetStatus);
+			stagePipeline.start(EXECUTION_MODE);
+		} else {
+			startConsumers(queue, HandlerRegistry.defaults(), CONSUMER_COUNT, CONSUMER_BATCH_SIZE,
+					() -> drained(widgetStatus), widgetStatus, consumerExecutors, autoscalerExecutor);
+		}
+		LongRingBuffer longLane = null;
+		if (PRIMITIVE_LONGS) {
+			longLane = new LongRingBuffer(QUEUE_CAPACITY, WAIT_STRATEGY);
+			logger.info("Long lane: {}", longLane);
+			// the long lane always blocks, it has no Widgets to drop or spill
+			producerExecutors.add(getExecutor(Connector.PRIMITIVE_LONG_PRODUCER, LONG_PRODUCER_COUNT, longLane,
+					widgetStatus, producerSettings(BackpressurePolicy.BLOCK, null)));
+			consumerExecutors.add(getExecutor(Connector.PRIMITIVE_LONG_CONSUMER, PRIMITIVE_LONG_CONSUMER_COUNT,
+					longLane, widgetStatus, consumerSettings(CONSUMER_BATCH_SIZE, null, HandlerRegistry.defaults())));
+		} else if (trace == null) {
+			producerExecutors.add(getExecutor(Connector.LONG_PRODUCER, LONG_PRODUCER_COUNT, queue, widgetStatus,
+					producerSettingsBuilder(LONG_BACKPRESSURE, overflowStore).traceRecorder(traceRecorder).build()));
+		}
+		addQueues(metrics, queue, typedLanes, longLane);
+		if (stagePipeline != null) {
+			List<String> names = stagePipeline.getStageNames();
+			for (int i = 1; i < names.size(); i++) {
+				BlockingQueue<?> buffer = stagePipeline.getBuffer(i);
+				metrics.addQueue("stage-" + names.get(i), buffer::size, buffer::remainingCapacity);
+			}
+		}
+
+		ScheduledExecutorService profileExecutor = null;
+		if (!profiled.isEmpty()) {
+			profileExecutor = Executors.newSingleThreadScheduledExecutor();
+			for (ProfilingQueue profilingQueue : profiled) {
+				profileExecutor.scheduleAtFixedRate(profilingQueue::sample, PROFILE_SAMPLE_MILLIS,
+						PROFILE_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		Measurement measurement = trace != null ? measureReplay(widgetStatus, trace, producerExecutors.get(0))
+				: measure(widgetStatus);
+
+		if (autoscalerExecutor != null) {
+			// keep the consumer count fixed while the queue drains
+			autoscalerExecutor.shutdownNow();
+		}
+		if (profileExecutor != null) {
+			// the drain would count as empty time
+			profileExecutor.shutdownNow();
+		}
 		logger.info("Terminating producers");
-		longExecutor.shutdownNow();
-		stringExecutor.shutdownNow();
+		producerExecutors.forEach(ExecutorService::shutdownNow);
+		try {
+			// nothing may be put or spilled after the end-of-stream markers
+			for (ExecutorService producerExecutor : producerExecutors) {
+				producerExecutor.awaitTermination(DURATION_SECONDS, TimeUnit.SECONDS);
+			}
+			if (traceRecorder != null) {
+				traceRecorder.close();
+				logger.info("Recorded {}", traceRecorder);
+			}
+			if (drainer != null) {
+				logger.info("Draining the overflow store");
+				drainer.finish();
+				drainerExecutor.shutdown();
+				drainerExecutor.awaitTermination(DURATION_SECONDS * 2, TimeUnit.SECONDS);
+			}
+			postEndOfStream(queue, typedLanes, longLane);
+		} catch (InterruptedException e) {
+			logger.error("Error while stopping the producers", e);
+			Thread.currentThread().interrupt();
+		}
 
-		consumerExecutor.shutdown();
+		consumerExecutors.forEach(ExecutorService::shutdown);
 		logger.info("Awaiting consumer termination");
-		boolean consumerComplete = false;
+		boolean consumerComplete = true;
 		try {
-			consumerComplete = consumerExecutor.awaitTermination(DURATION_SECONDS * 2, TimeUnit.SECONDS);
+			for (ExecutorService consumerExecutor : consumerExecutors) {
+				consumerComplete &= consumerExecutor.awaitTermination(DURATION_SECONDS * 2, TimeUnit.SECONDS);
+			}
+			if (stagePipeline != null) {
+				consumerComplete &= stagePipeline.awaitTermination(DURATION_SECONDS * 2, TimeUnit.SECONDS);
+				stagePipeline.shutdownNow();
+			}
 			logger.info("consumerComplete: {}", consumerComplete);
 		} catch (InterruptedException e) {
+			consumerComplete = false;
 			logger.error("Error while waiting for consumer to complete", e);
 		}
+		if (stagePipeline != null) {
+			stagePipeline.getStats().forEach(stats -> logger.info("Stage {}", stats));
+			logger.info("Bottleneck: stage {}", stagePipeline.getBottleneck().getName());
+		}
+		if (!profiled.isEmpty()) {
+			logger.info("Producer queue contention: {}", widgetStatus.getContentionSummary(ConnectionType.PRODUCER));
+			logger.info("Consumer queue contention: {}", widgetStatus.getContentionSummary(ConnectionType.CONSUMER));
+			for (ProfilingQueue profilingQueue : profiled) {
+				logger.info("Queue {} occupancy: {}; {}", profilingQueue.getName(), profilingQueue.getOccupancy(),
+						profilingQueue.diagnose());
+			}
+		}
+
+		// journals keep what was not consumed for the next run
+		close(queue);
+		close(overflowStore);
+		close(trace);
+		report(widgetStatus, backlog, consumerComplete, measurement);
+	}
+
+	/**
+	 * Run {@link FlowProducer}s subscribed by {@link FlowConsumer}s, wait
+	 * allotted time and complete the streams<br>
+	 * Each producer is subscribed by one consumer, assigned in turn, and may
+	 * have its share of {@link #QUEUE_CAPACITY} in flight, so as many Widgets
+	 * wait between the stages as in the queue.
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to bind
+	 */
+	private static void flow(WidgetStatus widgetStatus) {
+		int producerCount = STRING_PRODUCER_COUNT + LONG_PRODUCER_COUNT;
+		int credit = Math.max(CONSUMER_BATCH_SIZE, QUEUE_CAPACITY / producerCount);
+		// as many threads as the queue mode, they only run while there is credit or a batch
+		ScheduledExecutorService producerScheduler = Executors.newScheduledThreadPool(producerCount);
+		ScheduledExecutorService consumerScheduler = Executors.newScheduledThreadPool(CONSUMER_COUNT);
+		List<FlowConsumer> consumers = new ArrayList<>();
+		for (int i = 0; i < CONSUMER_COUNT; i++) {
+			consumers.add(new FlowConsumer(i + 1, widgetStatus,
+					consumerSettings(CONSUMER_BATCH_SIZE, null, HandlerRegistry.defaults()), credit,
+					consumerScheduler));
+		}
+		List<FlowProducer> producers = new ArrayList<>();
+		ConnectorSettings settings = producerSettings(BackpressurePolicy.BLOCK, null);
+		for (int i = 0; i < producerCount; i++) {
+			Connector connector = i < STRING_PRODUCER_COUNT ? Connector.STRING_PRODUCER : Connector.LONG_PRODUCER;
+			FlowProducer producer = new FlowProducer(connector, i + 1, widgetStatus, settings, producerScheduler);
+			producers.add(producer);
+			producer.subscribe(consumers.get(i % CONSUMER_COUNT).subscriber());
+		}
+		logger.info("Flow: {} producers, consumers {}", producerCount, consumers);
+
+		Measurement measurement = measure(widgetStatus);
 
+		logger.info("Completing the producers");
+		producers.forEach(FlowProducer::stop);
+		logger.info("Awaiting consumer termination");
+		boolean consumerComplete = true;
+		try {
+			for (FlowConsumer consumer : consumers) {
+				consumerComplete &= consumer.awaitTermination(DURATION_SECONDS * 2, TimeUnit.SECONDS);
+			}
+			logger.info("consumerComplete: {}", consumerComplete);
+		} catch (InterruptedException e) {
+			consumerComplete = false;
+			logger.error("Error while waiting for consumer to complete", e);
+		}
+		producerScheduler.shutdownNow();
+		consumerScheduler.shutdownNow();
+		report(widgetStatus, 0, consumerComplete, measurement);
+	}
+
+	/**
+	 * @param options
+	 *            JVM options and launch options of the child
+	 * @return The command running this class in a child JVM with the same
+	 *         java binary and class path
+	 */
+	static List<String> javaCommand(List<String> options) {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(options);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Main.class.getName());
+		return command;
+	}
+
+	/**
+	 * Log the totals, check that every Widget was accounted for and write
+	 * {@link #OUTPUT_FILE}<br>
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to read
+	 * @param backlog
+	 *            Widgets replayed from an earlier run
+	 * @param consumerComplete
+	 *            false if consumers were still running
+	 * @param measurement
+	 *            The measured phase, null if there was none
+	 */
+	private static void report(WidgetStatus widgetStatus, long backlog, boolean consumerComplete,
+			Measurement measurement) {
 		logger.info("String Widgets Produced: {}",
-				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, String.class.getSimpleName()).toString());
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, String.class.getSimpleName()));
 		logger.info("String Widgets Consumed: {}",
-				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName()).toString());
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName()));
 		logger.info("Long Widgets Produced: {}",
-				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, Long.class.getSimpleName()).toString());
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, Long.class.getSimpleName()));
 		logger.info("Long Widgets Consumed: {}",
-				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName()).toString());
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName()));
+		logger.info("String Widgets {}", backpressureSummary(widgetStatus, String.class.getSimpleName()));
+		logger.info("Long Widgets {}", backpressureSummary(widgetStatus, Long.class.getSimpleName()));
+		logger.info("String Widget latency: {}",
+				widgetStatus.getLatencySummary(ConnectionType.CONSUMER, String.class.getSimpleName()));
+		logger.info("Long Widget latency: {}",
+				widgetStatus.getLatencySummary(ConnectionType.CONSUMER, Long.class.getSimpleName()));
+		logger.info("Handler failures String: {}, Long: {}",
+				widgetStatus.getFailedSummary(String.class.getSimpleName()),
+				widgetStatus.getFailedSummary(Long.class.getSimpleName()));
+		long unaccounted = widgetStatus.getUnaccounted(String.class.getSimpleName())
+				+ widgetStatus.getUnaccounted(Long.class.getSimpleName()) + backlog;
+		if (unaccounted == 0) {
+			logger.info("Drain check passed, every Widget produced was consumed or dropped (backlog {})", backlog);
+		} else {
+			logger.error("Drain check failed, {} Widgets produced were neither consumed nor dropped (backlog {})",
+					unaccounted, backlog);
+		}
 
-		outputResults(widgetStatus);
+		outputResults(widgetStatus, unaccounted);
+		if (measurement != null) {
+			// a replay measures until the trace ended rather than the allotted time
+			logger.info("Measured {} seconds: {}", String.format("%.3f", measurement.getSeconds()), measurement);
+			outputMeasurement(measurement, unaccounted);
+		}
 
 		logger.info("Processing complete. See {} for details.", OUTPUT_FILE);
 
@@ -82,6 +535,480 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Post the end-of-stream markers once the producers and the overflow
+	 * drainer stopped, one per queue that has its own consumers<br>
+	 * 
+	 * @param queue
+	 *            The shared queue
+	 * @param typedLanes
+	 *            The {@link TypedLanes} behind the shared queue, null without
+	 * @param longLane
+	 *            The primitive long lane, null without
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room
+	 */
+	private static void postEndOfStream(BlockingQueue<Widget<? extends Object>> queue, TypedLanes typedLanes,
+			LongRingBuffer longLane) throws InterruptedException {
+		logger.info("Posting end of stream");
+		if (typedLanes != null) {
+			for (Class<?> type : typedLanes.getTypes()) {
+				typedLanes.lane(type).put(Widget.endOfStream());
+			}
+		} else {
+			queue.put(Widget.endOfStream());
+		}
+		if (longLane != null) {
+			longLane.putEndOfStream();
+		}
+	}
+
+	/**
+	 * Expose the depth of every queue the consumers take from<br>
+	 * 
+	 * @param metrics
+	 *            The {@link PipelineMetrics} to add to
+	 * @param queue
+	 *            The shared queue
+	 * @param typedLanes
+	 *            The {@link TypedLanes} behind the shared queue, null without
+	 * @param longLane
+	 *            The primitive long lane, null without
+	 */
+	private static void addQueues(PipelineMetrics metrics, BlockingQueue<Widget<? extends Object>> queue,
+			TypedLanes typedLanes, LongRingBuffer longLane) {
+		if (typedLanes != null) {
+			for (Class<?> type : typedLanes.getTypes()) {
+				BlockingQueue<Widget<?>> lane = typedLanes.lane(type);
+				metrics.addQueue(Widget.typeName(type), lane::size, lane::remainingCapacity);
+			}
+		} else {
+			metrics.addQueue("shared", queue::size, queue::remainingCapacity);
+		}
+		if (longLane != null) {
+			metrics.addQueue("long", longLane::size, longLane::remainingCapacity);
+		}
+	}
+
+	/**
+	 * Start the text endpoint if a metricsPort is set<br>
+	 * 
+	 * @param metrics
+	 *            The {@link PipelineMetrics} to serve
+	 * @return The endpoint, null without a port or if it cannot bind
+	 */
+	private static MetricsEndpoint metricsEndpoint(PipelineMetrics metrics) {
+		if (METRICS_PORT <= 0) {
+			return null;
+		}
+		try {
+			return new MetricsEndpoint(metrics, METRICS_PORT);
+		} catch (IOException e) {
+			// the run is still worth having without the endpoint
+			logger.error("Could not serve metrics on port " + METRICS_PORT, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Open the snapshot files if a snapshotMillis is set<br>
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to snapshot
+	 * @return The writer, null without an interval or if the directory cannot
+	 *         be used
+	 */
+	private static SnapshotWriter snapshotWriter(WidgetStatus widgetStatus) {
+		if (SNAPSHOT_MILLIS <= 0) {
+			return null;
+		}
+		try {
+			SnapshotWriter snapshotWriter = new SnapshotWriter(widgetStatus, Paths.get(SNAPSHOT_DIR),
+					SNAPSHOT_FILE_BYTES, SNAPSHOT_FILES);
+			logger.info("Snapshots: {}", snapshotWriter);
+			return snapshotWriter;
+		} catch (IOException e) {
+			logger.error("Could not write snapshots to " + SNAPSHOT_DIR, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Close a queue or store that holds files
+	 * 
+	 * @param resource
+	 *            The queue or store, ignored unless Closeable
+	 */
+	private static void close(Object resource) {
+		if (resource instanceof Closeable) {
+			try {
+				((Closeable) resource).close();
+			} catch (IOException e) {
+				logger.error("Error closing " + resource, e);
+			}
+		}
+	}
+
+	/**
+	 * Start the general consumers of one queue, as a fixed pool or under a
+	 * {@link ConsumerAutoscaler}
+	 * 
+	 * @param queue
+	 *            The queue to consume
+	 * @param handlers
+	 *            {@link HandlerRegistry} with the Widget types of the queue
+	 * @param count
+	 *            Number of consumers, the starting count when autoscaling
+	 * @param batchSize
+	 *            Maximum Widgets per consumer batch
+	 * @param drained
+	 *            Widgets consumed from the queue so far, for the autoscaler
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to bind
+	 * @param consumerExecutors
+	 *            List the new {@link ExecutorService} is added to
+	 * @param autoscalerExecutor
+	 *            Runs the autoscaler, null for a fixed pool
+	 */
+	private static void startConsumers(BlockingQueue<Widget<? extends Object>> queue, HandlerRegistry handlers,
+			int count, int batchSize, LongSupplier drained, WidgetStatus widgetStatus,
+			List<ExecutorService> consumerExecutors, ScheduledExecutorService autoscalerExecutor) {
+		if (autoscalerExecutor == null) {
+			consumerExecutors.add(getExecutor(Connector.GENERAL_CONSUMER, count, queue, widgetStatus,
+					consumerSettings(batchSize, null, handlers)));
+			return;
+		}
+		RetireSignal retireSignal = new RetireSignal();
+		ExecutorService consumerExecutor = EXECUTION_MODE.newExecutor(MAX_CONSUMERS);
+		consumerExecutors.add(consumerExecutor);
+		AutoscalerSettings autoscalerSettings = AutoscalerSettings.builder().workers(MIN_CONSUMERS, MAX_CONSUMERS)
+				.build();
+		ConsumerAutoscaler autoscaler = new ConsumerAutoscaler(queue,
+				newRunnable(Connector.GENERAL_CONSUMER, queue, widgetStatus,
+						consumerSettings(batchSize, retireSignal, handlers)),
+				consumerExecutor, retireSignal, drained, widgetStatus, autoscalerSettings);
+		autoscaler.start(count);
+		autoscalerExecutor.scheduleAtFixedRate(autoscaler, autoscalerSettings.getSampleMillis(),
+				autoscalerSettings.getSampleMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Build the {@link NodeRunner} of a distributed run, running the producers
+	 * and consumers of the launch options on each node<br>
+	 * 
+	 * @return The {@link NodeRunner}
+	 */
+	private static NodeRunner nodeRunner() {
+		return NodeRunner.builder().queue(QUEUE_TYPE, QUEUE_CAPACITY, WAIT_STRATEGY).remoteBatchSize(REMOTE_BATCH_SIZE)
+				.durationSeconds(DURATION_SECONDS).launcher(Main::javaCommand, COORDINATOR_OPTIONS)
+				.connectors(new NodeRunner.Connectors() {
+					@Override
+					public List<ExecutorService> runProducers(BlockingQueue<Widget<?>> queue,
+							WidgetStatus widgetStatus) {
+						return Arrays.asList(
+								getExecutor(Connector.STRING_PRODUCER, STRING_PRODUCER_COUNT, queue, widgetStatus,
+										producerSettings(STRING_BACKPRESSURE, null)),
+								getExecutor(Connector.LONG_PRODUCER, LONG_PRODUCER_COUNT, queue, widgetStatus,
+										producerSettings(LONG_BACKPRESSURE, null)));
+					}
+
+					@Override
+					public ScheduledExecutorService runConsumers(BlockingQueue<Widget<?>> queue,
+							WidgetStatus widgetStatus, List<ExecutorService> consumerExecutors) {
+						ScheduledExecutorService autoscalerExecutor = AUTOSCALE
+								? Executors.newSingleThreadScheduledExecutor()
+								: null;
+						startConsumers(queue, HandlerRegistry.defaults(), CONSUMER_COUNT, CONSUMER_BATCH_SIZE,
+								() -> drained(widgetStatus), widgetStatus, consumerExecutors, autoscalerExecutor);
+						return autoscalerExecutor;
+					}
+				}).build();
+	}
+
+	/**
+	 * Build the {@link StagePipeline} of the stages launch option<br>
+	 * Earlier stages pass Widgets on, the last one hands them to the default
+	 * handlers. Each stage is paced by its stageRate.NAME option, unthrottled
+	 * if unset.
+	 * 
+	 * @param queue
+	 *            The queue the first stage drains
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to bind
+	 * @return The pipeline, not started
+	 */
+	private static StagePipeline stagePipeline(BlockingQueue<Widget<? extends Object>> queue,
+			WidgetStatus widgetStatus) {
+		StagePipeline.Builder builder = StagePipeline.builder();
+		String[] stages = STAGES.split(",");
+		for (int i = 0; i < stages.length; i++) {
+			String[] fields = stages[i].trim().split(":");
+			String name = fields[0];
+			builder.stage(name, i == stages.length - 1 ? WidgetStage.dispatch(HandlerRegistry.defaults())
+					: WidgetStage.identity());
+			if (fields.length > 1) {
+				builder.workers(Integer.parseInt(fields[1]));
+			}
+			if (fields.length > 2) {
+				builder.batchSize(Integer.parseInt(fields[2]));
+			}
+			if (fields.length > 3) {
+				builder.bufferBatches(Integer.parseInt(fields[3]));
+			}
+			RateSpec rate = rate("stageRate." + name);
+			if (rate != null) {
+				builder.rate(rate);
+			}
+		}
+		return builder.build(queue, widgetStatus);
+	}
+
+	/**
+	 * Settings for the consumers of one queue
+	 * 
+	 * @param batchSize
+	 *            Maximum Widgets per consumer batch
+	 * @param retireSignal
+	 *            The {@link RetireSignal} of the autoscaler, null without one
+	 * @param handlers
+	 *            The {@link HandlerRegistry} of the queue
+	 * @return The {@link ConnectorSettings}
+	 */
+	private static ConnectorSettings consumerSettings(int batchSize, RetireSignal retireSignal,
+			HandlerRegistry handlers) {
+		return ConnectorSettings.builder().rate(CONSUMER_RATE).batchSize(batchSize)
+				.lingerMillis(CONSUMER_LINGER_MILLIS).retireSignal(retireSignal).handlers(handlers).build();
+	}
+
+	/**
+	 * @return The Widget types of the shared queue, Long moves to its own
+	 *         lane with primitiveLongs, pooled Strings are TextBuffers
+	 */
+	private static List<Class<?>> laneTypes() {
+		Class<?> strings = STRING_POOL_SIZE > 0 ? TextBuffer.class : String.class;
+		return PRIMITIVE_LONGS ? Collections.singletonList(strings) : Arrays.asList(strings, Long.class);
+	}
+
+	/**
+	 * Settings shared by the producers of one {@link Connector}
+	 * 
+	 * @param backpressure
+	 *            The {@link BackpressurePolicy} of the Connector
+	 * @param overflowStore
+	 *            The {@link OverflowStore} for
+	 *            {@link BackpressurePolicy#SPILL}, null otherwise
+	 * @return The {@link ConnectorSettings}
+	 */
+	private static ConnectorSettings producerSettings(BackpressurePolicy backpressure,
+			OverflowStore<Widget<?>> overflowStore) {
+		return producerSettingsBuilder(backpressure, overflowStore).build();
+	}
+
+	/**
+	 * Builder of the settings shared by the producers of one {@link Connector},
+	 * for the options only some runs set
+	 * 
+	 * @param backpressure
+	 *            The {@link BackpressurePolicy} of the Connector
+	 * @param overflowStore
+	 *            The {@link OverflowStore} for
+	 *            {@link BackpressurePolicy#SPILL}, null otherwise
+	 * @return The {@link ConnectorSettings.Builder}
+	 */
+	private static ConnectorSettings.Builder producerSettingsBuilder(BackpressurePolicy backpressure,
+			OverflowStore<Widget<?>> overflowStore) {
+		return ConnectorSettings.builder().rate(PRODUCER_RATE).backpressure(backpressure)
+				.blockTimeoutMillis(BLOCK_TIMEOUT_MILLIS).sampleEvery(SAMPLE_EVERY).overflowStore(overflowStore)
+				.stringPoolSize(STRING_POOL_SIZE);
+	}
+
+	/**
+	 * Wrap a queue in a {@link ProfilingQueue} if profileQueue is set<br>
+	 * 
+	 * @param queue
+	 *            The queue producers or consumers use
+	 * @param name
+	 *            Name of the queue in the report
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} the counts go to
+	 * @param profiled
+	 *            List the new ProfilingQueue is added to, for sampling
+	 * @return The ProfilingQueue, or the queue itself without the option
+	 */
+	private static BlockingQueue<Widget<? extends Object>> profile(BlockingQueue<Widget<? extends Object>> queue,
+			String name, WidgetStatus widgetStatus, List<ProfilingQueue> profiled) {
+		if (!PROFILE_QUEUE) {
+			return queue;
+		}
+		ProfilingQueue profilingQueue = new ProfilingQueue(queue, name, widgetStatus);
+		profiled.add(profilingQueue);
+		return profilingQueue;
+	}
+
+	/**
+	 * Open the trace of the replayTrace launch option<br>
+	 * 
+	 * @return The mapped {@link Trace}, null without the option
+	 */
+	private static Trace trace() {
+		if (REPLAY_TRACE == null) {
+			return null;
+		}
+		try {
+			Trace trace = Trace.open(Paths.get(REPLAY_TRACE));
+			logger.info("Replaying {} at speed {}", trace, REPLAY_SPEED);
+			return trace;
+		} catch (IOException e) {
+			// there is nothing to produce without it
+			throw new UncheckedIOException("Could not open " + REPLAY_TRACE, e);
+		}
+	}
+
+	/**
+	 * Create the trace file of the recordTrace launch option<br>
+	 * 
+	 * @return The {@link TraceRecorder}, null without the option or if the
+	 *         file cannot be created
+	 */
+	private static TraceRecorder traceRecorder() {
+		if (RECORD_TRACE == null) {
+			return null;
+		}
+		try {
+			TraceRecorder traceRecorder = new TraceRecorder(Paths.get(RECORD_TRACE));
+			logger.info("Recording to {}", traceRecorder.getFile());
+			return traceRecorder;
+		} catch (IOException e) {
+			logger.error("Could not record to " + RECORD_TRACE, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return The replaySpeed launch option, 0 for max
+	 */
+	private static double replaySpeed() {
+		return "max".equalsIgnoreCase(REPLAY_SPEED) ? 0 : Double.parseDouble(REPLAY_SPEED);
+	}
+
+	/**
+	 * Read the {@link BackpressurePolicy} launch option of a producer
+	 * {@link Connector}, falling back to the one for all producers<br>
+	 * 
+	 * @param connector
+	 *            The producer {@link Connector}
+	 * @return The policy, {@link BackpressurePolicy#BLOCK} if none is set
+	 */
+	private static BackpressurePolicy backpressure(Connector connector) {
+		String all = System.getProperty("backpressure", BackpressurePolicy.BLOCK.name());
+		return BackpressurePolicy.valueOf(System.getProperty("backpressure." + connector.name(), all));
+	}
+
+	/**
+	 * Producer side backpressure totals of a Widget type
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to read
+	 * @param widgetType
+	 *            Simple class name of the Widget data type
+	 * @return The totals as text
+	 */
+	private static String backpressureSummary(WidgetStatus widgetStatus, String widgetType) {
+		return "Dropped: " + widgetStatus.getDroppedSummary(widgetType) + ", Spilled: "
+				+ widgetStatus.getSpilledSummary(widgetType) + ", Blocked millis: "
+				+ TimeUnit.NANOSECONDS.toMillis(widgetStatus.getBlockedNanosSummary(widgetType));
+	}
+
+	/**
+	 * Read an optional {@link RateSpec} launch option<br>
+	 * 
+	 * @param property
+	 *            System property name
+	 * @return The parsed RateSpec, null if the property is not set
+	 */
+	private static RateSpec rate(String property) {
+		String value = System.getProperty(property);
+		return value == null ? null : RateSpec.parse(value);
+	}
+
+	/**
+	 * Wait out the warmup, then measure for the allotted time<br>
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} of the run
+	 * @return The stopped {@link Measurement}
+	 */
+	private static Measurement measure(WidgetStatus widgetStatus) {
+		if (WARMUP_SECONDS > 0) {
+			logger.info("Warming up");
+			waitForIt(WARMUP_SECONDS);
+		}
+		Measurement measurement = Measurement.start(widgetStatus);
+		waitForIt(DURATION_SECONDS);
+		return measurement.stop();
+	}
+
+	/**
+	 * Measure until every recorded producer was replayed and the consumers
+	 * took what was put<br>
+	 * The allotted time still caps the run, on top of the trace's own duration
+	 * at the replay speed.
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} of the run
+	 * @param trace
+	 *            The replayed {@link Trace}
+	 * @param replayExecutor
+	 *            Runs the {@link Connector#REPLAY_PRODUCER}s
+	 * @return The stopped {@link Measurement}
+	 */
+	private static Measurement measureReplay(WidgetStatus widgetStatus, Trace trace, ExecutorService replayExecutor) {
+		Measurement measurement = Measurement.start(widgetStatus);
+		double speed = replaySpeed();
+		long capNanos = TimeUnit.SECONDS.toNanos(DURATION_SECONDS)
+				+ (speed > 0 ? (long) (trace.getDurationNanos() / speed) : 0);
+		long deadline = System.nanoTime() + capNanos;
+		// the replaying threads end on their own, nothing else is submitted
+		replayExecutor.shutdown();
+		try {
+			boolean replayed = replayExecutor.awaitTermination(capNanos, TimeUnit.NANOSECONDS);
+			while (replayed && widgetStatus.getUnaccounted(String.class.getSimpleName())
+					+ widgetStatus.getUnaccounted(Long.class.getSimpleName()) > 0 && System.nanoTime() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+			if (System.nanoTime() >= deadline) {
+				logger.warn("Replay did not finish within {} seconds", TimeUnit.NANOSECONDS.toSeconds(capNanos));
+			}
+		} catch (InterruptedException e) {
+			logger.error("InterruptedException during replay: ", e);
+			Thread.currentThread().interrupt();
+		}
+		return measurement.stop();
+	}
+
+	/**
+	 * Write the measured phase to {@link #MEASUREMENT_FILE} if it is set
+	 * 
+	 * @param measurement
+	 *            The stopped {@link Measurement}
+	 * @param unaccounted
+	 *            Widgets neither consumed nor dropped, 0 after a full drain
+	 */
+	private static void outputMeasurement(Measurement measurement, long unaccounted) {
+		if (MEASUREMENT_FILE == null) {
+			return;
+		}
+		Properties properties = new Properties();
+		for (Map.Entry<String, String> value : measurement.toMap(unaccounted).entrySet()) {
+			properties.setProperty(value.getKey(), value.getValue());
+		}
+		try (Writer out = Files.newBufferedWriter(Paths.get(MEASUREMENT_FILE), StandardCharsets.UTF_8)) {
+			properties.store(out, "Measured phase of " + String.format("%.3f", measurement.getSeconds()) + " seconds");
+		} catch (IOException e) {
+			logger.error("Error writing " + MEASUREMENT_FILE, e);
+		}
+	}
+
 	/**
 	 * Short delay
 	 * 
@@ -100,22 +1027,21 @@ public class Main {
 	}
 
 	/**
-	 * Establish an {@link ExecutorService} based on the input parameters.
+	 * Instantiate the Runnable of a {@link Connector} via reflection.
 	 * 
 	 * @param connector
-	 *            The {@link Connector} to bind to this {@link ExecutorService}
-	 * @param threadCount
-	 *            The number of runnable threads for this
-	 *            {@link ExecutorService}
+	 *            The {@link Connector} to instantiate
 	 * @param queue
-	 *            The {@link BlockingQueue} to bind to this
-	 *            {@link ExecutorService}
+	 *            The queue to bind, an instance of
+	 *            {@link Connector#getQueueClass()}
 	 * @param widgetStatus
-	 *            The {@link WidgetStatus} to bind to each Runnable instance
-	 * @return The initialized {@link ExecutorService}
+	 *            The {@link WidgetStatus} to bind
+	 * @param settings
+	 *            The {@link ConnectorSettings} to bind
+	 * @return The Runnable, null if it could not be created
 	 */
-	private static ExecutorService getExecutor(Connector connector, int threadCount,
-			BlockingQueue<Widget<? extends Object>> queue, WidgetStatus widgetStatus) {
+	private static Runnable newRunnable(Connector connector, Object queue, WidgetStatus widgetStatus,
+			ConnectorSettings settings) {
 
 		logger.debug(connector.getConnectionType().toString());
 		logger.debug(connector.getRunnableClass().getSimpleName());
@@ -124,9 +1050,9 @@ public class Main {
 		try {
 			// instantiate the Runnable via reflection
 			Class<? extends Runnable> runnableClass = connector.getRunnableClass();
-			Constructor<? extends Runnable> constructor = runnableClass.getConstructor(BlockingQueue.class,
-					Connector.class, WidgetStatus.class);
-			runnable = constructor.newInstance(queue, connector, widgetStatus);
+			Constructor<? extends Runnable> constructor = runnableClass.getConstructor(connector.getQueueClass(),
+					Connector.class, WidgetStatus.class, ConnectorSettings.class);
+			runnable = constructor.newInstance(queue, connector, widgetStatus, settings);
 		} catch (Exception e) {
 			// Possible Exceptions: NoSuchMethodException, SecurityException,
 			// InstantiationException, IllegalAccessException,
@@ -134,8 +1060,32 @@ public class Main {
 			logger.error(e.getMessage(), e);
 			// throw e;
 		}
+		return runnable;
+	}
+
+	/**
+	 * Establish an {@link ExecutorService} based on the input parameters.
+	 * 
+	 * @param connector
+	 *            The {@link Connector} to bind to this {@link ExecutorService}
+	 * @param threadCount
+	 *            The number of runnable threads for this
+	 *            {@link ExecutorService}
+	 * @param queue
+	 *            The queue to bind to this {@link ExecutorService}, an instance
+	 *            of {@link Connector#getQueueClass()}
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to bind to each Runnable instance
+	 * @param settings
+	 *            The {@link ConnectorSettings} to bind to each Runnable instance
+	 * @return The initialized {@link ExecutorService}
+	 */
+	private static ExecutorService getExecutor(Connector connector, int threadCount, Object queue,
+			WidgetStatus widgetStatus, ConnectorSettings settings) {
 
-		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		Runnable runnable = newRunnable(connector, queue, widgetStatus, settings);
+
+		ExecutorService executor = EXECUTION_MODE.newExecutor(threadCount);
 
 		for (int i = 0; i < threadCount; i++) {
 			logger.debug("Thread: {}", i);
@@ -145,28 +1095,50 @@ public class Main {
 		return executor;
 	}
 
+	/**
+	 * Widgets the general consumers have taken from the shared queue
+	 * 
+	 * @param widgetStatus
+	 *            The {@link WidgetStatus} to read
+	 * @return The total so far
+	 */
+	private static long drained(WidgetStatus widgetStatus) {
+		long strings = widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName());
+		// with primitiveLongs the Long consumer counts come from the long lane
+		return PRIMITIVE_LONGS ? strings
+				: strings + widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName());
+	}
+
 	/**
 	 * Output the results
 	 * 
 	 * @param widgetStatus
 	 *            The {@link WidgetStatus} to output
+	 * @param unaccounted
+	 *            Widgets neither consumed nor dropped, 0 after a full drain
 	 */
-	private static void outputResults(WidgetStatus widgetStatus) {
+	private static void outputResults(WidgetStatus widgetStatus, long unaccounted) {
 		try (PrintWriter out = new PrintWriter(OUTPUT_FILE)) {
 			out.println("Processing Results:");
 			out.println(widgetStatus.toString());
 			out.print("String Widgets Produced: ");
-			out.println(widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, String.class.getSimpleName())
-					.toString());
+			out.println(widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, String.class.getSimpleName()));
 			out.print("String Widgets Consumed: ");
-			out.println(widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName())
-					.toString());
+			out.println(widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, String.class.getSimpleName()));
 			out.print("Long Widgets Produced: ");
-			out.println(
-					widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, Long.class.getSimpleName()).toString());
+			out.println(widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, Long.class.getSimpleName()));
 			out.print("Long Widgets Consumed: ");
-			out.println(
-					widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName()).toString());
+			out.println(widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, Long.class.getSimpleName()));
+			out.print("String Widgets ");
+			out.println(backpressureSummary(widgetStatus, String.class.getSimpleName()));
+			out.print("Long Widgets ");
+			out.println(backpressureSummary(widgetStatus, Long.class.getSimpleName()));
+			out.print("String Widget latency: ");
+			out.println(widgetStatus.getLatencySummary(ConnectionType.CONSUMER, String.class.getSimpleName()));
+			out.print("Long Widget latency: ");
+			out.println(widgetStatus.getLatencySummary(ConnectionType.CONSUMER, Long.class.getSimpleName()));
+			out.print("Unaccounted Widgets: ");
+			out.println(unaccounted);
 		} catch (FileNotFoundException e) {
 			logger.error("Error writing output", e);
 		}
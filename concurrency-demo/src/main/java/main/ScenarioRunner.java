@@ -0,0 +1,130 @@
+package main;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.Measurement;
+import internals.Scenario;
+
+/**
+ * Runs every point of a {@link Scenario} as a {@link Main} in its own JVM and
+ * writes one CSV row per point<br>
+ * <br>
+ * Points run one after the other so they do not compete for cores. Each runs
+ * in {@code <runner.directory>/point-<n>}, which keeps its
+ * {@code results.txt}, log and measurement. The report starts with the
+ * point number and the swept options, followed by
+ * {@link Measurement#COLUMNS} and the exit code of the JVM, and rows are
+ * flushed as points finish so a cut short sweep keeps what it measured.<br>
+ * Runner settings: {@code runner.report} (default
+ * {@code scenario-report.csv}), {@code runner.directory} (default
+ * {@code scenario}) and {@code runner.jvmOptions}, space separated.
+ */
+public class ScenarioRunner {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScenarioRunner.class);
+
+	private static final String MEASUREMENT_FILE = "measurement.properties";
+
+	/**
+	 * @param args
+	 *            The scenario file
+	 * @throws IOException
+	 *             If the scenario or the report cannot be read or written
+	 * @throws InterruptedException
+	 *             if interrupted while a point runs
+	 */
+	public static void main(String args[]) throws IOException, InterruptedException {
+		if (args.length != 1) {
+			throw new IllegalArgumentException("Usage: ScenarioRunner <scenario.properties>");
+		}
+		Scenario scenario = Scenario.load(Paths.get(args[0]));
+		Path directory = Paths.get(scenario.getRunnerSetting("directory", "scenario"));
+		Path report = Paths.get(scenario.getRunnerSetting("report", "scenario-report.csv"));
+		String jvmOptions = scenario.getRunnerSetting("jvmOptions", "").trim();
+		List<Map<String, String>> points = scenario.points();
+		logger.info("{}: {} points", scenario, points.size());
+		Files.createDirectories(directory);
+
+		List<String> header = new ArrayList<>();
+		header.add("point");
+		header.addAll(scenario.getAxes());
+		header.addAll(Measurement.COLUMNS);
+		header.add("exit_code");
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report, StandardCharsets.UTF_8))) {
+			out.println(String.join(",", header));
+			out.flush();
+			for (int i = 0; i < points.size(); i++) {
+				Map<String, String> point = points.get(i);
+				Path pointDirectory = Files.createDirectories(directory.resolve("point-" + i));
+				logger.info("Point {} of {}: {}", i + 1, points.size(), point);
+				int exitCode = run(scenario, point, jvmOptions, pointDirectory);
+				Properties measurement = measurement(pointDirectory.resolve(MEASUREMENT_FILE));
+				List<String> row = new ArrayList<>();
+				row.add(Integer.toString(i));
+				row.addAll(point.values());
+				for (String column : Measurement.COLUMNS) {
+					row.add(measurement.getProperty(column, ""));
+				}
+				row.add(Integer.toString(exitCode));
+				logger.info("Point {}: {}", i + 1, row);
+				out.println(String.join(",", row));
+				out.flush();
+			}
+		}
+		logger.info("Sweep complete. See {} for the report.", report);
+	}
+
+	/**
+	 * Run one point in a child JVM and wait for it<br>
+	 * 
+	 * @return The exit code of the JVM
+	 */
+	private static int run(Scenario scenario, Map<String, String> point, String jvmOptions, Path directory)
+			throws IOException, InterruptedException {
+		List<String> options = new ArrayList<>();
+		if (!jvmOptions.isEmpty()) {
+			options.addAll(Arrays.asList(jvmOptions.split("\\s+")));
+		}
+		for (Map.Entry<String, String> option : scenario.getOptions().entrySet()) {
+			options.add("-D" + option.getKey() + "=" + option.getValue());
+		}
+		for (Map.Entry<String, String> option : point.entrySet()) {
+			options.add("-D" + option.getKey() + "=" + option.getValue());
+		}
+		options.add("-DmeasurementFile=" + MEASUREMENT_FILE);
+		Files.deleteIfExists(directory.resolve(MEASUREMENT_FILE));
+		Process process = new ProcessBuilder(Main.javaCommand(options)).directory(directory.toFile())
+				.redirectErrorStream(true).redirectOutput(directory.resolve("point.log").toFile()).start();
+		return process.waitFor();
+	}
+
+	/**
+	 * @return The measurement of a point, empty if the point wrote none
+	 */
+	private static Properties measurement(Path file) throws IOException {
+		Properties properties = new Properties();
+		if (Files.exists(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+		} else {
+			logger.error("Point wrote no measurement, see {}", file.resolveSibling("point.log"));
+		}
+		return properties;
+	}
+
+}
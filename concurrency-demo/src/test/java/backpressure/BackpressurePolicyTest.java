@@ -0,0 +1,112 @@
+package backpressure;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import internals.BackpressurePolicy;
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.InMemoryOverflowStore;
+import internals.LongProducer;
+import internals.OverflowStore;
+import internals.RateSpec;
+import internals.StringProducer;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class BackpressurePolicyTest {
+
+	private static final String STRING = String.class.getSimpleName();
+
+	private final BlockingQueue<Widget<String>> queue = new LinkedBlockingQueue<>(10);
+	private final WidgetStatus widgetStatus = new WidgetStatus();
+
+	@Test
+	public void dropNewestKeepsTheFirstWidgets() throws InterruptedException {
+		produce(ConnectorSettings.builder().backpressure(BackpressurePolicy.DROP_NEWEST));
+		Assert.assertEquals("Queue not full", 10, queue.size());
+		Assert.assertTrue("Nothing dropped", widgetStatus.getDroppedSummary(STRING) > 0);
+		Assert.assertEquals("Produced Widgets unaccounted for", produced(),
+				queue.size() + widgetStatus.getDroppedSummary(STRING));
+		Assert.assertTrue("Oldest Widget was dropped", queue.peek().get().startsWith("String0-"));
+	}
+
+	@Test
+	public void dropOldestKeepsTheLastWidgets() throws InterruptedException {
+		produce(ConnectorSettings.builder().backpressure(BackpressurePolicy.DROP_OLDEST));
+		Assert.assertEquals("Produced Widgets unaccounted for", produced(),
+				queue.size() + widgetStatus.getDroppedSummary(STRING));
+		Assert.assertFalse("Oldest Widget kept", queue.peek().get().startsWith("String0-"));
+	}
+
+	@Test
+	public void dropOldestChargesTheProducerOfTheVictim() throws InterruptedException {
+		BlockingQueue<Widget<?>> shared = new LinkedBlockingQueue<>(10);
+		ConnectorSettings settings = ConnectorSettings.builder().backpressure(BackpressurePolicy.DROP_OLDEST)
+				.rate(RateSpec.unthrottled()).build();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		executor.execute(new StringProducer(typed(shared), Connector.STRING_PRODUCER, widgetStatus, settings));
+		executor.execute(new LongProducer(typed(shared), Connector.LONG_PRODUCER, widgetStatus, settings));
+		TimeUnit.MILLISECONDS.sleep(200);
+		executor.shutdownNow();
+		Assert.assertTrue("Producers did not stop", executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals("Drops registered keys of their own", 2, widgetStatus.getWidgetKeyCount());
+		for (int keyId = 0; keyId < widgetStatus.getWidgetKeyCount(); keyId++) {
+			String type = widgetStatus.getWidgetKey(keyId).getWidgetType();
+			long queued = shared.stream().filter(widget -> widget.getTypeName().equals(type)).count();
+			Assert.assertTrue("Nothing dropped for " + type, widgetStatus.getDropped(keyId) > 0);
+			Assert.assertEquals("Produced " + type + " Widgets unaccounted for", widgetStatus.getWidgetCount(keyId),
+					queued + widgetStatus.getDropped(keyId));
+		}
+	}
+
+	@Test
+	public void blockTimeoutCountsBlockedTime() throws InterruptedException {
+		produce(ConnectorSettings.builder().backpressure(BackpressurePolicy.BLOCK_TIMEOUT).blockTimeoutMillis(5));
+		Assert.assertTrue("Nothing dropped", widgetStatus.getDroppedSummary(STRING) > 0);
+		Assert.assertTrue("No blocked time", widgetStatus.getBlockedNanosSummary(STRING) > 0);
+	}
+
+	@Test
+	public void spillFillsTheOverflowStore() throws InterruptedException {
+		OverflowStore<Widget<?>> store = new InMemoryOverflowStore<>(1_000_000);
+		produce(ConnectorSettings.builder().backpressure(BackpressurePolicy.SPILL).overflowStore(store));
+		Assert.assertEquals("Spilled count differs from the store", store.size(),
+				widgetStatus.getSpilledSummary(STRING));
+		Assert.assertEquals("Produced Widgets unaccounted for", produced(), queue.size() + store.size());
+		Assert.assertEquals("Drops while spilling", 0, widgetStatus.getDroppedSummary(STRING));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void spillNeedsAStore() {
+		ConnectorSettings.builder().backpressure(BackpressurePolicy.SPILL).build();
+	}
+
+	private void produce(ConnectorSettings.Builder settings) throws InterruptedException {
+		StringProducer producer = new StringProducer(queue, Connector.STRING_PRODUCER, widgetStatus,
+				settings.rate(RateSpec.unthrottled()).build());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.execute(producer);
+		TimeUnit.MILLISECONDS.sleep(200);
+		executor.shutdownNow();
+		Assert.assertTrue("Producer did not stop", executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> BlockingQueue<Widget<T>> typed(BlockingQueue<Widget<?>> queue) {
+		// producers of both types share the queue, as in Main
+		return (BlockingQueue) queue;
+	}
+
+	private long produced() {
+		return widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, STRING);
+	}
+
+}
@@ -0,0 +1,97 @@
+package batch;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.Consumer;
+import internals.RateSpec;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class ConsumerBatchTest {
+
+	// the only consumer of a fresh WidgetStatus registers first
+	private static final int CONSUMER_ID = 0;
+
+	@Test
+	public void batchesStopAtTheBatchSize() throws InterruptedException {
+		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+		for (long i = 0; i < 100; i++) {
+			queue.add(new Widget<>(i));
+		}
+		queue.add(Widget.endOfStream());
+		WidgetStatus widgetStatus = consume(queue, 16, 0);
+		Assert.assertEquals("Wrong Long count", 100, consumed(widgetStatus));
+		// 100 Widgets and the marker, six full batches and a last one of five
+		Assert.assertEquals("Batches not filled up to the batch size", 7, widgetStatus.getBatches(CONSUMER_ID));
+		Assert.assertEquals("Wrong batched Widgets", 101, widgetStatus.getBatchWidgets(CONSUMER_ID));
+	}
+
+	@Test
+	public void lingerWaitsForAPartialBatch() throws InterruptedException {
+		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+		ExecutorService producer = Executors.newSingleThreadExecutor();
+		producer.execute(() -> {
+			try {
+				// trickling in well within the linger of the first
+				for (long i = 0; i < 5; i++) {
+					queue.put(new Widget<>(i));
+					TimeUnit.MILLISECONDS.sleep(20);
+				}
+				// well after it
+				TimeUnit.MILLISECONDS.sleep(1_500);
+				queue.put(Widget.endOfStream());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.shutdown();
+		WidgetStatus widgetStatus = consume(queue, 10, 500);
+		Assert.assertEquals("Wrong Long count", 5, consumed(widgetStatus));
+		// one batch of the five, one of the marker
+		Assert.assertEquals("Linger did not gather the partial batch", 2, widgetStatus.getBatches(CONSUMER_ID));
+		Assert.assertEquals("Wrong batched Widgets", 6, widgetStatus.getBatchWidgets(CONSUMER_ID));
+	}
+
+	@Test
+	public void batchSizeOneTakesLoneWidgets() throws InterruptedException {
+		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+		for (long i = 0; i < 20; i++) {
+			queue.add(new Widget<>(i));
+		}
+		queue.add(Widget.endOfStream());
+		// a linger has nothing to fill with a batch size of 1
+		WidgetStatus widgetStatus = consume(queue, 1, 500);
+		Assert.assertEquals("Wrong Long count", 20, consumed(widgetStatus));
+		Assert.assertEquals("Widgets were batched", 21, widgetStatus.getBatches(CONSUMER_ID));
+		Assert.assertEquals("Wrong batched Widgets", 21, widgetStatus.getBatchWidgets(CONSUMER_ID));
+		Assert.assertTrue("End of stream not put back", queue.take().isEndOfStream());
+	}
+
+	// one unthrottled consumer, run until it stops on the end of stream
+	private static WidgetStatus consume(BlockingQueue<Widget<? extends Object>> queue, int batchSize,
+			long lingerMillis) throws InterruptedException {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ConnectorSettings settings = ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(batchSize)
+				.lingerMillis(lingerMillis).build();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.execute(new Consumer(queue, Connector.GENERAL_CONSUMER, widgetStatus, settings));
+		executor.shutdown();
+		Assert.assertTrue("Consumer did not reach the end of stream", executor.awaitTermination(10, TimeUnit.SECONDS));
+		return widgetStatus;
+	}
+
+	private static long consumed(WidgetStatus widgetStatus) {
+		return widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "Long");
+	}
+
+}
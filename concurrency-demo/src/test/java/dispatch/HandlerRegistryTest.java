@@ -0,0 +1,116 @@
+package dispatch;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.Consumer;
+import internals.HandlerRegistry;
+import internals.RateSpec;
+import internals.TextBuffer;
+import internals.Widget;
+import internals.WidgetPool;
+import internals.WidgetStatus;
+
+public class HandlerRegistryTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(HandlerRegistryTest.class);
+
+	@Test
+	public void registryKeepsOrderAndFilters() {
+		HandlerRegistry defaults = HandlerRegistry.defaults();
+		Assert.assertEquals("Wrong default types", "String,Long", defaults.toString());
+		Assert.assertNotNull("No default String handler", defaults.getHandler(String.class));
+		Assert.assertNull("Handler for an unregistered type", defaults.getHandler(Integer.class));
+		HandlerRegistry longs = defaults.only(Collections.<Class<?>> singleton(Long.class));
+		Assert.assertEquals("Filter kept the wrong types", "Long", longs.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyRegistryRejected() {
+		HandlerRegistry.builder().build();
+	}
+
+	@Test
+	public void consumerDispatchesRegisteredTypes() throws InterruptedException {
+		List<Object> handled = new CopyOnWriteArrayList<>();
+		HandlerRegistry handlers = HandlerRegistry.builder().register(String.class, HandlerRegistry.logging(String.class))
+				.register(Integer.class, widget -> handled.add(widget.get())).build();
+		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+		queue.add(new Widget<>(1));
+		queue.add(new Widget<>("one"));
+		// no handler, logged and skipped
+		queue.add(new Widget<>(1.5d));
+		queue.add(new Widget<>(2));
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ConnectorSettings settings = ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(4)
+				.handlers(handlers).build();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.execute(new Consumer(queue, Connector.GENERAL_CONSUMER, widgetStatus, settings));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!queue.isEmpty() || consumed(widgetStatus, Integer.class) < 2) {
+			Assert.assertTrue("Consumer did not finish the queue", System.nanoTime() < deadline);
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		executor.shutdownNow();
+		Assert.assertTrue("Consumer did not stop", executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals("Integer handler saw the wrong Widgets", Arrays.asList(1, 2), handled);
+		Assert.assertEquals("Wrong Integer count", 2, consumed(widgetStatus, Integer.class));
+		Assert.assertEquals("Wrong String count", 1, consumed(widgetStatus, String.class));
+		Assert.assertEquals("Unregistered type was counted", 0, consumed(widgetStatus, Double.class));
+		Assert.assertEquals("Unregistered Long got a counter", 0, consumed(widgetStatus, Long.class));
+		Assert.assertEquals("Wrong Integer latency count", 2,
+				widgetStatus.getLatencySummary(ConnectionType.CONSUMER, "Integer").getTotalCount());
+	}
+
+	@Test
+	public void throwingHandlerFailsOnlyItsWidget() throws InterruptedException {
+		HandlerRegistry handlers = HandlerRegistry.builder().register(Integer.class, widget -> {
+			if (widget.get() % 2 == 0) {
+				throw new IllegalArgumentException("Even " + widget.get());
+			}
+		}).build();
+		WidgetPool pool = new WidgetPool(2, 16);
+		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+		for (int i = 0; i < 10; i++) {
+			queue.add(new Widget<>(i));
+		}
+		// no handler for pooled text, it must still go back to the pool
+		Widget<TextBuffer> text = pool.acquire(System.nanoTime());
+		text.get().append("unexpected");
+		queue.add(text);
+		queue.add(Widget.endOfStream());
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ConnectorSettings settings = ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(4)
+				.handlers(handlers).build();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.execute(new Consumer(queue, Connector.GENERAL_CONSUMER, widgetStatus, settings));
+		executor.shutdown();
+		Assert.assertTrue("Consumer did not reach the end of stream", executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals("Wrong Integer count", 10, consumed(widgetStatus, Integer.class));
+		Assert.assertEquals("Wrong failure count", 5, widgetStatus.getFailedSummary("Integer"));
+		Assert.assertTrue("Consumer stopped without a stop time", widgetStatus.isStopped(0));
+		Assert.assertEquals("Unexpected pooled Widget not recycled", 1, pool.size());
+		Assert.assertTrue("End of stream not put back", queue.take().isEndOfStream());
+	}
+
+	private static long consumed(WidgetStatus widgetStatus, Class<?> type) {
+		return widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, type.getSimpleName());
+	}
+
+}
@@ -0,0 +1,181 @@
+package distributed;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.time.ZonedDateTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.FrameChannel;
+import internals.LanedQueue;
+import internals.RemoteReceiver;
+import internals.RemoteSender;
+import internals.RunnableKey;
+import internals.Widget;
+import internals.WidgetStatus;
+import internals.WidgetStatusKey;
+import internals.WireCodec;
+
+public class RemoteTransportTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(RemoteTransportTest.class);
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+	private FrameChannel sending;
+	private FrameChannel receiving;
+
+	@Before
+	public void connect() throws IOException {
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			sending = FrameChannel.connect((InetSocketAddress) server.getLocalAddress());
+			receiving = new FrameChannel(server.accept());
+		}
+	}
+
+	@After
+	public void close() throws IOException {
+		executor.shutdownNow();
+		sending.close();
+		receiving.close();
+	}
+
+	@Test
+	public void widgetsArriveInOrderWithTheirCreationTime() throws InterruptedException {
+		BlockingQueue<Widget<?>> source = new LinkedBlockingQueue<>();
+		for (long i = 0; i < 1000; i++) {
+			source.add(i % 2 == 0 ? new Widget<>(i, i * 3) : new Widget<>("String-" + i + "-\u00e9", i * 3));
+		}
+		source.add(Widget.endOfStream());
+		BlockingQueue<Widget<?>> target = new LinkedBlockingQueue<>();
+		RemoteReceiver receiver = new RemoteReceiver(target, receiving, 100);
+		executor.execute(new RemoteSender(source, sending, 16));
+		executor.execute(receiver);
+		executor.shutdown();
+		Assert.assertTrue("Streams did not end", executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertTrue("End frame missing", receiver.isEnded());
+		Assert.assertEquals("Widgets lost", 1000, target.size());
+		for (long i = 0; i < 1000; i++) {
+			Widget<?> widget = target.take();
+			Assert.assertEquals("Value differs", i % 2 == 0 ? (Object) i : "String-" + i + "-\u00e9", widget.get());
+			Assert.assertEquals("Creation time differs", i * 3, widget.getCreatedNanos());
+		}
+		// put back for the other senders of the queue
+		Assert.assertTrue("End of stream not put back", source.take().isEndOfStream());
+	}
+
+	@Test
+	public void senderStaysWithinTheCredit() throws InterruptedException {
+		BlockingQueue<Widget<?>> source = new LinkedBlockingQueue<>();
+		for (long i = 0; i < 1000; i++) {
+			source.add(new Widget<>(i));
+		}
+		// a full target keeps the receiver from returning credit
+		BlockingQueue<Widget<?>> target = new LinkedBlockingQueue<>(10);
+		RemoteSender sender = new RemoteSender(source, sending, 4);
+		executor.execute(sender);
+		executor.execute(new RemoteReceiver(target, receiving, 25));
+		TimeUnit.MILLISECONDS.sleep(300);
+		// 10 queued, one batch of up to 4 held by the blocked put, and the credit of what was put
+		Assert.assertEquals("Target not full", 10, target.size());
+		Assert.assertTrue("Sent past the credit: " + sender.getSent(), sender.getSent() <= 25 + 10);
+		target.clear();
+		TimeUnit.MILLISECONDS.sleep(300);
+		Assert.assertTrue("Credit not returned", sender.getSent() > 25);
+	}
+
+	@Test
+	public void senderDrainsEveryLaneBeforeTheEnd() throws Exception {
+		LanedQueue<Widget<?>> source = new LanedQueue<>(1024);
+		ExecutorService producers = Executors.newFixedThreadPool(2);
+		try {
+			// a lane per producer thread, filled before the sender starts
+			for (int p = 0; p < 2; p++) {
+				producers.submit(() -> {
+					for (long i = 0; i < 1000; i++) {
+						source.put(new Widget<>(i));
+					}
+					return null;
+				}).get();
+			}
+		} finally {
+			producers.shutdownNow();
+		}
+		// in this thread's own lane
+		source.put(Widget.endOfStream());
+		BlockingQueue<Widget<?>> target = new LinkedBlockingQueue<>();
+		RemoteReceiver receiver = new RemoteReceiver(target, receiving, 100);
+		executor.execute(new RemoteSender(source, sending, 16));
+		executor.execute(receiver);
+		executor.shutdown();
+		Assert.assertTrue("Streams did not end", executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertTrue("End frame missing", receiver.isEnded());
+		Assert.assertEquals("Widgets left in the producer lanes", 2000, target.size());
+		Assert.assertTrue("End of stream not put back", source.take().isEndOfStream());
+	}
+
+	@Test
+	public void pollOnlyReadsFramesThatArrived() throws IOException {
+		Assert.assertEquals("Poll without a frame", FrameChannel.NONE, sending.poll());
+		receiving.send(FrameChannel.CREDIT, 7);
+		receiving.send(FrameChannel.CREDIT, 9);
+		// loopback delivers promptly, give it a moment all the same
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		byte type;
+		while ((type = sending.poll()) == FrameChannel.NONE && System.nanoTime() < deadline) {
+			Thread.yield();
+		}
+		Assert.assertEquals("Wrong frame type", FrameChannel.CREDIT, type);
+		Assert.assertEquals("Wrong payload", 7, sending.payload().getInt());
+		// still blocking afterwards
+		Assert.assertEquals("Wrong frame type", FrameChannel.CREDIT, sending.receive());
+		Assert.assertEquals("Wrong payload", 9, sending.payload().getInt());
+		Assert.assertEquals("Poll without a frame", FrameChannel.NONE, sending.poll());
+	}
+
+	@Test
+	public void statusesMergeWithoutIdCollisions() throws IOException {
+		WidgetStatus merged = new WidgetStatus();
+		for (int node = 1; node <= 2; node++) {
+			WidgetStatus widgetStatus = new WidgetStatus();
+			int produced = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "Long", 7));
+			int consumed = widgetStatus.register(new WidgetStatusKey(ConnectionType.CONSUMER, "Long", 7));
+			int runnableId = widgetStatus.register(new RunnableKey(ConnectionType.CONSUMER, "Consumer", 7));
+			widgetStatus.addWidgetCount(produced, 100 * node);
+			widgetStatus.addDropped(produced, node);
+			widgetStatus.addBlockedNanos(produced, 1000);
+			widgetStatus.addWidgetCount(consumed, 100 * node - node);
+			widgetStatus.latencyHistogram(consumed).record(TimeUnit.MILLISECONDS.toNanos(node));
+			widgetStatus.putStopTime(runnableId, ZonedDateTime.now());
+			WireCodec.encodeStatus(sending, widgetStatus);
+			Assert.assertEquals("Not a status frame", FrameChannel.STATUS, receiving.receive());
+			WireCodec.mergeStatus(receiving.payload(), merged, node * 1_000_000);
+		}
+		Assert.assertEquals("Keys collided", 4, merged.getWidgetKeyCount());
+		Assert.assertEquals("Produced differs", 300, merged.getWidgetCountSummary(ConnectionType.PRODUCER, "Long"));
+		Assert.assertEquals("Consumed differs", 297, merged.getWidgetCountSummary(ConnectionType.CONSUMER, "Long"));
+		Assert.assertEquals("Dropped differs", 3, merged.getDroppedSummary("Long"));
+		Assert.assertEquals("Blocked differs", 2000, merged.getBlockedNanosSummary("Long"));
+		Assert.assertEquals("Unaccounted", 0, merged.getUnaccounted("Long"));
+		Assert.assertEquals("Latencies lost", 2, merged.getLatencySummary(ConnectionType.CONSUMER, "Long").getTotalCount());
+		Assert.assertTrue("Max lost", merged.getLatencySummary(ConnectionType.CONSUMER, "Long")
+				.getMax() >= TimeUnit.MILLISECONDS.toNanos(2));
+		Assert.assertNotNull("Stop time lost",
+				merged.getStopTime(new RunnableKey(ConnectionType.CONSUMER, "Consumer", 2_000_007)));
+	}
+
+}
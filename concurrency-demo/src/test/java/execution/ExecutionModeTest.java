@@ -0,0 +1,45 @@
+package execution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import internals.ExecutionMode;
+
+public class ExecutionModeTest {
+
+	@Test
+	public void platformRunsTasks() throws Exception {
+		assertRunsTasks(ExecutionMode.PLATFORM);
+	}
+
+	@Test
+	public void virtualRunsTasksFromJava21() throws Exception {
+		Assume.assumeTrue("Needs a Java 21 runtime", Runtime.version().feature() >= 21);
+		assertRunsTasks(ExecutionMode.VIRTUAL);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void virtualFailsCleanlyBeforeJava21() {
+		Assume.assumeTrue("Runtime has virtual threads", Runtime.version().feature() < 21);
+		ExecutionMode.VIRTUAL.newExecutor(2);
+	}
+
+	private static void assertRunsTasks(ExecutionMode mode) throws Exception {
+		ExecutorService executor = mode.newExecutor(2);
+		try {
+			Future<String> first = executor.submit(() -> Thread.currentThread().getName());
+			Future<String> second = executor.submit(() -> "done");
+			Assert.assertNotNull("First task did not run", first.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals("Second task did not run", "done", second.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertTrue(mode + " executor did not stop", executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+}
@@ -0,0 +1,136 @@
+package flow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.FlowConsumer;
+import internals.FlowProducer;
+import internals.RateSpec;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class FlowPipelineTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(FlowPipelineTest.class);
+
+	private static final ConnectorSettings UNTHROTTLED = ConnectorSettings.builder().rate(RateSpec.unthrottled())
+			.batchSize(16).build();
+
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+	@After
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void producerSendsNoMoreThanRequested() throws InterruptedException {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		FlowProducer producer = new FlowProducer(Connector.LONG_PRODUCER, 1, widgetStatus, UNTHROTTLED, scheduler);
+		Recorder recorder = new Recorder();
+		producer.subscribe(recorder);
+		recorder.subscription.get().request(10);
+		TimeUnit.MILLISECONDS.sleep(100);
+		Assert.assertEquals("Sent past the credit", 10, recorder.received.get());
+		recorder.subscription.get().request(1000);
+		TimeUnit.MILLISECONDS.sleep(100);
+		Assert.assertEquals("Sent past the credit", 1010, recorder.received.get());
+		Assert.assertEquals("Produced count differs", 1010,
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, "Long"));
+		producer.stop();
+		Assert.assertTrue("Not completed", recorder.completed.await(1, TimeUnit.SECONDS));
+		Assert.assertNull("Completed with an error", recorder.error.get());
+	}
+
+	@Test
+	public void protocolViolationsEndInErrors() throws InterruptedException {
+		FlowProducer producer = new FlowProducer(Connector.STRING_PRODUCER, 1, new WidgetStatus(), UNTHROTTLED,
+				scheduler);
+		Recorder first = new Recorder();
+		producer.subscribe(first);
+		Recorder second = new Recorder();
+		producer.subscribe(second);
+		Assert.assertTrue("Second subscriber accepted", second.error.get() instanceof IllegalStateException);
+		first.subscription.get().request(0);
+		Assert.assertTrue("request(0) accepted", first.completed.await(1, TimeUnit.SECONDS));
+		Assert.assertTrue("Wrong error", first.error.get() instanceof IllegalArgumentException);
+	}
+
+	@Test
+	public void consumersDrainEveryProducer() throws InterruptedException {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		List<FlowConsumer> consumers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			consumers.add(new FlowConsumer(i + 1, widgetStatus, UNTHROTTLED, 32, scheduler));
+		}
+		List<FlowProducer> producers = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			FlowProducer producer = new FlowProducer(i < 3 ? Connector.STRING_PRODUCER : Connector.LONG_PRODUCER,
+					i + 1, widgetStatus, UNTHROTTLED, scheduler);
+			producers.add(producer);
+			producer.subscribe(consumers.get(i % 2).subscriber());
+		}
+		TimeUnit.MILLISECONDS.sleep(300);
+		producers.forEach(FlowProducer::stop);
+		for (FlowConsumer consumer : consumers) {
+			Assert.assertTrue("Consumer did not finish: " + consumer, consumer.awaitTermination(5, TimeUnit.SECONDS));
+		}
+		for (String type : new String[] { "String", "Long" }) {
+			long consumed = widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, type);
+			Assert.assertTrue("No " + type + " consumed", consumed > 0);
+			Assert.assertEquals(type + " Widgets lost", 0, widgetStatus.getUnaccounted(type));
+			Assert.assertEquals("Latency not recorded for every " + type, consumed,
+					widgetStatus.getLatencySummary(ConnectionType.CONSUMER, type).getTotalCount());
+		}
+	}
+
+	/**
+	 * Counts what arrives, requests nothing by itself
+	 */
+	private static final class Recorder implements Flow.Subscriber<Widget<?>> {
+
+		private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+		private final AtomicLong received = new AtomicLong();
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+		private final CountDownLatch completed = new CountDownLatch(1);
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription.set(subscription);
+		}
+
+		@Override
+		public void onNext(Widget<?> widget) {
+			received.incrementAndGet();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error.set(throwable);
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.FairLanes;
+import internals.FairShare;
+import internals.QueueType;
+import internals.WaitStrategy;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class FairLanesTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(FairLanesTest.class);
+
+	private static final List<Class<?>> TYPES = Arrays.asList(String.class, Long.class);
+
+	@Test
+	public void fairShareRoundTrip() {
+		FairShare fairShare = FairShare.parse("Long=2@0, String=1@1");
+		Assert.assertEquals("Wrong Long weight", 2, fairShare.getWeight("Long"));
+		Assert.assertEquals("Wrong String class", 1, fairShare.getPriority("String"));
+		Assert.assertEquals("Unlisted type not equal share", 1, fairShare.getWeight("Integer"));
+		Assert.assertEquals("toString does not round trip", fairShare.toString(),
+				FairShare.parse(fairShare.toString()).toString());
+		Assert.assertEquals("Default weight not filled in", "Long=3@0", FairShare.parse("Long=3").toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroWeightRejected() {
+		FairShare.parse("Long=0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fairShareForMissingLaneRejected() {
+		new FairLanes(Arrays.asList(String.class), FairShare.parse("Long=2"), QueueType.LINKED, 10,
+				WaitStrategy.PARK, new WidgetStatus());
+	}
+
+	@Test
+	public void weightsSplitEachRound() {
+		FairLanes lanes = filled(FairShare.parse("String=1,Long=2"), 30);
+		int longs = 0;
+		for (int i = 0; i < 30; i++) {
+			if (lanes.poll().get() instanceof Long) {
+				longs++;
+			}
+		}
+		Assert.assertEquals("Long did not get two of every three", 20, longs);
+		// Long ran out first, String takes the rest
+		List<Widget<?>> drained = new ArrayList<>();
+		Assert.assertEquals("Wrong drain count", 30, lanes.drainTo(drained));
+		Assert.assertEquals("Wrong Widget after Long ran out", "String", drained.get(29).get().getClass().getSimpleName());
+		Assert.assertTrue("Lanes not empty", lanes.isEmpty());
+	}
+
+	@Test
+	public void higherClassServedFirst() {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		FairLanes lanes = new FairLanes(TYPES, FairShare.parse("Long=1@0,String=5@1"), QueueType.RING, 16,
+				WaitStrategy.PARK, widgetStatus);
+		for (int i = 0; i < 10; i++) {
+			lanes.offer(new Widget<>("s" + i));
+			lanes.offer(new Widget<>((long) i));
+		}
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals("Lower class served before the higher class was empty", (long) i,
+					lanes.poll().get());
+		}
+		Assert.assertEquals("String lane out of order", "s0", lanes.poll().get());
+		Assert.assertEquals("Wait not recorded per lane", 10,
+				widgetStatus.dispatchWaitHistogram("Long class=0 weight=1").getTotalCount());
+		Assert.assertTrue("Dispatch wait missing from the results",
+				widgetStatus.toString().contains("Dispatch Wait (created to dispatched):"));
+	}
+
+	@Test
+	public void multiProducerMultiConsumer() throws Exception {
+		FairLanes lanes = new FairLanes(TYPES, FairShare.parse("String=1,Long=3"), QueueType.LINKED, 32,
+				WaitStrategy.PARK, new WidgetStatus());
+		int perProducer = 10_000;
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		AtomicLong sum = new AtomicLong();
+		List<Future<?>> futures = new ArrayList<>();
+		futures.add(executor.submit(() -> {
+			for (long i = 1; i <= perProducer; i++) {
+				lanes.put(new Widget<>(i));
+			}
+			return null;
+		}));
+		futures.add(executor.submit(() -> {
+			for (int i = 1; i <= perProducer; i++) {
+				lanes.put(new Widget<>(Integer.toString(i)));
+			}
+			return null;
+		}));
+		for (int c = 0; c < 2; c++) {
+			futures.add(executor.submit(() -> {
+				List<Widget<?>> batch = new ArrayList<>();
+				Widget<?> widget;
+				while ((widget = lanes.poll(200, TimeUnit.MILLISECONDS)) != null) {
+					batch.add(widget);
+					lanes.drainTo(batch, 8);
+					for (Widget<?> w : batch) {
+						Object value = w.get();
+						sum.addAndGet(value instanceof Long ? (Long) value : Long.parseLong((String) value));
+					}
+					batch.clear();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+		Assert.assertEquals("Lost or duplicated Widgets", 2 * ((long) perProducer * (perProducer + 1) / 2), sum.get());
+		Assert.assertEquals("Count out of step with the lanes", 0, lanes.size());
+	}
+
+	private static FairLanes filled(FairShare fairShare, int perType) {
+		FairLanes lanes = new FairLanes(TYPES, fairShare, QueueType.LINKED, 100, WaitStrategy.PARK,
+				new WidgetStatus());
+		for (int i = 0; i < perType; i++) {
+			lanes.offer(new Widget<>("s" + i));
+			lanes.offer(new Widget<>((long) i));
+		}
+		return lanes;
+	}
+
+}
@@ -0,0 +1,165 @@
+package queue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import internals.JournalQueue;
+import internals.Widget;
+
+public class JournalQueueTest {
+
+	private static final int PRODUCERS = 4;
+	private static final int CONSUMERS = 3;
+	private static final int PER_PRODUCER = 20_000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripsStringsAndLongs() throws Exception {
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			queue.put(new Widget<>("h\u00e9llo", 42L));
+			queue.put(new Widget<>(7L, 43L));
+			Assert.assertEquals("Wrong size", 2, queue.size());
+			Widget<?> first = queue.poll();
+			Assert.assertEquals("String not preserved", "h\u00e9llo", first.get());
+			Assert.assertEquals("Stamp not preserved", 42L, first.getCreatedNanos());
+			Assert.assertEquals("Long not preserved", 7L, queue.poll().get());
+			Assert.assertNull("Poll on empty journal returned a Widget", queue.poll());
+			Assert.assertNull("Timed poll on empty journal returned a Widget",
+					queue.poll(10, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherTypes() {
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			queue.offer(new Widget<>(1.5d));
+		}
+	}
+
+	@Test
+	public void rollsAndDeletesSegmentsWithinTheLimit() throws Exception {
+		File dir = folder.getRoot();
+		// 21 bytes per Long record, 5 fit a 128 byte segment with room for its end marker
+		try (JournalQueue queue = new JournalQueue(dir.toPath(), 128, 3, 1)) {
+			long offered = 0;
+			while (queue.offer(new Widget<>(offered))) {
+				offered++;
+			}
+			Assert.assertEquals("Wrong number of records in 3 segments", 15, offered);
+			Assert.assertEquals("Full journal reports room", 0, queue.remainingCapacity());
+			Assert.assertFalse("Timed offer on full journal succeeded",
+					queue.offer(new Widget<>(-1L), 10, TimeUnit.MILLISECONDS));
+			for (long i = 0; i < 7; i++) {
+				Assert.assertEquals("Records out of order", i, queue.poll().get());
+			}
+			Assert.assertEquals("Consumed segment not deleted", 2, dir.list((d, name) -> name.endsWith(".seg")).length);
+			Assert.assertTrue("No room after a segment was freed", queue.offer(new Widget<>(offered)));
+		}
+	}
+
+	@Test
+	public void replaysUnconsumedRecordsAfterReopen() throws Exception {
+		File dir = folder.getRoot();
+		try (JournalQueue queue = new JournalQueue(dir.toPath(), 256, 8, 1000)) {
+			for (long i = 0; i < 50; i++) {
+				queue.put(new Widget<>(i));
+			}
+			for (long i = 0; i < 20; i++) {
+				queue.poll();
+			}
+		}
+		try (JournalQueue queue = new JournalQueue(dir.toPath(), 256, 8, 1000)) {
+			Assert.assertEquals("Wrong replay count", 30, queue.size());
+			Assert.assertEquals("Replay did not resume at the read position", 20L, queue.peek().get());
+			queue.put(new Widget<>(50L));
+			for (long i = 20; i <= 50; i++) {
+				Assert.assertEquals("Records out of order after replay", i, queue.poll().get());
+			}
+			Assert.assertTrue("Records left after replay", queue.isEmpty());
+		}
+	}
+
+	@Test
+	public void locksItsDirectoryUntilClosed() throws Exception {
+		File dir = folder.getRoot();
+		try (JournalQueue queue = new JournalQueue(dir.toPath())) {
+			queue.put(new Widget<>(5L));
+			try (JournalQueue second = new JournalQueue(dir.toPath())) {
+				Assert.fail("Second journal opened on a locked directory");
+			} catch (IllegalStateException expected) {
+				// the first one keeps the directory
+			}
+			Assert.assertEquals("Failed open disturbed the journal", 5L, queue.poll().get());
+		}
+		try (JournalQueue queue = new JournalQueue(dir.toPath())) {
+			Assert.assertEquals("Closed journal did not release its directory", 0, queue.size());
+		}
+	}
+
+	@Test
+	public void drainHandsOverMappedBytes() throws Exception {
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			queue.put(new Widget<>("abc"));
+			queue.put(new Widget<>(9L));
+			List<String> seen = new ArrayList<>();
+			int drained = queue.drain((type, createdNanos, payload) -> seen.add(describe(type, payload)), 10);
+			Assert.assertEquals("Wrong drain count", 2, drained);
+			Assert.assertEquals("Wrong records", "[S3, L9]", seen.toString());
+			Assert.assertEquals("Drain left records behind", 0, queue.size());
+		}
+	}
+
+	@Test
+	public void multiProducerMultiConsumer() throws Exception {
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath(), 4096, 4, 1000)) {
+			ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+			AtomicLong sum = new AtomicLong();
+			AtomicLong count = new AtomicLong();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int p = 0; p < PRODUCERS; p++) {
+				futures.add(executor.submit(() -> {
+					for (long i = 1; i <= PER_PRODUCER; i++) {
+						queue.put(new Widget<>(i));
+					}
+					return null;
+				}));
+			}
+			for (int c = 0; c < CONSUMERS; c++) {
+				futures.add(executor.submit(() -> {
+					Widget<?> widget;
+					while ((widget = queue.poll(200, TimeUnit.MILLISECONDS)) != null) {
+						sum.addAndGet((Long) widget.get());
+						count.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			executor.shutdown();
+			long expectedSum = PRODUCERS * ((long) PER_PRODUCER * (PER_PRODUCER + 1) / 2);
+			Assert.assertEquals("Lost or duplicated records", (long) PRODUCERS * PER_PRODUCER, count.get());
+			Assert.assertEquals("Corrupted records", expectedSum, sum.get());
+		}
+	}
+
+	private static String describe(byte type, ByteBuffer payload) {
+		return type == JournalQueue.STRING ? "S" + payload.remaining() : "L" + payload.getLong(payload.position());
+	}
+
+}
@@ -0,0 +1,172 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.LanedQueue;
+import internals.WaitStrategy;
+
+public class LanedQueueTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(LanedQueueTest.class);
+
+	private static final int PRODUCERS = 4;
+	private static final int CONSUMERS = 3;
+	private static final int PER_PRODUCER = 20_000;
+
+	@Test
+	public void singleLaneInOrderAcrossLaps() throws InterruptedException {
+		// not a power of two, so indexes wrap with modulo
+		LanedQueue<Integer> queue = new LanedQueue<>(3, WaitStrategy.BLOCKING);
+		for (int lap = 0; lap < 5; lap++) {
+			Assert.assertTrue("Offer refused on empty lane", queue.offer(lap * 10));
+			Assert.assertTrue("Offer refused with space left", queue.offer(lap * 10 + 1));
+			Assert.assertTrue("Offer refused with space left", queue.offer(lap * 10 + 2));
+			Assert.assertFalse("Offer accepted on full lane", queue.offer(-1));
+			Assert.assertFalse("Timed offer on full lane succeeded", queue.offer(-1, 10, TimeUnit.MILLISECONDS));
+			Assert.assertEquals("Wrong size for full lane", 3, queue.size());
+			Assert.assertEquals("Wrong remaining capacity", 0, queue.remainingCapacity());
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10), queue.peek());
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10), queue.poll());
+			List<Integer> drained = new ArrayList<>();
+			Assert.assertEquals("Wrong drain count", 2, queue.drainTo(drained));
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10 + 1), drained.get(0));
+			Assert.assertNull("Timed poll on empty queue returned an element",
+					queue.poll(10, TimeUnit.MILLISECONDS));
+		}
+		Assert.assertEquals("Same thread got a second lane", 1, queue.getLaneCount());
+	}
+
+	@Test
+	public void consumerStealsFromOtherLanes() throws Exception {
+		LanedQueue<String> queue = new LanedQueue<>(8);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// this thread becomes consumer 0 and owns lane 0, the other thread consumer 1
+			queue.register();
+			executor.submit(queue::register).get();
+			Assert.assertNull("Poll on empty queue returned an element", queue.poll());
+			Assert.assertNull("Poll on empty queue returned an element", executor.submit(() -> queue.poll()).get());
+			// lane 0, owned by this thread
+			queue.put("stolen");
+			Assert.assertEquals("Idle consumer did not steal", "stolen",
+					executor.submit(() -> queue.poll(1, TimeUnit.SECONDS)).get());
+			Assert.assertTrue("Queue not empty after steal", queue.isEmpty());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void onlyRegisteredConsumersOwnLanes() throws Exception {
+		LanedQueue<String> queue = new LanedQueue<>(8);
+		queue.register();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// a consumer the autoscaler retired
+			executor.submit(() -> {
+				queue.register();
+				queue.deregister();
+			}).get();
+			List<Thread> producers = new ArrayList<>();
+			for (int p = 0; p < PRODUCERS; p++) {
+				String producer = "p" + p;
+				producers.add(new Thread(() -> {
+					// more than all producers can drop from one lane
+					for (int i = 0; i <= PRODUCERS; i++) {
+						queue.offer(producer + "-" + i);
+					}
+					// a producer dropping its oldest element
+					Assert.assertNotNull("Producer found nothing to drop", queue.poll());
+				}));
+			}
+			for (Thread producer : producers) {
+				producer.start();
+				producer.join();
+			}
+			Assert.assertEquals("Retired or polling producer still counted", 1, queue.getConsumerCount());
+			Assert.assertEquals("Wrong lane count", PRODUCERS, queue.getLaneCount());
+			// the only consumer owns every lane and visits each in turn
+			List<String> lanesVisited = new ArrayList<>();
+			for (int p = 0; p < PRODUCERS; p++) {
+				lanesVisited.add(queue.poll().substring(0, 2));
+			}
+			Assert.assertEquals("A lane was skipped", PRODUCERS, lanesVisited.stream().distinct().count());
+			List<String> rest = new ArrayList<>();
+			queue.drainTo(rest);
+			Assert.assertEquals("Lanes not drained", PRODUCERS * (PRODUCERS + 1) - 2 * PRODUCERS, rest.size());
+			Assert.assertTrue("Queue not empty", queue.isEmpty());
+			queue.deregister();
+			Assert.assertEquals("Consumer still counted", 0, queue.getConsumerCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void multiProducerMultiConsumer() throws Exception {
+		for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+			transfer(waitStrategy);
+		}
+	}
+
+	private void transfer(WaitStrategy waitStrategy) throws Exception {
+		LanedQueue<Long> queue = new LanedQueue<>(64, waitStrategy);
+		ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+		AtomicLong sum = new AtomicLong();
+		AtomicLong count = new AtomicLong();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			int producer = p;
+			futures.add(executor.submit(() -> {
+				for (long i = 1; i <= PER_PRODUCER; i++) {
+					queue.put(i * PRODUCERS + producer);
+				}
+				return null;
+			}));
+		}
+		for (int c = 0; c < CONSUMERS; c++) {
+			futures.add(executor.submit(() -> {
+				queue.register();
+				List<Long> batch = new ArrayList<>();
+				// values carry the producer in the low bits, each consumer sees a producer's values in order
+				long[] last = new long[PRODUCERS];
+				Long value;
+				while ((value = queue.poll(200, TimeUnit.MILLISECONDS)) != null) {
+					batch.add(value);
+					queue.drainTo(batch, 16);
+					for (long v : batch) {
+						int producer = (int) (v % PRODUCERS);
+						Assert.assertTrue("Producer order lost with " + waitStrategy, v > last[producer]);
+						last[producer] = v;
+						sum.addAndGet(v / PRODUCERS);
+						count.incrementAndGet();
+					}
+					batch.clear();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+		long expectedSum = PRODUCERS * ((long) PER_PRODUCER * (PER_PRODUCER + 1) / 2);
+		Assert.assertEquals("Wrong lane count with " + waitStrategy, PRODUCERS, queue.getLaneCount());
+		Assert.assertEquals("Lost or duplicated elements with " + waitStrategy, (long) PRODUCERS * PER_PRODUCER,
+				count.get());
+		Assert.assertEquals("Corrupted elements with " + waitStrategy, expectedSum, sum.get());
+	}
+
+}
@@ -0,0 +1,98 @@
+package queue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.LongRingBuffer;
+import internals.PrimitiveLongConsumer;
+import internals.RateSpec;
+import internals.WaitStrategy;
+import internals.WidgetStatus;
+
+public class LongRingBufferTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(LongRingBufferTest.class);
+
+	@Test
+	public void valuesAndCreationTimesWrapAround() {
+		// not a power of two, so indexes wrap with modulo
+		LongRingBuffer lane = new LongRingBuffer(3, WaitStrategy.PARK);
+		long[] values = new long[4];
+		long[] created = new long[4];
+		for (long lap = 0; lap < 5; lap++) {
+			Assert.assertTrue("Offer refused on empty lane", lane.offer(lap * 10, lap * 100));
+			Assert.assertTrue("Offer refused with space left", lane.offer(lap * 10 + 1, lap * 100 + 1));
+			Assert.assertTrue("Offer refused with space left", lane.offer(lap * 10 + 2, lap * 100 + 2));
+			Assert.assertFalse("Offer accepted on full lane", lane.offer(-1, -1));
+			Assert.assertEquals("Wrong size for full lane", 3, lane.size());
+			Assert.assertEquals("Poll ignored maxValues", 2, lane.poll(values, created, 2));
+			Assert.assertEquals("Wrong rest", 1, lane.poll(values, created, 4));
+			Assert.assertEquals("Value out of order", lap * 10 + 2, values[0]);
+			Assert.assertEquals("Creation time not carried", lap * 100 + 2, created[0]);
+			Assert.assertTrue("Lane not empty", lane.isEmpty());
+		}
+	}
+
+	@Test
+	public void pollsStopInFrontOfTheMarker() throws InterruptedException {
+		LongRingBuffer lane = new LongRingBuffer(4, WaitStrategy.PARK);
+		long[] values = new long[4];
+		long[] created = new long[4];
+		lane.put(1, 0);
+		lane.putEndOfStream();
+		lane.put(2, 0);
+		Assert.assertFalse("Marker taken before the values in front", lane.takeEndOfStream());
+		Assert.assertEquals("Poll took the marker", 1, lane.poll(values, created, 4));
+		Assert.assertEquals("Wrong value", 1, values[0]);
+		Assert.assertEquals("Timed poll waited or passed the marker", 0,
+				lane.poll(values, created, 4, 10, TimeUnit.SECONDS));
+		Assert.assertTrue("Marker not taken", lane.takeEndOfStream());
+		Assert.assertEquals("Value behind the marker lost", 1, lane.poll(values, created, 4));
+		Assert.assertEquals("Wrong value", 2, values[0]);
+		Assert.assertFalse("Marker taken twice", lane.takeEndOfStream());
+	}
+
+	@Test
+	public void everyLongIsData() throws InterruptedException {
+		LongRingBuffer lane = new LongRingBuffer(8, WaitStrategy.PARK);
+		long[] values = new long[8];
+		long[] created = new long[8];
+		lane.put(Long.MIN_VALUE, 0);
+		lane.put(Long.MAX_VALUE, 0);
+		lane.put(0, 0);
+		Assert.assertFalse("A value taken as the marker", lane.takeEndOfStream());
+		Assert.assertEquals("Values lost", 3, lane.poll(values, created, 8));
+		Assert.assertEquals("Wrong value", Long.MIN_VALUE, values[0]);
+		Assert.assertEquals("Wrong value", Long.MAX_VALUE, values[1]);
+	}
+
+	@Test
+	public void consumerCountsLongMinValue() throws InterruptedException {
+		LongRingBuffer lane = new LongRingBuffer(16, WaitStrategy.PARK);
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.execute(new PrimitiveLongConsumer(lane, Connector.PRIMITIVE_LONG_CONSUMER, widgetStatus,
+				ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(4).build()));
+		for (int i = 0; i < 10; i++) {
+			lane.put(Long.MIN_VALUE, System.nanoTime());
+		}
+		lane.putEndOfStream();
+		executor.shutdown();
+		Assert.assertTrue("Consumer did not stop on the marker", executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals("Long.MIN_VALUE not consumed as a value", 10,
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "Long"));
+		Assert.assertTrue("Marker not put back", lane.takeEndOfStream());
+		Assert.assertTrue("Lane not drained", lane.isEmpty());
+	}
+
+}
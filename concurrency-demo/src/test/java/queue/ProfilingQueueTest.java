@@ -0,0 +1,143 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.Consumer;
+import internals.LanedQueue;
+import internals.ProfilingQueue;
+import internals.RingBufferQueue;
+import internals.RunnableKey;
+import internals.WaitStrategy;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class ProfilingQueueTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(ProfilingQueueTest.class);
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void waitsOnAFullQueueCountForThePutter() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ProfilingQueue queue = new ProfilingQueue(new RingBufferQueue<>(2, WaitStrategy.PARK), "ring", widgetStatus);
+		AtomicReference<Thread> producerThread = new AtomicReference<>();
+		Future<Integer> producer = executor.submit(() -> {
+			producerThread.set(Thread.currentThread());
+			int id = widgetStatus.register(new RunnableKey(ConnectionType.PRODUCER, "TestProducer",
+					Math.toIntExact(Thread.currentThread().getId())));
+			queue.put(new Widget<>(1L));
+			queue.put(new Widget<>(2L));
+			// waits until the test takes the first Widget
+			queue.put(new Widget<>(3L));
+			return id;
+		});
+		TimeUnit.MILLISECONDS.sleep(100);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		// past its spins and yields on a busy machine too
+		while (producerThread.get() == null || producerThread.get().getState() != Thread.State.TIMED_WAITING) {
+			Assert.assertTrue("Producer never parked", System.nanoTime() < deadline);
+			Thread.yield();
+		}
+		Assert.assertEquals("Wrong first Widget", 1L, queue.take().get());
+		int producerId = producer.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals("Wrong puts", 2, widgetStatus.getPuts(producerId));
+		Assert.assertEquals("Wrong full waits", 1, widgetStatus.getPutWaits(producerId));
+		Assert.assertTrue("Wait too short: " + widgetStatus.getPutWaitNanos(producerId),
+				widgetStatus.getPutWaitNanos(producerId) >= TimeUnit.MILLISECONDS.toNanos(50));
+		Assert.assertTrue("Ring wait did not spin", widgetStatus.getSpins(producerId) > 0);
+		Assert.assertTrue("Ring wait did not park", widgetStatus.getParks(producerId) > 0);
+		Assert.assertEquals("Producer took", 0,
+				widgetStatus.getTakes(producerId) + widgetStatus.getTakeWaits(producerId));
+	}
+
+	@Test
+	public void waitsOnAnEmptyQueueCountForTheTaker() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ProfilingQueue queue = new ProfilingQueue(new ArrayBlockingQueue<>(4), "array", widgetStatus);
+		Future<Integer> consumer = executor.submit(() -> {
+			int id = widgetStatus.register(new RunnableKey(ConnectionType.CONSUMER, "TestConsumer",
+					Math.toIntExact(Thread.currentThread().getId())));
+			Assert.assertNull("Widget from an empty queue", queue.poll(20, TimeUnit.MILLISECONDS));
+			queue.take();
+			List<Widget<?>> batch = new ArrayList<>();
+			queue.drainTo(batch);
+			return id;
+		});
+		TimeUnit.MILLISECONDS.sleep(100);
+		queue.put(new Widget<>("one"));
+		int consumerId = consumer.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals("Wrong empty waits", 2, widgetStatus.getTakeWaits(consumerId));
+		Assert.assertEquals("Drain not counted", 1, widgetStatus.getTakes(consumerId));
+		// a lock based queue blocks where the probe cannot count
+		Assert.assertEquals("Each wait is one park", 2, widgetStatus.getParks(consumerId));
+		Assert.assertEquals("Lock wait counted as spin", 0, widgetStatus.getSpins(consumerId));
+		// the test thread registered nothing, it is named after itself
+		String report = widgetStatus.toString();
+		Assert.assertTrue("No contention section: " + report, report.contains("Queue Contention:"));
+		Assert.assertTrue("Unregistered putter missing: " + report,
+				report.contains("-PRODUCER-" + Thread.currentThread().getName() + "\tputs=1,"));
+		Assert.assertTrue("Wrong consumer summary",
+				widgetStatus.getContentionSummary(ConnectionType.CONSUMER).contains("emptyWaits=2"));
+	}
+
+	@Test
+	public void consumersOfAProfiledLanedQueueOwnLanes() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		LanedQueue<Widget<?>> laned = new LanedQueue<>(8);
+		ProfilingQueue queue = new ProfilingQueue(laned, "laned", widgetStatus);
+		executor.execute(new Consumer(queue, Connector.GENERAL_CONSUMER, widgetStatus));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (laned.getConsumerCount() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertEquals("Consumer did not register through the profiler", 1, laned.getConsumerCount());
+		queue.put(Widget.endOfStream());
+		executor.shutdown();
+		Assert.assertTrue("Consumer did not stop", executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals("Consumer did not deregister", 0, laned.getConsumerCount());
+	}
+
+	@Test
+	public void occupancyIsSampled() throws InterruptedException {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ProfilingQueue queue = new ProfilingQueue(new ArrayBlockingQueue<>(2), "small", widgetStatus);
+		queue.sample();
+		queue.put(new Widget<>(1L));
+		queue.sample();
+		queue.put(new Widget<>(2L));
+		queue.sample();
+		queue.sample();
+		Assert.assertSame("Occupancy not kept in WidgetStatus", widgetStatus.queueOccupancy("small"),
+				queue.getOccupancy());
+		Assert.assertEquals("Wrong samples", 4, queue.getOccupancy().getSamples());
+		Assert.assertEquals("Wrong empty share", 0.25, queue.getOccupancy().getEmptyShare(), 1e-9);
+		Assert.assertEquals("Wrong full share", 0.5, queue.getOccupancy().getFullShare(), 1e-9);
+		Assert.assertEquals("Wrong mean depth", 1.25, queue.getOccupancy().getMeanDepth(), 1e-9);
+		Assert.assertEquals("Wrong max depth", 2, queue.getOccupancy().getMaxDepth());
+		Assert.assertTrue("Full queue not diagnosed: " + queue.diagnose(),
+				queue.diagnose().contains("add consumers or throttle producers"));
+	}
+
+}
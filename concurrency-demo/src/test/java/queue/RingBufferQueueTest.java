@@ -0,0 +1,100 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.RingBufferQueue;
+import internals.WaitStrategy;
+
+public class RingBufferQueueTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(RingBufferQueueTest.class);
+
+	private static final int PRODUCERS = 4;
+	private static final int CONSUMERS = 3;
+	private static final int PER_PRODUCER = 20_000;
+
+	@Test
+	public void offerAndPollInOrderAcrossLaps() {
+		// not a power of two, so indexes wrap with modulo
+		RingBufferQueue<Integer> queue = new RingBufferQueue<>(3);
+		for (int lap = 0; lap < 5; lap++) {
+			Assert.assertTrue("Offer refused on empty queue", queue.offer(lap * 10));
+			Assert.assertTrue("Offer refused with space left", queue.offer(lap * 10 + 1));
+			Assert.assertTrue("Offer refused with space left", queue.offer(lap * 10 + 2));
+			Assert.assertFalse("Offer accepted on full queue", queue.offer(-1));
+			Assert.assertEquals("Wrong size for full queue", 3, queue.size());
+			Assert.assertEquals("Wrong remaining capacity", 0, queue.remainingCapacity());
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10), queue.peek());
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10), queue.poll());
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10 + 1), queue.poll());
+			Assert.assertEquals("Elements out of order", Integer.valueOf(lap * 10 + 2), queue.poll());
+			Assert.assertNull("Poll returned an element from an empty queue", queue.poll());
+		}
+	}
+
+	@Test
+	public void timedOperationsGiveUp() throws InterruptedException {
+		RingBufferQueue<String> queue = new RingBufferQueue<>(2, WaitStrategy.BLOCKING);
+		Assert.assertNull("Timed poll on empty queue returned an element", queue.poll(10, TimeUnit.MILLISECONDS));
+		queue.put("one");
+		queue.put("two");
+		Assert.assertFalse("Timed offer on full queue succeeded", queue.offer("three", 10, TimeUnit.MILLISECONDS));
+		List<String> drained = new ArrayList<>();
+		Assert.assertEquals("Wrong drain count", 2, queue.drainTo(drained));
+		Assert.assertEquals("Wrong drained element", "one", drained.get(0));
+	}
+
+	@Test
+	public void multiProducerMultiConsumer() throws Exception {
+		for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+			transfer(waitStrategy);
+		}
+	}
+
+	private void transfer(WaitStrategy waitStrategy) throws Exception {
+		RingBufferQueue<Long> queue = new RingBufferQueue<>(64, waitStrategy);
+		ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+		AtomicLong sum = new AtomicLong();
+		AtomicLong count = new AtomicLong();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			futures.add(executor.submit(() -> {
+				for (long i = 1; i <= PER_PRODUCER; i++) {
+					queue.put(i);
+				}
+				return null;
+			}));
+		}
+		for (int c = 0; c < CONSUMERS; c++) {
+			futures.add(executor.submit(() -> {
+				Long value;
+				while ((value = queue.poll(200, TimeUnit.MILLISECONDS)) != null) {
+					sum.addAndGet(value);
+					count.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+		long expectedSum = PRODUCERS * ((long) PER_PRODUCER * (PER_PRODUCER + 1) / 2);
+		Assert.assertEquals("Lost or duplicated elements with " + waitStrategy, (long) PRODUCERS * PER_PRODUCER,
+				count.get());
+		Assert.assertEquals("Corrupted elements with " + waitStrategy, expectedSum, sum.get());
+	}
+
+}
@@ -0,0 +1,67 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.QueueType;
+import internals.TypedLanes;
+import internals.WaitStrategy;
+import internals.Widget;
+
+public class TypedLanesTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(TypedLanesTest.class);
+
+	@Test
+	public void fullLaneDoesNotBlockOtherTypes() throws InterruptedException {
+		TypedLanes lanes = new TypedLanes(Arrays.asList(String.class, Long.class), QueueType.RING, 2,
+				WaitStrategy.PARK);
+		Assert.assertTrue("Offer refused on empty lane", lanes.offer(new Widget<>("one")));
+		Assert.assertTrue("Offer refused with space left", lanes.offer(new Widget<>("two")));
+		Assert.assertFalse("String lane accepted a third Widget", lanes.offer(new Widget<>("three")));
+		Assert.assertTrue("Full String lane blocked a Long", lanes.offer(new Widget<>(1L), 10, TimeUnit.MILLISECONDS));
+		Assert.assertEquals("Wrong size over all lanes", 3, lanes.size());
+		Assert.assertEquals("Wrong remaining capacity over all lanes", 1, lanes.remainingCapacity());
+		Assert.assertEquals("Long routed to the wrong lane", 1L, lanes.lane(Long.class).poll().get());
+		Assert.assertEquals("String lane out of order", "one", lanes.lane(String.class).poll().get());
+		Assert.assertEquals("Direct take missed a lane", "two", lanes.take().get());
+		Assert.assertNull("Timed poll on empty lanes returned a Widget", lanes.poll(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnregisteredTypes() {
+		TypedLanes lanes = new TypedLanes(Arrays.asList(String.class), QueueType.LINKED, 2, WaitStrategy.PARK);
+		lanes.offer(new Widget<>(1L));
+	}
+
+	@Test
+	public void directTakeWaitsForAnyLane() throws Exception {
+		TypedLanes lanes = new TypedLanes(Arrays.asList(String.class, Long.class), QueueType.LINKED, 4,
+				WaitStrategy.PARK);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Widget<?>> taken = executor.submit(() -> lanes.poll(5, TimeUnit.SECONDS));
+			TimeUnit.MILLISECONDS.sleep(20);
+			lanes.put(new Widget<>(7L));
+			Assert.assertEquals("Blocked take missed the Long lane", 7L, taken.get(5, TimeUnit.SECONDS).get());
+			List<Widget<?>> drained = new ArrayList<>();
+			lanes.put(new Widget<>("a"));
+			lanes.put(new Widget<>(8L));
+			Assert.assertEquals("Wrong drain count over all lanes", 2, lanes.drainTo(drained));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
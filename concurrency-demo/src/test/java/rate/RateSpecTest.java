@@ -0,0 +1,52 @@
+package rate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import internals.RateController;
+import internals.RateSpec;
+
+public class RateSpecTest {
+
+	@Test
+	public void parseRoundTrips() {
+		for (String spec : new String[] { "unthrottled", "constant:250.0", "poisson:10.0", "closed:250-1250" }) {
+			Assert.assertEquals("Spec did not round trip", spec, RateSpec.parse(spec).toString());
+		}
+		Assert.assertEquals("Single think time not accepted", "closed:1000-1000",
+				RateSpec.parse("closed:1000").toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parseRejectsMissingRate() {
+		RateSpec.parse("constant");
+	}
+
+	@Test
+	public void constantScheduleIgnoresSlowCallers() throws InterruptedException {
+		RateController controller = RateSpec.constant(1000).newController();
+		long first = controller.next();
+		// a stalled caller must not push the schedule back
+		TimeUnit.MILLISECONDS.sleep(20);
+		long second = controller.next();
+		long third = controller.next();
+		Assert.assertEquals("Wrong interval", TimeUnit.MILLISECONDS.toNanos(1), second - first);
+		Assert.assertEquals("Wrong interval", TimeUnit.MILLISECONDS.toNanos(1), third - second);
+		Assert.assertTrue("Behind schedule should not wait", controller.acquire() < System.nanoTime());
+	}
+
+	@Test
+	public void closedLoopStartsImmediately() throws InterruptedException {
+		RateController controller = RateSpec.closedLoop(50, 50).newController();
+		long start = System.nanoTime();
+		controller.acquire();
+		long afterFirst = System.nanoTime();
+		controller.acquire();
+		long afterSecond = System.nanoTime();
+		Assert.assertTrue("First acquire waited", afterFirst - start < TimeUnit.MILLISECONDS.toNanos(50));
+		Assert.assertTrue("Think time skipped", afterSecond - afterFirst >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+}
@@ -0,0 +1,177 @@
+package replay;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.JournalQueue;
+import internals.ReplayProducer;
+import internals.Trace;
+import internals.TraceRecorder;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class TraceReplayTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(TraceReplayTest.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void cursorsReadTheirProducersRecordsInOrder() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("run.trace");
+		// longer than the recorder's buffer
+		char[] chars = new char[100_000];
+		Arrays.fill(chars, '\u00e9');
+		String longText = new String(chars);
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			long base = System.nanoTime();
+			for (long i = 0; i < 1000; i++) {
+				recorder.record(7, new Widget<>(i, base + i * 1000));
+				recorder.record(3, new Widget<>("String-" + i, base + i * 1000 + 500));
+			}
+			recorder.record(3, new Widget<>(longText, base + 2_000_000));
+			Assert.assertEquals("Wrong record count", 2001, recorder.getRecords());
+		}
+		try (Trace trace = Trace.open(file)) {
+			Assert.assertEquals("Wrong producers", Arrays.asList(3, 7), trace.getProducers());
+			Assert.assertEquals("Wrong record count", 2001, trace.getRecords());
+			Assert.assertTrue("Duration too short: " + trace.getDurationNanos(),
+					trace.getDurationNanos() >= 2_000_000);
+			Trace.Cursor longs = trace.cursor(7);
+			Trace.Cursor strings = trace.cursor(3);
+			for (long i = 0; i < 1000; i++) {
+				Assert.assertTrue("Long records missing", longs.next());
+				Assert.assertEquals("Wrong type", JournalQueue.LONG, longs.getType());
+				Assert.assertEquals("Wrong Long", i, longs.getLong());
+				Assert.assertTrue("String records missing", strings.next());
+				Assert.assertEquals("Wrong String", "String-" + i, strings.getString());
+				Assert.assertEquals("Wrong spacing", 500, strings.getNanos() - longs.getNanos());
+			}
+			Assert.assertFalse("Extra Long record", longs.next());
+			Assert.assertTrue("Long String missing", strings.next());
+			Assert.assertEquals("Long String differs", longText, strings.getString());
+			Assert.assertFalse("Extra String record", strings.next());
+		}
+	}
+
+	@Test
+	public void truncatedRecordEndsTheTrace() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("torn.trace");
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			long base = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				recorder.record(1, new Widget<>("String-" + i, base));
+			}
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			// as if the run died halfway through the last record
+			channel.truncate(channel.size() - 3);
+		}
+		try (Trace trace = Trace.open(file)) {
+			Assert.assertEquals("Torn record read", 9, trace.getRecords());
+			Trace.Cursor cursor = trace.cursor(1);
+			int read = 0;
+			while (cursor.next()) {
+				Assert.assertEquals("Wrong String", "String-" + read++, cursor.getString());
+			}
+			Assert.assertEquals("Wrong records replayed", 9, read);
+		}
+	}
+
+	@Test
+	public void replayPutsEveryRecordedWidget() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("max.trace");
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			long base = System.nanoTime();
+			for (int producer = 1; producer <= 3; producer++) {
+				for (long i = 0; i < 500; i++) {
+					recorder.record(producer, producer == 3 ? new Widget<>("String-" + i, base + i)
+							: new Widget<>(producer * 1000 + i, base + i));
+				}
+			}
+		}
+		WidgetStatus widgetStatus = new WidgetStatus();
+		List<Widget<?>> replayed = new ArrayList<>();
+		try (Trace trace = Trace.open(file)) {
+			ConnectorSettings settings = ConnectorSettings.builder().trace(trace).replaySpeed(0).build();
+			BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+			Runnable replay = new ReplayProducer(queue, Connector.REPLAY_PRODUCER, widgetStatus, settings);
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			for (int i = 0; i < 4; i++) {
+				// one thread more than recorded producers
+				executor.execute(replay);
+			}
+			executor.shutdown();
+			Assert.assertTrue("Replay did not end", executor.awaitTermination(5, TimeUnit.SECONDS));
+			queue.drainTo(replayed);
+		}
+		Assert.assertEquals("Widgets lost", 1500, replayed.size());
+		Assert.assertEquals("Wrong Long count", 1000,
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, Long.class.getSimpleName()));
+		Assert.assertEquals("Wrong String count", 500,
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, String.class.getSimpleName()));
+		List<Long> producerOne = new ArrayList<>();
+		for (Widget<?> widget : replayed) {
+			if (widget.get() instanceof Long && (Long) widget.get() < 2000) {
+				producerOne.add((Long) widget.get());
+			}
+		}
+		List<Long> sorted = new ArrayList<>(producerOne);
+		Collections.sort(sorted);
+		Assert.assertEquals("Producer order not kept", sorted, producerOne);
+	}
+
+	@Test
+	public void replayKeepsTheRecordedTimingAtItsSpeed() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("timed.trace");
+		long spacing = TimeUnit.MILLISECONDS.toNanos(100);
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			long base = System.nanoTime();
+			for (long i = 0; i < 3; i++) {
+				recorder.record(1, new Widget<>(i, base + i * spacing));
+			}
+		}
+		try (Trace trace = Trace.open(file)) {
+			for (double speed : new double[] { 1, 2 }) {
+				BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>();
+				ConnectorSettings settings = ConnectorSettings.builder().trace(trace).replaySpeed(speed).build();
+				long start = System.nanoTime();
+				new ReplayProducer(queue, Connector.REPLAY_PRODUCER, new WidgetStatus(), settings).run();
+				long elapsed = System.nanoTime() - start;
+				Assert.assertTrue("Replay at " + speed + " too fast: " + elapsed, elapsed >= 2 * spacing / speed);
+				List<Widget<?>> replayed = new ArrayList<>();
+				queue.drainTo(replayed);
+				Assert.assertEquals("Widgets lost", 3, replayed.size());
+				for (int i = 1; i < replayed.size(); i++) {
+					// stamped with the intended time, not when the thread woke up
+					long between = replayed.get(i).getCreatedNanos() - replayed.get(i - 1).getCreatedNanos();
+					Assert.assertEquals("Wrong spacing at " + speed, spacing / speed, between, 1.0);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package scaling;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import internals.AutoscalerSettings;
+import internals.ConsumerAutoscaler;
+import internals.JournalQueue;
+import internals.RetireSignal;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class ConsumerAutoscalerTest {
+
+	private final BlockingQueue<Integer> queue = new LinkedBlockingQueue<>(10);
+	private final RetireSignal retireSignal = new RetireSignal();
+	private final WidgetStatus widgetStatus = new WidgetStatus();
+	private ExecutorService executor;
+	private Runnable worker;
+	private ConsumerAutoscaler autoscaler;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void start() {
+		executor = Executors.newFixedThreadPool(4);
+		// stands in for a Consumer, it only checks the retire signal
+		worker = () -> {
+			while (!retireSignal.tryRetire() && !Thread.currentThread().isInterrupted()) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+			}
+		};
+		AutoscalerSettings settings = AutoscalerSettings.builder().workers(1, 4).samplesToScale(2).cooldownMillis(0)
+				.build();
+		autoscaler = new ConsumerAutoscaler(queue, worker, executor, retireSignal, () -> 0L, widgetStatus, settings);
+		autoscaler.start(1);
+	}
+
+	@After
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void scalesUpOnFullQueueAndDownWhenEmpty() throws InterruptedException {
+		Assert.assertEquals("Wrong initial workers", 1, autoscaler.getWorkerCount());
+		for (int i = 0; i < 10; i++) {
+			queue.put(i);
+		}
+		sample();
+		Assert.assertEquals("Scaled before the hysteresis count", 1, autoscaler.getWorkerCount());
+		sample();
+		Assert.assertEquals("Did not scale up", 2, autoscaler.getWorkerCount());
+		Assert.assertEquals("Scale up not recorded", 1, widgetStatus.getScalingEvents().size());
+
+		queue.clear();
+		sample();
+		sample();
+		awaitWorkers(1);
+		Assert.assertEquals("Scale down not recorded", 2, widgetStatus.getScalingEvents().size());
+
+		sample();
+		sample();
+		Assert.assertEquals("Went below the minimum", 1, autoscaler.getWorkerCount());
+	}
+
+	@Test
+	public void scalesUpOnABackedUpJournal() throws InterruptedException {
+		AutoscalerSettings settings = AutoscalerSettings.builder().workers(1, 4).samplesToScale(2).cooldownMillis(0)
+				.build();
+		// 21 bytes per Long record, 5 fit a 128 byte segment, 20 fit the journal
+		try (JournalQueue journal = new JournalQueue(folder.getRoot().toPath(), 128, 4, 1000)) {
+			autoscaler = new ConsumerAutoscaler(journal, worker, executor, retireSignal, () -> 0L, widgetStatus,
+					settings);
+			autoscaler.start(1);
+			for (long i = 0; i < 12; i++) {
+				journal.put(new Widget<>(i));
+			}
+			Assert.assertEquals("Wrong room left in the journal", 8, journal.remainingCapacity());
+			sample();
+			sample();
+			Assert.assertEquals("Did not scale up on a journal above the high watermark", 2,
+					autoscaler.getWorkerCount());
+		}
+	}
+
+	private void sample() throws InterruptedException {
+		TimeUnit.MILLISECONDS.sleep(5);
+		autoscaler.run();
+	}
+
+	private void awaitWorkers(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (autoscaler.getWorkerCount() != expected && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		Assert.assertEquals("Worker did not retire", expected, autoscaler.getWorkerCount());
+	}
+
+}
@@ -0,0 +1,57 @@
+package scenario;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import internals.Scenario;
+
+public class ScenarioTest {
+
+	@Test
+	public void pointsAreTheGridWithTheLastAxisFastest() {
+		Properties properties = new Properties();
+		properties.setProperty("durationSeconds", "20");
+		properties.setProperty("sweep.consumers", "1, 2,4");
+		properties.setProperty("sweep.queueType", "LINKED,RING");
+		properties.setProperty("runner.report", "sweep.csv");
+		Scenario scenario = new Scenario(properties);
+		Assert.assertEquals("Options differ", "20", scenario.getOptions().get("durationSeconds"));
+		Assert.assertEquals("Runner setting taken as an option", 1, scenario.getOptions().size());
+		Assert.assertEquals("Runner setting lost", "sweep.csv", scenario.getRunnerSetting("report", null));
+		Assert.assertEquals("Axes differ", "[consumers, queueType]", scenario.getAxes().toString());
+		List<Map<String, String>> points = scenario.points();
+		Assert.assertEquals("Not the full grid", 6, points.size());
+		Assert.assertEquals("First point differs", "{consumers=1, queueType=LINKED}", points.get(0).toString());
+		Assert.assertEquals("Second point differs", "{consumers=1, queueType=RING}", points.get(1).toString());
+		Assert.assertEquals("Last point differs", "{consumers=4, queueType=RING}", points.get(5).toString());
+	}
+
+	@Test
+	public void noAxesIsOneRun() {
+		Properties properties = new Properties();
+		properties.setProperty("consumers", "3");
+		List<Map<String, String>> points = new Scenario(properties).points();
+		Assert.assertEquals("Not a single point", 1, points.size());
+		Assert.assertTrue("Point sweeps something", points.get(0).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void optionCannotBeFixedAndSwept() {
+		Properties properties = new Properties();
+		properties.setProperty("consumers", "3");
+		properties.setProperty("sweep.consumers", "1,2");
+		new Scenario(properties);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void axisNeedsValues() {
+		Properties properties = new Properties();
+		properties.setProperty("sweep.consumers", " , ");
+		new Scenario(properties);
+	}
+
+}
@@ -0,0 +1,116 @@
+package shutdown;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.Consumer;
+import internals.JournalQueue;
+import internals.LongRingBuffer;
+import internals.PrimitiveLongConsumer;
+import internals.QueueType;
+import internals.RateSpec;
+import internals.WaitStrategy;
+import internals.Widget;
+import internals.WidgetStatus;
+
+public class EndOfStreamTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(EndOfStreamTest.class);
+
+	private static final int WIDGETS = 10_000;
+	private static final int CONSUMERS = 3;
+	// well below the 2 second idle poll consumers used to stop on
+	private static final long DRAIN_MILLIS = 1_000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void oneMarkerStopsEveryConsumer() throws InterruptedException {
+		for (QueueType queueType : new QueueType[] { QueueType.LINKED, QueueType.RING, QueueType.LANED }) {
+			assertDrained(queueType.create(WIDGETS + 1, WaitStrategy.PARK));
+		}
+	}
+
+	@Test
+	public void journalHandsOutTheMarkerLast() throws Exception {
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			queue.put(new Widget<>(1L));
+			queue.put(Widget.endOfStream());
+			queue.put(new Widget<>(2L));
+			Assert.assertEquals("Marker counted as a record", 2, queue.size());
+			Assert.assertEquals("Record after the marker not taken first", 1L, queue.poll().get());
+			Assert.assertEquals("Records out of order", 2L, queue.take().get());
+			Assert.assertTrue("Marker not handed out once empty", queue.take().isEndOfStream());
+			Assert.assertNull("Marker handed out twice", queue.poll());
+		}
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			queue.put(Widget.endOfStream());
+		}
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			Assert.assertNull("Marker replayed after a restart", queue.poll(10, TimeUnit.MILLISECONDS));
+		}
+		try (JournalQueue queue = new JournalQueue(folder.getRoot().toPath())) {
+			assertDrained(queue);
+		}
+	}
+
+	@Test
+	public void longLaneStopsOnItsMarker() throws InterruptedException {
+		LongRingBuffer lane = new LongRingBuffer(WIDGETS + 1, WaitStrategy.PARK);
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		PrimitiveLongConsumer consumer = new PrimitiveLongConsumer(lane, Connector.PRIMITIVE_LONG_CONSUMER,
+				widgetStatus, ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(64).build());
+		executor.execute(consumer);
+		executor.execute(consumer);
+		for (long i = 0; i < WIDGETS; i++) {
+			lane.put(i, System.nanoTime());
+		}
+		lane.putEndOfStream();
+		executor.shutdown();
+		Assert.assertTrue("Consumers did not stop on the marker",
+				executor.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertEquals("Values lost or the marker counted", WIDGETS,
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "Long"));
+		Assert.assertEquals("Latency not recorded for every value", WIDGETS,
+				widgetStatus.getLatencySummary(ConnectionType.CONSUMER, "Long").getTotalCount());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void assertDrained(BlockingQueue<? extends Widget<?>> queue) throws InterruptedException {
+		BlockingQueue<Widget<? extends Object>> widgets = (BlockingQueue) queue;
+		WidgetStatus widgetStatus = new WidgetStatus();
+		ExecutorService executor = Executors.newFixedThreadPool(CONSUMERS);
+		Consumer consumer = new Consumer(widgets, Connector.GENERAL_CONSUMER, widgetStatus,
+				ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(16).build());
+		for (int i = 0; i < CONSUMERS; i++) {
+			executor.execute(consumer);
+		}
+		for (long i = 0; i < WIDGETS; i++) {
+			widgets.put(i % 2 == 0 ? new Widget<>(i) : new Widget<>(Long.toString(i)));
+		}
+		widgets.put(Widget.endOfStream());
+		executor.shutdown();
+		Assert.assertTrue("Consumers of " + queue.getClass().getSimpleName() + " did not stop on the marker",
+				executor.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS));
+		long consumed = widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "Long")
+				+ widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "String");
+		Assert.assertEquals("Widgets left in " + queue.getClass().getSimpleName(), WIDGETS, consumed);
+		Assert.assertTrue("Marker not put back", widgets.poll().isEndOfStream());
+	}
+
+}
@@ -0,0 +1,118 @@
+package stage;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import internals.ConnectionType;
+import internals.ExecutionMode;
+import internals.LanedQueue;
+import internals.RateSpec;
+import internals.StagePipeline;
+import internals.StagePipeline.StageStats;
+import internals.Widget;
+import internals.WidgetStage;
+import internals.WidgetStatus;
+
+public class StagePipelineTest {
+
+	@Test
+	public void everyWidgetPassesEveryStage() throws InterruptedException {
+		BlockingQueue<Widget<?>> queue = new LinkedBlockingQueue<>();
+		for (long i = 0; i < 10_000; i++) {
+			queue.add(i % 2 == 0 ? new Widget<>(i) : new Widget<>("String-" + i));
+		}
+		queue.add(Widget.endOfStream());
+		WidgetStatus widgetStatus = new WidgetStatus();
+		AtomicLong decoded = new AtomicLong();
+		AtomicLong sunk = new AtomicLong();
+		StagePipeline pipeline = StagePipeline.builder().stage("decode", widget -> {
+			decoded.incrementAndGet();
+			return widget;
+		}).workers(2).batchSize(32).stage("transform", WidgetStage.identity()).workers(3).batchSize(64)
+				.bufferBatches(2).stage("sink", widget -> {
+					sunk.incrementAndGet();
+					return widget;
+				}).batchSize(100).build(queue, widgetStatus);
+		pipeline.start(ExecutionMode.PLATFORM);
+		Assert.assertTrue("Pipeline did not finish", pipeline.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals("Decode missed Widgets", 10_000, decoded.get());
+		Assert.assertEquals("Sink missed Widgets", 10_000, sunk.get());
+		Assert.assertEquals("Long count differs", 5_000,
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "Long"));
+		Assert.assertEquals("String count differs", 5_000,
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "String"));
+		Assert.assertEquals("Latency not recorded", 5_000,
+				widgetStatus.getLatencySummary(ConnectionType.CONSUMER, "Long").getTotalCount());
+		for (StageStats stats : pipeline.getStats()) {
+			Assert.assertEquals("Stage " + stats.getName() + " count differs", 10_000, stats.getWidgets());
+			Assert.assertEquals("Stage " + stats.getName() + " queue times differ", 10_000,
+					stats.getQueueTime().getTotalCount());
+		}
+		// put back for other readers of the queue
+		Assert.assertTrue("End of stream not put back", queue.take().isEndOfStream());
+	}
+
+	@Test
+	public void slowStageIsTheBottleneckAndBacksUpTheOthers() throws InterruptedException {
+		BlockingQueue<Widget<?>> queue = new LinkedBlockingQueue<>();
+		for (long i = 0; i < 2_000; i++) {
+			queue.add(new Widget<>(i));
+		}
+		queue.add(Widget.endOfStream());
+		StagePipeline pipeline = StagePipeline.builder().stage("decode", WidgetStage.identity()).batchSize(10)
+				.stage("transform", WidgetStage.identity()).batchSize(10).bufferBatches(1)
+				.rate(RateSpec.closedLoop(2, 2)).stage("sink", WidgetStage.identity()).batchSize(10)
+				.build(queue, new WidgetStatus());
+		pipeline.start(ExecutionMode.PLATFORM);
+		Assert.assertTrue("Pipeline did not finish", pipeline.awaitTermination(20, TimeUnit.SECONDS));
+		List<StageStats> stats = pipeline.getStats();
+		Assert.assertEquals("Wrong bottleneck: " + stats, "transform", pipeline.getBottleneck().getName());
+		Assert.assertTrue("Slow stage not busy: " + stats, stats.get(1).getUtilization() > 0.8);
+		Assert.assertTrue("Decode not held back: " + stats, stats.get(0).getBlocked() > 0.5);
+		Assert.assertTrue("Sink not idle: " + stats, stats.get(2).getUtilization() < 0.5);
+	}
+
+	@Test
+	public void drainsEveryLaneAfterTheEndOfStream() throws Exception {
+		LanedQueue<Widget<?>> queue = new LanedQueue<>(1024);
+		ExecutorService producers = Executors.newFixedThreadPool(2);
+		try {
+			// a lane per producer thread, filled before the consumers start
+			for (int p = 0; p < 2; p++) {
+				producers.submit(() -> {
+					for (long i = 0; i < 1_000; i++) {
+						queue.put(new Widget<>(i));
+					}
+					return null;
+				}).get();
+			}
+		} finally {
+			producers.shutdownNow();
+		}
+		// in this thread's own lane, behind nothing
+		queue.put(Widget.endOfStream());
+		WidgetStatus widgetStatus = new WidgetStatus();
+		StagePipeline pipeline = StagePipeline.builder().stage("sink", WidgetStage.identity()).workers(2)
+				.batchSize(16).build(queue, widgetStatus);
+		pipeline.start(ExecutionMode.PLATFORM);
+		Assert.assertTrue("Pipeline did not finish", pipeline.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals("Widgets left in the producer lanes", 2_000,
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "Long"));
+		Assert.assertTrue("End of stream not put back", queue.take().isEndOfStream());
+		Assert.assertTrue("Queue not drained", queue.isEmpty());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void settingsNeedAStage() {
+		StagePipeline.builder().workers(2);
+	}
+
+}
@@ -0,0 +1,79 @@
+package status;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import internals.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals("Empty count", 0, histogram.getTotalCount());
+		Assert.assertEquals("Empty percentile", 0, histogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void percentilesWithinPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 1 to 100,000 microseconds
+		for (long micros = 1; micros <= 100_000; micros++) {
+			histogram.record(micros * 1_000);
+		}
+		Assert.assertEquals("Wrong count", 100_000, histogram.getTotalCount());
+		Assert.assertEquals("Max is not exact", 100_000_000L, histogram.getMax());
+		assertClose(50_000_000L, histogram.getValueAtPercentile(50));
+		assertClose(99_000_000L, histogram.getValueAtPercentile(99));
+		assertClose(99_900_000L, histogram.getValueAtPercentile(99.9));
+		Assert.assertEquals("p100 is not the max", 100_000_000L, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void smallValuesAreExactAndHugeValuesClamp() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(3);
+		histogram.record(Long.MAX_VALUE);
+		Assert.assertEquals("Negative not counted as 0", 0, histogram.getValueAtPercentile(33));
+		Assert.assertEquals("Small value not exact", 3, histogram.getValueAtPercentile(66));
+		Assert.assertEquals("Max is not exact", Long.MAX_VALUE, histogram.getMax());
+	}
+
+	@Test
+	public void addMergesCounts() {
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = new LatencyHistogram();
+		first.record(1_000);
+		second.record(2_000_000);
+		LatencyHistogram summary = new LatencyHistogram();
+		summary.add(first);
+		summary.add(second);
+		Assert.assertEquals("Wrong merged count", 2, summary.getTotalCount());
+		Assert.assertEquals("Wrong merged max", 2_000_000, summary.getMax());
+		assertClose(1_000, summary.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void sinceLeavesOutTheEarlierCounts() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 100; i++) {
+			histogram.record(50_000_000);
+		}
+		LatencyHistogram warmup = new LatencyHistogram();
+		warmup.add(histogram);
+		for (int i = 0; i < 100; i++) {
+			histogram.record(1_000);
+		}
+		LatencyHistogram measured = histogram.since(warmup);
+		Assert.assertEquals("Wrong count", 100, measured.getTotalCount());
+		assertClose(1_000, measured.getValueAtPercentile(99));
+		assertClose(1_000, measured.getMax());
+		Assert.assertEquals("Earlier histogram changed", 100, warmup.getTotalCount());
+	}
+
+	private static void assertClose(long expected, long actual) {
+		Assert.assertEquals("Outside histogram precision", expected, actual, expected / 64.0);
+	}
+
+}
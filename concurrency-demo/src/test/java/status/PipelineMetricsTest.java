@@ -0,0 +1,110 @@
+package status;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.MetricsEndpoint;
+import internals.PipelineMetrics;
+import internals.RunnableKey;
+import internals.WidgetStatus;
+import internals.WidgetStatusKey;
+
+public class PipelineMetricsTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(PipelineMetricsTest.class);
+
+	@Test
+	public void mbeansShowTheLatestSample() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(10);
+		queue.add("queued");
+		try (PipelineMetrics metrics = new PipelineMetrics(widgetStatus, server)) {
+			metrics.addQueue("shared", queue::size, queue::remainingCapacity);
+			WidgetStatusKey key = new WidgetStatusKey(ConnectionType.CONSUMER, "Long", 1);
+			int keyId = widgetStatus.register(key);
+			int runnableId = widgetStatus.register(new RunnableKey(ConnectionType.CONSUMER, "Consumer", 1));
+			metrics.run();
+			widgetStatus.addWidgetCount(keyId, 100);
+			for (int i = 1; i <= 100; i++) {
+				widgetStatus.latencyHistogram(keyId).record(TimeUnit.MICROSECONDS.toNanos(i));
+			}
+			widgetStatus.addBatch(runnableId, 60, TimeUnit.MILLISECONDS.toNanos(3));
+			widgetStatus.addBatch(runnableId, 40, TimeUnit.MILLISECONDS.toNanos(2));
+			widgetStatus.addBatch(runnableId, 0, TimeUnit.MILLISECONDS.toNanos(5));
+			ObjectName widgets = new ObjectName(
+					PipelineMetrics.DOMAIN + ":type=Widgets,key=" + ObjectName.quote(key.toString()));
+			Assert.assertEquals("Count shown before the sample", 0L, server.getAttribute(widgets, "Widgets"));
+			metrics.run();
+			Assert.assertEquals("Wrong count", 100L, server.getAttribute(widgets, "Widgets"));
+			Assert.assertTrue("No rate", (Double) server.getAttribute(widgets, "WidgetsPerSecond") > 0);
+			long p99 = (Long) server.getAttribute(widgets, "LatencyP99Micros");
+			Assert.assertTrue("Wrong p99: " + p99, p99 >= 95 && p99 <= 105);
+			ObjectName consumer = new ObjectName(PipelineMetrics.DOMAIN + ":type=Consumer,key="
+					+ ObjectName.quote(new RunnableKey(ConnectionType.CONSUMER, "Consumer", 1).toString()));
+			Assert.assertEquals("Wrong poll time", 10L, server.getAttribute(consumer, "PollMillis"));
+			Assert.assertEquals("Empty poll counted as a batch", 2L, server.getAttribute(consumer, "Batches"));
+			Assert.assertEquals("Wrong mean batch size", 50.0, (Double) server.getAttribute(consumer, "MeanBatchSize"),
+					0.0);
+			ObjectName shared = new ObjectName(
+					PipelineMetrics.DOMAIN + ":type=Queue,name=" + ObjectName.quote("shared"));
+			Assert.assertEquals("Wrong depth", 1, server.getAttribute(shared, "Depth"));
+			queue.add("another");
+			Assert.assertEquals("Depth not read live", 8, server.getAttribute(shared, "RemainingCapacity"));
+		}
+		Assert.assertTrue("MBeans left after close",
+				server.queryNames(new ObjectName(PipelineMetrics.DOMAIN + ":*"), null).isEmpty());
+	}
+
+	@Test
+	public void endpointServesText() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		int keyId = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "Long", 2));
+		widgetStatus.addWidgetCount(keyId, 42);
+		widgetStatus.addBlockedNanos(keyId, TimeUnit.MILLISECONDS.toNanos(1500));
+		try (PipelineMetrics metrics = new PipelineMetrics(widgetStatus, null);
+				MetricsEndpoint endpoint = new MetricsEndpoint(metrics, 0)) {
+			metrics.addQueue("long", () -> 3, () -> 297);
+			metrics.run();
+			URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), endpoint.getPort(),
+					MetricsEndpoint.PATH);
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			Assert.assertEquals("Wrong status", 200, connection.getResponseCode());
+			String text = read(connection.getInputStream());
+			Assert.assertTrue("Count missing:\n" + text, text.contains("widgets_total{key=\"PRODUCER-Long-2\""));
+			Assert.assertTrue("Count wrong:\n" + text, text.contains("type=\"Long\"} 42\n"));
+			Assert.assertTrue("Blocked time missing:\n" + text, text.contains("put_blocked_seconds_total{")
+					&& text.contains("} 1.50000\n"));
+			Assert.assertTrue("Queue depth missing:\n" + text, text.contains("queue_depth{queue=\"long\"} 3\n"));
+		}
+	}
+
+	private static String read(InputStream in) throws Exception {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = stream.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+}
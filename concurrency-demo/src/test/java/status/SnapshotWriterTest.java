@@ -0,0 +1,92 @@
+package status;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.SnapshotWriter;
+import internals.WidgetStatus;
+import internals.WidgetStatusKey;
+
+public class SnapshotWriterTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(SnapshotWriterTest.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rowsHoldTheDeltas() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		int producer = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "Long", 1));
+		widgetStatus.register(new WidgetStatusKey(ConnectionType.CONSUMER, "Long", 2));
+		Path directory = folder.getRoot().toPath().resolve("snapshots");
+		SnapshotWriter writer = new SnapshotWriter(widgetStatus, directory, 4096, 2);
+		widgetStatus.addWidgetCount(producer, 10);
+		widgetStatus.addDropped(producer, 2);
+		writer.run();
+		widgetStatus.addWidgetCount(producer, 5);
+		widgetStatus.addBlockedNanos(producer, 700);
+		writer.run();
+		// nothing moved
+		writer.run();
+		widgetStatus.addWidgetCount(producer, Long.MIN_VALUE);
+		writer.close();
+		List<Path> files = writer.getFiles();
+		Assert.assertEquals("Wrong file count", 1, files.size());
+		List<String> lines = Files.readAllLines(files.get(0), StandardCharsets.US_ASCII);
+		Assert.assertEquals("Wrong header", SnapshotWriter.HEADER.trim(), lines.get(0));
+		Assert.assertEquals("Wrong row count: " + lines, 4, lines.size());
+		Assert.assertTrue("Wrong first row: " + lines.get(1),
+				lines.get(1).endsWith(",PRODUCER-Long-1,PRODUCER,Long,10,2,0,0"));
+		Assert.assertTrue("Wrong second row: " + lines.get(2), lines.get(2).endsWith(",5,0,0,700"));
+		Assert.assertTrue("Wrong negative delta: " + lines.get(3),
+				lines.get(3).endsWith("," + Long.MIN_VALUE + ",0,0,0"));
+		for (String line : lines.subList(1, lines.size())) {
+			Assert.assertFalse("Idle key written: " + line, line.contains("CONSUMER-Long-2"));
+		}
+	}
+
+	@Test
+	public void filesRotateAndContinueTheSequence() throws Exception {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		for (int id = 0; id < 100; id++) {
+			widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "String", id));
+		}
+		Path directory = folder.getRoot().toPath();
+		SnapshotWriter writer = new SnapshotWriter(widgetStatus, directory, 4096, 3);
+		for (int i = 0; i < 20; i++) {
+			for (int id = 0; id < 100; id++) {
+				widgetStatus.addWidgetCount(id, 1);
+			}
+			writer.run();
+		}
+		writer.close();
+		List<Path> files = writer.getFiles();
+		Assert.assertEquals("Old files not deleted", 3, files.size());
+		for (Path file : files) {
+			Assert.assertTrue("File past its size: " + file, Files.size(file) <= 4096);
+			Assert.assertTrue("File without header: " + file, new String(Files.readAllBytes(file),
+					StandardCharsets.US_ASCII).startsWith(SnapshotWriter.HEADER));
+		}
+		WidgetStatus nextStatus = new WidgetStatus();
+		nextStatus.addWidgetCount(new WidgetStatusKey(ConnectionType.PRODUCER, "String", 0), 1);
+		SnapshotWriter next = new SnapshotWriter(nextStatus, directory, 4096, 3);
+		next.close();
+		List<Path> nextFiles = next.getFiles();
+		Assert.assertEquals("Earlier files not kept", files.subList(1, 3), nextFiles.subList(0, 2));
+		Assert.assertTrue("Sequence not continued",
+				nextFiles.get(2).getFileName().compareTo(files.get(2).getFileName()) > 0);
+	}
+
+}
@@ -0,0 +1,67 @@
+package status;
+
+import java.time.ZonedDateTime;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.RunnableKey;
+import internals.WidgetStatus;
+import internals.WidgetStatusKey;
+
+public class WidgetStatusTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(WidgetStatusTest.class);
+
+	@Test
+	public void registerReturnsStableDenseIds() {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		int first = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "String", 7));
+		int second = widgetStatus.register(new WidgetStatusKey(ConnectionType.CONSUMER, "String", 7));
+		int again = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "String", 7));
+		Assert.assertEquals("First key is not id 0", 0, first);
+		Assert.assertEquals("Second key is not id 1", 1, second);
+		Assert.assertEquals("Equal key got a new id", first, again);
+	}
+
+	@Test
+	public void countsAndSummaries() {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		// enough keys to span several counter chunks
+		for (int id = 0; id < 1000; id++) {
+			int stringId = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "String", id));
+			int longId = widgetStatus.register(new WidgetStatusKey(ConnectionType.PRODUCER, "Long", id));
+			widgetStatus.addWidgetCount(stringId, 2);
+			widgetStatus.addWidgetCount(longId, 3);
+		}
+		widgetStatus.addWidgetCount(new WidgetStatusKey(ConnectionType.CONSUMER, "String", 1), 5);
+		Assert.assertEquals("Wrong String produced total", 2000,
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, "String"));
+		Assert.assertEquals("Wrong Long produced total", 3000,
+				widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, "Long"));
+		Assert.assertEquals("Wrong String consumed total", 5,
+				widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "String"));
+		Assert.assertEquals("Wrong count for one key", 3,
+				widgetStatus.getWidgetCount(new WidgetStatusKey(ConnectionType.PRODUCER, "Long", 999)));
+		Assert.assertEquals("Unregistered key has a count", 0,
+				widgetStatus.getWidgetCount(new WidgetStatusKey(ConnectionType.CONSUMER, "Long", 1)));
+	}
+
+	@Test
+	public void stopTimes() {
+		WidgetStatus widgetStatus = new WidgetStatus();
+		RunnableKey runnableKey = new RunnableKey(ConnectionType.CONSUMER, "Consumer", 3);
+		int runnableId = widgetStatus.register(runnableKey);
+		Assert.assertNull("Stop time before the Runnable stopped", widgetStatus.getStopTime(runnableKey));
+		ZonedDateTime stopTime = ZonedDateTime.now();
+		Assert.assertNull("Previous stop time on first put", widgetStatus.putStopTime(runnableId, stopTime));
+		Assert.assertTrue("Stop time changed on the way through",
+				stopTime.isEqual(widgetStatus.getStopTime(runnableKey)));
+		Assert.assertTrue("Stop time missing from the report", widgetStatus.toString().contains(runnableKey.toString()));
+	}
+
+}
@@ -0,0 +1,108 @@
+package widget;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import internals.ConnectionType;
+import internals.Connector;
+import internals.ConnectorSettings;
+import internals.Consumer;
+import internals.HandlerRegistry;
+import internals.RateSpec;
+import internals.StringProducer;
+import internals.TextBuffer;
+import internals.Widget;
+import internals.WidgetPool;
+import internals.WidgetStatus;
+
+public class WidgetPoolTest {
+
+	@SuppressWarnings("unused")
+	private static Logger logger = LoggerFactory.getLogger(WidgetPoolTest.class);
+
+	@Test
+	public void textBufferAppendsLikeAString() {
+		TextBuffer text = new TextBuffer(4);
+		for (long value : new long[] { 0, 7, -42, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+			text.clear().append("x").append(value).append(new StringBuilder("-y"));
+			String expected = "x" + value + "-y";
+			Assert.assertTrue("Wrong text for " + value + ": " + text, text.contentEquals(expected));
+			Assert.assertEquals("toString differs for " + value, expected, text.toString());
+		}
+		Assert.assertTrue("Buffer did not keep its grown capacity", text.capacity() >= 23);
+	}
+
+	@Test
+	public void pooledWidgetIsReused() {
+		WidgetPool pool = new WidgetPool(2, 16);
+		Widget<TextBuffer> first = pool.acquire(1L);
+		first.get().append("first");
+		first.recycle();
+		Widget<TextBuffer> second = pool.acquire(2L);
+		Assert.assertSame("Recycled Widget not reused", first, second);
+		Assert.assertEquals("Reused buffer not cleared", 0, second.get().length());
+		Assert.assertEquals("Reused Widget not restamped", 2L, second.getCreatedNanos());
+		Assert.assertEquals("Wrong created count", 1, pool.getCreated());
+		Assert.assertEquals("TextBuffer not counted as String", "String", second.getTypeName());
+		// plain Widgets have no pool to go back to
+		new Widget<>("plain").recycle();
+		Assert.assertEquals("Plain Widget entered the pool", 0, pool.size());
+	}
+
+	@Test
+	public void fullPoolLetsWidgetsGo() {
+		WidgetPool pool = new WidgetPool(2, 16);
+		Widget<?>[] widgets = { pool.acquire(0L), pool.acquire(0L), pool.acquire(0L) };
+		for (Widget<?> widget : widgets) {
+			widget.recycle();
+		}
+		Assert.assertEquals("Pool grew past its capacity", 2, pool.size());
+	}
+
+	@Test
+	public void pooledProducerFeedsConsumer() throws InterruptedException {
+		BlockingQueue<Widget<? extends Object>> queue = new LinkedBlockingQueue<>(16);
+		WidgetStatus widgetStatus = new WidgetStatus();
+		AtomicLong expected = new AtomicLong();
+		AtomicLong corrupt = new AtomicLong();
+		// a buffer refilled while queued would break the sequence
+		HandlerRegistry handlers = HandlerRegistry.builder().register(TextBuffer.class, widget -> {
+			String text = widget.get().toString();
+			if (!text.equals("String" + expected.getAndIncrement() + text.substring(text.indexOf('-')))) {
+				corrupt.incrementAndGet();
+			}
+		}).build();
+		ExecutorService consumerExecutor = Executors.newSingleThreadExecutor();
+		consumerExecutor.execute(new Consumer(queue, Connector.GENERAL_CONSUMER, widgetStatus,
+				ConnectorSettings.builder().rate(RateSpec.unthrottled()).batchSize(8).handlers(handlers).build()));
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		StringProducer producer = new StringProducer((BlockingQueue) queue, Connector.STRING_PRODUCER, widgetStatus,
+				ConnectorSettings.builder().rate(RateSpec.unthrottled()).stringPoolSize(64).build());
+		ExecutorService producerExecutor = Executors.newSingleThreadExecutor();
+		producerExecutor.execute(producer);
+		TimeUnit.MILLISECONDS.sleep(200);
+		producerExecutor.shutdownNow();
+		Assert.assertTrue("Producer did not stop", producerExecutor.awaitTermination(5, TimeUnit.SECONDS));
+		long produced = widgetStatus.getWidgetCountSummary(ConnectionType.PRODUCER, "String");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (widgetStatus.getWidgetCountSummary(ConnectionType.CONSUMER, "String") < produced) {
+			Assert.assertTrue("Consumer did not finish the queue", System.nanoTime() < deadline);
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		consumerExecutor.shutdownNow();
+		Assert.assertTrue("Consumer did not stop", consumerExecutor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertTrue("Nothing produced", produced > 0);
+		Assert.assertEquals("Pooled Widgets counted apart from String", produced, expected.get());
+		Assert.assertEquals("Buffers reused while still queued", 0, corrupt.get());
+	}
+
+}